@@ -0,0 +1,83 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.base;
+
+import com.licel.jcardsim.samples.HelloWorldApplet;
+import com.licel.jcardsim.utils.AIDUtil;
+import javacard.framework.AID;
+import javacard.framework.APDU;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-APDU cost of resetting the <code>APDU</code> object.
+ *
+ * <ul>
+ *     <li><code>reflectiveReset</code> - <code>Method.invoke</code> based reset (previous implementation)</li>
+ *     <li><code>accessorReset</code> - <code>APDUAccessor</code> based reset (current implementation)</li>
+ *     <li><code>transmitCommand</code> - complete NOP APDU, which includes two resets</li>
+ * </ul>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class APDUResetBenchmark {
+    private static final AID APPLET_AID = AIDUtil.create("010203040506070809");
+    private static final byte[] NOP = new byte[]{0x01, 0x02, 0x00, 0x00};
+
+    private SimulatorRuntime runtime;
+    private APDU apdu;
+    private Method reflectiveReset;
+    private byte[] response;
+
+    @Setup
+    public void setUp() throws Exception {
+        runtime = new SimulatorRuntime();
+        runtime.loadApplet(APPLET_AID, HelloWorldApplet.class);
+        runtime.installApplet(APPLET_AID, new byte[0], (short) 0, (byte) 0);
+        runtime.transmitCommand(AIDUtil.select(APPLET_AID));
+        apdu = runtime.shortAPDU;
+        response = new byte[258];
+
+        reflectiveReset = APDU.class.getDeclaredMethod("internalReset",
+                byte.class, byte[].class, int.class, int.class);
+        reflectiveReset.setAccessible(true);
+    }
+
+    @Benchmark
+    public APDU reflectiveReset() throws Exception {
+        reflectiveReset.invoke(apdu, runtime.currentProtocol, NOP, 0, NOP.length);
+        reflectiveReset.invoke(apdu, runtime.currentProtocol, null, 0, 0);
+        return apdu;
+    }
+
+    @Benchmark
+    public APDU accessorReset() {
+        runtime.resetAPDU(apdu, NOP, 0, NOP.length);
+        runtime.resetAPDU(apdu, null);
+        return apdu;
+    }
+
+    @Benchmark
+    public int transmitCommand() {
+        return runtime.transmitCommand(NOP, 0, NOP.length, response, 0);
+    }
+}
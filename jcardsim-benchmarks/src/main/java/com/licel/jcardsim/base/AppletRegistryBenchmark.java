@@ -0,0 +1,91 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.base;
+
+import com.licel.jcardsim.samples.HelloWorldApplet;
+import com.licel.jcardsim.utils.AIDUtil;
+import javacard.framework.AID;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Install/select heavy workload on <code>SimulatorRuntime</code>.
+ *
+ * <ul>
+ *     <li><code>installSelectReset</code> - install <code>instances</code> applets, SELECT each
+ *     of them once and reset the runtime</li>
+ *     <li><code>selectAll</code> - SELECT each of <code>instances</code> installed applets once</li>
+ * </ul>
+ *
+ * All AIDs share a long common prefix, the worst case for AID comparison.
+ * Run with <code>-prof gc</code> to see the allocation rate.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AppletRegistryBenchmark {
+    @Param({"16", "256"})
+    public int instances;
+
+    private Simulator simulator;
+    private Simulator installedSimulator;
+    private AID[] aids;
+    private byte[][] selectCommands;
+    private byte[] response;
+
+    @Setup
+    public void setUp() {
+        aids = new AID[instances];
+        selectCommands = new byte[instances][];
+        for (int i = 0; i < instances; i++) {
+            byte[] aid = new byte[]{(byte) 0xD2, 0x76, 0x00, 0x00, (byte) 0x85, 0x01, 0x01, 0x01,
+                    0x01, 0x01, 0x01, 0x01, 0x01, 0x01, (byte) (i >> 8), (byte) i};
+            aids[i] = AIDUtil.create(aid);
+            selectCommands[i] = AIDUtil.select(aids[i]);
+        }
+        response = new byte[258];
+
+        simulator = new Simulator(new SimulatorRuntime());
+        installedSimulator = new Simulator(new SimulatorRuntime());
+        for (AID aid : aids) {
+            installedSimulator.installApplet(aid, HelloWorldApplet.class);
+        }
+    }
+
+    @Benchmark
+    public Simulator installSelectReset() {
+        for (AID aid : aids) {
+            simulator.installApplet(aid, HelloWorldApplet.class);
+        }
+        for (byte[] selectCommand : selectCommands) {
+            simulator.transmitCommand(selectCommand, 0, selectCommand.length, response, 0);
+        }
+        simulator.resetRuntime();
+        return simulator;
+    }
+
+    @Benchmark
+    public byte[] selectAll() {
+        for (byte[] selectCommand : selectCommands) {
+            installedSimulator.transmitCommand(selectCommand, 0, selectCommand.length, response, 0);
+        }
+        return response;
+    }
+}
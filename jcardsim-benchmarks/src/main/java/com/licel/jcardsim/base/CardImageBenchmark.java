@@ -0,0 +1,117 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.base;
+
+import com.licel.jcardsim.samples.HelloWorldApplet;
+import com.licel.jcardsim.samples.Sha1Applet;
+import com.licel.jcardsim.utils.AIDUtil;
+import javacard.framework.AID;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Card start up: a card with <code>instances</code> applets, one of them selected.
+ *
+ * <ul>
+ *     <li><code>reinstall</code> - <code>resetRuntime</code>, install all applets and SELECT one</li>
+ *     <li><code>openAndRestore</code> - open the <code>CardImage</code> file, restore it and SELECT one applet</li>
+ *     <li><code>restore</code> - restore an open <code>CardImage</code> and SELECT one applet</li>
+ *     <li><code>restoreAndSelectAll</code> - restore an open <code>CardImage</code> and SELECT every applet</li>
+ *     <li><code>write</code> - write the card image file</li>
+ * </ul>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CardImageBenchmark {
+    @Param({"2", "256"})
+    public int instances;
+
+    private Simulator simulator;
+    private AID[] aids;
+    private byte[][] selectCommands;
+    private File file;
+    private CardImage image;
+
+    @Setup
+    public void setUp() throws IOException {
+        simulator = new Simulator(new SimulatorRuntime());
+        aids = new AID[instances];
+        selectCommands = new byte[instances][];
+        for (int i = 0; i < instances; i++) {
+            aids[i] = AIDUtil.create(new byte[]{(byte) 0xD2, 0x76, 0x00, 0x00, (byte) 0x85, 0x01, (byte) (i >> 8), (byte) i});
+            selectCommands[i] = AIDUtil.select(aids[i]);
+        }
+        install();
+        file = File.createTempFile("jcardsim", ".img");
+        simulator.writeCardImage(file);
+        image = CardImage.open(file);
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    private void install() {
+        for (int i = 0; i < instances; i++) {
+            simulator.installApplet(aids[i], i % 2 == 0 ? HelloWorldApplet.class : Sha1Applet.class);
+        }
+        TransmitCommandBenchmark.requireSuccess(simulator.transmitCommand(selectCommands[0]));
+    }
+
+    @Benchmark
+    public Simulator reinstall() {
+        simulator.resetRuntime();
+        install();
+        return simulator;
+    }
+
+    @Benchmark
+    public Simulator openAndRestore() throws IOException {
+        simulator.restore(CardImage.open(file));
+        TransmitCommandBenchmark.requireSuccess(simulator.transmitCommand(selectCommands[0]));
+        return simulator;
+    }
+
+    @Benchmark
+    public Simulator restore() {
+        simulator.restore(image);
+        TransmitCommandBenchmark.requireSuccess(simulator.transmitCommand(selectCommands[0]));
+        return simulator;
+    }
+
+    @Benchmark
+    public Simulator restoreAndSelectAll() {
+        simulator.restore(image);
+        for (byte[] selectCommand : selectCommands) {
+            TransmitCommandBenchmark.requireSuccess(simulator.transmitCommand(selectCommand));
+        }
+        return simulator;
+    }
+
+    @Benchmark
+    public File write() throws IOException {
+        simulator.writeCardImage(file);
+        return file;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.base;
+
+import com.licel.jcardsim.samples.HelloWorldApplet;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * APDU dispatch through <code>CardManager.dispatchApdu</code> and a <code>Simulator</code>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CardManagerBenchmark {
+    private Simulator simulator;
+    private ByteBuffer command;
+    private ByteBuffer response;
+
+    @Setup
+    public void setUp() {
+        simulator = new Simulator(new SimulatorRuntime());
+        simulator.installApplet(TransmitCommandBenchmark.HELLO_WORLD_AID, HelloWorldApplet.class);
+        simulator.selectApplet(TransmitCommandBenchmark.HELLO_WORLD_AID);
+        command = ByteBuffer.wrap(TransmitCommandBenchmark.SAY_HELLO);
+        response = ByteBuffer.allocate(258);
+    }
+
+    @Benchmark
+    public byte[] dispatchNop() {
+        return CardManager.dispatchApdu(simulator, TransmitCommandBenchmark.NOP);
+    }
+
+    @Benchmark
+    public byte[] dispatchSayHello() {
+        return CardManager.dispatchApdu(simulator, TransmitCommandBenchmark.SAY_HELLO);
+    }
+
+    @Benchmark
+    public int dispatchSayHelloByteBuffer() {
+        command.rewind();
+        response.clear();
+        return CardManager.dispatchApdu(simulator, command, response);
+    }
+}
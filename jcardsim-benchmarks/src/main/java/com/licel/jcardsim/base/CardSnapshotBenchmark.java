@@ -0,0 +1,98 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.base;
+
+import com.licel.jcardsim.samples.HelloWorldApplet;
+import com.licel.jcardsim.samples.Sha1Applet;
+import com.licel.jcardsim.utils.AIDUtil;
+import javacard.framework.AID;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Test fixture setup: a card with <code>instances</code> applets, one of them selected.
+ *
+ * <ul>
+ *     <li><code>reinstall</code> - <code>resetRuntime</code>, install all applets and SELECT one</li>
+ *     <li><code>restore</code> - restore a <code>CardSnapshot</code> and SELECT one applet</li>
+ *     <li><code>restoreAndSelectAll</code> - restore a <code>CardSnapshot</code> and SELECT every applet</li>
+ *     <li><code>snapshot</code> - capture a <code>CardSnapshot</code></li>
+ * </ul>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CardSnapshotBenchmark {
+    @Param({"2", "64"})
+    public int instances;
+
+    private Simulator simulator;
+    private AID[] aids;
+    private byte[][] selectCommands;
+    private CardSnapshot snapshot;
+
+    @Setup
+    public void setUp() {
+        simulator = new Simulator(new SimulatorRuntime());
+        aids = new AID[instances];
+        selectCommands = new byte[instances][];
+        for (int i = 0; i < instances; i++) {
+            aids[i] = AIDUtil.create(new byte[]{(byte) 0xD2, 0x76, 0x00, 0x00, (byte) 0x85, 0x01, (byte) i});
+            selectCommands[i] = AIDUtil.select(aids[i]);
+        }
+        install();
+        snapshot = simulator.snapshot();
+    }
+
+    private void install() {
+        for (int i = 0; i < instances; i++) {
+            simulator.installApplet(aids[i], i % 2 == 0 ? HelloWorldApplet.class : Sha1Applet.class);
+        }
+        TransmitCommandBenchmark.requireSuccess(simulator.transmitCommand(selectCommands[0]));
+    }
+
+    @Benchmark
+    public Simulator reinstall() {
+        simulator.resetRuntime();
+        install();
+        return simulator;
+    }
+
+    @Benchmark
+    public Simulator restore() {
+        simulator.restore(snapshot);
+        TransmitCommandBenchmark.requireSuccess(simulator.transmitCommand(selectCommands[0]));
+        return simulator;
+    }
+
+    @Benchmark
+    public Simulator restoreAndSelectAll() {
+        simulator.restore(snapshot);
+        for (byte[] selectCommand : selectCommands) {
+            TransmitCommandBenchmark.requireSuccess(simulator.transmitCommand(selectCommand));
+        }
+        return simulator;
+    }
+
+    @Benchmark
+    public CardSnapshot snapshot() {
+        return simulator.snapshot();
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.base;
+
+import com.licel.jcardsim.samples.HelloWorldApplet;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Card sessions per second through <code>SessionExecutor</code>, <code>SESSIONS</code>
+ * concurrent sessions per invocation.
+ *
+ * <ul>
+ *     <li>Each session creates its simulator, installs and selects <code>HelloWorldApplet</code>
+ *     and sends <code>NOP</code>s, pausing <code>thinkMicros</code> before the last one like a
+ *     terminal waiting for I/O.</li>
+ *     <li><code>executor</code>: <code>auto</code> uses <code>SessionExecutor.create</code>,
+ *     one virtual thread per session where supported (JDK 21+, see the VM version in the
+ *     JMH header), else <code>poolThreads</code> platform threads; <code>pool</code> always
+ *     uses <code>poolThreads</code> platform threads.</li>
+ * </ul>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class SessionExecutorBenchmark {
+    static final int SESSIONS = 10000;
+    static final int COMMANDS = 4;
+
+    @State(Scope.Benchmark)
+    public static class ExecutorState {
+        @Param({"auto", "pool"})
+        public String executor;
+
+        @Param({"64"})
+        public int poolThreads;
+
+        @Param({"0", "1000"})
+        public int thinkMicros;
+
+        SessionExecutor sessionExecutor;
+        SessionExecutor.Session<Integer> session;
+
+        @Setup
+        public void setUp() {
+            Properties properties = new Properties();
+            properties.setProperty("com.licel.jcardsim.card.applet.0.AID", "010203040506070809");
+            properties.setProperty("com.licel.jcardsim.card.applet.0.Class", HelloWorldApplet.class.getName());
+            if ("auto".equals(executor)) {
+                sessionExecutor = SessionExecutor.create(properties, poolThreads);
+            } else {
+                sessionExecutor = new SessionExecutor(Executors.newFixedThreadPool(poolThreads), properties);
+            }
+            final long thinkNanos = TimeUnit.MICROSECONDS.toNanos(thinkMicros);
+            session = new SessionExecutor.Session<Integer>() {
+                public Integer run(Simulator simulator) {
+                    byte[] response = new byte[258];
+                    simulator.createApplet(TransmitCommandBenchmark.HELLO_WORLD_AID, new byte[0], (short) 0, (byte) 0);
+                    TransmitCommandBenchmark.requireSuccess(
+                            simulator.selectAppletWithResult(TransmitCommandBenchmark.HELLO_WORLD_AID));
+                    int length = 0;
+                    for (int i = 0; i < COMMANDS; i++) {
+                        if (thinkNanos > 0 && i == COMMANDS - 1) {
+                            LockSupport.parkNanos(thinkNanos);
+                        }
+                        byte[] nop = TransmitCommandBenchmark.NOP;
+                        length += simulator.transmitCommand(nop, 0, nop.length, response, 0);
+                    }
+                    return length;
+                }
+            };
+        }
+
+        @TearDown
+        public void tearDown() throws InterruptedException {
+            sessionExecutor.shutdown();
+            sessionExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SESSIONS)
+    public int sessions(ExecutorState state) throws Exception {
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>(SESSIONS);
+        for (int i = 0; i < SESSIONS; i++) {
+            results.add(state.sessionExecutor.submit(state.session));
+        }
+        int length = 0;
+        for (Future<Integer> result : results) {
+            length += result.get();
+        }
+        return length;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.base;
+
+import com.licel.jcardsim.samples.HelloWorldApplet;
+import com.licel.jcardsim.utils.AIDUtil;
+import javacard.framework.AID;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <code>Simulator</code> under concurrent use.
+ *
+ * <ul>
+ *     <li><code>ownRuntime*</code> - every thread sends <code>NOP</code>s to its own simulator and runtime,
+ *     compare the 1 and 4 thread scores for scaling</li>
+ *     <li><code>sharedCard</code> group - one thread sends <code>NOP</code>s while others poll
+ *     <code>getATR</code>/<code>getProtocol</code> or create and delete an applet on the same simulator</li>
+ * </ul>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimulatorConcurrencyBenchmark {
+    static final byte[] NOP = TransmitCommandBenchmark.NOP;
+    static final AID ADMIN_AID = AIDUtil.create("0102030405060708FF");
+
+    static Simulator createSimulator() {
+        Simulator simulator = new Simulator(new SimulatorRuntime());
+        simulator.installApplet(TransmitCommandBenchmark.HELLO_WORLD_AID, HelloWorldApplet.class);
+        TransmitCommandBenchmark.requireSuccess(
+                simulator.selectAppletWithResult(TransmitCommandBenchmark.HELLO_WORLD_AID));
+        return simulator;
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        Simulator simulator;
+        byte[] response = new byte[258];
+
+        @Setup
+        public void setUp() {
+            simulator = createSimulator();
+        }
+    }
+
+    @State(Scope.Group)
+    public static class GroupState {
+        Simulator simulator;
+
+        @Setup
+        public void setUp() {
+            simulator = createSimulator();
+            simulator.loadApplet(ADMIN_AID, HelloWorldApplet.class);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ResponseState {
+        byte[] response = new byte[258];
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int ownRuntime1Thread(ThreadState state) {
+        return state.simulator.transmitCommand(NOP, 0, NOP.length, state.response, 0);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int ownRuntime4Threads(ThreadState state) {
+        return state.simulator.transmitCommand(NOP, 0, NOP.length, state.response, 0);
+    }
+
+    @Benchmark
+    @Group("sharedCard")
+    @GroupThreads(1)
+    public int transmit(GroupState state, ResponseState response) {
+        return state.simulator.transmitCommand(NOP, 0, NOP.length, response.response, 0);
+    }
+
+    @Benchmark
+    @Group("sharedCard")
+    @GroupThreads(2)
+    public int readInfo(GroupState state) {
+        return state.simulator.getATR().length + state.simulator.getProtocol().length();
+    }
+
+    @Benchmark
+    @Group("sharedCard")
+    @GroupThreads(1)
+    public void createDelete(GroupState state) {
+        state.simulator.createApplet(ADMIN_AID, new byte[0], (short) 0, (byte) 0);
+        state.simulator.deleteApplet(ADMIN_AID);
+    }
+}
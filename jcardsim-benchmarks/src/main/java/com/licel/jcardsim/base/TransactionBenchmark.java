@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.base;
+
+import javacard.framework.Util;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <code>Util.arrayCopy</code> of <code>length</code> bytes into a persistent array.
+ *
+ * <ul>
+ *     <li><code>systemArraycopy</code> - <code>System.arraycopy</code> as baseline</li>
+ *     <li><code>arrayCopy</code> - no transaction in progress</li>
+ *     <li><code>arrayCopyNonAtomic</code> - <code>Util.arrayCopyNonAtomic</code></li>
+ *     <li><code>transactionCommit</code>/<code>transactionAbort</code> - <code>arrayCopy</code>
+ *     in a transaction which is committed or rolled back</li>
+ * </ul>
+ *
+ * Run with <code>-prof gc</code> to see that none of them allocate.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TransactionBenchmark {
+    @Param({"16", "256"})
+    public short length;
+
+    private SimulatorRuntime runtime;
+    private byte[] src;
+    private byte[] dest;
+
+    @Setup
+    public void setUp() {
+        runtime = new SimulatorRuntime();
+        // make the runtime current on this thread
+        runtime.resetRuntime();
+        src = new byte[length];
+        dest = new byte[length];
+    }
+
+    @Benchmark
+    public byte[] systemArraycopy() {
+        System.arraycopy(src, 0, dest, 0, length);
+        return dest;
+    }
+
+    @Benchmark
+    public short arrayCopy() {
+        return Util.arrayCopy(src, (short) 0, dest, (short) 0, length);
+    }
+
+    @Benchmark
+    public short arrayCopyNonAtomic() {
+        return Util.arrayCopyNonAtomic(src, (short) 0, dest, (short) 0, length);
+    }
+
+    @Benchmark
+    public short transactionCommit() {
+        runtime.beginTransaction();
+        short result = Util.arrayCopy(src, (short) 0, dest, (short) 0, length);
+        runtime.commitTransaction();
+        return result;
+    }
+
+    @Benchmark
+    public short transactionAbort() {
+        runtime.beginTransaction();
+        short result = Util.arrayCopy(src, (short) 0, dest, (short) 0, length);
+        runtime.abortTransaction();
+        return result;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.base;
+
+import com.licel.jcardsim.utils.AIDUtil;
+import javacard.framework.AID;
+import javacard.framework.APDU;
+import javacard.framework.Applet;
+import javacard.framework.ISOException;
+import javacard.framework.JCSystem;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <code>TransientMemory</code> with <code>liveArrays</code> registered arrays
+ * of each event type.
+ *
+ * <ul>
+ *     <li><code>isTransient</code> - lookup of a registered array</li>
+ *     <li><code>isTransientMiss</code> - lookup of a persistent array</li>
+ *     <li><code>makeByteArray</code> - create a short-lived transient array</li>
+ *     <li><code>clearOnDeselect</code> - zero all <code>CLEAR_ON_DESELECT</code> arrays</li>
+ *     <li><code>transmitGarbage</code> - APDU to an applet which creates transient arrays
+ *     per call, fails at the end of the trial if the registry still holds them after
+ *     garbage collection</li>
+ * </ul>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TransientMemoryBenchmark {
+    @Param({"16", "4096"})
+    public int liveArrays;
+
+    private TransientMemory transientMemory;
+    private Object[] arrays;
+    private byte[] persistent;
+    private int next;
+
+    /**
+     * Applet selected on its own runtime, creates two short-lived transient arrays per APDU
+     */
+    @State(Scope.Thread)
+    public static class GarbageCard {
+        private static final AID APPLET_AID = AIDUtil.create("0102030405");
+        private static final byte[] COMMAND = new byte[]{(byte) 0x80, 0, 0, 0};
+
+        private Simulator simulator;
+        private TransientMemory transientMemory;
+        private byte[] response;
+
+        @Setup
+        public void setUp() {
+            SimulatorRuntime runtime = new SimulatorRuntime();
+            simulator = new Simulator(runtime);
+            simulator.installApplet(APPLET_AID, GarbageApplet.class);
+            simulator.selectApplet(APPLET_AID);
+            transientMemory = runtime.getTransientMemory();
+            response = new byte[2];
+        }
+
+        @TearDown
+        public void checkArraysAreDropped() {
+            for (int i = 0; i < 10 && transientMemory.arrays.size() > 1000; i++) {
+                System.gc();
+            }
+            if (transientMemory.arrays.size() > 1000) {
+                throw new IllegalStateException("Unreachable transient arrays are not dropped: "
+                        + transientMemory.arrays.size());
+            }
+        }
+    }
+
+    public static class GarbageApplet extends Applet {
+        public static void install(byte[] bArray, short bOffset, byte bLength) {
+            new GarbageApplet().register();
+        }
+
+        @Override
+        public void process(APDU apdu) throws ISOException {
+            // like ByteContainer.getBytes(byte), creates a transient array per call
+            JCSystem.makeTransientByteArray((short) 32, JCSystem.CLEAR_ON_DESELECT);
+            JCSystem.makeTransientShortArray((short) 8, JCSystem.CLEAR_ON_RESET);
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        transientMemory = new TransientMemory();
+        arrays = new Object[liveArrays * 2];
+        for (int i = 0; i < liveArrays; i++) {
+            arrays[2 * i] = transientMemory.makeByteArray(16, JCSystem.CLEAR_ON_DESELECT);
+            arrays[2 * i + 1] = transientMemory.makeByteArray(16, JCSystem.CLEAR_ON_RESET);
+        }
+        persistent = new byte[16];
+    }
+
+    @Benchmark
+    public byte isTransient() {
+        Object array = arrays[next];
+        next = (next + 1) % arrays.length;
+        return transientMemory.isTransient(array);
+    }
+
+    @Benchmark
+    public byte isTransientMiss() {
+        return transientMemory.isTransient(persistent);
+    }
+
+    @Benchmark
+    public byte[] makeByteArray() {
+        return transientMemory.makeByteArray(16, JCSystem.CLEAR_ON_DESELECT);
+    }
+
+    @Benchmark
+    public TransientMemory clearOnDeselect() {
+        transientMemory.clearOnDeselect();
+        return transientMemory;
+    }
+
+    @Benchmark
+    public int transmitGarbage(GarbageCard card) {
+        return card.simulator.transmitCommand(GarbageCard.COMMAND, 0, GarbageCard.COMMAND.length, card.response, 0);
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.base;
+
+import com.licel.jcardsim.samples.HelloWorldApplet;
+import com.licel.jcardsim.samples.MultiInstanceApplet;
+import com.licel.jcardsim.samples.Sha1Applet;
+import com.licel.jcardsim.utils.AIDUtil;
+import javacard.framework.AID;
+import javacard.framework.ISO7816;
+import javacard.framework.Util;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * APDU dispatch through <code>SimulatorRuntime.transmitCommand</code>.
+ *
+ * <ul>
+ *     <li><code>select*</code> - SELECT by AID, with <code>instances</code> additional
+ *     <code>MultiInstanceApplet</code> instances installed</li>
+ *     <li><code>helloWorld*</code> - short APDUs to <code>HelloWorldApplet</code></li>
+ *     <li><code>sha1*</code> - short and extended (<code>ExtendedLength</code>) APDUs
+ *     to <code>Sha1Applet</code></li>
+ * </ul>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransmitCommandBenchmark {
+    static final AID HELLO_WORLD_AID = AIDUtil.create("010203040506070809");
+    static final AID SHA1_AID = AIDUtil.create("0102030405cafe01");
+    static final byte[] NOP = new byte[]{0x01, 0x02, 0x00, 0x00};
+    static final byte[] SAY_HELLO = new byte[]{0x01, 0x01, 0x00, 0x00};
+
+    private static final byte SHA1_CLA = (byte) 0x80;
+    private static final byte SHA1_INS_DIGEST = 0;
+    private static final byte SHA1_INS_ECHO = 2;
+
+    static AID multiInstanceAid(int index) {
+        byte[] aid = new byte[]{(byte) 0xD2, 0x76, 0x00, 0x00, (byte) 0x85, 0x01, 0x00, 0x00};
+        Util.setShort(aid, (short) 6, (short) index);
+        return AIDUtil.create(aid);
+    }
+
+    static byte[] shortApdu(byte cla, byte ins, int payloadSize) {
+        byte[] apdu = new byte[5 + payloadSize + 1];
+        apdu[0] = cla;
+        apdu[1] = ins;
+        apdu[4] = (byte) payloadSize;
+        return apdu;
+    }
+
+    static byte[] extendedApdu(byte cla, byte ins, int payloadSize) {
+        byte[] apdu = new byte[7 + payloadSize + 2];
+        apdu[0] = cla;
+        apdu[1] = ins;
+        Util.setShort(apdu, (short) 5, (short) payloadSize);
+        return apdu;
+    }
+
+    static void requireSuccess(byte[] response) {
+        if (Util.getShort(response, (short) (response.length - 2)) != ISO7816.SW_NO_ERROR) {
+            throw new IllegalStateException("Benchmark APDU failed");
+        }
+    }
+
+    static SimulatorRuntime createRuntime(int multiInstances) {
+        SimulatorRuntime runtime = new SimulatorRuntime();
+        runtime.resetRuntime();
+        runtime.loadApplet(HELLO_WORLD_AID, HelloWorldApplet.class);
+        runtime.installApplet(HELLO_WORLD_AID, new byte[0], (short) 0, (byte) 0);
+        runtime.loadApplet(SHA1_AID, Sha1Applet.class);
+        runtime.installApplet(SHA1_AID, new byte[0], (short) 0, (byte) 0);
+        for (int i = 0; i < multiInstances; i++) {
+            AID aid = multiInstanceAid(i);
+            runtime.loadApplet(aid, MultiInstanceApplet.class);
+            runtime.installApplet(aid, new byte[0], (short) 0, (byte) 0);
+        }
+        return runtime;
+    }
+
+    @State(Scope.Thread)
+    public static class SelectState {
+        @Param({"0", "16", "256"})
+        public int instances;
+
+        SimulatorRuntime runtime;
+        byte[] selectHelloWorld;
+        byte[] selectLastInstance;
+        byte[] response = new byte[258];
+
+        @Setup
+        public void setUp() {
+            runtime = createRuntime(instances);
+            selectHelloWorld = AIDUtil.select(HELLO_WORLD_AID);
+            selectLastInstance = AIDUtil.select(instances == 0 ? SHA1_AID : multiInstanceAid(instances - 1));
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class HelloWorldState {
+        SimulatorRuntime runtime;
+        byte[] response = new byte[258];
+
+        @Setup
+        public void setUp() {
+            runtime = createRuntime(0);
+            requireSuccess(runtime.transmitCommand(AIDUtil.select(HELLO_WORLD_AID)));
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Sha1State {
+        @Param({"16", "128"})
+        public int payloadSize;
+
+        SimulatorRuntime runtime;
+        byte[] shortEcho;
+        byte[] extendedEcho;
+        byte[] shortDigest;
+        byte[] extendedDigest;
+        byte[] response = new byte[Short.MAX_VALUE + 2];
+
+        @Setup
+        public void setUp() {
+            runtime = createRuntime(0);
+            requireSuccess(runtime.transmitCommand(AIDUtil.select(SHA1_AID)));
+            shortEcho = shortApdu(SHA1_CLA, SHA1_INS_ECHO, payloadSize);
+            extendedEcho = extendedApdu(SHA1_CLA, SHA1_INS_ECHO, payloadSize);
+            shortDigest = shortApdu(SHA1_CLA, SHA1_INS_DIGEST, payloadSize);
+            extendedDigest = extendedApdu(SHA1_CLA, SHA1_INS_DIGEST, payloadSize);
+            requireSuccess(runtime.transmitCommand(shortEcho));
+            requireSuccess(runtime.transmitCommand(extendedEcho));
+        }
+    }
+
+    @Benchmark
+    public int selectFirst(SelectState state) {
+        return state.runtime.transmitCommand(state.selectHelloWorld, 0, state.selectHelloWorld.length,
+                state.response, 0);
+    }
+
+    @Benchmark
+    public int selectLast(SelectState state) {
+        return state.runtime.transmitCommand(state.selectLastInstance, 0, state.selectLastInstance.length,
+                state.response, 0);
+    }
+
+    @Benchmark
+    public byte[] helloWorldNopAllocating(HelloWorldState state) {
+        return state.runtime.transmitCommand(NOP);
+    }
+
+    @Benchmark
+    public int helloWorldNop(HelloWorldState state) {
+        return state.runtime.transmitCommand(NOP, 0, NOP.length, state.response, 0);
+    }
+
+    @Benchmark
+    public int helloWorldSayHello(HelloWorldState state) {
+        return state.runtime.transmitCommand(SAY_HELLO, 0, SAY_HELLO.length, state.response, 0);
+    }
+
+    @Benchmark
+    public int sha1ShortEcho(Sha1State state) {
+        return state.runtime.transmitCommand(state.shortEcho, 0, state.shortEcho.length, state.response, 0);
+    }
+
+    @Benchmark
+    public int sha1ExtendedEcho(Sha1State state) {
+        return state.runtime.transmitCommand(state.extendedEcho, 0, state.extendedEcho.length, state.response, 0);
+    }
+
+    @Benchmark
+    public int sha1ShortDigest(Sha1State state) {
+        return state.runtime.transmitCommand(state.shortDigest, 0, state.shortDigest.length, state.response, 0);
+    }
+
+    @Benchmark
+    public int sha1ExtendedDigest(Sha1State state) {
+        return state.runtime.transmitCommand(state.extendedDigest, 0, state.extendedDigest.length,
+                state.response, 0);
+    }
+}
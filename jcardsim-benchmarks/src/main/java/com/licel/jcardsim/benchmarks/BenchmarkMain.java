@@ -0,0 +1,78 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Entry point of <code>benchmarks.jar</code>.
+ *
+ * Accepts the regular JMH command line options. Unless <code>-rf</code>/<code>-rff</code>
+ * are given, results are written as JSON to <code>target/jcardsim-&lt;version&gt;.json</code>,
+ * next to <code>benchmarks.jar</code>, so runs of different releases can be compared.
+ */
+public final class BenchmarkMain {
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        if (commandLineOptions.shouldHelp()) {
+            commandLineOptions.showHelp();
+            return;
+        }
+        if (commandLineOptions.shouldList() || commandLineOptions.shouldListWithParams()
+                || commandLineOptions.shouldListProfilers() || commandLineOptions.shouldListResultFormats()) {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+
+        OptionsBuilder options = new OptionsBuilder();
+        options.parent(commandLineOptions);
+        if (!commandLineOptions.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON);
+        }
+        if (!commandLineOptions.getResult().hasValue()) {
+            options.result(getDefaultResultFile());
+        }
+        new Runner(options.build()).run();
+    }
+
+    /**
+     * @return result file in the directory of <code>benchmarks.jar</code> (or of the classes)
+     */
+    private static String getDefaultResultFile() throws Exception {
+        File location = new File(BenchmarkMain.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        return new File(location.getParentFile(), "jcardsim-" + getVersion() + ".json").getPath();
+    }
+
+    private static String getVersion() throws Exception {
+        Properties properties = new Properties();
+        InputStream is = BenchmarkMain.class.getResourceAsStream("/jcardsim-benchmarks.properties");
+        try {
+            properties.load(is);
+        } finally {
+            is.close();
+        }
+        return properties.getProperty("jcardsim.version", "unknown");
+    }
+
+    private BenchmarkMain() {}
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.crypto;
+
+import javacard.security.Key;
+import javacard.security.KeyPair;
+import javacardx.crypto.Cipher;
+import org.bouncycastle.crypto.AsymmetricBlockCipher;
+import org.bouncycastle.crypto.CipherParameters;
+import org.bouncycastle.crypto.InvalidCipherTextException;
+import org.bouncycastle.crypto.encodings.PKCS1Encoding;
+import org.bouncycastle.crypto.engines.RSAEngine;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <code>AsymmetricCipherImpl</code> (RSA) compared to the equivalent BouncyCastle
+ * <code>AsymmetricBlockCipher</code>.
+ *
+ * <ul>
+ *     <li><code>init</code> - <code>Cipher.init</code> with the public key</li>
+ *     <li><code>encrypt</code>/<code>decrypt</code> - <code>init</code> followed by <code>doFinal</code>
+ *     of one block, the private key is a CRT key</li>
+ *     <li><code>bc*</code> - same operation with BouncyCastle and pre-built key parameters</li>
+ * </ul>
+ *
+ * Run with <code>-prof gc</code> to see the allocation rate.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AsymmetricCipherBenchmark {
+    @Param({"ALG_RSA_NOPAD", "ALG_RSA_PKCS1"})
+    public String algorithm;
+
+    @Param({"1024", "2048"})
+    public short keySize;
+
+    private Cipher cipher;
+    private Key publicKey;
+    private Key privateKey;
+    private AsymmetricBlockCipher bcCipher;
+    private CipherParameters bcPublicKey;
+    private CipherParameters bcPrivateKey;
+    private byte[] plainText;
+    private byte[] cipherText;
+    private byte[] output;
+
+    @Setup
+    public void setUp() {
+        byte algorithmId = CryptoBenchmarks.algorithm(Cipher.class, algorithm);
+        KeyPair keyPair = new KeyPair(KeyPair.ALG_RSA_CRT, keySize);
+        keyPair.genKeyPair();
+        publicKey = keyPair.getPublic();
+        privateKey = keyPair.getPrivate();
+        cipher = Cipher.getInstance(algorithmId, false);
+
+        bcCipher = algorithmId == Cipher.ALG_RSA_PKCS1 ? new PKCS1Encoding(new RSAEngine()) : new RSAEngine();
+        bcPublicKey = ((KeyWithParameters) publicKey).getParameters();
+        bcPrivateKey = ((KeyWithParameters) privateKey).getParameters();
+
+        // one full input block, kept smaller than the modulus for NOPAD
+        bcCipher.init(true, bcPublicKey);
+        plainText = new byte[bcCipher.getInputBlockSize()];
+        new Random(keySize).nextBytes(plainText);
+        plainText[0] = 0;
+        output = new byte[keySize / 8];
+        cipher.init(publicKey, Cipher.MODE_ENCRYPT);
+        short length = cipher.doFinal(plainText, (short) 0, (short) plainText.length, output, (short) 0);
+        cipherText = new byte[length];
+        System.arraycopy(output, 0, cipherText, 0, length);
+    }
+
+    @Benchmark
+    public Cipher init() {
+        cipher.init(publicKey, Cipher.MODE_ENCRYPT);
+        return cipher;
+    }
+
+    @Benchmark
+    public AsymmetricBlockCipher bcInit() {
+        bcCipher.init(true, bcPublicKey);
+        return bcCipher;
+    }
+
+    @Benchmark
+    public short encrypt() {
+        cipher.init(publicKey, Cipher.MODE_ENCRYPT);
+        return cipher.doFinal(plainText, (short) 0, (short) plainText.length, output, (short) 0);
+    }
+
+    @Benchmark
+    public byte[] bcEncrypt() throws InvalidCipherTextException {
+        bcCipher.init(true, bcPublicKey);
+        return bcCipher.processBlock(plainText, 0, plainText.length);
+    }
+
+    @Benchmark
+    public short decrypt() {
+        cipher.init(privateKey, Cipher.MODE_DECRYPT);
+        return cipher.doFinal(cipherText, (short) 0, (short) cipherText.length, output, (short) 0);
+    }
+
+    @Benchmark
+    public byte[] bcDecrypt() throws InvalidCipherTextException {
+        bcCipher.init(false, bcPrivateKey);
+        return bcCipher.processBlock(cipherText, 0, cipherText.length);
+    }
+}
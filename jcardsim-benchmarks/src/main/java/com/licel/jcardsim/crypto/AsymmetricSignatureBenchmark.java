@@ -0,0 +1,168 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.crypto;
+
+import javacard.security.Key;
+import javacard.security.KeyBuilder;
+import javacard.security.KeyPair;
+import javacard.security.Signature;
+import org.bouncycastle.crypto.CipherParameters;
+import org.bouncycastle.crypto.CryptoException;
+import org.bouncycastle.crypto.Signer;
+import org.bouncycastle.crypto.digests.MD5Digest;
+import org.bouncycastle.crypto.digests.RIPEMD160Digest;
+import org.bouncycastle.crypto.digests.SHA1Digest;
+import org.bouncycastle.crypto.engines.RSAEngine;
+import org.bouncycastle.crypto.signers.DSADigestSigner;
+import org.bouncycastle.crypto.signers.ECDSASigner;
+import org.bouncycastle.crypto.signers.ISO9796d2Signer;
+import org.bouncycastle.crypto.signers.RSADigestSigner;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <code>AsymmetricSignatureImpl</code> compared to the equivalent BouncyCastle <code>Signer</code>.
+ *
+ * <p>RSA signatures use a 2048 bit CRT key, ECDSA uses secp256r1.
+ * <code>ALG_RSA_SHA_ISO9796_MR</code> is not included, it only supports the
+ * <code>SignatureMessageRecovery</code> API.</p>
+ *
+ * <ul>
+ *     <li><code>init</code> - <code>Signature.init</code> with the private key</li>
+ *     <li><code>sign</code>/<code>verify</code> - signature of <code>payloadSize</code> bytes</li>
+ *     <li><code>bc*</code> - same operation on a reused BouncyCastle signer</li>
+ * </ul>
+ *
+ * Run with <code>-prof gc</code> to see the allocation rate.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AsymmetricSignatureBenchmark {
+    @Param({"ALG_RSA_SHA_ISO9796", "ALG_RSA_SHA_PKCS1", "ALG_RSA_MD5_PKCS1",
+            "ALG_RSA_RIPEMD160_ISO9796", "ALG_RSA_RIPEMD160_PKCS1", "ALG_ECDSA_SHA"})
+    public String algorithm;
+
+    private Key privateKey;
+    private Signature signer;
+    private Signature verifier;
+    private Signer bcSigner;
+    private Signer bcVerifier;
+    private CipherParameters bcPrivateKey;
+
+    /**
+     * Signature of the payload, input of the <code>verify</code> benchmarks
+     */
+    @State(Scope.Thread)
+    public static class SignedPayload {
+        byte[] signature;
+
+        @Setup
+        public void setUp(AsymmetricSignatureBenchmark benchmark, Payload payload) throws CryptoException {
+            Signer signer = benchmark.bcSigner;
+            signer.update(payload.data, 0, payload.payloadSize);
+            signature = signer.generateSignature();
+            signer.reset();
+            if (!benchmark.verifier.verify(payload.data, (short) 0, (short) payload.payloadSize,
+                    signature, (short) 0, (short) signature.length)) {
+                throw new IllegalStateException("Signature verification failed");
+            }
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        byte algorithmId = CryptoBenchmarks.algorithm(Signature.class, algorithm);
+        KeyPair keyPair = algorithmId == Signature.ALG_ECDSA_SHA
+                ? new KeyPair(KeyPair.ALG_EC_FP, KeyBuilder.LENGTH_EC_FP_256)
+                : new KeyPair(KeyPair.ALG_RSA_CRT, KeyBuilder.LENGTH_RSA_2048);
+        keyPair.genKeyPair();
+        privateKey = keyPair.getPrivate();
+
+        signer = Signature.getInstance(algorithmId, false);
+        signer.init(privateKey, Signature.MODE_SIGN);
+        verifier = Signature.getInstance(algorithmId, false);
+        verifier.init(keyPair.getPublic(), Signature.MODE_VERIFY);
+
+        bcPrivateKey = ((KeyWithParameters) privateKey).getParameters();
+        bcSigner = createSigner(algorithmId);
+        bcSigner.init(true, bcPrivateKey);
+        bcVerifier = createSigner(algorithmId);
+        bcVerifier.init(false, ((KeyWithParameters) keyPair.getPublic()).getParameters());
+    }
+
+    static Signer createSigner(byte algorithm) {
+        switch (algorithm) {
+            case Signature.ALG_RSA_SHA_ISO9796:
+                return new ISO9796d2Signer(new RSAEngine(), new SHA1Digest());
+            case Signature.ALG_RSA_SHA_PKCS1:
+                return new RSADigestSigner(new SHA1Digest());
+            case Signature.ALG_RSA_MD5_PKCS1:
+                return new RSADigestSigner(new MD5Digest());
+            case Signature.ALG_RSA_RIPEMD160_ISO9796:
+                return new ISO9796d2Signer(new RSAEngine(), new RIPEMD160Digest());
+            case Signature.ALG_RSA_RIPEMD160_PKCS1:
+                return new RSADigestSigner(new RIPEMD160Digest());
+            case Signature.ALG_ECDSA_SHA:
+                return new DSADigestSigner(new ECDSASigner(), new SHA1Digest());
+            default:
+                throw new IllegalArgumentException("Unsupported algorithm " + algorithm);
+        }
+    }
+
+    @Benchmark
+    public Signature init() {
+        signer.init(privateKey, Signature.MODE_SIGN);
+        return signer;
+    }
+
+    @Benchmark
+    public Signer bcInit() {
+        bcSigner.init(true, bcPrivateKey);
+        return bcSigner;
+    }
+
+    @Benchmark
+    public short sign(Payload payload) {
+        return signer.sign(payload.data, (short) 0, (short) payload.payloadSize, payload.output, (short) 0);
+    }
+
+    @Benchmark
+    public byte[] bcSign(Payload payload) throws CryptoException {
+        bcSigner.update(payload.data, 0, payload.payloadSize);
+        byte[] result = bcSigner.generateSignature();
+        bcSigner.reset();
+        return result;
+    }
+
+    @Benchmark
+    public boolean verify(Payload payload, SignedPayload signed) {
+        return verifier.verify(payload.data, (short) 0, (short) payload.payloadSize,
+                signed.signature, (short) 0, (short) signed.signature.length);
+    }
+
+    @Benchmark
+    public boolean bcVerify(Payload payload, SignedPayload signed) {
+        bcVerifier.update(payload.data, 0, payload.payloadSize);
+        boolean result = bcVerifier.verifySignature(signed.signature);
+        bcVerifier.reset();
+        return result;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.crypto;
+
+import javacard.security.Checksum;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <code>CRC16</code> and <code>CRC32</code>.
+ *
+ * BouncyCastle has no CRC, so <code>java.util.zip.CRC32</code> is the baseline
+ * (<code>jdkCrc32</code>, same polynomial as <code>ALG_ISO3309_CRC32</code>).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChecksumBenchmark {
+    @State(Scope.Thread)
+    public static class ChecksumState {
+        @Param({"ALG_ISO3309_CRC16", "ALG_ISO3309_CRC32"})
+        public String algorithm;
+
+        Checksum checksum;
+
+        @Setup
+        public void setUp() {
+            checksum = Checksum.getInstance(CryptoBenchmarks.algorithm(Checksum.class, algorithm), false);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class JdkState {
+        java.util.zip.CRC32 crc32 = new java.util.zip.CRC32();
+    }
+
+    @Benchmark
+    public short doFinal(ChecksumState state, Payload payload, ByteCounter counter) {
+        counter.bytes += payload.payloadSize;
+        return state.checksum.doFinal(payload.data, (short) 0, (short) payload.payloadSize, payload.output, (short) 0);
+    }
+
+    @Benchmark
+    public long jdkCrc32(JdkState state, Payload payload, ByteCounter counter) {
+        counter.bytes += payload.payloadSize;
+        state.crc32.reset();
+        state.crc32.update(payload.data, 0, payload.payloadSize);
+        return state.crc32.getValue();
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.crypto;
+
+import javacard.security.KeyBuilder;
+
+import java.util.Random;
+
+/**
+ * Helpers shared by the crypto benchmarks
+ */
+final class CryptoBenchmarks {
+    /**
+     * Resolve an algorithm constant such as <code>ALG_DES_CBC_NOPAD</code> by name,
+     * so <code>@Param</code> values stay readable in the results
+     * @param type class declaring the constant
+     * @param name name of the constant
+     * @return value of the constant
+     */
+    static byte algorithm(Class<?> type, String name) {
+        try {
+            return type.getField(name).getByte(null);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Unknown algorithm " + type.getSimpleName() + "." + name, e);
+        }
+    }
+
+    /**
+     * @param length number of bytes
+     * @return deterministic key material
+     */
+    static byte[] keyBytes(int length) {
+        byte[] key = new byte[length];
+        new Random(length).nextBytes(key);
+        return key;
+    }
+
+    /**
+     * Build and initialize a symmetric key
+     * @param keyType <code>KeyBuilder.TYPE_*</code>
+     * @param keyBytes key material
+     * @param keySize key size in bits
+     * @return initialized key
+     */
+    static SymmetricKeyImpl symmetricKey(byte keyType, byte[] keyBytes, short keySize) {
+        SymmetricKeyImpl key = (SymmetricKeyImpl) KeyBuilder.buildKey(keyType, keySize, false);
+        key.setKey(keyBytes, (short) 0, (short) keyBytes.length);
+        return key;
+    }
+
+    private CryptoBenchmarks() {}
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.crypto;
+
+import javacard.security.ECKey;
+import javacard.security.ECPublicKey;
+import javacard.security.KeyAgreement;
+import javacard.security.KeyPair;
+import javacard.security.Signature;
+import org.bouncycastle.asn1.sec.SECNamedCurves;
+import org.bouncycastle.asn1.teletrust.TeleTrusTNamedCurves;
+import org.bouncycastle.asn1.x9.X9ECParameters;
+import org.bouncycastle.math.ec.ECCurve;
+import org.bouncycastle.util.BigIntegers;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * EC operations on a named curve whose domain parameters are set by the applet
+ * with <code>ECKey.setFieldFP/setA/setB/setG/setR/setK</code>.
+ *
+ * <ul>
+ *     <li><code>genKeyPair</code> - <code>KeyPair.genKeyPair</code></li>
+ *     <li><code>sign</code> - <code>ALG_ECDSA_SHA</code> <code>init</code> and signature of 32 bytes</li>
+ *     <li><code>generateSecret</code> - <code>ALG_EC_SVDP_DH</code> secret for an encoded public point</li>
+ * </ul>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ECBenchmark {
+    @Param({"secp192r1", "secp256r1", "brainpoolp256r1", "sect163r1"})
+    public String curve;
+
+    private KeyPair keyPair;
+    private Signature signature;
+    private KeyAgreement keyAgreement;
+    private byte[] data;
+    private byte[] publicPoint;
+    private byte[] output;
+
+    @Setup
+    public void setUp() {
+        X9ECParameters x9params = curve.startsWith("brainpool")
+                ? TeleTrusTNamedCurves.getByName(curve) : SECNamedCurves.getByName(curve);
+        keyPair = newKeyPair(x9params);
+        keyPair.genKeyPair();
+        KeyPair otherKeyPair = newKeyPair(x9params);
+        otherKeyPair.genKeyPair();
+
+        output = new byte[256];
+        short length = ((ECPublicKey) otherKeyPair.getPublic()).getW(output, (short) 0);
+        publicPoint = new byte[length];
+        System.arraycopy(output, 0, publicPoint, 0, length);
+        data = new byte[32];
+        new Random(length).nextBytes(data);
+
+        signature = Signature.getInstance(Signature.ALG_ECDSA_SHA, false);
+        keyAgreement = KeyAgreement.getInstance(KeyAgreement.ALG_EC_SVDP_DH, false);
+        keyAgreement.init(keyPair.getPrivate());
+    }
+
+    private static KeyPair newKeyPair(X9ECParameters x9params) {
+        boolean isF2M = x9params.getCurve() instanceof ECCurve.F2m;
+        KeyPair keyPair = new KeyPair(isF2M ? KeyPair.ALG_EC_F2M : KeyPair.ALG_EC_FP,
+                (short) x9params.getCurve().getFieldSize());
+        setDomainParameters((ECKey) keyPair.getPublic(), x9params);
+        setDomainParameters((ECKey) keyPair.getPrivate(), x9params);
+        return keyPair;
+    }
+
+    private static void setDomainParameters(ECKey key, X9ECParameters x9params) {
+        if (x9params.getCurve() instanceof ECCurve.F2m) {
+            ECCurve.F2m f2m = (ECCurve.F2m) x9params.getCurve();
+            key.setFieldF2M((short) f2m.getK1(), (short) f2m.getK2(), (short) f2m.getK3());
+        } else {
+            byte[] field = BigIntegers.asUnsignedByteArray(((ECCurve.Fp) x9params.getCurve()).getQ());
+            key.setFieldFP(field, (short) 0, (short) field.length);
+        }
+        byte[] a = BigIntegers.asUnsignedByteArray(x9params.getCurve().getA().toBigInteger());
+        key.setA(a, (short) 0, (short) a.length);
+        byte[] b = BigIntegers.asUnsignedByteArray(x9params.getCurve().getB().toBigInteger());
+        key.setB(b, (short) 0, (short) b.length);
+        byte[] g = x9params.getG().getEncoded();
+        key.setG(g, (short) 0, (short) g.length);
+        byte[] r = BigIntegers.asUnsignedByteArray(x9params.getN());
+        key.setR(r, (short) 0, (short) r.length);
+        key.setK(x9params.getH().shortValue());
+    }
+
+    @Benchmark
+    public KeyPair genKeyPair() {
+        keyPair.genKeyPair();
+        return keyPair;
+    }
+
+    @Benchmark
+    public short sign() {
+        signature.init(keyPair.getPrivate(), Signature.MODE_SIGN);
+        return signature.sign(data, (short) 0, (short) data.length, output, (short) 0);
+    }
+
+    @Benchmark
+    public short generateSecret() {
+        return keyAgreement.generateSecret(publicPoint, (short) 0, (short) publicPoint.length, output, (short) 0);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.crypto;
+
+import javacard.security.ECPublicKey;
+import javacard.security.KeyAgreement;
+import javacard.security.KeyBuilder;
+import javacard.security.KeyPair;
+import javacard.security.PrivateKey;
+import org.bouncycastle.crypto.BasicAgreement;
+import org.bouncycastle.crypto.agreement.ECDHBasicAgreement;
+import org.bouncycastle.crypto.agreement.ECDHCBasicAgreement;
+import org.bouncycastle.crypto.params.ECDomainParameters;
+import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
+import org.bouncycastle.crypto.params.ECPublicKeyParameters;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <code>KeyAgreementImpl</code> on secp256r1 compared to the equivalent BouncyCastle
+ * <code>BasicAgreement</code>.
+ *
+ * <ul>
+ *     <li><code>init</code> - <code>KeyAgreement.init</code></li>
+ *     <li><code>generateSecret</code> - secret for an encoded public point</li>
+ *     <li><code>bc*</code> - same operation with BouncyCastle, including the point decoding</li>
+ * </ul>
+ *
+ * Run with <code>-prof gc</code> to see the allocation rate.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class KeyAgreementBenchmark {
+    @Param({"ALG_EC_SVDP_DH", "ALG_EC_SVDP_DHC"})
+    public String algorithm;
+
+    private KeyAgreement keyAgreement;
+    private PrivateKey privateKey;
+    private BasicAgreement bcAgreement;
+    private ECPrivateKeyParameters bcPrivateKey;
+    private byte[] publicPoint;
+    private byte[] secret;
+
+    @Setup
+    public void setUp() {
+        byte algorithmId = CryptoBenchmarks.algorithm(KeyAgreement.class, algorithm);
+        KeyPair keyPair = new KeyPair(KeyPair.ALG_EC_FP, KeyBuilder.LENGTH_EC_FP_256);
+        keyPair.genKeyPair();
+        privateKey = keyPair.getPrivate();
+        KeyPair otherKeyPair = new KeyPair(KeyPair.ALG_EC_FP, KeyBuilder.LENGTH_EC_FP_256);
+        otherKeyPair.genKeyPair();
+        byte[] buffer = new byte[128];
+        short length = ((ECPublicKey) otherKeyPair.getPublic()).getW(buffer, (short) 0);
+        publicPoint = new byte[length];
+        System.arraycopy(buffer, 0, publicPoint, 0, length);
+        secret = new byte[128];
+
+        keyAgreement = KeyAgreement.getInstance(algorithmId, false);
+        keyAgreement.init(privateKey);
+
+        bcAgreement = algorithmId == KeyAgreement.ALG_EC_SVDP_DHC ? new ECDHCBasicAgreement() : new ECDHBasicAgreement();
+        bcPrivateKey = (ECPrivateKeyParameters) ((KeyWithParameters) privateKey).getParameters();
+        bcAgreement.init(bcPrivateKey);
+    }
+
+    @Benchmark
+    public KeyAgreement init() {
+        keyAgreement.init(privateKey);
+        return keyAgreement;
+    }
+
+    @Benchmark
+    public BasicAgreement bcInit() {
+        bcAgreement.init(bcPrivateKey);
+        return bcAgreement;
+    }
+
+    @Benchmark
+    public short generateSecret() {
+        return keyAgreement.generateSecret(publicPoint, (short) 0, (short) publicPoint.length, secret, (short) 0);
+    }
+
+    @Benchmark
+    public BigInteger bcGenerateSecret() {
+        ECDomainParameters domain = bcPrivateKey.getParameters();
+        return bcAgreement.calculateAgreement(new ECPublicKeyParameters(domain.getCurve().decodePoint(publicPoint), domain));
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.crypto;
+
+import javacard.security.KeyPair;
+import org.bouncycastle.crypto.AsymmetricCipherKeyPair;
+import org.bouncycastle.crypto.AsymmetricCipherKeyPairGenerator;
+import org.bouncycastle.crypto.KeyGenerationParameters;
+import org.bouncycastle.crypto.generators.DSAKeyPairGenerator;
+import org.bouncycastle.crypto.generators.ECKeyPairGenerator;
+import org.bouncycastle.crypto.generators.RSAKeyPairGenerator;
+import org.openjdk.jmh.annotations.*;
+
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <code>KeyPairImpl.genKeyPair</code> compared to the BouncyCastle generator
+ * with the same default parameters.
+ *
+ * <p><code>keyPair</code> is <code>&lt;KeyPair.ALG_*&gt;/&lt;key length&gt;</code>.
+ * RSA key generation time depends on the primes found, expect a large error.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class KeyPairBenchmark {
+    @Param({"ALG_RSA/1024", "ALG_RSA_CRT/1024", "ALG_RSA_CRT/2048", "ALG_DSA/1024",
+            "ALG_EC_FP/192", "ALG_EC_FP/256", "ALG_EC_F2M/163"})
+    public String keyPair;
+
+    private KeyPair jcKeyPair;
+    private AsymmetricCipherKeyPairGenerator bcGenerator;
+
+    @Setup
+    public void setUp() {
+        String[] parts = keyPair.split("/");
+        byte algorithm = CryptoBenchmarks.algorithm(KeyPair.class, parts[0]);
+        short keyLength = Short.parseShort(parts[1]);
+        jcKeyPair = new KeyPair(algorithm, keyLength);
+
+        SecureRandom rnd = new SecureRandom();
+        KeyGenerationParameters parameters;
+        switch (algorithm) {
+            case KeyPair.ALG_RSA:
+            case KeyPair.ALG_RSA_CRT:
+                parameters = RSAKeyImpl.getDefaultKeyGenerationParameters(keyLength, rnd);
+                bcGenerator = new RSAKeyPairGenerator();
+                break;
+            case KeyPair.ALG_DSA:
+                parameters = DSAKeyImpl.getDefaultKeyGenerationParameters(keyLength, rnd);
+                bcGenerator = new DSAKeyPairGenerator();
+                break;
+            default:
+                parameters = ECKeyImpl.getDefaultKeyGenerationParameters(algorithm, keyLength, rnd);
+                bcGenerator = new ECKeyPairGenerator();
+                break;
+        }
+        bcGenerator.init(parameters);
+    }
+
+    @Benchmark
+    public KeyPair genKeyPair() {
+        jcKeyPair.genKeyPair();
+        return jcKeyPair;
+    }
+
+    @Benchmark
+    public AsymmetricCipherKeyPair bcGenerateKeyPair() {
+        return bcGenerator.generateKeyPair();
+    }
+}
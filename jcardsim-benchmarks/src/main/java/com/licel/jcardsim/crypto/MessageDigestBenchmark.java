@@ -0,0 +1,103 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.crypto;
+
+import javacard.security.MessageDigest;
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.digests.MD5Digest;
+import org.bouncycastle.crypto.digests.RIPEMD160Digest;
+import org.bouncycastle.crypto.digests.SHA1Digest;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.digests.SHA384Digest;
+import org.bouncycastle.crypto.digests.SHA512Digest;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <code>MessageDigestImpl</code> compared to the equivalent BouncyCastle <code>Digest</code>.
+ *
+ * <ul>
+ *     <li><code>getInstance</code> - <code>MessageDigest.getInstance</code></li>
+ *     <li><code>doFinal</code> - digest of <code>payloadSize</code> bytes</li>
+ *     <li><code>bc*</code> - same operation with BouncyCastle</li>
+ * </ul>
+ *
+ * Run with <code>-prof gc</code> to see the allocation rate.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageDigestBenchmark {
+    @Param({"ALG_SHA", "ALG_MD5", "ALG_RIPEMD160", "ALG_SHA_256", "ALG_SHA_384", "ALG_SHA_512"})
+    public String algorithm;
+
+    private byte algorithmId;
+    private MessageDigest digest;
+    private Digest bcDigest;
+
+    @Setup
+    public void setUp() {
+        algorithmId = CryptoBenchmarks.algorithm(MessageDigest.class, algorithm);
+        digest = MessageDigest.getInstance(algorithmId, false);
+        bcDigest = createDigest(algorithmId);
+    }
+
+    static Digest createDigest(byte algorithm) {
+        switch (algorithm) {
+            case MessageDigest.ALG_SHA:
+                return new SHA1Digest();
+            case MessageDigest.ALG_MD5:
+                return new MD5Digest();
+            case MessageDigest.ALG_RIPEMD160:
+                return new RIPEMD160Digest();
+            case MessageDigest.ALG_SHA_256:
+                return new SHA256Digest();
+            case MessageDigest.ALG_SHA_384:
+                return new SHA384Digest();
+            case MessageDigest.ALG_SHA_512:
+                return new SHA512Digest();
+            default:
+                throw new IllegalArgumentException("Unsupported algorithm " + algorithm);
+        }
+    }
+
+    @Benchmark
+    public MessageDigest getInstance() {
+        return MessageDigest.getInstance(algorithmId, false);
+    }
+
+    @Benchmark
+    public Digest bcGetInstance() {
+        return createDigest(algorithmId);
+    }
+
+    @Benchmark
+    public short doFinal(Payload payload, ByteCounter counter) {
+        counter.bytes += payload.payloadSize;
+        return digest.doFinal(payload.data, (short) 0, (short) payload.payloadSize, payload.output, (short) 0);
+    }
+
+    @Benchmark
+    public int bcDoFinal(Payload payload, ByteCounter counter) {
+        counter.bytes += payload.payloadSize;
+        bcDigest.update(payload.data, 0, payload.payloadSize);
+        return bcDigest.doFinal(payload.output, 0);
+    }
+}
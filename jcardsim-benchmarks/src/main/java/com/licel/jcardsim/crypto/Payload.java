@@ -0,0 +1,46 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.crypto;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * Input data of the crypto benchmarks.
+ *
+ * <p>Sizes cover a short APDU up to the largest extended APDU payload. The maximum
+ * is 32736 instead of 32 KB: it is block aligned and the padded output still fits
+ * the <code>short</code> offsets and lengths of the Java Card API.</p>
+ */
+@State(Scope.Thread)
+public class Payload {
+    @Param({"16", "256", "2048", "32736"})
+    public int payloadSize;
+
+    byte[] data;
+    byte[] output;
+
+    @Setup
+    public void setUp() {
+        data = new byte[payloadSize];
+        new Random(payloadSize).nextBytes(data);
+        output = new byte[Short.MAX_VALUE];
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.crypto;
+
+import javacard.security.Key;
+import javacard.security.KeyPair;
+import javacard.security.Signature;
+import javacardx.crypto.Cipher;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RSA private key operations as an applet does them, <code>init</code> followed by
+ * the operation.
+ *
+ * <ul>
+ *     <li><code>sign</code> - <code>ALG_RSA_SHA_PKCS1</code> signature of 32 bytes</li>
+ *     <li><code>decrypt</code> - <code>ALG_RSA_PKCS1</code> decryption of one block</li>
+ * </ul>
+ *
+ * <code>keyPair</code> selects a <code>ALG_RSA_CRT</code> or a <code>ALG_RSA</code>
+ * (modulus and private exponent) private key generated on the card.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RSABenchmark {
+    @Param({"2048", "4096"})
+    public short keySize;
+
+    @Param({"ALG_RSA_CRT", "ALG_RSA"})
+    public String keyPair;
+
+    private Key privateKey;
+    private Signature signature;
+    private Cipher cipher;
+    private byte[] data;
+    private byte[] cipherText;
+    private byte[] output;
+
+    @Setup
+    public void setUp() {
+        KeyPair kp = new KeyPair(CryptoBenchmarks.algorithm(KeyPair.class, keyPair), keySize);
+        kp.genKeyPair();
+        privateKey = kp.getPrivate();
+        signature = Signature.getInstance(Signature.ALG_RSA_SHA_PKCS1, false);
+        cipher = Cipher.getInstance(Cipher.ALG_RSA_PKCS1, false);
+
+        data = new byte[32];
+        new Random(keySize).nextBytes(data);
+        output = new byte[keySize / 8];
+        cipher.init(kp.getPublic(), Cipher.MODE_ENCRYPT);
+        short length = cipher.doFinal(data, (short) 0, (short) data.length, output, (short) 0);
+        cipherText = new byte[length];
+        System.arraycopy(output, 0, cipherText, 0, length);
+    }
+
+    @Benchmark
+    public short sign() {
+        signature.init(privateKey, Signature.MODE_SIGN);
+        return signature.sign(data, (short) 0, (short) data.length, output, (short) 0);
+    }
+
+    @Benchmark
+    public short decrypt() {
+        cipher.init(privateKey, Cipher.MODE_DECRYPT);
+        return cipher.doFinal(cipherText, (short) 0, (short) cipherText.length, output, (short) 0);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.crypto;
+
+import javacard.security.KeyBuilder;
+import javacardx.crypto.Cipher;
+import org.bouncycastle.crypto.BlockCipher;
+import org.bouncycastle.crypto.BufferedBlockCipher;
+import org.bouncycastle.crypto.InvalidCipherTextException;
+import org.bouncycastle.crypto.engines.AESEngine;
+import org.bouncycastle.crypto.engines.DESedeEngine;
+import org.bouncycastle.crypto.modes.CBCBlockCipher;
+import org.bouncycastle.crypto.paddings.ISO7816d4Padding;
+import org.bouncycastle.crypto.paddings.PKCS7Padding;
+import org.bouncycastle.crypto.paddings.PaddedBufferedBlockCipher;
+import org.bouncycastle.crypto.paddings.ZeroBytePadding;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <code>SymmetricCipherImpl</code> compared to the equivalent BouncyCastle
+ * <code>BufferedBlockCipher</code>.
+ *
+ * <ul>
+ *     <li><code>init</code> - <code>Cipher.init</code> with a DES3 (2 key) or AES-128 key</li>
+ *     <li><code>doFinal</code> - encryption of <code>payloadSize</code> bytes</li>
+ *     <li><code>initDoFinal</code> - <code>init</code> followed by <code>doFinal</code>, like secure
+ *     messaging which initializes the cipher for every APDU</li>
+ *     <li><code>bc*</code> - same operation on a reused BouncyCastle engine</li>
+ * </ul>
+ *
+ * Run with <code>-prof gc</code> to see the allocation rate.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SymmetricCipherBenchmark {
+    @Param({"ALG_DES_CBC_NOPAD", "ALG_DES_CBC_ISO9797_M1", "ALG_DES_CBC_ISO9797_M2", "ALG_DES_CBC_PKCS5",
+            "ALG_DES_ECB_NOPAD", "ALG_DES_ECB_ISO9797_M1", "ALG_DES_ECB_ISO9797_M2", "ALG_DES_ECB_PKCS5",
+            "ALG_AES_BLOCK_128_CBC_NOPAD", "ALG_AES_BLOCK_128_ECB_NOPAD"})
+    public String algorithm;
+
+    private Cipher cipher;
+    private SymmetricKeyImpl key;
+    private BufferedBlockCipher bcCipher;
+    private KeyParameter bcKey;
+
+    @Setup
+    public void setUp() {
+        byte algorithmId = CryptoBenchmarks.algorithm(Cipher.class, algorithm);
+        boolean aes = algorithm.startsWith("ALG_AES");
+        byte[] keyBytes = CryptoBenchmarks.keyBytes(16);
+        key = aes ? CryptoBenchmarks.symmetricKey(KeyBuilder.TYPE_AES, keyBytes, KeyBuilder.LENGTH_AES_128)
+                : CryptoBenchmarks.symmetricKey(KeyBuilder.TYPE_DES, keyBytes, KeyBuilder.LENGTH_DES3_2KEY);
+        cipher = Cipher.getInstance(algorithmId, false);
+        cipher.init(key, Cipher.MODE_ENCRYPT);
+
+        bcCipher = createBufferedBlockCipher(algorithmId, aes ? new AESEngine() : new DESedeEngine());
+        bcKey = new KeyParameter(keyBytes);
+        bcCipher.init(true, bcKey);
+    }
+
+    static BufferedBlockCipher createBufferedBlockCipher(byte algorithm, BlockCipher engine) {
+        switch (algorithm) {
+            case Cipher.ALG_DES_CBC_NOPAD:
+            case Cipher.ALG_AES_BLOCK_128_CBC_NOPAD:
+                return new BufferedBlockCipher(new CBCBlockCipher(engine));
+            case Cipher.ALG_DES_CBC_ISO9797_M1:
+                return new PaddedBufferedBlockCipher(new CBCBlockCipher(engine), new ZeroBytePadding());
+            case Cipher.ALG_DES_CBC_ISO9797_M2:
+                return new PaddedBufferedBlockCipher(new CBCBlockCipher(engine), new ISO7816d4Padding());
+            case Cipher.ALG_DES_CBC_PKCS5:
+                return new PaddedBufferedBlockCipher(new CBCBlockCipher(engine), new PKCS7Padding());
+            case Cipher.ALG_DES_ECB_NOPAD:
+            case Cipher.ALG_AES_BLOCK_128_ECB_NOPAD:
+                return new BufferedBlockCipher(engine);
+            case Cipher.ALG_DES_ECB_ISO9797_M1:
+                return new PaddedBufferedBlockCipher(engine, new ZeroBytePadding());
+            case Cipher.ALG_DES_ECB_ISO9797_M2:
+                return new PaddedBufferedBlockCipher(engine, new ISO7816d4Padding());
+            case Cipher.ALG_DES_ECB_PKCS5:
+                return new PaddedBufferedBlockCipher(engine, new PKCS7Padding());
+            default:
+                throw new IllegalArgumentException("Unsupported algorithm " + algorithm);
+        }
+    }
+
+    @Benchmark
+    public Cipher init() {
+        cipher.init(key, Cipher.MODE_ENCRYPT);
+        return cipher;
+    }
+
+    @Benchmark
+    public BufferedBlockCipher bcInit() {
+        bcCipher.init(true, bcKey);
+        return bcCipher;
+    }
+
+    @Benchmark
+    public short doFinal(Payload payload, ByteCounter counter) {
+        counter.bytes += payload.payloadSize;
+        return cipher.doFinal(payload.data, (short) 0, (short) payload.payloadSize, payload.output, (short) 0);
+    }
+
+    @Benchmark
+    public short initDoFinal(Payload payload, ByteCounter counter) {
+        counter.bytes += payload.payloadSize;
+        cipher.init(key, Cipher.MODE_ENCRYPT);
+        return cipher.doFinal(payload.data, (short) 0, (short) payload.payloadSize, payload.output, (short) 0);
+    }
+
+    @Benchmark
+    public int bcDoFinal(Payload payload, ByteCounter counter) throws InvalidCipherTextException {
+        counter.bytes += payload.payloadSize;
+        int length = bcCipher.processBytes(payload.data, 0, payload.payloadSize, payload.output, 0);
+        return length + bcCipher.doFinal(payload.output, length);
+    }
+}
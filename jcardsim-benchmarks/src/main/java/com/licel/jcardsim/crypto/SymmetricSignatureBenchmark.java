@@ -0,0 +1,159 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.crypto;
+
+import javacard.security.KeyBuilder;
+import javacard.security.Signature;
+import org.bouncycastle.crypto.BlockCipher;
+import org.bouncycastle.crypto.Mac;
+import org.bouncycastle.crypto.digests.MD5Digest;
+import org.bouncycastle.crypto.digests.RIPEMD160Digest;
+import org.bouncycastle.crypto.digests.SHA1Digest;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.digests.SHA384Digest;
+import org.bouncycastle.crypto.digests.SHA512Digest;
+import org.bouncycastle.crypto.engines.AESEngine;
+import org.bouncycastle.crypto.engines.DESEngine;
+import org.bouncycastle.crypto.engines.DESedeEngine;
+import org.bouncycastle.crypto.macs.CBCBlockCipherMac;
+import org.bouncycastle.crypto.macs.HMac;
+import org.bouncycastle.crypto.macs.ISO9797Alg3Mac;
+import org.bouncycastle.crypto.paddings.ISO7816d4Padding;
+import org.bouncycastle.crypto.paddings.PKCS7Padding;
+import org.bouncycastle.crypto.paddings.ZeroBytePadding;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <code>SymmetricSignatureImpl</code> (MACs) compared to the equivalent BouncyCastle <code>Mac</code>.
+ *
+ * <ul>
+ *     <li><code>init</code> - <code>Signature.init</code> with a DES3 (2 key), AES-128
+ *     or 32 byte HMAC key</li>
+ *     <li><code>sign</code> - MAC of <code>payloadSize</code> bytes</li>
+ *     <li><code>bc*</code> - same operation on a reused BouncyCastle engine</li>
+ * </ul>
+ *
+ * Run with <code>-prof gc</code> to see the allocation rate.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SymmetricSignatureBenchmark {
+    @Param({"ALG_DES_MAC4_NOPAD", "ALG_DES_MAC8_NOPAD", "ALG_DES_MAC4_ISO9797_M1", "ALG_DES_MAC8_ISO9797_M1",
+            "ALG_DES_MAC4_ISO9797_M2", "ALG_DES_MAC8_ISO9797_M2", "ALG_DES_MAC8_ISO9797_1_M2_ALG3",
+            "ALG_DES_MAC4_PKCS5", "ALG_DES_MAC8_PKCS5", "ALG_AES_MAC_128_NOPAD",
+            "ALG_HMAC_SHA1", "ALG_HMAC_SHA_256", "ALG_HMAC_SHA_384", "ALG_HMAC_SHA_512",
+            "ALG_HMAC_MD5", "ALG_HMAC_RIPEMD160"})
+    public String algorithm;
+
+    private Signature signature;
+    private SymmetricKeyImpl key;
+    private Mac bcMac;
+    private KeyParameter bcKey;
+
+    @Setup
+    public void setUp() {
+        byte algorithmId = CryptoBenchmarks.algorithm(Signature.class, algorithm);
+        byte[] keyBytes;
+        if (algorithm.startsWith("ALG_HMAC")) {
+            keyBytes = CryptoBenchmarks.keyBytes(32);
+            key = CryptoBenchmarks.symmetricKey(KeyBuilder.TYPE_HMAC, keyBytes, (short) (keyBytes.length * 8));
+        } else if (algorithm.startsWith("ALG_AES")) {
+            keyBytes = CryptoBenchmarks.keyBytes(16);
+            key = CryptoBenchmarks.symmetricKey(KeyBuilder.TYPE_AES, keyBytes, KeyBuilder.LENGTH_AES_128);
+        } else {
+            keyBytes = CryptoBenchmarks.keyBytes(16);
+            key = CryptoBenchmarks.symmetricKey(KeyBuilder.TYPE_DES, keyBytes, KeyBuilder.LENGTH_DES3_2KEY);
+        }
+        signature = Signature.getInstance(algorithmId, false);
+        signature.init(key, Signature.MODE_SIGN);
+
+        bcMac = createMac(algorithmId);
+        bcKey = new KeyParameter(keyBytes);
+        bcMac.init(bcKey);
+    }
+
+    static Mac createMac(byte algorithm) {
+        BlockCipher des = new DESedeEngine();
+        switch (algorithm) {
+            case Signature.ALG_DES_MAC4_NOPAD:
+                return new CBCBlockCipherMac(des, 32, null);
+            case Signature.ALG_DES_MAC8_NOPAD:
+                return new CBCBlockCipherMac(des, 64, null);
+            case Signature.ALG_DES_MAC4_ISO9797_M1:
+                return new CBCBlockCipherMac(des, 32, new ZeroBytePadding());
+            case Signature.ALG_DES_MAC8_ISO9797_M1:
+                return new CBCBlockCipherMac(des, 64, new ZeroBytePadding());
+            case Signature.ALG_DES_MAC4_ISO9797_M2:
+                return new CBCBlockCipherMac(des, 32, new ISO7816d4Padding());
+            case Signature.ALG_DES_MAC8_ISO9797_M2:
+                return new CBCBlockCipherMac(des, 64, new ISO7816d4Padding());
+            case Signature.ALG_DES_MAC8_ISO9797_1_M2_ALG3:
+                return new ISO9797Alg3Mac(new DESEngine(), 64, new ISO7816d4Padding());
+            case Signature.ALG_DES_MAC4_PKCS5:
+                return new CBCBlockCipherMac(des, 32, new PKCS7Padding());
+            case Signature.ALG_DES_MAC8_PKCS5:
+                return new CBCBlockCipherMac(des, 64, new PKCS7Padding());
+            case Signature.ALG_AES_MAC_128_NOPAD:
+                return new CBCBlockCipherMac(new AESEngine(), 128, null);
+            case Signature.ALG_HMAC_SHA1:
+                return new HMac(new SHA1Digest());
+            case Signature.ALG_HMAC_SHA_256:
+                return new HMac(new SHA256Digest());
+            case Signature.ALG_HMAC_SHA_384:
+                return new HMac(new SHA384Digest());
+            case Signature.ALG_HMAC_SHA_512:
+                return new HMac(new SHA512Digest());
+            case Signature.ALG_HMAC_MD5:
+                return new HMac(new MD5Digest());
+            case Signature.ALG_HMAC_RIPEMD160:
+                return new HMac(new RIPEMD160Digest());
+            default:
+                throw new IllegalArgumentException("Unsupported algorithm " + algorithm);
+        }
+    }
+
+    @Benchmark
+    public Signature init() {
+        signature.init(key, Signature.MODE_SIGN);
+        return signature;
+    }
+
+    @Benchmark
+    public Mac bcInit() {
+        bcMac.init(bcKey);
+        return bcMac;
+    }
+
+    @Benchmark
+    public short sign(Payload payload, ByteCounter counter) {
+        counter.bytes += payload.payloadSize;
+        return signature.sign(payload.data, (short) 0, (short) payload.payloadSize, payload.output, (short) 0);
+    }
+
+    @Benchmark
+    public int bcSign(Payload payload, ByteCounter counter) {
+        counter.bytes += payload.payloadSize;
+        bcMac.update(payload.data, 0, payload.payloadSize);
+        return bcMac.doFinal(payload.output, 0);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.remote;
+
+import com.licel.jcardsim.samples.HelloWorldApplet;
+import com.licel.jcardsim.utils.AIDUtil;
+import javacard.framework.AID;
+import javacard.framework.ISO7816;
+import javacard.framework.Util;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remote APDU transmission on localhost, RMI (<code>JavaCardRemoteServer</code>) compared to the
+ * binary socket protocol (<code>JavaCardSocketServer</code>).
+ *
+ * <ul>
+ *     <li><code>*Transmit</code> - one NOP APDU to <code>HelloWorldApplet</code></li>
+ *     <li><code>socketTransmitInto</code> - same with the response copied into a caller buffer</li>
+ *     <li><code>*Batch</code> - <code>transmitCommands</code> with <code>batchSize</code> NOP APDUs,
+ *     pipelined by the socket client</li>
+ * </ul>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RemoteTransmitBenchmark {
+    private static final String AID_STRING = "010203040506070809";
+    private static final AID APPLET_AID = AIDUtil.create(AID_STRING);
+    private static final byte[] NOP = new byte[]{0x01, 0x02, 0x00, 0x00};
+
+    @Param({"32"})
+    public int batchSize;
+
+    private JavaCardRemoteServer rmiServer;
+    private JavaCardRemoteClient rmiClient;
+    private JavaCardSocketServer socketServer;
+    private JavaCardSocketClient socketClient;
+    private List<byte[]> batch;
+    private final byte[] response = new byte[258];
+
+    private static void requireSuccess(byte[] response) {
+        if (Util.getShort(response, (short) (response.length - 2)) != ISO7816.SW_NO_ERROR) {
+            throw new IllegalStateException("Benchmark APDU failed");
+        }
+    }
+
+    private static int freePort() throws Exception {
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("com.licel.jcardsim.card.applet.0.AID", AID_STRING);
+        properties.setProperty("com.licel.jcardsim.card.applet.0.Class", HelloWorldApplet.class.getName());
+
+        // the RMI server uses the default runtime configured from the system properties
+        System.getProperties().putAll(properties);
+        int rmiPort = freePort();
+        rmiServer = new JavaCardRemoteServer("127.0.0.1", rmiPort);
+        rmiClient = new JavaCardRemoteClient("127.0.0.1", rmiPort);
+        rmiClient.createApplet(APPLET_AID, new byte[0], (short) 0, (byte) 0);
+        requireSuccess(rmiClient.selectAppletWithResult(APPLET_AID));
+
+        socketServer = new JavaCardSocketServer(new InetSocketAddress("127.0.0.1", 0), 1, properties);
+        socketServer.start();
+        socketClient = new JavaCardSocketClient("127.0.0.1", socketServer.getAddress().getPort());
+        socketClient.createApplet(APPLET_AID, new byte[0], (short) 0, (byte) 0);
+        requireSuccess(socketClient.selectAppletWithResult(APPLET_AID));
+
+        batch = new ArrayList<byte[]>();
+        for (int i = 0; i < batchSize; i++) {
+            batch.add(NOP);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        socketClient.close();
+        socketServer.close();
+        UnicastRemoteObject.unexportObject(rmiServer, true);
+    }
+
+    @Benchmark
+    public byte[] rmiTransmit() {
+        return rmiClient.transmitCommand(NOP);
+    }
+
+    @Benchmark
+    public byte[] socketTransmit() {
+        return socketClient.transmitCommand(NOP);
+    }
+
+    @Benchmark
+    public int socketTransmitInto() {
+        return socketClient.transmitCommand(NOP, 0, NOP.length, response, 0);
+    }
+
+    @Benchmark
+    public List<byte[]> rmiBatch() {
+        return rmiClient.transmitCommands(batch);
+    }
+
+    @Benchmark
+    public List<byte[]> socketBatch() {
+        return socketClient.transmitCommands(batch);
+    }
+}
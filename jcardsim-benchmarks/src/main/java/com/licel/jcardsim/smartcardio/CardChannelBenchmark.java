@@ -0,0 +1,85 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.smartcardio;
+
+import com.licel.jcardsim.base.Simulator;
+import com.licel.jcardsim.base.SimulatorRuntime;
+import com.licel.jcardsim.samples.HelloWorldApplet;
+import com.licel.jcardsim.utils.AIDUtil;
+import javacard.framework.AID;
+import org.openjdk.jmh.annotations.*;
+
+import javax.smartcardio.CardChannel;
+import javax.smartcardio.CardException;
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * APDU dispatch through the <code>javax.smartcardio</code> API (<code>JCSCardChannel</code>)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CardChannelBenchmark {
+    private static final AID HELLO_WORLD_AID = AIDUtil.create("010203040506070809");
+    private static final byte[] SAY_HELLO = new byte[]{0x01, 0x01, 0x00, 0x00};
+
+    private CardChannel channel;
+    private CommandAPDU commandApdu;
+    private ByteBuffer heapCommand;
+    private ByteBuffer heapResponse;
+    private ByteBuffer directCommand;
+    private ByteBuffer directResponse;
+
+    @Setup
+    public void setUp() {
+        Simulator simulator = new Simulator(new SimulatorRuntime());
+        simulator.installApplet(HELLO_WORLD_AID, HelloWorldApplet.class);
+        simulator.selectApplet(HELLO_WORLD_AID);
+        channel = new JCSCard(simulator).getBasicChannel();
+
+        commandApdu = new CommandAPDU(SAY_HELLO);
+        heapCommand = ByteBuffer.wrap(SAY_HELLO);
+        heapResponse = ByteBuffer.allocate(258);
+        directCommand = ByteBuffer.allocateDirect(SAY_HELLO.length);
+        directCommand.put(SAY_HELLO);
+        directResponse = ByteBuffer.allocateDirect(258);
+    }
+
+    @Benchmark
+    public ResponseAPDU transmitCommandApdu() throws CardException {
+        return channel.transmit(commandApdu);
+    }
+
+    @Benchmark
+    public int transmitHeapBuffer() throws CardException {
+        heapCommand.rewind();
+        heapResponse.clear();
+        return channel.transmit(heapCommand, heapResponse);
+    }
+
+    @Benchmark
+    public int transmitDirectBuffer() throws CardException {
+        directCommand.rewind();
+        directResponse.clear();
+        return channel.transmit(directCommand, directResponse);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.utils;
+
+import javacard.framework.AID;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AID comparison and hashing as used by the AID keyed maps of <code>SimulatorRuntime</code>.
+ *
+ * <ul>
+ *     <li><code>compare</code> - <code>AIDUtil.comparator()</code></li>
+ *     <li><code>compareHexString</code> - comparison of <code>AIDUtil.toString</code>, the previous
+ *     implementation, for reference</li>
+ *     <li><code>treeMapGet</code>/<code>hashMapGet</code> - lookup of an equal AID instance in a map
+ *     with 256 AIDs</li>
+ * </ul>
+ *
+ * The compared AIDs are 16 bytes long and only differ in the last byte.
+ * Run with <code>-prof gc</code> to see the allocation rate.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AIDComparatorBenchmark {
+    private static final String PREFIX = "D276000085010101010101010101";
+
+    private final Comparator<AID> comparator = AIDUtil.comparator();
+    private final Map<AID, String> treeMap = new TreeMap<AID, String>(comparator);
+    private final Map<AID, String> hashMap = new HashMap<AID, String>();
+    private AID aid1;
+    private AID aid2;
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < 256; i++) {
+            AID aid = AIDUtil.create(PREFIX + String.format("%04X", i));
+            treeMap.put(aid, "");
+            hashMap.put(aid, "");
+        }
+        aid1 = AIDUtil.create(PREFIX + "00F0");
+        aid2 = AIDUtil.create(PREFIX + "00F1");
+    }
+
+    @Benchmark
+    public int compare() {
+        return comparator.compare(aid1, aid2);
+    }
+
+    @Benchmark
+    public int compareHexString() {
+        return AIDUtil.toString(aid1).compareTo(AIDUtil.toString(aid2));
+    }
+
+    @Benchmark
+    public int hashCodeOfAID() {
+        return aid1.hashCode();
+    }
+
+    @Benchmark
+    public String treeMapGet() {
+        return treeMap.get(aid1);
+    }
+
+    @Benchmark
+    public String hashMapGet() {
+        return hashMap.get(aid1);
+    }
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.base;
+
+import com.licel.jcardsim.utils.AIDUtil;
+import javacard.framework.AID;
+
+/**
+ * Index for looking up AIDs by their bytes.
+ *
+ * <ul>
+ *     <li>Exact lookups use a hash table over the AID bytes.</li>
+ *     <li>Partial lookups (SELECT with a prefix of the AID) use a prefix trie.</li>
+ * </ul>
+ *
+ * <p>If several AIDs start with the same prefix, the first one in the order of
+ * <code>AIDUtil.comparator()</code> is returned (byte-wise unsigned, shorter AIDs first).
+ * This is the iteration order of <code>SimulatorRuntime.applets</code>.</p>
+ *
+ * <p>Lookups and removal do not allocate. This class is not thread-safe.</p>
+ *
+ * @param <V> type of the values
+ */
+public final class AIDIndex<V> {
+    private static final int MAX_AID_LENGTH = 16;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final Node<V> root = new Node<V>();
+    private Entry<V>[] table = newTable(INITIAL_CAPACITY);
+    private int size;
+
+    /**
+     * Add an AID or replace its value. Like <code>java.util.Map</code>,
+     * an existing entry keeps its original <code>AID</code> instance.
+     * @param aid AID
+     * @param value value
+     * @return previous value or null
+     */
+    public V put(AID aid, V value) {
+        byte[] key = new byte[MAX_AID_LENGTH];
+        byte length = aid.getBytes(key, (short) 0);
+        int hash = hash(key, 0, length);
+        Entry<V> entry = findEntry(key, 0, length, hash);
+        if (entry != null) {
+            V previous = entry.value;
+            entry.value = value;
+            return previous;
+        }
+
+        byte[] exactKey = new byte[length];
+        System.arraycopy(key, 0, exactKey, 0, length);
+        entry = new Entry<V>(exactKey, hash, aid, value);
+        if (size >= table.length - (table.length >> 2)) {
+            resize();
+        }
+        int index = hash & (table.length - 1);
+        entry.next = table[index];
+        table[index] = entry;
+        size++;
+
+        Node<V>[] path = newPath(length);
+        Node<V> node = root;
+        path[0] = node;
+        for (int i = 0; i < length; i++) {
+            node = node.getOrCreateChild(exactKey[i]);
+            path[i + 1] = node;
+        }
+        node.terminal = entry;
+        updatePath(path, length);
+        return null;
+    }
+
+    /**
+     * Remove an AID
+     * @param aid AID
+     * @return removed value or null
+     */
+    public V remove(AID aid) {
+        int hash = spread(aid.hashCode());
+        int index = hash & (table.length - 1);
+        Entry<V> previous = null;
+        Entry<V> entry = table[index];
+        while (entry != null && !entry.matches(aid, hash)) {
+            previous = entry;
+            entry = entry.next;
+        }
+        if (entry == null) {
+            return null;
+        }
+        if (previous == null) {
+            table[index] = entry.next;
+        } else {
+            previous.next = entry.next;
+        }
+        size--;
+
+        byte[] key = entry.key;
+        int length = key.length;
+        Node<V>[] path = newPath(length);
+        Node<V> node = root;
+        path[0] = node;
+        for (int i = 0; i < length; i++) {
+            node = node.getChild(key[i]);
+            path[i + 1] = node;
+        }
+        node.terminal = null;
+        updatePath(path, length);
+        return entry.value;
+    }
+
+    /**
+     * Remove all AIDs
+     */
+    public void clear() {
+        table = newTable(INITIAL_CAPACITY);
+        size = 0;
+        root.clear();
+    }
+
+    /**
+     * @return number of AIDs
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param aid AID
+     * @return value of an AID equal to <code>aid</code> or null
+     */
+    public V get(AID aid) {
+        int hash = spread(aid.hashCode());
+        Entry<V> entry = table[hash & (table.length - 1)];
+        while (entry != null && !entry.matches(aid, hash)) {
+            entry = entry.next;
+        }
+        return entry == null ? null : entry.value;
+    }
+
+    /**
+     * @param buffer array containing the AID bytes
+     * @param offset offset of the AID in <code>buffer</code>
+     * @param length length of the AID
+     * @return value of the AID or null
+     */
+    public V get(byte[] buffer, int offset, int length) {
+        Entry<V> entry = findEntry(buffer, offset, length, hash(buffer, offset, length));
+        return entry == null ? null : entry.value;
+    }
+
+    /**
+     * @param buffer array containing the AID bytes
+     * @param offset offset of the AID in <code>buffer</code>
+     * @param length length of the AID
+     * @return indexed AID equal to the bytes or null
+     */
+    public AID findAID(byte[] buffer, int offset, int length) {
+        Entry<V> entry = findEntry(buffer, offset, length, hash(buffer, offset, length));
+        return entry == null ? null : entry.aid;
+    }
+
+    /**
+     * Find the first AID starting with the given bytes
+     * @param buffer array containing the partial AID
+     * @param offset offset of the partial AID in <code>buffer</code>
+     * @param length length of the partial AID
+     * @return first matching AID or null
+     */
+    public AID findFirstByPrefix(byte[] buffer, int offset, int length) {
+        if (length < 0 || length > MAX_AID_LENGTH) {
+            return null;
+        }
+        Node<V> node = root;
+        for (int i = 0; i < length && node != null; i++) {
+            node = node.getChild(buffer[offset + i]);
+        }
+        return (node == null || node.first == null) ? null : node.first.aid;
+    }
+
+    private Entry<V> findEntry(byte[] buffer, int offset, int length, int hash) {
+        if (length < 0 || length > MAX_AID_LENGTH) {
+            return null;
+        }
+        Entry<V> entry = table[hash & (table.length - 1)];
+        while (entry != null && !entry.matches(buffer, offset, length, hash)) {
+            entry = entry.next;
+        }
+        return entry;
+    }
+
+    private void resize() {
+        Entry<V>[] newTable = newTable(table.length * 2);
+        for (Entry<V> head : table) {
+            Entry<V> entry = head;
+            while (entry != null) {
+                Entry<V> next = entry.next;
+                int index = entry.hash & (newTable.length - 1);
+                entry.next = newTable[index];
+                newTable[index] = entry;
+                entry = next;
+            }
+        }
+        table = newTable;
+    }
+
+    /**
+     * Recalculate the first entry of every node on <code>path</code>, bottom up,
+     * and drop nodes which no longer lead to an AID
+     */
+    private static <V> void updatePath(Node<V>[] path, int length) {
+        for (int i = length; i >= 0; i--) {
+            Node<V> node = path[i];
+            node.updateFirst();
+            if (i > 0 && node.first == null) {
+                path[i - 1].removeChild(node);
+            }
+        }
+    }
+
+    private static int hash(byte[] buffer, int offset, int length) {
+        return spread(AIDUtil.hashCode(buffer, offset, length));
+    }
+
+    /**
+     * @param h <code>AID.hashCode()</code>
+     * @return hash with the high bits mixed into the table index
+     */
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> Entry<V>[] newTable(int capacity) {
+        return (Entry<V>[]) new Entry<?>[capacity];
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> Node<V>[] newPath(int length) {
+        return (Node<V>[]) new Node<?>[length + 1];
+    }
+
+    private static final class Entry<V> {
+        final byte[] key;
+        final int hash;
+        final AID aid;
+        V value;
+        Entry<V> next;
+
+        Entry(byte[] key, int hash, AID aid, V value) {
+            this.key = key;
+            this.hash = hash;
+            this.aid = aid;
+            this.value = value;
+        }
+
+        boolean matches(AID other, int hash) {
+            return this.hash == hash && aid.equals(other);
+        }
+
+        boolean matches(byte[] buffer, int offset, int length, int hash) {
+            if (this.hash != hash || key.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (key[i] != buffer[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Trie node, children are sorted by their unsigned label
+     */
+    private static final class Node<V> {
+        byte label;
+        Node<V>[] children;
+        int childCount;
+        /** entry ending at this node */
+        Entry<V> terminal;
+        /** smallest entry in this subtree */
+        Entry<V> first;
+
+        Node<V> getChild(byte label) {
+            for (int i = 0; i < childCount; i++) {
+                if (children[i].label == label) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        @SuppressWarnings("unchecked")
+        Node<V> getOrCreateChild(byte label) {
+            int insertAt = 0;
+            while (insertAt < childCount && (children[insertAt].label & 0xFF) < (label & 0xFF)) {
+                insertAt++;
+            }
+            if (insertAt < childCount && children[insertAt].label == label) {
+                return children[insertAt];
+            }
+            if (children == null) {
+                children = (Node<V>[]) new Node<?>[2];
+            } else if (childCount == children.length) {
+                Node<V>[] newChildren = (Node<V>[]) new Node<?>[childCount * 2];
+                System.arraycopy(children, 0, newChildren, 0, childCount);
+                children = newChildren;
+            }
+            System.arraycopy(children, insertAt, children, insertAt + 1, childCount - insertAt);
+            Node<V> child = new Node<V>();
+            child.label = label;
+            children[insertAt] = child;
+            childCount++;
+            return child;
+        }
+
+        void removeChild(Node<V> child) {
+            for (int i = 0; i < childCount; i++) {
+                if (children[i] == child) {
+                    System.arraycopy(children, i + 1, children, i, childCount - i - 1);
+                    children[--childCount] = null;
+                    return;
+                }
+            }
+        }
+
+        void updateFirst() {
+            // a node sorts before its children, the first child has the smallest label
+            if (terminal != null) {
+                first = terminal;
+            } else if (childCount > 0) {
+                first = children[0].first;
+            } else {
+                first = null;
+            }
+        }
+
+        void clear() {
+            children = null;
+            childCount = 0;
+            terminal = null;
+            first = null;
+        }
+    }
+}
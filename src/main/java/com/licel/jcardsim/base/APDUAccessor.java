@@ -0,0 +1,77 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.base;
+
+import javacard.framework.APDU;
+
+/**
+ * Internal bridge to the non-public parts of <code>javacard.framework.APDU</code>.
+ *
+ * <p>The implementation is installed once by the static initializer of <code>APDU</code>
+ * and is only usable from <code>com.licel.jcardsim.base</code>.</p>
+ */
+public abstract class APDUAccessor {
+    private static volatile APDUAccessor instance;
+
+    /**
+     * Install the accessor. Called by <code>javacard.framework.APDU</code>
+     * @param accessor accessor implementation
+     * @throws java.lang.IllegalStateException if an accessor is already installed
+     */
+    public static synchronized void install(APDUAccessor accessor) {
+        if (instance != null) {
+            throw new IllegalStateException("APDUAccessor already installed");
+        }
+        instance = accessor;
+    }
+
+    /**
+     * @return the installed accessor
+     */
+    static APDUAccessor get() {
+        APDUAccessor accessor = instance;
+        if (accessor == null) {
+            // initializing APDU installs the accessor
+            try {
+                Class.forName(APDU.class.getName(), true, APDU.class.getClassLoader());
+            } catch (ClassNotFoundException e) {
+                throw new AssertionError(e);
+            }
+            accessor = instance;
+            if (accessor == null) {
+                throw new AssertionError("APDUAccessor not installed");
+            }
+        }
+        return accessor;
+    }
+
+    /**
+     * Create a new <code>APDU</code>
+     * @param extended true for an extended length capable APDU
+     * @return new instance
+     */
+    protected abstract APDU createAPDU(boolean extended);
+
+    /**
+     * Clear internal state of the APDU
+     * @param apdu APDU to reset
+     * @param protocol current protocol
+     * @param buffer array containing the incoming command or null to only revoke access
+     * @param offset offset of the command in <code>buffer</code>
+     * @param length length of the command
+     */
+    protected abstract void internalReset(APDU apdu, byte protocol, byte[] buffer, int offset, int length);
+}
@@ -16,7 +16,6 @@
 package com.licel.jcardsim.base;
 
 import javacard.framework.ISO7816;
-import javacard.framework.Util;
 
 /**
  * Case of an <code>APDU</code>
@@ -75,34 +74,52 @@ public enum ApduCase {
         if (command == null) {
             throw new NullPointerException("command");
         }
-        if (command.length < 4) {
+        return getCase(command, 0, command.length);
+    }
+
+    /**
+     * Determine case of APDU
+     * @param command array containing the command APDU
+     * @param offset offset of the command APDU in <code>command</code>
+     * @param length length of the command APDU
+     * @return Case of <code>command</code>
+     * @throws java.lang.IllegalArgumentException if <code>command</code> is malformed
+     * @throws java.lang.NullPointerException if <code>command</code> is null
+     */
+    public static ApduCase getCase(byte[] command, int offset, int length) {
+        if (command == null) {
+            throw new NullPointerException("command");
+        }
+        if (length < 4) {
             throw new IllegalArgumentException("command: malformed APDU, length < 4");
         }
-        if (command.length == 4) {
+        if (length == 4) {
             return Case1;
         }
-        if (command.length == 5) {
+        if (length == 5) {
             return Case2;
         }
-        if (command.length == 7 && command[ISO7816.OFFSET_LC] == 0) {
+        final byte lcByte = command[offset + ISO7816.OFFSET_LC];
+        if (length == 7 && lcByte == 0) {
             return Case2Extended;
         }
-        if (command[ISO7816.OFFSET_LC] == 0) {
-            int lc = Util.getShort(command, (short) (ISO7816.OFFSET_LC + 1));
-            int offset = ISO7816.OFFSET_LC + 3;
-            if (lc + offset == command.length) {
+        if (lcByte == 0) {
+            int lc = (short) (((command[offset + ISO7816.OFFSET_LC + 1] & 0xFF) << 8)
+                    | (command[offset + ISO7816.OFFSET_LC + 2] & 0xFF));
+            int cdataOffset = ISO7816.OFFSET_LC + 3;
+            if (lc + cdataOffset == length) {
                 return Case3Extended;
-            } else if (lc + offset + 2 == command.length) {
+            } else if (lc + cdataOffset + 2 == length) {
                 return Case4Extended;
             } else {
                 throw new IllegalArgumentException("Invalid extended C-APDU: Lc or Le is invalid");
             }
         } else {
-            int lc = (command[ISO7816.OFFSET_LC] & 0xFF);
-            int offset = ISO7816.OFFSET_LC + 1;
-            if (lc + offset == command.length) {
+            int lc = (lcByte & 0xFF);
+            int cdataOffset = ISO7816.OFFSET_LC + 1;
+            if (lc + cdataOffset == length) {
                 return Case3;
-            } else if (lc + offset + 1 == command.length) {
+            } else if (lc + cdataOffset + 1 == length) {
                 return Case4;
             } else {
                 throw new IllegalArgumentException("Invalid C-APDU: Lc or Le is invalid");
@@ -0,0 +1,519 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.base;
+
+import com.licel.jcardsim.base.SimulatorRuntime.ApplicationInstance;
+import com.licel.jcardsim.utils.AIDUtil;
+import javacard.framework.AID;
+import javacard.framework.Applet;
+import javacard.framework.JCSystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Card image file: installed applets with their object graphs (field values,
+ * <code>OwnerPIN</code> try counters, keys, ...) and load files in a compact binary format.
+ *
+ * <p>The file is memory-mapped. Opening an image only reads the class table and the
+ * applet AIDs, the object graph of an applet is read when the applet is first used by a
+ * restored runtime. An image can be restored into any number of runtimes.</p>
+ *
+ * <p>Restoring an image is a power up of the card: no applet is selected and transient
+ * arrays are zeroed, their contents are not written to the image.</p>
+ *
+ * <p>Limitations:</p>
+ * <ul>
+ *     <li>Static and transient fields are not written</li>
+ *     <li>Instances of JDK classes are limited to <code>String</code>, <code>BigInteger</code>,
+ *     boxed primitives, enums, <code>Class</code> and <code>SecureRandom</code>
+ *     (a new instance is created on load), writing any other JDK object fails
+ *     with an <code>IllegalArgumentException</code></li>
+ *     <li>A field is restored if a field with the same name, declaring class and type
+ *     still exists, other fields keep their default value</li>
+ * </ul>
+ *
+ * @see SimulatorRuntime#writeCardImage(File)
+ * @see SimulatorRuntime#restore(CardImage)
+ */
+public final class CardImage {
+    static final int MAGIC = 0x4A43494D; // "JCIM"
+    static final short VERSION = 1;
+
+    static final byte TAG_OBJECT = 1;
+    static final byte TAG_ARRAY = 2;
+    static final byte TAG_STRING = 3;
+    static final byte TAG_BIG_INTEGER = 4;
+    static final byte TAG_AID = 5;
+    static final byte TAG_BOXED = 6;
+    static final byte TAG_ENUM = 7;
+    static final byte TAG_CLASS = 8;
+    static final byte TAG_SECURE_RANDOM = 9;
+
+    static final byte TYPE_BOOLEAN = 'Z';
+    static final byte TYPE_BYTE = 'B';
+    static final byte TYPE_SHORT = 'S';
+    static final byte TYPE_CHAR = 'C';
+    static final byte TYPE_INT = 'I';
+    static final byte TYPE_LONG = 'J';
+    static final byte TYPE_FLOAT = 'F';
+    static final byte TYPE_DOUBLE = 'D';
+    static final byte TYPE_REFERENCE = 'L';
+
+    private final ByteBuffer buffer;
+    private final ClassLoader classLoader;
+    private final ClassInfo[] classes;
+    private final List<LoadFileInfo> loadFiles = new ArrayList<LoadFileInfo>();
+    private final SortedMap<AID, AID> generatedLoadFileAIDs = new TreeMap<AID, AID>(AIDUtil.comparator());
+    /** object id of the applet of every AID */
+    private final SortedMap<AID, Integer> applets = new TreeMap<AID, Integer>(AIDUtil.comparator());
+    private final int objectCount;
+    private final int offsetTable;
+    private final int records;
+
+    private CardImage(ByteBuffer buffer, ClassLoader classLoader) throws IOException {
+        this.buffer = buffer;
+        this.classLoader = classLoader;
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a card image");
+            }
+            short version = buffer.getShort();
+            if (version != VERSION) {
+                throw new IOException("Unsupported card image version: " + version);
+            }
+
+            classes = new ClassInfo[buffer.getInt()];
+            for (int i = 0; i < classes.length; i++) {
+                classes[i] = new ClassInfo(buffer);
+            }
+
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                loadFiles.add(new LoadFileInfo(buffer));
+            }
+
+            count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                generatedLoadFileAIDs.put(readAID(buffer), readAID(buffer));
+            }
+
+            count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                applets.put(readAID(buffer), buffer.getInt());
+            }
+
+            objectCount = buffer.getInt();
+            offsetTable = buffer.position();
+            records = offsetTable + objectCount * 4;
+            if (objectCount < 0 || records > buffer.limit()) {
+                throw new IOException("Card image is truncated");
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Card image is truncated");
+        }
+    }
+
+    /**
+     * Open a card image, applet classes are loaded by the class loader of this class
+     * @param file image file
+     * @return card image
+     * @throws IOException if the file can not be read or is not a card image
+     */
+    public static CardImage open(File file) throws IOException {
+        return open(file, CardImage.class.getClassLoader());
+    }
+
+    /**
+     * Open a card image
+     * @param file image file
+     * @param classLoader class loader for applet classes
+     * @return card image
+     * @throws IOException if the file can not be read or is not a card image
+     */
+    public static CardImage open(File file, ClassLoader classLoader) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            // the mapping stays valid after the channel is closed
+            return new CardImage(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), classLoader);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * @return AIDs of the applets in the image
+     */
+    public Set<AID> getAppletAIDs() {
+        return Collections.unmodifiableSet(applets.keySet());
+    }
+
+    /**
+     * Put the applets and load files of the image into the maps of <code>runtime</code>,
+     * which have to be empty. Applets are read from the image on first use.
+     * @param runtime target runtime
+     */
+    void restoreInto(SimulatorRuntime runtime) {
+        for (LoadFileInfo loadFile : loadFiles) {
+            runtime.loadFiles.put(loadFile.aid, loadFile.resolve());
+        }
+        runtime.generatedLoadFileAIDs.putAll(generatedLoadFileAIDs);
+        Reader reader = new Reader(runtime.transientMemory);
+        for (AID aid : applets.keySet()) {
+            ApplicationInstance instance = new ImageApplicationInstance(aid, reader, applets.get(aid));
+            runtime.applets.put(aid, instance);
+            runtime.appletIndex.put(aid, instance);
+        }
+    }
+
+    /**
+     * @param type field or array component type
+     * @return type code, <code>TYPE_REFERENCE</code> for all non-primitive types
+     */
+    static byte typeCode(Class<?> type) {
+        if (type == boolean.class) {
+            return TYPE_BOOLEAN;
+        } else if (type == byte.class) {
+            return TYPE_BYTE;
+        } else if (type == short.class) {
+            return TYPE_SHORT;
+        } else if (type == char.class) {
+            return TYPE_CHAR;
+        } else if (type == int.class) {
+            return TYPE_INT;
+        } else if (type == long.class) {
+            return TYPE_LONG;
+        } else if (type == float.class) {
+            return TYPE_FLOAT;
+        } else if (type == double.class) {
+            return TYPE_DOUBLE;
+        }
+        return TYPE_REFERENCE;
+    }
+
+    /**
+     * @param type class of an object
+     * @return type code of the primitive type, <code>TYPE_REFERENCE</code> if <code>type</code> is not a boxed primitive
+     */
+    static byte boxedTypeCode(Class<?> type) {
+        if (type == Boolean.class) {
+            return TYPE_BOOLEAN;
+        } else if (type == Byte.class) {
+            return TYPE_BYTE;
+        } else if (type == Short.class) {
+            return TYPE_SHORT;
+        } else if (type == Character.class) {
+            return TYPE_CHAR;
+        } else if (type == Integer.class) {
+            return TYPE_INT;
+        } else if (type == Long.class) {
+            return TYPE_LONG;
+        } else if (type == Float.class) {
+            return TYPE_FLOAT;
+        } else if (type == Double.class) {
+            return TYPE_DOUBLE;
+        }
+        return TYPE_REFERENCE;
+    }
+
+    private Class<?> loadClass(String name) {
+        try {
+            return Class.forName(name, false, classLoader);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Card image class not found: " + name, e);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        char[] chars = new char[buffer.getInt()];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = buffer.getChar();
+        }
+        return new String(chars);
+    }
+
+    private static AID readAID(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.get()];
+        buffer.get(bytes);
+        return bytes.length == 0 ? null : new AID(bytes, (short) 0, (byte) bytes.length);
+    }
+
+    /**
+     * Class table entry, fields are matched with the current class on first use
+     */
+    private final class ClassInfo {
+        private final String name;
+        private final String[] declaringClasses;
+        private final String[] fieldNames;
+        private final byte[] typeCodes;
+        private Class<?> cls;
+        /** current field for every written field, null if it no longer exists */
+        private Field[] fields;
+
+        ClassInfo(ByteBuffer buffer) {
+            name = readString(buffer);
+            int count = buffer.getShort() & 0xFFFF;
+            declaringClasses = new String[count];
+            fieldNames = new String[count];
+            typeCodes = new byte[count];
+            for (int i = 0; i < count; i++) {
+                declaringClasses[i] = readString(buffer);
+                fieldNames[i] = readString(buffer);
+                typeCodes[i] = buffer.get();
+            }
+        }
+
+        synchronized void resolve() {
+            if (cls != null) {
+                return;
+            }
+            Class<?> resolved = loadClass(name);
+            Field[] currentFields = ObjectGraphCopier.getFields(resolved);
+            Field[] matched = new Field[fieldNames.length];
+            for (int i = 0; i < matched.length; i++) {
+                for (Field field : currentFields) {
+                    if (field.getName().equals(fieldNames[i])
+                            && field.getDeclaringClass().getName().equals(declaringClasses[i])
+                            && typeCode(field.getType()) == typeCodes[i]) {
+                        matched[i] = field;
+                        break;
+                    }
+                }
+            }
+            fields = matched;
+            cls = resolved;
+        }
+    }
+
+    private final class LoadFileInfo {
+        private final AID aid;
+        private final AID[] moduleAIDs;
+        private final String[] appletClassNames;
+        /** LoadFile is immutable and shared by all restored runtimes */
+        private volatile LoadFile loadFile;
+
+        LoadFileInfo(ByteBuffer buffer) {
+            aid = readAID(buffer);
+            int count = buffer.getShort() & 0xFFFF;
+            moduleAIDs = new AID[count];
+            appletClassNames = new String[count];
+            for (int i = 0; i < count; i++) {
+                moduleAIDs[i] = readAID(buffer);
+                appletClassNames[i] = readString(buffer);
+            }
+        }
+
+        LoadFile resolve() {
+            if (loadFile == null) {
+                Module[] modules = new Module[moduleAIDs.length];
+                for (int i = 0; i < modules.length; i++) {
+                    modules[i] = new Module(moduleAIDs[i], loadClass(appletClassNames[i]).asSubclass(Applet.class));
+                }
+                loadFile = new LoadFile(aid, modules);
+            }
+            return loadFile;
+        }
+    }
+
+    /**
+     * Reads objects of the image for one restored runtime.
+     * An object reachable from several applets is read once.
+     */
+    private final class Reader {
+        private final TransientMemory transientMemory;
+        private final Object[] objects = new Object[objectCount];
+
+        Reader(TransientMemory transientMemory) {
+            this.transientMemory = transientMemory;
+        }
+
+        Object read(int id) {
+            if (id < 0) {
+                return null;
+            }
+            Object obj = objects[id];
+            if (obj != null) {
+                return obj;
+            }
+            ByteBuffer in = buffer.duplicate();
+            in.position(records + buffer.getInt(offsetTable + id * 4));
+            byte tag = in.get();
+            switch (tag) {
+                case TAG_OBJECT:
+                    return readObject(in, id);
+                case TAG_ARRAY:
+                    return readArray(in, id);
+                case TAG_STRING:
+                    obj = readString(in);
+                    break;
+                case TAG_BIG_INTEGER:
+                    byte[] bytes = new byte[in.getInt()];
+                    in.get(bytes);
+                    obj = new BigInteger(bytes);
+                    break;
+                case TAG_AID:
+                    obj = readAID(in);
+                    break;
+                case TAG_BOXED:
+                    obj = readValue(in, in.get());
+                    break;
+                case TAG_ENUM:
+                    obj = readEnum(loadClass(readString(in)), readString(in));
+                    break;
+                case TAG_CLASS:
+                    obj = loadClass(readString(in));
+                    break;
+                case TAG_SECURE_RANDOM:
+                    obj = new SecureRandom();
+                    break;
+                default:
+                    throw new IllegalStateException("Invalid card image record: " + tag);
+            }
+            objects[id] = obj;
+            return obj;
+        }
+
+        private Object readObject(ByteBuffer in, int id) {
+            ClassInfo info = classes[in.getInt()];
+            info.resolve();
+            Object obj = ObjectGraphCopier.allocate(info.cls);
+            // before reading the fields, they may refer back to obj
+            objects[id] = obj;
+            try {
+                for (int i = 0; i < info.typeCodes.length; i++) {
+                    Object value = readValue(in, info.typeCodes[i]);
+                    Field field = info.fields[i];
+                    if (field != null) {
+                        field.set(obj, value);
+                    }
+                }
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException("Internal reflection error", e);
+            }
+            return obj;
+        }
+
+        private Object readArray(ByteBuffer in, int id) {
+            byte typeCode = in.get();
+            Class<?> componentType = typeCode == TYPE_REFERENCE ? loadClass(readString(in)) : primitiveType(typeCode);
+            byte event = in.get();
+            int length = in.getInt();
+            Object array = Array.newInstance(componentType, length);
+            objects[id] = array;
+            if (event != JCSystem.NOT_A_TRANSIENT_OBJECT) {
+                // power up, the array stays zeroed
+                transientMemory.storeArray(array, event);
+                return array;
+            }
+            if (typeCode == TYPE_BYTE) {
+                in.get((byte[]) array);
+            } else {
+                for (int i = 0; i < length; i++) {
+                    Array.set(array, i, readValue(in, typeCode));
+                }
+            }
+            return array;
+        }
+
+        /**
+         * @return boxed primitive value, or the referenced object for <code>TYPE_REFERENCE</code>
+         */
+        private Object readValue(ByteBuffer in, byte typeCode) {
+            switch (typeCode) {
+                case TYPE_BOOLEAN:
+                    return in.get() != 0;
+                case TYPE_BYTE:
+                    return in.get();
+                case TYPE_SHORT:
+                    return in.getShort();
+                case TYPE_CHAR:
+                    return in.getChar();
+                case TYPE_INT:
+                    return in.getInt();
+                case TYPE_LONG:
+                    return in.getLong();
+                case TYPE_FLOAT:
+                    return in.getFloat();
+                case TYPE_DOUBLE:
+                    return in.getDouble();
+                default:
+                    return read(in.getInt());
+            }
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private Object readEnum(Class cls, String name) {
+            return Enum.valueOf(cls, name);
+        }
+    }
+
+    private static Class<?> primitiveType(byte typeCode) {
+        switch (typeCode) {
+            case TYPE_BOOLEAN:
+                return boolean.class;
+            case TYPE_BYTE:
+                return byte.class;
+            case TYPE_SHORT:
+                return short.class;
+            case TYPE_CHAR:
+                return char.class;
+            case TYPE_INT:
+                return int.class;
+            case TYPE_LONG:
+                return long.class;
+            case TYPE_FLOAT:
+                return float.class;
+            case TYPE_DOUBLE:
+                return double.class;
+            default:
+                throw new IllegalStateException("Invalid card image type: " + typeCode);
+        }
+    }
+
+    /**
+     * Applet instance which reads its applet from the image on first use
+     */
+    private static final class ImageApplicationInstance extends ApplicationInstance {
+        private final Reader reader;
+        private final int id;
+
+        ImageApplicationInstance(AID aid, Reader reader, int id) {
+            super(aid);
+            this.reader = reader;
+            this.id = id;
+        }
+
+        @Override
+        protected Applet loadApplet() {
+            return (Applet) reader.read(id);
+        }
+    }
+}
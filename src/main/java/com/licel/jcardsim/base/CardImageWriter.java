@@ -0,0 +1,251 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.base;
+
+import com.licel.jcardsim.base.SimulatorRuntime.ApplicationInstance;
+import javacard.framework.AID;
+import javacard.framework.JCSystem;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the state of a <code>SimulatorRuntime</code> in the <code>CardImage</code> format
+ */
+final class CardImageWriter {
+    private final SimulatorRuntime runtime;
+    private final IdentityHashMap<Object, Integer> ids = new IdentityHashMap<Object, Integer>();
+    private final List<Object> objects = new ArrayList<Object>();
+    private final Map<Class<?>, Integer> classIndex = new HashMap<Class<?>, Integer>();
+    private final List<Class<?>> classes = new ArrayList<Class<?>>();
+
+    CardImageWriter(SimulatorRuntime runtime) {
+        this.runtime = runtime;
+    }
+
+    void write(OutputStream outputStream) throws IOException {
+        // applet roots first, the object list grows while records are written
+        int[] appletRoots = new int[runtime.applets.size()];
+        int i = 0;
+        for (ApplicationInstance instance : runtime.applets.values()) {
+            appletRoots[i++] = idOf(instance.getApplet());
+        }
+        ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+        DataOutputStream records = new DataOutputStream(recordBytes);
+        List<Integer> offsets = new ArrayList<Integer>();
+        for (int id = 0; id < objects.size(); id++) {
+            offsets.add(records.size());
+            writeRecord(records, objects.get(id));
+        }
+        records.flush();
+
+        DataOutputStream out = new DataOutputStream(outputStream);
+        out.writeInt(CardImage.MAGIC);
+        out.writeShort(CardImage.VERSION);
+
+        out.writeInt(classes.size());
+        for (Class<?> cls : classes) {
+            writeString(out, cls.getName());
+            Field[] fields = ObjectGraphCopier.getFields(cls);
+            out.writeShort(fields.length);
+            for (Field field : fields) {
+                writeString(out, field.getDeclaringClass().getName());
+                writeString(out, field.getName());
+                out.writeByte(CardImage.typeCode(field.getType()));
+            }
+        }
+
+        out.writeInt(runtime.loadFiles.size());
+        for (LoadFile loadFile : runtime.loadFiles.values()) {
+            writeAID(out, loadFile.getAid());
+            out.writeShort(loadFile.getModules().size());
+            for (Module module : loadFile.getModules()) {
+                writeAID(out, module.getAid());
+                writeString(out, module.getAppletClass().getName());
+            }
+        }
+
+        out.writeInt(runtime.generatedLoadFileAIDs.size());
+        for (Map.Entry<AID, AID> entry : runtime.generatedLoadFileAIDs.entrySet()) {
+            writeAID(out, entry.getKey());
+            writeAID(out, entry.getValue());
+        }
+
+        out.writeInt(appletRoots.length);
+        i = 0;
+        for (AID aid : runtime.applets.keySet()) {
+            writeAID(out, aid);
+            out.writeInt(appletRoots[i++]);
+        }
+
+        out.writeInt(offsets.size());
+        for (Integer offset : offsets) {
+            out.writeInt(offset);
+        }
+        recordBytes.writeTo(out);
+        out.flush();
+    }
+
+    private int idOf(Object obj) {
+        if (obj == null) {
+            return -1;
+        }
+        Integer id = ids.get(obj);
+        if (id == null) {
+            id = objects.size();
+            ids.put(obj, id);
+            objects.add(obj);
+        }
+        return id;
+    }
+
+    private int classIndexOf(Class<?> cls) {
+        Integer index = classIndex.get(cls);
+        if (index == null) {
+            index = classes.size();
+            classIndex.put(cls, index);
+            classes.add(cls);
+        }
+        return index;
+    }
+
+    private void writeRecord(DataOutputStream out, Object obj) throws IOException {
+        Class<?> cls = obj.getClass();
+        if (cls.isArray()) {
+            writeArray(out, obj, cls.getComponentType());
+        } else if (!ObjectGraphCopier.isShared(cls)) {
+            out.writeByte(CardImage.TAG_OBJECT);
+            out.writeInt(classIndexOf(cls));
+            try {
+                for (Field field : ObjectGraphCopier.getFields(cls)) {
+                    writeValue(out, CardImage.typeCode(field.getType()), field.get(obj));
+                }
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException("Internal reflection error", e);
+            }
+        } else if (obj instanceof String) {
+            out.writeByte(CardImage.TAG_STRING);
+            writeString(out, (String) obj);
+        } else if (obj instanceof AID) {
+            out.writeByte(CardImage.TAG_AID);
+            writeAID(out, (AID) obj);
+        } else if (obj instanceof BigInteger) {
+            out.writeByte(CardImage.TAG_BIG_INTEGER);
+            byte[] bytes = ((BigInteger) obj).toByteArray();
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } else if (obj instanceof Enum) {
+            out.writeByte(CardImage.TAG_ENUM);
+            writeString(out, ((Enum<?>) obj).getDeclaringClass().getName());
+            writeString(out, ((Enum<?>) obj).name());
+        } else if (obj instanceof Class) {
+            out.writeByte(CardImage.TAG_CLASS);
+            writeString(out, ((Class<?>) obj).getName());
+        } else if (obj instanceof SecureRandom) {
+            // state is not written, a new instance is created on load
+            out.writeByte(CardImage.TAG_SECURE_RANDOM);
+        } else if (CardImage.boxedTypeCode(cls) != CardImage.TYPE_REFERENCE) {
+            out.writeByte(CardImage.TAG_BOXED);
+            out.writeByte(CardImage.boxedTypeCode(cls));
+            writeValue(out, CardImage.boxedTypeCode(cls), obj);
+        } else {
+            throw new IllegalArgumentException("Can not write " + cls.getName() + " to a card image");
+        }
+    }
+
+    private void writeArray(DataOutputStream out, Object array, Class<?> componentType) throws IOException {
+        int length = Array.getLength(array);
+        byte event = runtime.transientMemory.isTransient(array);
+        out.writeByte(CardImage.TAG_ARRAY);
+        byte typeCode = CardImage.typeCode(componentType);
+        out.writeByte(typeCode);
+        if (typeCode == CardImage.TYPE_REFERENCE) {
+            writeString(out, componentType.getName());
+        }
+        out.writeByte(event);
+        out.writeInt(length);
+        if (event != JCSystem.NOT_A_TRANSIENT_OBJECT) {
+            // transient arrays are cleared on power up, only the length is stored
+            return;
+        }
+        if (componentType == byte.class) {
+            out.write((byte[]) array);
+        } else {
+            for (int i = 0; i < length; i++) {
+                writeValue(out, typeCode, Array.get(array, i));
+            }
+        }
+    }
+
+    private void writeValue(DataOutputStream out, byte typeCode, Object value) throws IOException {
+        switch (typeCode) {
+            case CardImage.TYPE_BOOLEAN:
+                out.writeBoolean((Boolean) value);
+                break;
+            case CardImage.TYPE_BYTE:
+                out.writeByte((Byte) value);
+                break;
+            case CardImage.TYPE_SHORT:
+                out.writeShort((Short) value);
+                break;
+            case CardImage.TYPE_CHAR:
+                out.writeChar((Character) value);
+                break;
+            case CardImage.TYPE_INT:
+                out.writeInt((Integer) value);
+                break;
+            case CardImage.TYPE_LONG:
+                out.writeLong((Long) value);
+                break;
+            case CardImage.TYPE_FLOAT:
+                out.writeFloat((Float) value);
+                break;
+            case CardImage.TYPE_DOUBLE:
+                out.writeDouble((Double) value);
+                break;
+            default:
+                out.writeInt(idOf(value));
+                break;
+        }
+    }
+
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        out.writeInt(s.length());
+        out.writeChars(s);
+    }
+
+    static void writeAID(DataOutputStream out, AID aid) throws IOException {
+        if (aid == null) {
+            out.writeByte(0);
+            return;
+        }
+        byte[] buffer = new byte[16];
+        byte length = aid.getBytes(buffer, (short) 0);
+        out.writeByte(length);
+        out.write(buffer, 0, length);
+    }
+}
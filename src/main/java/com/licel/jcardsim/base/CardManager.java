@@ -16,6 +16,7 @@
 package com.licel.jcardsim.base;
 
 import com.licel.jcardsim.io.JavaCardInterface;
+import java.nio.ByteBuffer;
 import javacard.framework.AID;
 import javacard.framework.ISO7816;
 import javacard.framework.SystemException;
@@ -57,4 +58,29 @@ public class CardManager {
             return sim.transmitCommand(capdu);
         }
     }
+
+    /**
+     * Dispatch the remaining bytes of <code>capdu</code>, writing the response
+     * at the position of <code>rapdu</code>
+     * @param sim card to dispatch to
+     * @param capdu command apdu
+     * @param rapdu response buffer
+     * @return number of bytes written to <code>rapdu</code>
+     */
+    public static int dispatchApdu(JavaCardInterface sim, ByteBuffer capdu, ByteBuffer rapdu) {
+        int position = capdu.position();
+        if (capdu.remaining() > ISO7816.OFFSET_INS
+                && capdu.get(position + ISO7816.OFFSET_CLA) == (byte)0x80
+                && capdu.get(position + ISO7816.OFFSET_INS) == (byte)0xb8) {
+            byte[] command = new byte[capdu.remaining()];
+            capdu.get(command);
+            byte[] response = dispatchApdu(sim, command);
+            if (response.length > rapdu.remaining()) {
+                throw new IllegalArgumentException("Response buffer too small, required: " + response.length);
+            }
+            rapdu.put(response);
+            return response.length;
+        }
+        return sim.transmitCommand(capdu, rapdu);
+    }
 }
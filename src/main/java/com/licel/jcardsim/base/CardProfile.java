@@ -0,0 +1,74 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.base;
+
+/**
+ * Memory budget of a simulated card, in bytes.
+ *
+ * <p>Exceeding the transient budget fails <code>JCSystem.makeTransient*Array</code> with
+ * <code>SystemException.NO_TRANSIENT_SPACE</code>. Exceeding the persistent budget fails the
+ * installation of the applet with <code>SystemException.NO_RESOURCE</code>.</p>
+ *
+ * <pre>
+ * // 80 KB EEPROM, 2 KB RAM for each transient memory type
+ * runtime.setCardProfile(new CardProfile(80 * 1024, 2048, 2048));
+ * </pre>
+ *
+ * @see SimulatorRuntime#setCardProfile(CardProfile)
+ */
+public final class CardProfile {
+    /**
+     * Profile without limits, the default
+     */
+    public static final CardProfile UNLIMITED = new CardProfile(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+    private final int persistentMemory;
+    private final int transientResetMemory;
+    private final int transientDeselectMemory;
+
+    /**
+     * @param persistentMemory persistent memory for applets
+     * @param transientResetMemory memory for <code>CLEAR_ON_RESET</code> arrays
+     * @param transientDeselectMemory memory for <code>CLEAR_ON_DESELECT</code> arrays
+     * @throws java.lang.IllegalArgumentException if a size is negative
+     */
+    public CardProfile(int persistentMemory, int transientResetMemory, int transientDeselectMemory) {
+        if (persistentMemory < 0 || transientResetMemory < 0 || transientDeselectMemory < 0) {
+            throw new IllegalArgumentException("Memory size must not be negative");
+        }
+        this.persistentMemory = persistentMemory;
+        this.transientResetMemory = transientResetMemory;
+        this.transientDeselectMemory = transientDeselectMemory;
+    }
+
+    public int getPersistentMemory() {
+        return persistentMemory;
+    }
+
+    public int getTransientResetMemory() {
+        return transientResetMemory;
+    }
+
+    public int getTransientDeselectMemory() {
+        return transientDeselectMemory;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CardProfile (persistent: %d, transient reset: %d, transient deselect: %d)",
+                persistentMemory, transientResetMemory, transientDeselectMemory);
+    }
+}
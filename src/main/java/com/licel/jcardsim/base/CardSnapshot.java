@@ -0,0 +1,173 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.base;
+
+import com.licel.jcardsim.base.SimulatorRuntime.ApplicationInstance;
+import com.licel.jcardsim.utils.AIDUtil;
+import javacard.framework.AID;
+import javacard.framework.Applet;
+import javacard.framework.JCSystem;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Captured state of a <code>SimulatorRuntime</code>: installed applets with their
+ * object graphs, load files, transient array contents and the selected applet.
+ *
+ * <p>A snapshot is immutable and can be restored into any number of runtimes,
+ * also concurrently. Restoring is copy-on-access: the object graph of an applet
+ * is copied when the applet is first used by the restored runtime, so restoring
+ * a card with many applets only pays for the applets a test actually touches.</p>
+ *
+ * <p>Limitations:</p>
+ * <ul>
+ *     <li>Static and transient fields are not captured</li>
+ *     <li>Instances of JDK classes are shared between the snapshot and all restored runtimes,
+ *     applets must not keep mutable JDK objects (collections, ...) in their fields</li>
+ *     <li>Logical channel state of <code>ExtendedRuntime</code> is not captured</li>
+ * </ul>
+ *
+ * @see SimulatorRuntime#snapshot()
+ * @see SimulatorRuntime#restore(CardSnapshot)
+ */
+public final class CardSnapshot {
+    private final SortedMap<AID, Applet> applets = new TreeMap<AID, Applet>(AIDUtil.comparator());
+    private final SortedMap<AID, LoadFile> loadFiles;
+    private final SortedMap<AID, AID> generatedLoadFileAIDs;
+    /** events of the captured transient arrays */
+    private final IdentityHashMap<Object, Byte> transientEvents = new IdentityHashMap<Object, Byte>();
+    private final AID currentAID;
+    private final AID previousAID;
+    private final byte currentProtocol;
+
+    CardSnapshot(SimulatorRuntime runtime) {
+        final TransientMemory transientMemory = runtime.transientMemory;
+        ObjectGraphCopier copier = new ObjectGraphCopier() {
+            @Override
+            protected boolean copyArrayContent(Object original, Object copy) {
+                byte event = transientMemory.isTransient(original);
+                if (event != JCSystem.NOT_A_TRANSIENT_OBJECT) {
+                    transientEvents.put(copy, event);
+                }
+                return true;
+            }
+        };
+        for (Map.Entry<AID, ApplicationInstance> entry : runtime.applets.entrySet()) {
+            applets.put(entry.getKey(), (Applet) copier.copy(entry.getValue().getApplet()));
+        }
+        // LoadFile and AID are immutable
+        loadFiles = new TreeMap<AID, LoadFile>(runtime.loadFiles);
+        generatedLoadFileAIDs = new TreeMap<AID, AID>(runtime.generatedLoadFileAIDs);
+        currentAID = runtime.currentAID;
+        previousAID = runtime.previousAID;
+        currentProtocol = runtime.currentProtocol;
+    }
+
+    /**
+     * @return AIDs of the captured applets
+     */
+    public Set<AID> getAppletAIDs() {
+        return Collections.unmodifiableSet(applets.keySet());
+    }
+
+    /**
+     * Put the captured state into the maps of <code>runtime</code>,
+     * which have to be empty
+     * @param runtime target runtime
+     * @return restored state which is copied on access
+     */
+    Fork restoreInto(SimulatorRuntime runtime) {
+        Fork fork = new Fork(runtime.transientMemory);
+        for (Map.Entry<AID, Applet> entry : applets.entrySet()) {
+            ApplicationInstance instance = new ForkedApplicationInstance(entry.getKey(), fork, entry.getValue());
+            runtime.applets.put(entry.getKey(), instance);
+            runtime.appletIndex.put(entry.getKey(), instance);
+        }
+        runtime.loadFiles.putAll(loadFiles);
+        runtime.generatedLoadFileAIDs.putAll(generatedLoadFileAIDs);
+        runtime.currentAID = currentAID;
+        runtime.previousAID = previousAID;
+        runtime.changeProtocol(currentProtocol);
+        return fork;
+    }
+
+    /**
+     * Copies the captured object graphs into one restored runtime.
+     * Transient arrays are registered with the transient memory of the runtime.
+     * Clear events which happened before an array was copied are applied when it is copied.
+     */
+    final class Fork {
+        private final ObjectGraphCopier copier;
+        private boolean clearedOnDeselect;
+        private boolean clearedOnReset;
+
+        Fork(final TransientMemory transientMemory) {
+            this.copier = new ObjectGraphCopier() {
+                @Override
+                protected boolean copyArrayContent(Object original, Object copy) {
+                    Byte event = transientEvents.get(original);
+                    if (event == null) {
+                        return true;
+                    }
+                    transientMemory.storeArray(copy, event);
+                    return !(clearedOnReset || (clearedOnDeselect && event == JCSystem.CLEAR_ON_DESELECT));
+                }
+            };
+        }
+
+        Applet copy(Applet applet) {
+            return (Applet) copier.copy(applet);
+        }
+
+        /**
+         * Transient memory of the runtime has been cleared on deselect
+         */
+        void clearOnDeselect() {
+            clearedOnDeselect = true;
+        }
+
+        /**
+         * Transient memory of the runtime has been cleared on reset
+         */
+        void clearOnReset() {
+            clearedOnReset = true;
+        }
+    }
+
+    /**
+     * Applet instance which copies its applet from the snapshot on first use
+     */
+    private static final class ForkedApplicationInstance extends ApplicationInstance {
+        private final Fork fork;
+        private final Applet capturedApplet;
+
+        ForkedApplicationInstance(AID aid, Fork fork, Applet capturedApplet) {
+            super(aid);
+            this.fork = fork;
+            this.capturedApplet = capturedApplet;
+        }
+
+        @Override
+        protected Applet loadApplet() {
+            return fork.copy(capturedApplet);
+        }
+    }
+}
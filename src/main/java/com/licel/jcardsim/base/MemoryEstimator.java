@@ -0,0 +1,115 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.base;
+
+import javacard.framework.Applet;
+import javacard.framework.JCSystem;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Estimates the memory an object graph would take on a card.
+ *
+ * <p>Sizes follow a Java Card VM: references and <code>short</code> take 2 bytes,
+ * <code>byte</code> and <code>boolean</code> 1 byte, every object and array has a
+ * 4 byte header. Instances of JDK classes, enums and <code>AID</code> are not counted,
+ * other applets reachable from the graph (shareable objects) are not followed.</p>
+ */
+final class MemoryEstimator {
+    static final int HEADER_SIZE = 4;
+    static final int REFERENCE_SIZE = 2;
+
+    private MemoryEstimator() {
+    }
+
+    /**
+     * @param array array
+     * @return size of the array elements in bytes, without header
+     */
+    static int arraySize(Object array) {
+        return Array.getLength(array) * elementSize(array.getClass().getComponentType());
+    }
+
+    /**
+     * @param applet root of the graph
+     * @param transientMemory transient memory, transient arrays are not counted
+     * @return estimated persistent memory of <code>applet</code> in bytes
+     */
+    static int persistentSize(Applet applet, TransientMemory transientMemory) {
+        IdentityHashMap<Object, Boolean> visited = new IdentityHashMap<Object, Boolean>();
+        List<Object> pending = new ArrayList<Object>();
+        pending.add(applet);
+        visited.put(applet, Boolean.TRUE);
+        long size = 0;
+        try {
+            while (!pending.isEmpty()) {
+                Object obj = pending.remove(pending.size() - 1);
+                Class<?> cls = obj.getClass();
+                if (cls.isArray()) {
+                    if (transientMemory.isTransient(obj) != JCSystem.NOT_A_TRANSIENT_OBJECT) {
+                        continue;
+                    }
+                    size += HEADER_SIZE + arraySize(obj);
+                    if (!cls.getComponentType().isPrimitive()) {
+                        for (Object element : (Object[]) obj) {
+                            visit(element, applet, visited, pending);
+                        }
+                    }
+                } else {
+                    size += HEADER_SIZE;
+                    for (Field field : ObjectGraphCopier.getFields(cls)) {
+                        size += elementSize(field.getType());
+                        if (!field.getType().isPrimitive()) {
+                            visit(field.get(obj), applet, visited, pending);
+                        }
+                    }
+                }
+            }
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException("Internal reflection error", e);
+        }
+        return size > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) size;
+    }
+
+    private static void visit(Object obj, Applet root, IdentityHashMap<Object, Boolean> visited, List<Object> pending) {
+        if (obj == null || (obj instanceof Applet && obj != root)) {
+            return;
+        }
+        Class<?> cls = obj.getClass();
+        if (!cls.isArray() && ObjectGraphCopier.isShared(cls)) {
+            return;
+        }
+        if (visited.put(obj, Boolean.TRUE) == null) {
+            pending.add(obj);
+        }
+    }
+
+    private static int elementSize(Class<?> type) {
+        if (type == byte.class || type == boolean.class) {
+            return 1;
+        } else if (type == int.class || type == float.class) {
+            return 4;
+        } else if (type == long.class || type == double.class) {
+            return 8;
+        }
+        // short, char and references
+        return 2;
+    }
+}
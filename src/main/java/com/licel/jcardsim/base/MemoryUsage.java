@@ -0,0 +1,89 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.base;
+
+import javacard.framework.JCSystem;
+
+/**
+ * Memory used by one applet, in bytes.
+ *
+ * <ul>
+ *     <li>Persistent memory is estimated from the object graph of the applet,
+ *     see <code>SimulatorRuntime.getMemoryUsage()</code></li>
+ *     <li>Transient memory is the size of the transient arrays created in the
+ *     context of the applet which have not been garbage collected</li>
+ * </ul>
+ *
+ * @see SimulatorRuntime#getMemoryUsage()
+ * @see CardProfile
+ */
+public final class MemoryUsage {
+    private int persistent;
+    private int transientReset;
+    private int transientDeselect;
+
+    MemoryUsage() {
+    }
+
+    MemoryUsage(MemoryUsage other) {
+        this.persistent = other.persistent;
+        this.transientReset = other.transientReset;
+        this.transientDeselect = other.transientDeselect;
+    }
+
+    /**
+     * @return estimated persistent memory in bytes
+     */
+    public int getPersistentMemory() {
+        return persistent;
+    }
+
+    /**
+     * @return <code>CLEAR_ON_RESET</code> transient memory in bytes
+     */
+    public int getTransientResetMemory() {
+        return transientReset;
+    }
+
+    /**
+     * @return <code>CLEAR_ON_DESELECT</code> transient memory in bytes
+     */
+    public int getTransientDeselectMemory() {
+        return transientDeselect;
+    }
+
+    void setPersistent(int persistent) {
+        this.persistent = persistent;
+    }
+
+    void addTransient(byte event, int size) {
+        if (event == JCSystem.CLEAR_ON_RESET) {
+            transientReset += size;
+        } else {
+            transientDeselect += size;
+        }
+    }
+
+    void removeTransient(byte event, int size) {
+        addTransient(event, -size);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MemoryUsage (persistent: %d, transient reset: %d, transient deselect: %d)",
+                persistent, transientReset, transientDeselect);
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.base;
+
+import javacard.framework.AID;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reflective deep copy of applet object graphs, used by <code>CardSnapshot</code>.
+ *
+ * <ul>
+ *     <li>Instances of JDK classes (<code>String</code>, <code>BigInteger</code>,
+ *     <code>SecureRandom</code>, ...), enums and <code>AID</code> are shared, not copied</li>
+ *     <li>Arrays and all other objects are copied field by field, constructors are not called</li>
+ *     <li>Static and transient fields are not copied, transient fields of a copy
+ *     have their default value</li>
+ * </ul>
+ *
+ * An object reachable on several paths is copied once, for all calls
+ * of <code>copy</code> on the same instance.
+ */
+class ObjectGraphCopier {
+    private static final Object unsafe;
+    private static final Method allocateInstance;
+    private static final ConcurrentHashMap<Class<?>, Field[]> fieldCache = new ConcurrentHashMap<Class<?>, Field[]>();
+
+    static {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field f = unsafeClass.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            unsafe = f.get(null);
+            allocateInstance = unsafeClass.getMethod("allocateInstance", Class.class);
+        } catch (Exception e) {
+            throw new RuntimeException("Internal reflection error", e);
+        }
+    }
+
+    private final IdentityHashMap<Object, Object> copies = new IdentityHashMap<Object, Object>();
+
+    /**
+     * @param obj object to copy
+     * @return copy of <code>obj</code>, or <code>obj</code> itself if it is shared
+     */
+    Object copy(Object obj) {
+        if (obj == null) {
+            return null;
+        }
+        Class<?> cls = obj.getClass();
+        if (!cls.isArray() && isShared(cls)) {
+            return obj;
+        }
+        Object copy = copies.get(obj);
+        if (copy != null) {
+            return copy;
+        }
+        if (cls.isArray()) {
+            return copyArray(obj, cls.getComponentType());
+        }
+
+        copy = allocate(cls);
+        copies.put(obj, copy);
+        try {
+            for (Field field : getFields(cls)) {
+                Object value = field.get(obj);
+                field.set(copy, field.getType().isPrimitive() ? value : copy(value));
+            }
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException("Internal reflection error", e);
+        }
+        return copy;
+    }
+
+    /**
+     * Called for every copied array before its content is copied
+     * @param original original array
+     * @param copy new array of the same type and length
+     * @return true to copy the content, false to leave <code>copy</code> zeroed
+     */
+    protected boolean copyArrayContent(Object original, Object copy) {
+        return true;
+    }
+
+    private Object copyArray(Object array, Class<?> componentType) {
+        int length = Array.getLength(array);
+        Object copy = Array.newInstance(componentType, length);
+        copies.put(array, copy);
+        if (!copyArrayContent(array, copy)) {
+            return copy;
+        }
+        if (componentType.isPrimitive()) {
+            System.arraycopy(array, 0, copy, 0, length);
+        } else {
+            Object[] source = (Object[]) array;
+            Object[] dest = (Object[]) copy;
+            for (int i = 0; i < length; i++) {
+                dest[i] = copy(source[i]);
+            }
+        }
+        return copy;
+    }
+
+    static boolean isShared(Class<?> cls) {
+        // classes of the bootstrap class loader are JDK classes
+        return cls.getClassLoader() == null || cls == AID.class || Enum.class.isAssignableFrom(cls);
+    }
+
+    /**
+     * Create an instance without calling a constructor
+     */
+    static Object allocate(Class<?> cls) {
+        try {
+            return allocateInstance.invoke(unsafe, cls);
+        } catch (Exception e) {
+            throw new RuntimeException("Can not create an instance of " + cls.getName(), e);
+        }
+    }
+
+    /**
+     * @return accessible non-static, non-transient fields of <code>cls</code> and its superclasses
+     */
+    static Field[] getFields(Class<?> cls) {
+        Field[] fields = fieldCache.get(cls);
+        if (fields == null) {
+            List<Field> list = new ArrayList<Field>();
+            for (Class<?> c = cls; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+                        field.setAccessible(true);
+                        list.add(field);
+                    }
+                }
+            }
+            fields = list.toArray(new Field[list.size()]);
+            fieldCache.put(cls, fields);
+        }
+        return fields;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.base;
+
+import java.io.Closeable;
+
+/**
+ * Scoped binding of a <code>SimulatorRuntime</code> to the current thread,
+ * obtained from <code>SimulatorSystem.bind</code>.
+ *
+ * <p>While the binding is open, <code>JCSystem</code>, <code>APDU</code> and the other
+ * Java Card API classes use the bound runtime on this thread. <code>close</code> restores
+ * the runtime that was current before, so bindings may be nested and must be closed
+ * in reverse order:</p>
+ *
+ * <pre>
+ * RuntimeBinding binding = SimulatorSystem.bind(runtime);
+ * try {
+ *     // applet code
+ * } finally {
+ *     binding.close();
+ * }
+ * </pre>
+ *
+ * @see SimulatorSystem#bind(SimulatorRuntime)
+ * @see SimulatorSystem#wrap(SimulatorRuntime, Runnable)
+ */
+public final class RuntimeBinding implements Closeable {
+    private final SimulatorSystem.RuntimeHolder holder;
+    private final SimulatorRuntime runtime;
+    private final SimulatorRuntime previous;
+    private final RuntimeBinding outer;
+    private final Thread thread;
+    private boolean closed;
+
+    RuntimeBinding(SimulatorSystem.RuntimeHolder holder, SimulatorRuntime runtime) {
+        this.holder = holder;
+        this.runtime = runtime;
+        this.previous = holder.runtime;
+        this.outer = holder.binding;
+        this.thread = Thread.currentThread();
+        holder.runtime = runtime;
+        holder.binding = this;
+    }
+
+    /**
+     * @return bound runtime
+     */
+    public SimulatorRuntime getRuntime() {
+        return runtime;
+    }
+
+    /**
+     * Restore the runtime which was current when the binding was created.
+     * Closing a binding twice has no effect.
+     * @throws java.lang.IllegalStateException if called from another thread
+     * or if a binding created after this one is still open
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        if (Thread.currentThread() != thread) {
+            throw new IllegalStateException("RuntimeBinding must be closed by the thread that created it");
+        }
+        // the runtime itself may have been switched by transmitCommand, the innermost
+        // binding is tracked separately
+        if (holder.binding != this) {
+            throw new IllegalStateException("RuntimeBinding must be closed in reverse order of creation");
+        }
+        holder.runtime = previous;
+        holder.binding = outer;
+        closed = true;
+    }
+}
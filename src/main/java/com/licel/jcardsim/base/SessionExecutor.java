@@ -0,0 +1,177 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.base;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs card sessions, blocking request/response conversations with a simulated card,
+ * each on its own task with its own <code>Simulator</code> and <code>SimulatorRuntime</code>.
+ *
+ * <ul>
+ *     <li>The simulator is created on the session's thread from <code>properties</code>
+ *     (<code>com.licel.jcardsim.card.applet.N.AID/Class</code>) and its runtime is bound with
+ *     <code>SimulatorSystem.bind</code> while the session runs.</li>
+ *     <li><code>create</code> uses one virtual thread per session if the JVM provides
+ *     <code>Executors.newVirtualThreadPerTaskExecutor</code>, otherwise a fixed thread pool.</li>
+ *     <li>A simulator is never shared between sessions, so the <code>synchronized (runtime)</code>
+ *     blocks of <code>Simulator</code> are never contended and nothing blocks while holding them:
+ *     a virtual thread does not pin its carrier when it waits between commands.</li>
+ *     <li>Every runtime allocates about 100 KB of APDU buffers, size the heap for the number
+ *     of concurrent sessions.</li>
+ * </ul>
+ */
+public class SessionExecutor {
+    /**
+     * Conversation with one simulated card
+     * @param <T> result type
+     */
+    public interface Session<T> {
+        /**
+         * @param simulator simulator of this session
+         * @return result of the session
+         * @throws Exception if the session fails
+         */
+        T run(Simulator simulator) throws Exception;
+    }
+
+    private final ExecutorService executor;
+    private final Properties properties;
+    private final boolean virtualThreads;
+
+    /**
+     * Create an executor using virtual threads if available
+     * @param properties applet configuration of every session
+     * @param fallbackThreads number of threads if virtual threads are not available
+     * @return executor
+     * @throws java.lang.IllegalArgumentException if <code>fallbackThreads</code> is not positive
+     */
+    public static SessionExecutor create(Properties properties, int fallbackThreads) {
+        if (fallbackThreads <= 0) {
+            throw new IllegalArgumentException("fallbackThreads must be positive but was " + fallbackThreads);
+        }
+        ExecutorService executor = newVirtualThreadPerTaskExecutor();
+        if (executor != null) {
+            return new SessionExecutor(executor, properties, true);
+        }
+        return new SessionExecutor(Executors.newFixedThreadPool(fallbackThreads), properties, false);
+    }
+
+    /**
+     * Create a session executor on top of <code>executor</code>
+     * @param executor executor running the sessions, shut down by <code>shutdown</code>
+     * @param properties applet configuration of every session
+     * @throws java.lang.NullPointerException if an argument is null
+     */
+    public SessionExecutor(ExecutorService executor, Properties properties) {
+        this(executor, properties, false);
+    }
+
+    private SessionExecutor(ExecutorService executor, Properties properties, boolean virtualThreads) {
+        if (executor == null) {
+            throw new NullPointerException("executor");
+        }
+        if (properties == null) {
+            throw new NullPointerException("properties");
+        }
+        this.executor = executor;
+        this.properties = (Properties) properties.clone();
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * @return true if every session runs on its own virtual thread
+     */
+    public boolean usesVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Start a session with a new simulator
+     * @param session session
+     * @param <T> result type
+     * @return result of the session
+     */
+    public <T> Future<T> submit(final Session<T> session) {
+        if (session == null) {
+            throw new NullPointerException("session");
+        }
+        return executor.submit(new Callable<T>() {
+            public T call() throws Exception {
+                SimulatorRuntime runtime = new SimulatorRuntime();
+                // bind before the simulator activates the runtime, so close() leaves the thread clean
+                RuntimeBinding binding = runtime.bind();
+                try {
+                    return session.run(new Simulator(runtime, properties));
+                } finally {
+                    binding.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Stop accepting sessions, running sessions are completed
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Wait until all sessions are completed after <code>shutdown</code>
+     * @param timeout maximum time to wait
+     * @param unit unit of <code>timeout</code>
+     * @return true if all sessions completed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * @return <code>Executors.newVirtualThreadPerTaskExecutor()</code> or null if not supported
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (IllegalAccessException e) {
+            return null;
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UnsupportedOperationException) {
+                // preview API not enabled
+                return null;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+}
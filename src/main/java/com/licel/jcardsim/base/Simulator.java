@@ -21,9 +21,13 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
 import java.util.Properties;
+import java.util.SortedMap;
 
 import com.licel.jcardsim.utils.AIDUtil;
 import com.licel.jcardsim.utils.ByteUtil;
@@ -32,6 +36,17 @@ import org.bouncycastle.util.encoders.Hex;
 
 /**
  * Simulates a JavaCard
+ *
+ * <p>Locking:</p>
+ * <ul>
+ *     <li>APDUs, resets and other operations on the card state hold the monitor of the
+ *     <code>SimulatorRuntime</code>, it is uncontended as long as every thread uses its own runtime.</li>
+ *     <li>Loading, installing and deleting applets and restoring card state are serialized on a
+ *     separate admin lock of the simulator. The runtime monitor is only held while the runtime is
+ *     changed, not while applet classes are downloaded or resolved. The admin lock is always
+ *     acquired before the runtime monitor, never while holding it.</li>
+ *     <li><code>getATR</code> and <code>getProtocol</code> do not lock.</li>
+ * </ul>
  */
 public class Simulator implements JavaCardInterface {
 
@@ -40,7 +55,7 @@ public class Simulator implements JavaCardInterface {
     // ATR system property name
     static final String ATR_SYSTEM_PROPERTY = "com.licel.jcardsim.card.ATR";
     // card ATR 
-    byte[] atr = null;
+    final byte[] atr;
     static final String PROPERTY_PREFIX = "com.licel.jcardsim.card.applet.";
     static final String OLD_PROPERTY_PREFIX = "com.licel.jcardsim.smartcardio.applet.";
     // Applet AID system property template
@@ -51,8 +66,12 @@ public class Simulator implements JavaCardInterface {
     final AppletClassLoader cl = new AppletClassLoader(new URL[]{});
     /** The simulator runtime */
     protected final SimulatorRuntime runtime;
-    // current protocol
-    private String protocol = "T=0";
+    // serializes administrative operations, acquired before the runtime monitor
+    final Object adminLock = new Object();
+    // default protocol
+    static final String DEFAULT_PROTOCOL = "T=0";
+    // current protocol, written under the runtime monitor
+    private volatile String protocol = DEFAULT_PROTOCOL;
 
     /**
      * Create a Simulator object using the default SimulatorRuntime.
@@ -94,7 +113,14 @@ public class Simulator implements JavaCardInterface {
         changeProtocol(protocol);
 
         atr = Hex.decode(properties.getProperty(ATR_SYSTEM_PROPERTY, DEFAULT_ATR));
-        // init pre-installed applets
+        loadAppletsFromProperties(properties);
+    }
+
+    /**
+     * Load the pre-installed applets configured in <code>properties</code>
+     * @param properties applet configuration
+     */
+    void loadAppletsFromProperties(Properties properties) {
         for (int i = 0; i < 10 && !properties.isEmpty(); i++) {
             String selectedPrefix = PROPERTY_PREFIX;
             String aidPropertyName = PROPERTY_PREFIX + AID_SP_TEMPLATE.format(new Object[]{i});
@@ -125,30 +151,34 @@ public class Simulator implements JavaCardInterface {
         // download data
         byte[] aidData = new byte[16];
         aid.getBytes(aidData, (short) 0);
-        Class<? extends Applet> appletClass = null;
-        try {
-            cl.addAppletContents(appletJarContents);
-            appletClass = requireExtendsApplet(cl.loadClass(appletClassName));
-        } catch (Exception e) {
-            SystemException.throwIt(SystemException.ILLEGAL_VALUE);
+        synchronized (adminLock) {
+            Class<? extends Applet> appletClass = null;
+            try {
+                cl.addAppletContents(appletJarContents);
+                appletClass = requireExtendsApplet(cl.loadClass(appletClassName));
+            } catch (Exception e) {
+                SystemException.throwIt(SystemException.ILLEGAL_VALUE);
 
-        }
-        if (appletClass != null) {
-            return loadApplet(aid, appletClass);
-        } else {
-            SystemException.throwIt(SystemException.ILLEGAL_VALUE);
-            return null;
+            }
+            if (appletClass != null) {
+                return loadApplet(aid, appletClass);
+            } else {
+                SystemException.throwIt(SystemException.ILLEGAL_VALUE);
+                return null;
+            }
         }
     }
 
     public AID loadApplet(AID aid, String appletClassName) throws SystemException {
-        Class<? extends Applet> appletClass = null;
-        try {
-            appletClass = requireExtendsApplet(cl.loadClass(appletClassName));
-        } catch (ClassNotFoundException ex) {
-            SystemException.throwIt(SystemException.ILLEGAL_VALUE);
+        synchronized (adminLock) {
+            Class<? extends Applet> appletClass = null;
+            try {
+                appletClass = requireExtendsApplet(cl.loadClass(appletClassName));
+            } catch (ClassNotFoundException ex) {
+                SystemException.throwIt(SystemException.ILLEGAL_VALUE);
+            }
+            return loadApplet(aid, appletClass);
         }
-        return loadApplet(aid, appletClass);
     }
 
     /**
@@ -162,8 +192,11 @@ public class Simulator implements JavaCardInterface {
      * <code>javacard.framework.Applet</code>
      */
     public AID loadApplet(AID aid, Class<? extends Applet> appletClass) throws SystemException {
-        synchronized (runtime) {
-            runtime.loadApplet(aid, requireExtendsApplet(appletClass));
+        requireExtendsApplet(appletClass);
+        synchronized (adminLock) {
+            synchronized (runtime) {
+                runtime.loadApplet(aid, appletClass);
+            }
         }
         return aid;
     }
@@ -171,8 +204,10 @@ public class Simulator implements JavaCardInterface {
     public AID createApplet(AID aid, byte bArray[], short bOffset,
             byte bLength) throws SystemException {
         try {
-            synchronized (runtime) {
-                runtime.installApplet(aid, bArray, bOffset, bLength);
+            synchronized (adminLock) {
+                synchronized (runtime) {
+                    runtime.installApplet(aid, bArray, bOffset, bLength);
+                }
             }
         }
         catch (Exception e) {
@@ -214,7 +249,7 @@ public class Simulator implements JavaCardInterface {
      */
     public AID installApplet(AID aid, Class<? extends Applet> appletClass, byte bArray[], short bOffset,
             byte bLength) throws SystemException {
-        synchronized (runtime) {
+        synchronized (adminLock) {
             loadApplet(aid, appletClass);
             return createApplet(aid, bArray, bOffset, bLength);
         }
@@ -222,7 +257,7 @@ public class Simulator implements JavaCardInterface {
 
     public AID installApplet(AID aid, String appletClassName, byte bArray[], short bOffset,
             byte bLength) throws SystemException {
-        synchronized (runtime) {
+        synchronized (adminLock) {
             loadApplet(aid, appletClassName);
             return createApplet(aid, bArray, bOffset, bLength);
         }
@@ -230,7 +265,7 @@ public class Simulator implements JavaCardInterface {
 
     public AID installApplet(AID aid, String appletClassName, byte[] appletContents, byte bArray[], short bOffset,
             byte bLength) throws SystemException {
-        synchronized (runtime) {
+        synchronized (adminLock) {
             loadApplet(aid, appletClassName, appletContents);
             return createApplet(aid, bArray, bOffset, bLength);
         }
@@ -241,8 +276,10 @@ public class Simulator implements JavaCardInterface {
      * @param aid applet aid
      */
     public void deleteApplet(AID aid) {
-        synchronized (runtime) {
-            runtime.deleteApplet(aid);
+        synchronized (adminLock) {
+            synchronized (runtime) {
+                runtime.deleteApplet(aid);
+            }
         }
     }
 
@@ -263,6 +300,30 @@ public class Simulator implements JavaCardInterface {
         }
     }
 
+    public int transmitCommand(byte[] command, int offset, int length, byte[] response, int responseOffset) {
+        synchronized (runtime) {
+            return runtime.transmitCommand(command, offset, length, response, responseOffset);
+        }
+    }
+
+    public int transmitCommand(ByteBuffer command, ByteBuffer response) {
+        synchronized (runtime) {
+            return runtime.transmitCommand(command, response);
+        }
+    }
+
+    public List<byte[]> transmitCommands(List<byte[]> commands) {
+        List<byte[]> responses = new ArrayList<byte[]>(commands.size());
+        transmitCommands(commands, responses);
+        return responses;
+    }
+
+    public void transmitCommands(List<byte[]> commands, List<byte[]> responses) {
+        synchronized (runtime) {
+            runtime.transmitCommands(commands, responses);
+        }
+    }
+
     public void reset() {
         synchronized (runtime) {
             runtime.reset();
@@ -275,6 +336,92 @@ public class Simulator implements JavaCardInterface {
         }
     }
 
+    /**
+     * Bind the runtime of this simulator to the current thread, e.g. to build keys or
+     * transient arrays outside of an applet
+     * @return binding, must be closed on the same thread
+     * @see SimulatorSystem#bind(SimulatorRuntime)
+     */
+    public RuntimeBinding bind() {
+        return runtime.bind();
+    }
+
+    /**
+     * Capture the state of the card
+     * @return snapshot
+     * @see SimulatorRuntime#snapshot()
+     */
+    public CardSnapshot snapshot() {
+        synchronized (runtime) {
+            return runtime.snapshot();
+        }
+    }
+
+    /**
+     * Restore the state of the card, including the protocol of the snapshot
+     * @param snapshot snapshot to restore, possibly taken from another <code>Simulator</code>
+     * @see SimulatorRuntime#restore(CardSnapshot)
+     */
+    public void restore(CardSnapshot snapshot) {
+        synchronized (adminLock) {
+            synchronized (runtime) {
+                runtime.restore(snapshot);
+                if (runtime.currentProtocol != getProtocolByte(protocol)) {
+                    protocol = getProtocolName(runtime.currentProtocol);
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the state of the card to a card image file
+     * @param file image file
+     * @throws IOException if the file can not be written
+     * @see SimulatorRuntime#writeCardImage(File)
+     */
+    public void writeCardImage(File file) throws IOException {
+        synchronized (runtime) {
+            runtime.writeCardImage(file);
+        }
+    }
+
+    /**
+     * Restore the state of the card from a card image
+     * @param image card image, see <code>CardImage.open(File)</code>
+     * @see SimulatorRuntime#restore(CardImage)
+     */
+    public void restore(CardImage image) {
+        synchronized (adminLock) {
+            synchronized (runtime) {
+                runtime.restore(image);
+            }
+        }
+    }
+
+    /**
+     * Set the memory budget of the card
+     * @param cardProfile memory budget
+     * @see SimulatorRuntime#setCardProfile(CardProfile)
+     */
+    public void setCardProfile(CardProfile cardProfile) {
+        synchronized (adminLock) {
+            synchronized (runtime) {
+                runtime.setCardProfile(cardProfile);
+            }
+        }
+    }
+
+    /**
+     * Memory usage report
+     * @return memory used by each applet
+     * @see SimulatorRuntime#getMemoryUsage()
+     */
+    public SortedMap<AID, MemoryUsage> getMemoryUsage() {
+        synchronized (runtime) {
+            return runtime.getMemoryUsage();
+        }
+    }
+
     public byte[] getATR() {
         return atr;
     }
@@ -314,6 +461,22 @@ public class Simulator implements JavaCardInterface {
         return protocolByte;
     }
 
+    /**
+     * @param protocolByte protocol bits, see <code>getProtocolByte</code>
+     * @return protocol name accepted by <code>changeProtocol</code>
+     */
+    protected String getProtocolName(byte protocolByte) {
+        String t = (protocolByte & APDU.PROTOCOL_T1) != 0 ? "T1" : "T0";
+        switch (protocolByte & APDU.PROTOCOL_MEDIA_MASK) {
+            case APDU.PROTOCOL_MEDIA_CONTACTLESS_TYPE_A:
+                return "T=CL,TYPE_A," + t;
+            case APDU.PROTOCOL_MEDIA_CONTACTLESS_TYPE_B:
+                return "T=CL,TYPE_B," + t;
+            default:
+                return (protocolByte & APDU.PROTOCOL_T1) != 0 ? "T=1" : "T=0";
+        }
+    }
+
     /**
      * @see com.licel.jcardsim.io.JavaCardInterface#changeProtocol(String)
      */
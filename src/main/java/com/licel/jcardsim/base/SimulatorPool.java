@@ -0,0 +1,345 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.base;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of independent <code>Simulator</code> instances.
+ *
+ * <ul>
+ *     <li>Every pooled <code>Simulator</code> owns its own <code>SimulatorRuntime</code>,
+ *     so borrowed instances can be used from different threads without sharing a lock.</li>
+ *     <li>Instances are created lazily up to <code>maxSize</code> and are initialized
+ *     from <code>properties</code> the same way as <code>Simulator(SimulatorRuntime)</code>
+ *     (<code>com.licel.jcardsim.card.applet.N.AID/Class</code>).</li>
+ *     <li>On <code>release</code> the runtime is reset with <code>SimulatorRuntime#resetRuntime</code>
+ *     and the configured applets are loaded again.</li>
+ * </ul>
+ */
+public class SimulatorPool {
+    private final int maxSize;
+    private final Properties properties;
+    private final BlockingQueue<PooledSimulator> idle;
+    private final List<PooledSimulator> all = new ArrayList<PooledSimulator>();
+    private final AtomicLong waitCount = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private int nextId;
+
+    /**
+     * Create a pool using <code>System.getProperties()</code> as applet configuration
+     * @param maxSize maximum number of instances
+     * @throws java.lang.IllegalArgumentException if <code>maxSize</code> is not positive
+     */
+    public SimulatorPool(int maxSize) {
+        this(maxSize, System.getProperties());
+    }
+
+    /**
+     * Create a pool
+     * @param maxSize maximum number of instances
+     * @param properties applet configuration
+     * @throws java.lang.IllegalArgumentException if <code>maxSize</code> is not positive
+     * @throws java.lang.NullPointerException if <code>properties</code> is null
+     */
+    public SimulatorPool(int maxSize, Properties properties) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive but was " + maxSize);
+        }
+        if (properties == null) {
+            throw new NullPointerException("properties");
+        }
+        this.maxSize = maxSize;
+        this.properties = (Properties) properties.clone();
+        this.idle = new LinkedBlockingQueue<PooledSimulator>(maxSize);
+    }
+
+    /**
+     * Borrow a <code>Simulator</code>, waiting until one is available
+     * @return simulator, must be passed to <code>release</code> after use
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Simulator borrow() throws InterruptedException {
+        PooledSimulator simulator = idle.poll();
+        if (simulator == null) {
+            simulator = tryCreate();
+        }
+        if (simulator == null) {
+            long start = System.nanoTime();
+            simulator = idle.take();
+            recordWait(start);
+        }
+        simulator.onBorrow();
+        return simulator;
+    }
+
+    /**
+     * Borrow a <code>Simulator</code>, waiting up to <code>timeout</code>
+     * @param timeout maximum time to wait
+     * @param unit unit of <code>timeout</code>
+     * @return simulator or null if none became available
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Simulator borrow(long timeout, TimeUnit unit) throws InterruptedException {
+        PooledSimulator simulator = idle.poll();
+        if (simulator == null) {
+            simulator = tryCreate();
+        }
+        if (simulator == null) {
+            long start = System.nanoTime();
+            simulator = idle.poll(timeout, unit);
+            recordWait(start);
+            if (simulator == null) {
+                return null;
+            }
+        }
+        simulator.onBorrow();
+        return simulator;
+    }
+
+    /**
+     * Return a borrowed <code>Simulator</code> to the pool.
+     * All applets are deleted and the configured applets are loaded again.
+     * If this fails the instance is removed from the pool and a new one is
+     * created on demand.
+     * @param simulator simulator obtained from <code>borrow</code>
+     * @throws java.lang.IllegalArgumentException if <code>simulator</code> is not borrowed from this pool
+     */
+    public void release(Simulator simulator) {
+        if (!(simulator instanceof PooledSimulator) || ((PooledSimulator) simulator).pool != this) {
+            throw new IllegalArgumentException("Simulator does not belong to this pool");
+        }
+        PooledSimulator pooled = (PooledSimulator) simulator;
+        if (!pooled.onRelease()) {
+            throw new IllegalArgumentException("Simulator is not borrowed");
+        }
+        boolean recycled = false;
+        try {
+            pooled.recycle();
+            recycled = true;
+        }
+        finally {
+            if (!recycled) {
+                synchronized (all) {
+                    all.remove(pooled);
+                }
+            }
+        }
+        idle.offer(pooled);
+    }
+
+    /**
+     * @return maximum number of instances
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return number of instances in the pool
+     */
+    public int getSize() {
+        synchronized (all) {
+            return all.size();
+        }
+    }
+
+    /**
+     * @return number of instances currently available
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * @return number of <code>borrow</code> calls which had to wait for an instance
+     */
+    public long getWaitCount() {
+        return waitCount.get();
+    }
+
+    /**
+     * @return total time spent waiting in <code>borrow</code> in nanoseconds
+     */
+    public long getWaitNanos() {
+        return waitNanos.get();
+    }
+
+    /**
+     * @return a snapshot of the statistics of every instance created so far
+     */
+    public List<InstanceStatistics> getStatistics() {
+        synchronized (all) {
+            List<InstanceStatistics> result = new ArrayList<InstanceStatistics>(all.size());
+            for (PooledSimulator simulator : all) {
+                result.add(simulator.statistics());
+            }
+            return result;
+        }
+    }
+
+    private PooledSimulator tryCreate() {
+        synchronized (all) {
+            if (all.size() >= maxSize) {
+                return null;
+            }
+            PooledSimulator simulator = new PooledSimulator(this, nextId++);
+            all.add(simulator);
+            return simulator;
+        }
+    }
+
+    private void recordWait(long start) {
+        waitCount.incrementAndGet();
+        waitNanos.addAndGet(System.nanoTime() - start);
+    }
+
+    /**
+     * Usage statistics of one pooled instance
+     */
+    public static final class InstanceStatistics {
+        private final int id;
+        private final boolean borrowed;
+        private final long borrowCount;
+        private final long commandCount;
+        private final long busyNanos;
+
+        InstanceStatistics(int id, boolean borrowed, long borrowCount, long commandCount, long busyNanos) {
+            this.id = id;
+            this.borrowed = borrowed;
+            this.borrowCount = borrowCount;
+            this.commandCount = commandCount;
+            this.busyNanos = busyNanos;
+        }
+
+        /**
+         * @return number of the instance, unique within the pool
+         */
+        public int getId() {
+            return id;
+        }
+
+        /**
+         * @return true if the instance is currently borrowed
+         */
+        public boolean isBorrowed() {
+            return borrowed;
+        }
+
+        /**
+         * @return number of times the instance was borrowed
+         */
+        public long getBorrowCount() {
+            return borrowCount;
+        }
+
+        /**
+         * @return number of APDUs transmitted through the instance
+         */
+        public long getCommandCount() {
+            return commandCount;
+        }
+
+        /**
+         * @return total time the instance was borrowed in nanoseconds (completed borrows only)
+         */
+        public long getBusyNanos() {
+            return busyNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("InstanceStatistics (id=%d, borrowed=%s, borrows=%d, commands=%d, busy=%dms)",
+                    id, borrowed, borrowCount, commandCount, TimeUnit.NANOSECONDS.toMillis(busyNanos));
+        }
+    }
+
+    static final class PooledSimulator extends Simulator {
+        private final SimulatorPool pool;
+        private final int id;
+        private final AtomicLong commandCount = new AtomicLong();
+        private long borrowCount;
+        private long busyNanos;
+        private long borrowedAt;
+        private boolean borrowed;
+
+        PooledSimulator(SimulatorPool pool, int id) {
+            super(new SimulatorRuntime(), pool.properties);
+            this.pool = pool;
+            this.id = id;
+        }
+
+        @Override
+        public byte[] transmitCommand(byte[] command) {
+            commandCount.incrementAndGet();
+            return super.transmitCommand(command);
+        }
+
+        @Override
+        public int transmitCommand(byte[] command, int offset, int length, byte[] response, int responseOffset) {
+            commandCount.incrementAndGet();
+            return super.transmitCommand(command, offset, length, response, responseOffset);
+        }
+
+        @Override
+        public int transmitCommand(ByteBuffer command, ByteBuffer response) {
+            commandCount.incrementAndGet();
+            return super.transmitCommand(command, response);
+        }
+
+        @Override
+        public void transmitCommands(List<byte[]> commands, List<byte[]> responses) {
+            commandCount.addAndGet(commands.size());
+            super.transmitCommands(commands, responses);
+        }
+
+        synchronized void onBorrow() {
+            borrowed = true;
+            borrowCount++;
+            borrowedAt = System.nanoTime();
+        }
+
+        synchronized boolean onRelease() {
+            if (!borrowed) {
+                return false;
+            }
+            borrowed = false;
+            busyNanos += System.nanoTime() - borrowedAt;
+            return true;
+        }
+
+        void recycle() {
+            synchronized (adminLock) {
+                synchronized (runtime) {
+                    runtime.resetRuntime();
+                    changeProtocol(DEFAULT_PROTOCOL);
+                    loadAppletsFromProperties(pool.properties);
+                }
+            }
+        }
+
+        synchronized InstanceStatistics statistics() {
+            return new InstanceStatistics(id, borrowed, borrowCount, commandCount.get(), busyNanos);
+        }
+    }
+}
@@ -20,9 +20,15 @@ import com.licel.jcardsim.utils.BiConsumer;
 import javacard.framework.*;
 import javacardx.apdu.ExtendedLength;
 
-import java.lang.reflect.Constructor;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -37,14 +43,18 @@ public class SimulatorRuntime {
     protected final ThreadLocal<BiConsumer<Applet,AID>> registrationCallback;
     /** storage for installed applets */
     protected final SortedMap<AID, ApplicationInstance> applets = new TreeMap<AID, ApplicationInstance>(AIDUtil.comparator());
+    /** index of <code>applets</code> for exact and partial AID lookups */
+    protected final AIDIndex<ApplicationInstance> appletIndex = new AIDIndex<ApplicationInstance>();
     /** storage for load files */
     protected final SortedMap<AID, LoadFile> loadFiles = new TreeMap<AID, LoadFile>(AIDUtil.comparator());
     /** storage for automatically generated loadFile AIDs */
     protected final SortedMap<AID, AID> generatedLoadFileAIDs = new TreeMap<AID, AID>(AIDUtil.comparator());
-    /** method for resetting APDUs */
-    protected final Method apduPrivateResetMethod;
+    /** bridge to package private APDU methods */
+    protected final APDUAccessor apduAccessor;
     /** outbound response byte array buffer */
     protected final byte[] responseBuffer = new byte[Short.MAX_VALUE + 2];
+    /** inbound command byte array buffer, used for commands which are not backed by an array */
+    protected final byte[] commandBuffer = new byte[Short.MAX_VALUE + 10];
     /** transient memory */
     protected final TransientMemory transientMemory;
     /** regular APDU */
@@ -66,8 +76,14 @@ public class SimulatorRuntime {
     protected byte currentProtocol = APDU.PROTOCOL_T0;
     /** current depth of transaction */
     protected byte transactionDepth = 0;
+    /** pre-images of persistent arrays updated in the current transaction */
+    protected final TransactionLog transactionLog = new TransactionLog(Short.MAX_VALUE);
     /** previousActiveObject */
     protected Object previousActiveObject;
+    /** state restored from a snapshot, applets not used yet are still copied from it */
+    private CardSnapshot.Fork restoredState;
+    /** memory budget */
+    private CardProfile cardProfile = CardProfile.UNLIMITED;
 
     public SimulatorRuntime() {
         this(new TransientMemory());
@@ -76,16 +92,10 @@ public class SimulatorRuntime {
     @SuppressWarnings("unchecked")
     public SimulatorRuntime(TransientMemory transientMemory) {
         this.transientMemory = transientMemory;
+        apduAccessor = APDUAccessor.get();
+        shortAPDU = apduAccessor.createAPDU(false);
+        extendedAPDU = apduAccessor.createAPDU(true);
         try {
-            Constructor<?> ctor = APDU.class.getDeclaredConstructors()[0];
-            ctor.setAccessible(true);
-
-            shortAPDU = (APDU) ctor.newInstance(false);
-            extendedAPDU = (APDU) ctor.newInstance(true);
-
-            apduPrivateResetMethod = APDU.class.getDeclaredMethod("internalReset", byte.class, byte[].class);
-            apduPrivateResetMethod.setAccessible(true);
-
             Field f = Applet.class.getDeclaredField("registrationCallback");
             f.setAccessible(true);
             registrationCallback = (ThreadLocal<BiConsumer<Applet,AID>>) f.get(null);
@@ -101,6 +111,15 @@ public class SimulatorRuntime {
         SimulatorSystem.setCurrentInstance(this);
     }
 
+    /**
+     * Bind <code>this</code> to the current thread until the binding is closed
+     * @return binding
+     * @see SimulatorSystem#bind(SimulatorRuntime)
+     */
+    public RuntimeBinding bind() {
+        return SimulatorSystem.bind(this);
+    }
+
 
     /**
      * Return current applet context AID or null
@@ -113,25 +132,17 @@ public class SimulatorRuntime {
      * Lookup applet by aid contains in byte array
      */
     public AID lookupAID(byte buffer[], short offset, byte length) {
-        // no construct new AID, iterate applets
-        for (AID aid : applets.keySet()) {
-            if (aid.equals(buffer, offset, length)) {
-                return aid;
-            }
-        }
-        return null;
+        return appletIndex.findAID(buffer, offset, length);
     }
 
     /**
      * Lookup applet by aid
      */
     public ApplicationInstance lookupApplet(AID lookupAid) {
-        for (AID aid : applets.keySet()) {
-            if (aid.equals(lookupAid)) {
-                return applets.get(aid);
-            }
+        if (lookupAid == null) {
+            return null;
         }
-        return null;
+        return appletIndex.get(lookupAid);
     }
 
     /**
@@ -172,7 +183,7 @@ public class SimulatorRuntime {
 
     public void loadLoadFile(LoadFile loadFile) {
         AID key = loadFile.getAid();
-        if (loadFiles.keySet().contains(key) || applets.keySet().contains(key)) {
+        if (loadFiles.keySet().contains(key) || appletIndex.get(key) != null) {
             throw new IllegalStateException("LoadFile AID already used");
         }
         loadFiles.put(key, loadFile);
@@ -182,12 +193,15 @@ public class SimulatorRuntime {
      * Delete applet
      */
     protected void deleteApplet(AID aid) {
+        activateSimulatorRuntimeInstance();
         ApplicationInstance applicationInstance = lookupApplet(aid);
         if (applicationInstance == null) {
             throw new SystemException(SystemException.ILLEGAL_AID);
         }
 
         applets.remove(aid);
+        appletIndex.remove(aid);
+        transientMemory.release(applicationInstance.memoryUsage);
         Applet applet = applicationInstance.getApplet();
         if (applet == null) {
             return;
@@ -223,32 +237,126 @@ public class SimulatorRuntime {
      */
     public byte[] transmitCommand(byte[] command) throws SystemException {
         activateSimulatorRuntimeInstance();
+        short sw = processCommand(command, 0, command.length);
+        byte[] response = new byte[getResponseLength(sw)];
+        copyResponse(sw, response, 0);
+        return response;
+    }
+
+    /**
+     * Transmit APDU to previous selected applet, writing the response APDU
+     * (data and status word) into <code>response</code>
+     * @param command array containing the command apdu
+     * @param offset offset of the command apdu in <code>command</code>
+     * @param length length of the command apdu
+     * @param response destination array
+     * @param responseOffset offset in <code>response</code>
+     * @return number of bytes written to <code>response</code>
+     * @throws java.lang.IllegalArgumentException if the response does not fit into <code>response</code>.
+     * The command has been processed by the applet in this case.
+     */
+    public int transmitCommand(byte[] command, int offset, int length, byte[] response, int responseOffset)
+            throws SystemException {
+        activateSimulatorRuntimeInstance();
+        short sw = processCommand(command, offset, length);
+        int responseLength = getResponseLength(sw);
+        if (responseOffset < 0 || responseLength > response.length - responseOffset) {
+            throw new IllegalArgumentException("Response buffer too small, required: " + responseLength);
+        }
+        copyResponse(sw, response, responseOffset);
+        return responseLength;
+    }
+
+    /**
+     * Transmit APDU to previous selected applet.
+     * The command apdu is read from the remaining bytes of <code>command</code>,
+     * the response apdu is written at the position of <code>response</code>.
+     * @param command command apdu
+     * @param response destination buffer
+     * @return number of bytes written to <code>response</code>
+     * @throws java.lang.IllegalArgumentException if the response does not fit into <code>response</code>.
+     * The command has been processed by the applet in this case.
+     */
+    public int transmitCommand(ByteBuffer command, ByteBuffer response) throws SystemException {
+        activateSimulatorRuntimeInstance();
+        int length = command.remaining();
+        short sw;
+        if (command.hasArray()) {
+            sw = processCommand(command.array(), command.arrayOffset() + command.position(), length);
+            command.position(command.limit());
+        }
+        else {
+            if (length > commandBuffer.length) {
+                throw new IllegalArgumentException("command: malformed APDU, too long");
+            }
+            command.get(commandBuffer, 0, length);
+            sw = processCommand(commandBuffer, 0, length);
+        }
+
+        int responseLength = getResponseLength(sw);
+        if (responseLength > response.remaining()) {
+            throw new IllegalArgumentException("Response buffer too small, required: " + responseLength);
+        }
+        response.put(responseBuffer, 0, responseLength - 2);
+        response.put((byte) (sw >> 8));
+        response.put((byte) sw);
+        return responseLength;
+    }
+
+    /**
+     * Transmit a sequence of APDUs to the selected applet(s).
+     * The runtime is activated once for the whole batch.
+     * @param commands command apdus
+     * @param responses list the response apdus are appended to
+     */
+    public void transmitCommands(List<byte[]> commands, List<byte[]> responses) throws SystemException {
+        activateSimulatorRuntimeInstance();
+        for (byte[] command : commands) {
+            short sw = processCommand(command, 0, command.length);
+            byte[] response = new byte[getResponseLength(sw)];
+            copyResponse(sw, response, 0);
+            responses.add(response);
+        }
+    }
 
-        final ApduCase apduCase = ApduCase.getCase(command);
-        final byte[] theSW = new byte[2];
-        byte[] response;
+    /**
+     * Process one APDU, the runtime must already be active.
+     * Response data is left in <code>responseBuffer</code>.
+     * @param command array containing the command apdu
+     * @param offset offset of the command apdu in <code>command</code>
+     * @param length length of the command apdu
+     * @return status word
+     */
+    protected short processCommand(byte[] command, int offset, int length) {
+        final ApduCase apduCase = ApduCase.getCase(command, offset, length);
 
-        Applet applet = getApplet(getAID());
+        ApplicationInstance applicationInstance = lookupApplet(getAID());
+        Applet applet = enterContext(applicationInstance);
 
+        responseBufferSize = 0;
         selecting = false;
         // check if there is an applet to be selected
-        if (!apduCase.isExtended() && isAppletSelectionApdu(command)) {
-            AID newAid = findAppletForSelectApdu(command, apduCase);
+        if (!apduCase.isExtended() && isAppletSelectionApdu(command, offset)) {
+            byte[] selectApdu = command;
+            if (offset != 0 || length != command.length) {
+                selectApdu = new byte[length];
+                System.arraycopy(command, offset, selectApdu, 0, length);
+            }
+            AID newAid = findAppletForSelectApdu(selectApdu, apduCase);
             if (newAid != null) {
-                deselect(lookupApplet(getAID()));
+                deselect(applicationInstance);
                 currentAID = newAid;
-                applet = getApplet(getAID());
+                applicationInstance = lookupApplet(newAid);
+                applet = enterContext(applicationInstance);
                 selecting = true;
             }
             else if (applet == null) {
-                Util.setShort(theSW, (short) 0, ISO7816.SW_APPLET_SELECT_FAILED);
-                return theSW;
+                return ISO7816.SW_APPLET_SELECT_FAILED;
             }
         }
 
         if (applet == null) {
-            Util.setShort(theSW, (short) 0, ISO7816.SW_COMMAND_NOT_ALLOWED);
-            return theSW;
+            return ISO7816.SW_COMMAND_NOT_ALLOWED;
         }
 
         if (apduCase.isExtended()) {
@@ -256,15 +364,14 @@ public class SimulatorRuntime {
                 usingExtendedAPDUs = true;
             }
             else {
-                Util.setShort(theSW, (short)0, ISO7816.SW_WRONG_LENGTH);
-                return theSW;
+                return ISO7816.SW_WRONG_LENGTH;
             }
         }
         else {
             usingExtendedAPDUs = false;
         }
 
-        responseBufferSize = 0;
+        short sw;
         APDU apdu = getCurrentAPDU();
         try {
             if (selecting) {
@@ -281,34 +388,56 @@ public class SimulatorRuntime {
             }
 
             // set apdu
-            resetAPDU(apdu, command);
+            resetAPDU(apdu, command, offset, length);
 
             applet.process(apdu);
-            Util.setShort(theSW, (short) 0, (short) 0x9000);
+            sw = ISO7816.SW_NO_ERROR;
         } catch (Throwable e) {
-            Util.setShort(theSW, (short) 0, ISO7816.SW_UNKNOWN);
+            sw = ISO7816.SW_UNKNOWN;
             if (e instanceof CardException) {
-                Util.setShort(theSW, (short) 0, ((CardException) e).getReason());
+                sw = ((CardException) e).getReason();
             } else if (e instanceof CardRuntimeException) {
-                Util.setShort(theSW, (short) 0, ((CardRuntimeException) e).getReason());
+                sw = ((CardRuntimeException) e).getReason();
             }
         }
         finally {
+            abortPendingTransaction();
             selecting = false;
             resetAPDU(apdu, null);
         }
+        return sw;
+    }
 
-        // if theSW = 0x61XX or 0x9XYZ than return data (ISO7816-3)
-        if(theSW[0] == 0x61 || (theSW[0] >= (byte)0x90 && theSW[0]<=0x9F)) {
-            response = new byte[responseBufferSize + 2];
-            Util.arrayCopyNonAtomic(responseBuffer, (short) 0, response, (short) 0, responseBufferSize);
-            Util.arrayCopyNonAtomic(theSW, (short) 0, response, responseBufferSize, (short) 2);
-        }
-        else {
-            response = theSW;
-        }
+    /**
+     * Check whether response data is returned for a status word.
+     * If SW = 0x61XX or 0x9XYZ than data is returned (ISO7816-3)
+     * @param sw status word
+     * @return true if <code>responseBuffer</code> is part of the response
+     */
+    protected static boolean hasResponseData(short sw) {
+        byte sw1 = (byte) (sw >> 8);
+        return sw1 == 0x61 || (sw1 >= (byte) 0x90 && sw1 <= (byte) 0x9F);
+    }
 
-        return response;
+    /**
+     * @param sw status word
+     * @return length of the response apdu including the status word
+     */
+    protected int getResponseLength(short sw) {
+        return hasResponseData(sw) ? responseBufferSize + 2 : 2;
+    }
+
+    /**
+     * Copy the response apdu into <code>dest</code>
+     * @param sw status word
+     * @param dest destination array
+     * @param offset offset in <code>dest</code>
+     */
+    protected void copyResponse(short sw, byte[] dest, int offset) {
+        int dataLength = getResponseLength(sw) - 2;
+        System.arraycopy(responseBuffer, 0, dest, offset, dataLength);
+        dest[offset + dataLength] = (byte) (sw >> 8);
+        dest[offset + dataLength + 1] = (byte) sw;
     }
 
     protected AID findAppletForSelectApdu(byte[] selectApdu, ApduCase apduCase) {
@@ -318,19 +447,11 @@ public class SimulatorRuntime {
             return applets.isEmpty() ? null : applets.firstKey();
         }
 
-        for (AID aid : applets.keySet()) {
-            if (aid.equals(selectApdu, ISO7816.OFFSET_CDATA, selectApdu[ISO7816.OFFSET_LC])) {
-                return aid;
-            }
+        AID aid = lookupAID(selectApdu, ISO7816.OFFSET_CDATA, selectApdu[ISO7816.OFFSET_LC]);
+        if (aid != null) {
+            return aid;
         }
-
-        for (AID aid : applets.keySet()) {
-            if (aid.partialEquals(selectApdu, ISO7816.OFFSET_CDATA, selectApdu[ISO7816.OFFSET_LC])) {
-                return aid;
-            }
-        }
-
-        return null;
+        return appletIndex.findFirstByPrefix(selectApdu, ISO7816.OFFSET_CDATA, selectApdu[ISO7816.OFFSET_LC]);
     }
 
     protected void deselect(ApplicationInstance applicationInstance) {
@@ -346,6 +467,9 @@ public class SimulatorRuntime {
             abortTransaction();
         }
         transientMemory.clearOnDeselect();
+        if (restoredState != null) {
+            restoredState.clearOnDeselect();
+        }
     }
 
     /**
@@ -363,11 +487,16 @@ public class SimulatorRuntime {
      */
     public void reset() {
         Arrays.fill(responseBuffer, (byte) 0);
+        // power loss, an unfinished transaction is rolled back
+        transactionLog.rollback();
         transactionDepth = 0;
         responseBufferSize = 0;
         currentAID = null;
         previousAID = null;
         transientMemory.clearOnReset();
+        if (restoredState != null) {
+            restoredState.clearOnReset();
+        }
     }
 
     public void resetRuntime() {
@@ -385,12 +514,95 @@ public class SimulatorRuntime {
         loadFiles.clear();
         generatedLoadFileAIDs.clear();
         Arrays.fill(responseBuffer, (byte) 0);
+        transactionLog.clear();
         transactionDepth = 0;
         responseBufferSize = 0;
         currentAID = null;
         previousAID = null;
         transientMemory.clearOnReset();
         transientMemory.forgetBuffers();
+        transientMemory.setOwner(null);
+        restoredState = null;
+    }
+
+    /**
+     * Capture the installed applets, their object graphs, load files,
+     * transient memory contents and the selected applet.
+     * @return snapshot which can be restored into this or any other runtime
+     * @see CardSnapshot
+     */
+    public CardSnapshot snapshot() {
+        return new CardSnapshot(this);
+    }
+
+    /**
+     * Replace the state of this runtime with <code>snapshot</code>.
+     * Applets of the current state are discarded without calling
+     * <code>AppletEvent.uninstall()</code>.
+     * The object graph of a restored applet is copied from the snapshot on first use.
+     * @param snapshot snapshot to restore
+     * @see CardSnapshot
+     */
+    public void restore(CardSnapshot snapshot) {
+        if (snapshot == null) {
+            throw new NullPointerException("snapshot");
+        }
+        discardState();
+        restoredState = snapshot.restoreInto(this);
+    }
+
+    /**
+     * Write the installed applets, their object graphs and load files to a card image file.
+     * Applets restored from a snapshot or an image which have not been used yet are loaded first.
+     * @param file image file, replaced if it exists
+     * @throws IOException if the file can not be written
+     * @see CardImage
+     */
+    public void writeCardImage(File file) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            new CardImageWriter(this).write(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Replace the state of this runtime with the applets and load files of <code>image</code>,
+     * like a power up of the card with this content. Applets of the current state are discarded
+     * without calling <code>AppletEvent.uninstall()</code>.
+     * The object graph of a restored applet is read from the image on first use.
+     * @param image card image to restore
+     * @see CardImage
+     */
+    public void restore(CardImage image) {
+        if (image == null) {
+            throw new NullPointerException("image");
+        }
+        discardState();
+        currentAID = null;
+        previousAID = null;
+        restoredState = null;
+        image.restoreInto(this);
+    }
+
+    /**
+     * Drop applets, load files and transient buffers without calling applet callbacks
+     */
+    private void discardState() {
+        applets.clear();
+        appletIndex.clear();
+        loadFiles.clear();
+        generatedLoadFileAIDs.clear();
+        transientMemory.forgetBuffers();
+        transientMemory.setOwner(null);
+        Arrays.fill(responseBuffer, (byte) 0);
+        transactionLog.clear();
+        transactionDepth = 0;
+        responseBufferSize = 0;
+        selecting = false;
+        usingExtendedAPDUs = false;
+        previousActiveObject = null;
     }
 
     public TransientMemory getTransientMemory() {
@@ -398,11 +610,11 @@ public class SimulatorRuntime {
     }
 
     protected void resetAPDU(APDU apdu, byte[] buffer) {
-        try {
-            apduPrivateResetMethod.invoke(apdu, currentProtocol, buffer);
-        } catch (Exception e) {
-            throw new RuntimeException("Internal reflection error", e);
-        }
+        resetAPDU(apdu, buffer, 0, buffer == null ? 0 : buffer.length);
+    }
+
+    protected void resetAPDU(APDU apdu, byte[] buffer, int offset, int length) {
+        apduAccessor.internalReset(apdu, currentProtocol, buffer, offset, length);
     }
 
     public APDU getCurrentAPDU() {
@@ -441,6 +653,7 @@ public class SimulatorRuntime {
         if (transactionDepth == 0) {
             TransactionException.throwIt(TransactionException.NOT_IN_PROGRESS);
         }
+        transactionLog.rollback();
         transactionDepth = 0;
     }
 
@@ -451,9 +664,38 @@ public class SimulatorRuntime {
         if (transactionDepth == 0) {
             TransactionException.throwIt(TransactionException.NOT_IN_PROGRESS);
         }
+        transactionLog.clear();
         transactionDepth = 0;
     }
 
+    /**
+     * Abort a transaction left in progress by an applet,
+     * called when <code>process()</code> returns or throws
+     */
+    protected void abortPendingTransaction() {
+        if (transactionDepth != 0) {
+            abortTransaction();
+        }
+    }
+
+    /**
+     * Called before an atomic update of <code>array</code>, for example by <code>Util.arrayCopy</code>.
+     * If a transaction is in progress and <code>array</code> is persistent, the region
+     * is saved so that it can be restored by <code>abortTransaction()</code>.
+     * Transient arrays and the APDU buffer are not part of transactions.
+     * @param array array to be updated
+     * @param offset offset of the updated region
+     * @param length length of the updated region
+     * @throws TransactionException with reason <code>BUFFER_FULL</code> if the commit capacity would be exceeded
+     */
+    public void beforeAtomicUpdate(byte[] array, short offset, short length) {
+        if (transactionDepth == 0 || array == getCurrentAPDU().getBuffer()
+                || transientMemory.isTransient(array) != JCSystem.NOT_A_TRANSIENT_OBJECT) {
+            return;
+        }
+        transactionLog.record(array, offset, length);
+    }
+
     /**
      * @see javacard.framework.JCSystem#getTransactionDepth()
      */
@@ -463,10 +705,10 @@ public class SimulatorRuntime {
 
     /**
      * @see javacard.framework.JCSystem#getUnusedCommitCapacity()
-     * @return The current implementation always returns 32767
+     * @return number of bytes which can still be updated in the current transaction
      */
     public short getUnusedCommitCapacity() {
-        return Short.MAX_VALUE;
+        return transactionLog.getUnusedCapacity();
     }
 
     /**
@@ -474,31 +716,35 @@ public class SimulatorRuntime {
      * @return The current implementation always returns 32767
      */
     public short getMaxCommitCapacity() {
-        return Short.MAX_VALUE;
+        return transactionLog.getCapacity();
     }
 
     /**
      * @see javacard.framework.JCSystem#getAvailableMemory(byte)
-     * @return The current implementation always returns 32767
+     * @return free persistent memory of the card profile, at most 32767
      */
     public short getAvailablePersistentMemory() {
-        return Short.MAX_VALUE;
+        return toAvailableMemory(cardProfile.getPersistentMemory() - getUsedPersistentMemory());
     }
 
     /**
      * @see javacard.framework.JCSystem#getAvailableMemory(byte)
-     * @return The current implementation always returns 32767
+     * @return free <code>CLEAR_ON_RESET</code> memory of the card profile, at most 32767
      */
     public short getAvailableTransientResetMemory() {
-        return Short.MAX_VALUE;
+        return toAvailableMemory(transientMemory.getAvailableMemory(JCSystem.CLEAR_ON_RESET));
     }
 
     /**
      * @see javacard.framework.JCSystem#getAvailableMemory(byte)
-     * @return The current implementation always returns 32767
+     * @return free <code>CLEAR_ON_DESELECT</code> memory of the card profile, at most 32767
      */
     public short getAvailableTransientDeselectMemory() {
-        return Short.MAX_VALUE;
+        return toAvailableMemory(transientMemory.getAvailableMemory(JCSystem.CLEAR_ON_DESELECT));
+    }
+
+    private static short toAvailableMemory(long available) {
+        return (short) Math.max(0, Math.min(Short.MAX_VALUE, available));
     }
 
     /**
@@ -548,13 +794,17 @@ public class SimulatorRuntime {
     }
 
     protected static boolean isAppletSelectionApdu(byte[] apdu) {
+        return isAppletSelectionApdu(apdu, 0);
+    }
+
+    protected static boolean isAppletSelectionApdu(byte[] apdu, int offset) {
         final byte channelMask = (byte) 0xFC; // mask out %b000000xx
         final byte p2Mask = (byte) 0xE3; // mask out %b000xxx00
 
-        final byte cla = (byte) (apdu[ISO7816.OFFSET_CLA] & channelMask);
-        final byte ins = apdu[ISO7816.OFFSET_INS];
-        final byte p1 = apdu[ISO7816.OFFSET_P1];
-        final byte p2 = (byte) (apdu[ISO7816.OFFSET_P2] & p2Mask);
+        final byte cla = (byte) (apdu[offset + ISO7816.OFFSET_CLA] & channelMask);
+        final byte ins = apdu[offset + ISO7816.OFFSET_INS];
+        final byte p1 = apdu[offset + ISO7816.OFFSET_P1];
+        final byte p2 = (byte) (apdu[offset + ISO7816.OFFSET_P2] & p2Mask);
 
         return cla == ISO7816.CLA_ISO7816 && ins == ISO7816.INS_SELECT &&
                 p1 == 4 && p2 == 0;
@@ -570,6 +820,7 @@ public class SimulatorRuntime {
 
     public void installApplet(AID loadFileAID, AID moduleAID, final AID appletAID,
                               byte[] bArray, short bOffset, byte bLength) {
+        activateSimulatorRuntimeInstance();
         LoadFile loadFile = loadFiles.get(loadFileAID);
         if (loadFile == null) {
             throw new IllegalArgumentException("LoadFile AID not found " + AIDUtil.toString(loadFileAID));
@@ -589,6 +840,8 @@ public class SimulatorRuntime {
         }
 
         final AtomicInteger callCount = new AtomicInteger(0);
+        final MemoryUsage memoryUsage = new MemoryUsage();
+        final AID[] registeredAID = new AID[1];
         registrationCallback.set(new BiConsumer<Applet,AID>() {
             public void accept(Applet applet, AID installAID) {
                 // disallow second call to register
@@ -597,47 +850,172 @@ public class SimulatorRuntime {
                 }
 
                 // register applet
-                if (installAID != null) {
-                    applets.put(installAID, new ApplicationInstance(installAID, applet));
-                }
-                else {
-                    applets.put(appletAID, new ApplicationInstance(appletAID, applet));
-                }
+                AID aid = installAID != null ? installAID : appletAID;
+                ApplicationInstance applicationInstance = new ApplicationInstance(aid, applet, memoryUsage);
+                applets.put(aid, applicationInstance);
+                appletIndex.put(aid, applicationInstance);
+                registeredAID[0] = aid;
             }
         });
 
+        // transient arrays created by install() belong to the new applet
+        transientMemory.setOwner(memoryUsage);
         try {
             initMethod.invoke(null, bArray, bOffset, bLength);
         }
         catch (SystemException e) {
             throw e;
         }
+        catch (InvocationTargetException e) {
+            if (e.getCause() instanceof SystemException) {
+                throw (SystemException) e.getCause();
+            }
+            throw new SystemException(SystemException.ILLEGAL_AID);
+        }
         catch (Exception e) {
             throw new SystemException(SystemException.ILLEGAL_AID);
         }
         finally {
             registrationCallback.set(null);
+            setMemoryContext(currentAID);
         }
 
         if (callCount.get() != 1) {
             throw new SystemException(SystemException.ILLEGAL_AID);
         }
+
+        ApplicationInstance applicationInstance = applets.get(registeredAID[0]);
+        memoryUsage.setPersistent(MemoryEstimator.persistentSize(applicationInstance.getApplet(), transientMemory));
+        if (getUsedPersistentMemory() > cardProfile.getPersistentMemory()) {
+            applets.remove(registeredAID[0]);
+            appletIndex.remove(registeredAID[0]);
+            transientMemory.release(memoryUsage);
+            throw new SystemException(SystemException.NO_RESOURCE);
+        }
+    }
+
+    /**
+     * Make <code>aid</code> the applet context new transient arrays are charged to
+     * @param aid applet AID, may be null
+     */
+    protected void setMemoryContext(AID aid) {
+        enterContext(lookupApplet(aid));
+    }
+
+    /**
+     * Charge new transient arrays to <code>applicationInstance</code>, then get its applet
+     * @param applicationInstance applet instance, may be null
+     * @return applet of <code>applicationInstance</code> or null
+     */
+    private Applet enterContext(ApplicationInstance applicationInstance) {
+        if (applicationInstance == null) {
+            transientMemory.setOwner(null);
+            return null;
+        }
+        transientMemory.setOwner(applicationInstance.memoryUsage);
+        return applicationInstance.getApplet();
+    }
+
+    /**
+     * @return sum of the last persistent memory estimates of all applets
+     */
+    private long getUsedPersistentMemory() {
+        long used = 0;
+        for (ApplicationInstance applicationInstance : applets.values()) {
+            used += applicationInstance.memoryUsage.getPersistentMemory();
+        }
+        return used;
+    }
+
+    /**
+     * Set the memory budget of the card. Transient limits apply to new arrays,
+     * the persistent limit to applets installed afterwards.
+     * @param cardProfile memory budget, <code>CardProfile.UNLIMITED</code> by default
+     * @see CardProfile
+     */
+    public void setCardProfile(CardProfile cardProfile) {
+        if (cardProfile == null) {
+            throw new NullPointerException("cardProfile");
+        }
+        this.cardProfile = cardProfile;
+        transientMemory.setLimits(cardProfile.getTransientResetMemory(), cardProfile.getTransientDeselectMemory());
+    }
+
+    /**
+     * @return memory budget of the card
+     */
+    public CardProfile getCardProfile() {
+        return cardProfile;
+    }
+
+    /**
+     * Memory usage report. The persistent memory of every loaded applet is estimated
+     * again from its current object graph, applets restored from a snapshot or
+     * an image which have not been used yet report no persistent memory.
+     * @return memory used by each applet
+     * @see MemoryUsage
+     */
+    public SortedMap<AID, MemoryUsage> getMemoryUsage() {
+        SortedMap<AID, MemoryUsage> report = new TreeMap<AID, MemoryUsage>(AIDUtil.comparator());
+        for (Map.Entry<AID, ApplicationInstance> entry : applets.entrySet()) {
+            ApplicationInstance applicationInstance = entry.getValue();
+            if (applicationInstance.isLoaded()) {
+                applicationInstance.memoryUsage.setPersistent(
+                        MemoryEstimator.persistentSize(applicationInstance.getApplet(), transientMemory));
+            }
+            report.put(entry.getKey(), new MemoryUsage(applicationInstance.memoryUsage));
+        }
+        return report;
     }
 
     /** Represents an Applet instance */
     public static class ApplicationInstance {
         private final AID aid;
-        private final Applet applet;
+        private Applet applet;
+        /** memory charged to the applet */
+        final MemoryUsage memoryUsage;
 
         public ApplicationInstance(AID aid, Applet applet) {
+            this(aid, applet, new MemoryUsage());
+        }
+
+        ApplicationInstance(AID aid, Applet applet, MemoryUsage memoryUsage) {
             this.aid = aid;
             this.applet = applet;
+            this.memoryUsage = memoryUsage;
+        }
+
+        /**
+         * Constructor for instances which create their applet on first use
+         * @param aid applet AID
+         * @see #loadApplet()
+         */
+        protected ApplicationInstance(AID aid) {
+            this(aid, null, new MemoryUsage());
         }
 
         public Applet getApplet(){
+            if (applet == null) {
+                applet = loadApplet();
+            }
             return applet;
         }
 
+        /**
+         * @return true if the applet has been created
+         */
+        public boolean isLoaded() {
+            return applet != null;
+        }
+
+        /**
+         * Create the applet of an instance constructed without one
+         * @return applet
+         */
+        protected Applet loadApplet() {
+            throw new IllegalStateException("No applet for " + AIDUtil.toString(aid));
+        }
+
         @Override
         public String toString() {
             return String.format("ApplicationInstance (%s)", AIDUtil.toString(aid));
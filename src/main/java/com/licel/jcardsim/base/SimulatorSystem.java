@@ -18,6 +18,7 @@ package com.licel.jcardsim.base;
 import javacard.framework.*;
 
 import java.lang.reflect.Constructor;
+import java.util.concurrent.Callable;
 
 /**
  * Base implementation of <code>JCSystem</code>
@@ -42,9 +43,15 @@ public class SimulatorSystem {
 
 
     /**
-     * Holds the currently active instance
+     * Holds the currently active instance. The holder is created once per thread,
+     * switching the runtime only writes a field.
      */
-    private static final ThreadLocal<SimulatorRuntime> currentRuntime = new ThreadLocal<SimulatorRuntime>();
+    private static final ThreadLocal<RuntimeHolder> currentRuntime = new ThreadLocal<RuntimeHolder>() {
+        @Override
+        protected RuntimeHolder initialValue() {
+            return new RuntimeHolder();
+        }
+    };
 
     /**
      * the default instance. Used by <code>Simulator</code>
@@ -60,20 +67,118 @@ public class SimulatorSystem {
      * @return current instance
      */
     public static SimulatorRuntime instance() {
-        SimulatorRuntime simulatorRuntime = currentRuntime.get();
+        SimulatorRuntime simulatorRuntime = currentRuntime.get().runtime;
         if (simulatorRuntime == null) {
-            throw new AssertionError("No current simulator instance");
+            throw new AssertionError("No current simulator instance, see SimulatorSystem.bind");
         }
         return simulatorRuntime;
     }
 
+    /**
+     * Bind a runtime to the current thread until the returned binding is closed.
+     * Use this to run applet code outside of <code>transmitCommand</code>, for example
+     * on threads of an executor.
+     * @param simulatorRuntime runtime to bind
+     * @return binding, must be closed on the same thread
+     * @throws java.lang.NullPointerException if <code>simulatorRuntime</code> is null
+     */
+    public static RuntimeBinding bind(SimulatorRuntime simulatorRuntime) {
+        if (simulatorRuntime == null) {
+            throw new NullPointerException("simulatorRuntime");
+        }
+        return new RuntimeBinding(currentRuntime.get(), simulatorRuntime);
+    }
+
+    /**
+     * Wrap a task so that it runs with <code>simulatorRuntime</code> bound,
+     * on whichever thread executes it. The previous runtime of that thread is restored afterwards.
+     * @param simulatorRuntime runtime to bind
+     * @param task task
+     * @return wrapped task
+     * @throws java.lang.NullPointerException if an argument is null
+     */
+    public static Runnable wrap(final SimulatorRuntime simulatorRuntime, final Runnable task) {
+        if (simulatorRuntime == null) {
+            throw new NullPointerException("simulatorRuntime");
+        }
+        if (task == null) {
+            throw new NullPointerException("task");
+        }
+        return new Runnable() {
+            public void run() {
+                RuntimeBinding binding = bind(simulatorRuntime);
+                try {
+                    task.run();
+                } finally {
+                    binding.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * Wrap a task so that it runs with <code>simulatorRuntime</code> bound,
+     * on whichever thread executes it. The previous runtime of that thread is restored afterwards.
+     * @param simulatorRuntime runtime to bind
+     * @param task task
+     * @param <T> result type
+     * @return wrapped task
+     * @throws java.lang.NullPointerException if an argument is null
+     */
+    public static <T> Callable<T> wrap(final SimulatorRuntime simulatorRuntime, final Callable<T> task) {
+        if (simulatorRuntime == null) {
+            throw new NullPointerException("simulatorRuntime");
+        }
+        if (task == null) {
+            throw new NullPointerException("task");
+        }
+        return new Callable<T>() {
+            public T call() throws Exception {
+                RuntimeBinding binding = bind(simulatorRuntime);
+                try {
+                    return task.call();
+                } finally {
+                    binding.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * Notify the currently active SimulatorRuntime of an atomic update of a byte array.
+     * Does nothing if no instance is active on this thread.
+     *
+     * This method should be only called by JCE implementation classes like
+     * <code>Util</code>
+     *
+     * @param array array to be updated
+     * @param offset offset of the updated region
+     * @param length length of the updated region
+     * @see SimulatorRuntime#beforeAtomicUpdate(byte[], short, short)
+     */
+    public static void beforeAtomicUpdate(byte[] array, short offset, short length) {
+        SimulatorRuntime simulatorRuntime = currentRuntime.get().runtime;
+        if (simulatorRuntime != null) {
+            simulatorRuntime.beforeAtomicUpdate(array, offset, length);
+        }
+    }
+
     /**
      * Internal method to set the currently active SimulatorRuntime
      * @param simulatorRuntime simulatorRuntime to set
      * @return <code>simulatorRuntime</code>
      */
     static SimulatorRuntime setCurrentInstance(SimulatorRuntime simulatorRuntime) {
-        currentRuntime.set(simulatorRuntime);
+        currentRuntime.get().runtime = simulatorRuntime;
         return simulatorRuntime;
     }
+
+    /**
+     * Runtime of one thread
+     */
+    static final class RuntimeHolder {
+        SimulatorRuntime runtime;
+        /** innermost open binding */
+        RuntimeBinding binding;
+    }
 }
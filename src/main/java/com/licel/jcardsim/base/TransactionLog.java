@@ -0,0 +1,146 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.base;
+
+import javacard.framework.TransactionException;
+
+/**
+ * Undo log of a transaction: pre-images of the persistent array regions
+ * updated since <code>JCSystem.beginTransaction()</code>.
+ *
+ * <p>Entries are kept in parallel primitive arrays and the pre-image bytes in one
+ * byte array. The arrays are reused by every transaction of a runtime and only
+ * grow, so logging does not allocate once the log has reached its working size.</p>
+ *
+ * <p>The commit capacity is the number of pre-image bytes the log can hold.</p>
+ *
+ * <p>This class is not thread-safe.</p>
+ */
+public final class TransactionLog {
+    private static final int INITIAL_ENTRIES = 16;
+    private static final int INITIAL_DATA = 256;
+
+    private final short capacity;
+    private byte[][] arrays = new byte[INITIAL_ENTRIES][];
+    private short[] offsets = new short[INITIAL_ENTRIES];
+    private short[] lengths = new short[INITIAL_ENTRIES];
+    private byte[] data = new byte[INITIAL_DATA];
+    private int entryCount;
+    private int dataSize;
+
+    /**
+     * @param capacity maximum number of pre-image bytes
+     */
+    public TransactionLog(short capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Save the current content of a region before it is updated
+     * @param array array to be updated
+     * @param offset offset of the region
+     * @param length length of the region
+     * @throws ArrayIndexOutOfBoundsException if the region is outside of <code>array</code>
+     * @throws TransactionException with reason <code>BUFFER_FULL</code> if the commit capacity would be exceeded
+     */
+    public void record(byte[] array, short offset, short length) {
+        if (offset < 0 || length < 0 || offset + length > array.length) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+        if (dataSize + length > capacity) {
+            TransactionException.throwIt(TransactionException.BUFFER_FULL);
+        }
+        if (entryCount == arrays.length) {
+            growEntries();
+        }
+        if (dataSize + length > data.length) {
+            growData(dataSize + length);
+        }
+        arrays[entryCount] = array;
+        offsets[entryCount] = offset;
+        lengths[entryCount] = length;
+        entryCount++;
+        System.arraycopy(array, offset, data, dataSize, length);
+        dataSize += length;
+    }
+
+    /**
+     * Restore all saved regions, newest first, and empty the log
+     */
+    public void rollback() {
+        int position = dataSize;
+        for (int i = entryCount - 1; i >= 0; i--) {
+            position -= lengths[i];
+            System.arraycopy(data, position, arrays[i], offsets[i], lengths[i]);
+        }
+        clear();
+    }
+
+    /**
+     * Empty the log, keeping the updated content
+     */
+    public void clear() {
+        for (int i = 0; i < entryCount; i++) {
+            arrays[i] = null;
+        }
+        entryCount = 0;
+        dataSize = 0;
+    }
+
+    /**
+     * @return maximum number of pre-image bytes
+     */
+    public short getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return number of pre-image bytes which can still be logged
+     */
+    public short getUnusedCapacity() {
+        return (short) (capacity - dataSize);
+    }
+
+    /**
+     * @return number of logged regions
+     */
+    public int size() {
+        return entryCount;
+    }
+
+    private void growEntries() {
+        int newLength = arrays.length * 2;
+        byte[][] newArrays = new byte[newLength][];
+        short[] newOffsets = new short[newLength];
+        short[] newLengths = new short[newLength];
+        System.arraycopy(arrays, 0, newArrays, 0, entryCount);
+        System.arraycopy(offsets, 0, newOffsets, 0, entryCount);
+        System.arraycopy(lengths, 0, newLengths, 0, entryCount);
+        arrays = newArrays;
+        offsets = newOffsets;
+        lengths = newLengths;
+    }
+
+    private void growData(int minLength) {
+        int newLength = data.length * 2;
+        while (newLength < minLength) {
+            newLength *= 2;
+        }
+        byte[] newData = new byte[newLength];
+        System.arraycopy(data, 0, newData, 0, dataSize);
+        data = newData;
+    }
+}
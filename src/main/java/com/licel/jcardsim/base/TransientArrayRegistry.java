@@ -0,0 +1,340 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.base;
+
+import javacard.framework.JCSystem;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+
+/**
+ * Registry of transient arrays used by <code>TransientMemory</code>.
+ *
+ * <p>Arrays are held by weak references. An array which is no longer reachable
+ * is dropped from the registry once the garbage collector has cleared it, so arrays
+ * created per call (for example by <code>ByteContainer.getBytes(byte)</code>) do not
+ * accumulate. Zeroing the arrays of an event takes time proportional to the number
+ * of live arrays of that event.</p>
+ *
+ * <p>Arrays are also indexed by identity hash code, so <code>add</code> and
+ * <code>getEvent</code> take constant time. An array is registered at most once.</p>
+ *
+ * <p>The registry keeps the number of bytes of the live arrays of each event and
+ * updates the <code>MemoryUsage</code> an array was charged to when it is dropped.</p>
+ *
+ * <p>This class is not thread-safe.</p>
+ */
+public final class TransientArrayRegistry {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+    private final ArrayRefs clearOnDeselect = new ArrayRefs();
+    private final ArrayRefs clearOnReset = new ArrayRefs();
+    /** identity hash table over the entries of both lists */
+    private ArrayRef[] table = new ArrayRef[INITIAL_CAPACITY];
+
+    /**
+     * Register an array. If the array is already registered for another event,
+     * it is moved to <code>event</code>.
+     * @param array transient array
+     * @param event <code>JCSystem.CLEAR_ON_DESELECT</code> or <code>JCSystem.CLEAR_ON_RESET</code>
+     * @throws java.lang.IllegalArgumentException if <code>event</code> is invalid
+     */
+    public void add(Object array, byte event) {
+        add(array, event, 0, null);
+    }
+
+    /**
+     * Register an array and charge its size to <code>owner</code>.
+     * If the array is already registered for another event, it is moved to <code>event</code>.
+     * @param array transient array
+     * @param event <code>JCSystem.CLEAR_ON_DESELECT</code> or <code>JCSystem.CLEAR_ON_RESET</code>
+     * @param size size of the array in bytes
+     * @param owner usage of the applet which created the array, may be null
+     * @throws java.lang.IllegalArgumentException if <code>event</code> is invalid
+     */
+    public void add(Object array, byte event, int size, MemoryUsage owner) {
+        ArrayRefs refs = refsFor(event);
+        expungeStaleEntries();
+        ArrayRef ref = find(array);
+        if (ref != null) {
+            if (ref.event == event) {
+                return;
+            }
+            remove(ref);
+            ref.clear();
+        }
+        ref = new ArrayRef(array, event, size, owner, queue);
+        refs.add(ref);
+        if (owner != null) {
+            owner.addTransient(event, size);
+        }
+        if (count() >= table.length - (table.length >> 2)) {
+            rehash(table.length * 2);
+        }
+        int index = ref.hash & (table.length - 1);
+        ref.next = table[index];
+        table[index] = ref;
+    }
+
+    /**
+     * @param array array to check
+     * @return event of a registered array or <code>JCSystem.NOT_A_TRANSIENT_OBJECT</code>
+     */
+    public byte getEvent(Object array) {
+        if (array == null) {
+            return JCSystem.NOT_A_TRANSIENT_OBJECT;
+        }
+        ArrayRef ref = find(array);
+        return ref == null ? JCSystem.NOT_A_TRANSIENT_OBJECT : ref.event;
+    }
+
+    /**
+     * @param event <code>JCSystem.CLEAR_ON_DESELECT</code> or <code>JCSystem.CLEAR_ON_RESET</code>
+     * @return bytes of the registered arrays of <code>event</code> which have not been garbage collected
+     * @throws java.lang.IllegalArgumentException if <code>event</code> is invalid
+     */
+    public int getSize(byte event) {
+        ArrayRefs refs = refsFor(event);
+        expungeStaleEntries();
+        return refs.bytes;
+    }
+
+    /**
+     * Zero all live arrays registered for <code>event</code>
+     * @param event <code>JCSystem.CLEAR_ON_DESELECT</code> or <code>JCSystem.CLEAR_ON_RESET</code>
+     * @throws java.lang.IllegalArgumentException if <code>event</code> is invalid
+     */
+    public void zero(byte event) {
+        expungeStaleEntries();
+        refsFor(event).zero();
+    }
+
+    /**
+     * Forget the arrays charged to <code>owner</code>, e.g. of a deleted applet,
+     * without waiting for the garbage collector
+     * @param owner usage the arrays were charged to
+     */
+    public void remove(MemoryUsage owner) {
+        expungeStaleEntries();
+        removeOwner(clearOnDeselect, owner);
+        removeOwner(clearOnReset, owner);
+    }
+
+    /**
+     * Forget all arrays
+     */
+    public void clear() {
+        clearOnDeselect.clear();
+        clearOnReset.clear();
+        table = new ArrayRef[INITIAL_CAPACITY];
+        expungeStaleEntries();
+    }
+
+    /**
+     * @return number of registered arrays which have not been garbage collected
+     */
+    public int size() {
+        expungeStaleEntries();
+        return count();
+    }
+
+    private int count() {
+        return clearOnDeselect.size + clearOnReset.size;
+    }
+
+    private ArrayRef find(Object array) {
+        ArrayRef ref = table[System.identityHashCode(array) & (table.length - 1)];
+        // cleared entries never match, get() returns null
+        while (ref != null && ref.get() != array) {
+            ref = ref.next;
+        }
+        return ref;
+    }
+
+    private void remove(ArrayRef ref) {
+        refsFor(ref.event).remove(ref);
+        int index = ref.hash & (table.length - 1);
+        if (table[index] == ref) {
+            table[index] = ref.next;
+        } else {
+            ArrayRef previous = table[index];
+            while (previous.next != ref) {
+                previous = previous.next;
+            }
+            previous.next = ref.next;
+        }
+        ref.next = null;
+        ref.release();
+        // give memory back after a burst of short-lived arrays
+        if (table.length > INITIAL_CAPACITY && count() < table.length >> 3) {
+            rehash(table.length >> 1);
+        }
+    }
+
+    private void removeOwner(ArrayRefs refs, MemoryUsage owner) {
+        // removal moves the last entry to the removed position, which was already visited
+        for (int i = refs.size - 1; i >= 0; i--) {
+            ArrayRef ref = refs.refs[i];
+            if (ref.owner == owner) {
+                remove(ref);
+                ref.clear();
+            }
+        }
+    }
+
+    private void rehash(int capacity) {
+        ArrayRef[] newTable = new ArrayRef[capacity];
+        for (ArrayRef head : table) {
+            ArrayRef ref = head;
+            while (ref != null) {
+                ArrayRef next = ref.next;
+                int index = ref.hash & (capacity - 1);
+                ref.next = newTable[index];
+                newTable[index] = ref;
+                ref = next;
+            }
+        }
+        table = newTable;
+    }
+
+    private ArrayRefs refsFor(byte event) {
+        switch (event) {
+            case JCSystem.CLEAR_ON_DESELECT:
+                return clearOnDeselect;
+            case JCSystem.CLEAR_ON_RESET:
+                return clearOnReset;
+            default:
+                throw new IllegalArgumentException("Invalid event: " + event);
+        }
+    }
+
+    private void expungeStaleEntries() {
+        Reference<?> ref;
+        while ((ref = queue.poll()) != null) {
+            ArrayRef arrayRef = (ArrayRef) ref;
+            // entries removed by clear() are still enqueued later
+            if (arrayRef.index >= 0) {
+                remove(arrayRef);
+            }
+        }
+    }
+
+    /**
+     * Zero an array
+     * @param array byte[], short[], boolean[] or Object[]
+     */
+    private static void zeroArray(Object array) {
+        if (array instanceof byte[]) {
+            Arrays.fill((byte[]) array, (byte) 0);
+        } else if (array instanceof short[]) {
+            Arrays.fill((short[]) array, (short) 0);
+        } else if (array instanceof Object[]) {
+            Arrays.fill((Object[]) array, null);
+        } else if (array instanceof boolean[]) {
+            Arrays.fill((boolean[]) array, false);
+        }
+    }
+
+    private static final class ArrayRef extends WeakReference<Object> {
+        final byte event;
+        /** identity hash code of the array */
+        final int hash;
+        /** size of the array in bytes */
+        final int size;
+        /** usage the size is charged to, may be null */
+        final MemoryUsage owner;
+        /** position in <code>ArrayRefs.refs</code>, -1 if removed */
+        int index = -1;
+        /** next entry in the same hash bucket */
+        ArrayRef next;
+
+        ArrayRef(Object array, byte event, int size, MemoryUsage owner, ReferenceQueue<Object> queue) {
+            super(array, queue);
+            this.event = event;
+            this.hash = System.identityHashCode(array);
+            this.size = size;
+            this.owner = owner;
+        }
+
+        void release() {
+            if (owner != null) {
+                owner.removeTransient(event, size);
+            }
+        }
+    }
+
+    /**
+     * Dense list of the references of one event, removal swaps in the last entry
+     */
+    private static final class ArrayRefs {
+        ArrayRef[] refs = new ArrayRef[INITIAL_CAPACITY];
+        int size;
+        /** sum of the sizes of the arrays */
+        int bytes;
+
+        void add(ArrayRef ref) {
+            if (size == refs.length) {
+                resize(size * 2);
+            }
+            ref.index = size;
+            refs[size++] = ref;
+            bytes += ref.size;
+        }
+
+        void remove(ArrayRef ref) {
+            int index = ref.index;
+            ArrayRef last = refs[--size];
+            refs[index] = last;
+            last.index = index;
+            refs[size] = null;
+            ref.index = -1;
+            bytes -= ref.size;
+            // give memory back after a burst of short-lived arrays
+            if (refs.length > INITIAL_CAPACITY && size < refs.length / 4) {
+                resize(refs.length / 2);
+            }
+        }
+
+        private void resize(int capacity) {
+            ArrayRef[] newRefs = new ArrayRef[capacity];
+            System.arraycopy(refs, 0, newRefs, 0, size);
+            refs = newRefs;
+        }
+
+        void zero() {
+            for (int i = 0; i < size; i++) {
+                Object array = refs[i].get();
+                if (array != null) {
+                    zeroArray(array);
+                }
+            }
+        }
+
+        void clear() {
+            for (int i = 0; i < size; i++) {
+                refs[i].index = -1;
+                refs[i].release();
+                refs[i] = null;
+            }
+            size = 0;
+            bytes = 0;
+            refs = new ArrayRef[INITIAL_CAPACITY];
+        }
+    }
+}
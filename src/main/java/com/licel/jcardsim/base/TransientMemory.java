@@ -15,21 +15,23 @@
  */
 package com.licel.jcardsim.base;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-
 import javacard.framework.JCSystem;
 import javacard.framework.SystemException;
 
 /**
- * Basic implementation of storage transient memory of JCRE
+ * Basic implementation of storage transient memory of JCRE.
+ * Arrays are only weakly referenced, see <code>TransientArrayRegistry</code>.
+ *
+ * <p>New arrays are charged to the <code>MemoryUsage</code> of the current applet context
+ * and checked against the memory limits, see <code>SimulatorRuntime.setCardProfile</code>.</p>
  */
 public class TransientMemory {
-    /** List of <code>CLEAR_ON_DESELECT</code> arrays */
-    protected final ArrayList<Object> clearOnDeselect = new ArrayList<Object>();
-    /** List of <code>CLEAR_ON_RESET</code> arrays */
-    protected final ArrayList<Object> clearOnReset = new ArrayList<Object>();
+    /** <code>CLEAR_ON_DESELECT</code> and <code>CLEAR_ON_RESET</code> arrays */
+    protected final TransientArrayRegistry arrays = new TransientArrayRegistry();
+    /** usage of the current applet context, may be null */
+    private MemoryUsage owner;
+    private int resetLimit = Integer.MAX_VALUE;
+    private int deselectLimit = Integer.MAX_VALUE;
 
     /**
      * @see javacard.framework.JCSystem#makeTransientBooleanArray(short, byte)
@@ -71,12 +73,7 @@ public class TransientMemory {
      * @see javacard.framework.JCSystem#isTransient(Object)
      */
     public byte isTransient(Object theObj) {
-        if (clearOnDeselect.contains(theObj)) {
-            return JCSystem.CLEAR_ON_DESELECT;
-        } else if (clearOnReset.contains(theObj)) {
-            return JCSystem.CLEAR_ON_RESET;
-        }
-        return JCSystem.NOT_A_TRANSIENT_OBJECT;
+        return arrays.getEvent(theObj);
     }
 
     /**
@@ -85,23 +82,66 @@ public class TransientMemory {
      * @param event event type
      */
     protected void storeArray(Object arrayRef, byte event) {
+        int limit = 0;
         switch (event) {
             case JCSystem.CLEAR_ON_DESELECT:
-                clearOnDeselect.add(arrayRef);
+                limit = deselectLimit;
                 break;
             case JCSystem.CLEAR_ON_RESET:
-                clearOnReset.add(arrayRef);
+                limit = resetLimit;
                 break;
             default:
                 SystemException.throwIt(SystemException.ILLEGAL_VALUE);
         }
+        int size = MemoryEstimator.arraySize(arrayRef);
+        if (limit != Integer.MAX_VALUE && arrays.getEvent(arrayRef) != event
+                && (long) arrays.getSize(event) + size > limit) {
+            SystemException.throwIt(SystemException.NO_TRANSIENT_SPACE);
+        }
+        arrays.add(arrayRef, event, size, owner);
+    }
+
+    /**
+     * @param event <code>JCSystem.CLEAR_ON_DESELECT</code> or <code>JCSystem.CLEAR_ON_RESET</code>
+     * @return free transient memory of <code>event</code> in bytes
+     */
+    public int getAvailableMemory(byte event) {
+        int limit = event == JCSystem.CLEAR_ON_RESET ? resetLimit : deselectLimit;
+        return limit - arrays.getSize(event);
+    }
+
+    /**
+     * Set the memory limits
+     * @param resetLimit bytes for <code>CLEAR_ON_RESET</code> arrays
+     * @param deselectLimit bytes for <code>CLEAR_ON_DESELECT</code> arrays
+     */
+    protected void setLimits(int resetLimit, int deselectLimit) {
+        this.resetLimit = resetLimit;
+        this.deselectLimit = deselectLimit;
+    }
+
+    /**
+     * Set the applet context new arrays are charged to
+     * @param owner usage of the applet, null for the runtime itself
+     */
+    protected void setOwner(MemoryUsage owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * Forget the arrays charged to <code>owner</code>, so they no longer count
+     * against the memory limits
+     * @param owner usage of a deleted applet
+     */
+    protected void release(MemoryUsage owner) {
+        arrays.remove(owner);
     }
 
     /**
      * Zero <code>CLEAR_ON_DESELECT</code> buffers
      */
     protected void clearOnDeselect() {
-        zero(clearOnDeselect);
+        arrays.zero(JCSystem.CLEAR_ON_DESELECT);
     }
 
     /**
@@ -109,8 +149,8 @@ public class TransientMemory {
      * buffers
      */
     protected void clearOnReset() {
-        zero(clearOnDeselect);
-        zero(clearOnReset);
+        arrays.zero(JCSystem.CLEAR_ON_DESELECT);
+        arrays.zero(JCSystem.CLEAR_ON_RESET);
     }
 
     /**
@@ -118,31 +158,6 @@ public class TransientMemory {
      */
     protected void forgetBuffers() {
         clearOnReset();
-        clearOnDeselect.clear();
-        clearOnReset.clear();
-    }
-
-    /**
-     * Zero all arrays in list
-     * @param list list of arrays
-     */
-    protected void zero(List<Object> list) {
-        for (Object obj : list) {
-            if (obj instanceof byte[]) {
-                Arrays.fill((byte[]) obj, (byte) 0);
-            }
-            else if (obj instanceof short[]) {
-                Arrays.fill((short[]) obj, (short) 0);
-            }
-            else if (obj instanceof Object[]) {
-                Arrays.fill((Object[])obj, null);
-            }
-            else if (obj instanceof boolean[]) {
-                boolean[] array = (boolean[]) obj;
-                for (int i = 0; i < array.length; ++i) {
-                    array[i] = false;
-                }
-            }
-        }
+        arrays.clear();
     }
 }
@@ -69,7 +69,12 @@ public class AsymmetricCipherImpl extends Cipher {
         }
         KeyWithParameters key = (KeyWithParameters) theKey;
         engine.init(theMode == MODE_ENCRYPT, key.getParameters());
-        buffer = JCSystem.makeTransientByteArray((short) engine.getInputBlockSize(), JCSystem.CLEAR_ON_DESELECT);
+        int blockSize = engine.getInputBlockSize();
+        if (buffer == null || buffer.length != blockSize) {
+            buffer = JCSystem.makeTransientByteArray((short) blockSize, JCSystem.CLEAR_ON_DESELECT);
+        } else {
+            Util.arrayFillNonAtomic(buffer, (short) 0, (short) blockSize, (byte) 0);
+        }
         bufferPos = 0;
         isInitialized = true;
     }
@@ -149,6 +149,19 @@ public final class ByteContainer {
         return result;
     }
 
+    /**
+     * Return a copy of the content, e.g. to detect changes with <code>contentEquals</code>
+     * @return byte array of the length of the content
+     */
+    public byte[] getBytes() {
+        if (length == 0) {
+            CryptoException.throwIt(CryptoException.UNINITIALIZED_KEY);
+        }
+        byte[] result = new byte[length];
+        System.arraycopy(data, 0, result, 0, length);
+        return result;
+    }
+
     /**
      * Copy byte array representation of the <code>ByteContainer</code>
      * @param dest destination byte array
@@ -167,6 +180,16 @@ public final class ByteContainer {
         return length;
     }
 
+    /**
+     * Compare the content of the <code>ByteContainer</code> without copying it
+     * @param buff byte array
+     * @return <code>true</code> if the container is initialized and contains <code>buff</code>
+     */
+    public boolean contentEquals(byte[] buff) {
+        return length != 0 && length == buff.length
+                && Util.arrayCompare(data, (short) 0, buff, (short) 0, length) == 0;
+    }
+
     /**
      * Clear internal structure of the <code>ByteContainer</code>
      */
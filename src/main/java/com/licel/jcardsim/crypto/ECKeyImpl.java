@@ -17,13 +17,10 @@ package com.licel.jcardsim.crypto;
 
 import java.math.BigInteger;
 import java.security.SecureRandom;
-import javacard.framework.JCSystem;
 import javacard.security.CryptoException;
 import javacard.security.ECKey;
 import javacard.security.KeyBuilder;
 import javacard.security.KeyPair;
-import org.bouncycastle.asn1.sec.SECNamedCurves;
-import org.bouncycastle.asn1.x9.X9ECParameters;
 import org.bouncycastle.crypto.KeyGenerationParameters;
 import org.bouncycastle.crypto.params.ECDomainParameters;
 import org.bouncycastle.crypto.params.ECKeyGenerationParameters;
@@ -48,6 +45,10 @@ public abstract class ECKeyImpl extends KeyImpl implements ECKey {
     protected short e2;
     protected short e3;
     protected boolean isKInitialized;
+    // the shared instance for a named curve, see ECNamedCurves
+    private transient ECDomainParameters domainParameters;
+    // content of getDomainParametersComponents() the parameters were computed from
+    private transient byte[][] domainParametersSource;
 
     /**
      * Construct not-initialized ecc key
@@ -89,6 +90,7 @@ public abstract class ECKeyImpl extends KeyImpl implements ECKey {
         e1 = 0;
         e2 = 0;
         e3 = 0;
+        domainParameters = null;
     }
 
     protected boolean isDomainParametersInitialized() {
@@ -108,6 +110,7 @@ public abstract class ECKeyImpl extends KeyImpl implements ECKey {
         this.e1 = e1;
         this.e2 = e2;
         this.e3 = e3;
+        domainParameters = null;
     }
 
     public void setA(byte[] buffer, short offset, short length) throws CryptoException {
@@ -129,6 +132,7 @@ public abstract class ECKeyImpl extends KeyImpl implements ECKey {
     public void setK(short K) {
         this.k = K;
         isKInitialized = true;
+        domainParameters = null;
     }
 
     public short getField(byte[] buffer, short offset) throws CryptoException {
@@ -162,13 +166,26 @@ public abstract class ECKeyImpl extends KeyImpl implements ECKey {
      * Get
      * <code>ECDomainParameters</code>
      *
+     * <p>The parameters are shared until the domain parameters change, for a named curve
+     * with all keys on that curve. Changes that bypass the setters, like a transaction
+     * abort, are detected by comparing the components.</p>
+     *
      * @return parameters for use with BouncyCastle API
      * @see ECDomainParameters
+     * @see ECNamedCurves
      */
     public ECDomainParameters getDomainParameters() {
         if (!isDomainParametersInitialized()) {
             CryptoException.throwIt(CryptoException.UNINITIALIZED_KEY);
         }
+        if (domainParameters == null
+                || !contentEquals(getDomainParametersComponents(), domainParametersSource)) {
+            setCachedDomainParameters(createDomainParameters());
+        }
+        return domainParameters;
+    }
+
+    private ECDomainParameters createDomainParameters() {
         ECCurve curve = null;
         if (fp.isInitialized()) {
             curve = new ECCurve.Fp(fp.getBigInteger(), a.getBigInteger(), b.getBigInteger());
@@ -176,8 +193,18 @@ public abstract class ECKeyImpl extends KeyImpl implements ECKey {
             curve = new ECCurve.F2m(size, e1, e2, e3, a.getBigInteger(), b.getBigInteger(),
                     r.getBigInteger(), BigInteger.valueOf(k));
         }
-        return new ECDomainParameters(curve, curve.decodePoint(g.getBytes(JCSystem.CLEAR_ON_RESET)),
-                r.getBigInteger(), BigInteger.valueOf(k));
+        return ECNamedCurves.getShared(new ECDomainParameters(curve,
+                curve.decodePoint(g.getBytes()),
+                r.getBigInteger(), BigInteger.valueOf(k)));
+    }
+
+    private ByteContainer[] getDomainParametersComponents() {
+        return new ByteContainer[]{a, b, g, r, fp};
+    }
+
+    private void setCachedDomainParameters(ECDomainParameters parameters) {
+        domainParametersSource = getContents(getDomainParametersComponents());
+        domainParameters = parameters;
     }
 
     /**
@@ -203,6 +230,7 @@ public abstract class ECKeyImpl extends KeyImpl implements ECKey {
             ECCurve.F2m ecf2m = (ECCurve.F2m) parameters.getCurve();
             setFieldF2M((short) ecf2m.getK1(), (short) ecf2m.getK2(), (short) ecf2m.getK3());
         }
+        setCachedDomainParameters(ECNamedCurves.getShared(parameters));
     }
 
     /**
@@ -235,7 +263,7 @@ public abstract class ECKeyImpl extends KeyImpl implements ECKey {
 
     /**
      * Get defaults
-     * <code>ECDomainParameters</code> for EC curve
+     * <code>ECDomainParameters</code> for EC curve, shared by all keys
      * {@link http://www.secg.org/collateral/sec2_final.pdf}
      *
      * @param keyType
@@ -269,10 +297,6 @@ public abstract class ECKeyImpl extends KeyImpl implements ECKey {
                 CryptoException.throwIt(CryptoException.ILLEGAL_VALUE);
                 break;
         }
-        X9ECParameters x9params = SECNamedCurves.getByName(curveName);
-        return new ECDomainParameters(
-                x9params.getCurve(),
-                x9params.getG(), // G
-                x9params.getN(), x9params.getH(), x9params.getSeed());
+        return ECNamedCurves.getByName(curveName);
     }
 }
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.crypto;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.bouncycastle.asn1.sec.SECNamedCurves;
+import org.bouncycastle.asn1.teletrust.TeleTrusTNamedCurves;
+import org.bouncycastle.asn1.x9.X9ECParameters;
+import org.bouncycastle.crypto.params.ECDomainParameters;
+import org.bouncycastle.math.ec.ECPoint;
+
+/**
+ * Shared <code>ECDomainParameters</code> of the SEC 2 and brainpool curves.
+ *
+ * <p>Domain parameters set on an EC key are compared with the named curves of the
+ * same order. For a named curve all keys use one <code>ECDomainParameters</code>
+ * instance, its generator multiplies with a <code>FixedBaseComb</code> table which is
+ * computed when the curve is first used.</p>
+ *
+ * @see ECKeyImpl#getDomainParameters()
+ */
+final class ECNamedCurves {
+    private static final Map<String, NamedCurve> byName = new HashMap<String, NamedCurve>();
+    private static final Map<BigInteger, List<NamedCurve>> byOrder = new HashMap<BigInteger, List<NamedCurve>>();
+
+    static {
+        Enumeration<?> names = SECNamedCurves.getNames();
+        while (names.hasMoreElements()) {
+            String name = (String) names.nextElement();
+            register(name, SECNamedCurves.getByName(name));
+        }
+        names = TeleTrusTNamedCurves.getNames();
+        while (names.hasMoreElements()) {
+            String name = (String) names.nextElement();
+            register(name, TeleTrusTNamedCurves.getByName(name));
+        }
+    }
+
+    private ECNamedCurves() {
+    }
+
+    private static void register(String name, X9ECParameters x9params) {
+        NamedCurve curve = new NamedCurve(x9params);
+        byName.put(name, curve);
+        List<NamedCurve> curves = byOrder.get(x9params.getN());
+        if (curves == null) {
+            curves = new ArrayList<NamedCurve>();
+            byOrder.put(x9params.getN(), curves);
+        }
+        curves.add(curve);
+    }
+
+    /**
+     * Get the shared parameters of a named curve
+     * @param name curve name, e.g. <code>secp256r1</code> or <code>brainpoolp256r1</code>
+     * @return parameters for use with BouncyCastle API, <code>null</code> if the name is unknown
+     */
+    static ECDomainParameters getByName(String name) {
+        NamedCurve curve = byName.get(name);
+        return curve == null ? null : curve.getParameters();
+    }
+
+    /**
+     * Get the shared instance of equal domain parameters
+     * @param parameters domain parameters
+     * @return parameters of the named curve equal to <code>parameters</code>,
+     * <code>parameters</code> if it is not a named curve
+     */
+    static ECDomainParameters getShared(ECDomainParameters parameters) {
+        NamedCurve curve = find(parameters.getG(), parameters.getN());
+        if (curve == null || !curve.x9params.getH().equals(parameters.getH())) {
+            return parameters;
+        }
+        return curve.getParameters();
+    }
+
+    /**
+     * Get the comb table of a generator
+     * @param g generator
+     * @param order order of <code>g</code>
+     * @return comb table, <code>null</code> if <code>g</code> is not the generator of a named curve
+     */
+    static FixedBaseComb getComb(ECPoint g, BigInteger order) {
+        NamedCurve curve = find(g, order);
+        return curve == null ? null : curve.getComb();
+    }
+
+    private static NamedCurve find(ECPoint g, BigInteger order) {
+        List<NamedCurve> curves = byOrder.get(order);
+        if (curves != null) {
+            for (NamedCurve curve : curves) {
+                // brainpool rN and tN curves share the order
+                if (curve.x9params.getCurve().equals(g.getCurve()) && curve.x9params.getG().equals(g)) {
+                    return curve;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static final class NamedCurve {
+        private final X9ECParameters x9params;
+        private ECDomainParameters parameters;
+        private FixedBaseComb comb;
+
+        NamedCurve(X9ECParameters x9params) {
+            this.x9params = x9params;
+        }
+
+        synchronized ECDomainParameters getParameters() {
+            if (parameters == null) {
+                ECPoint g = FixedBaseComb.createGenerator(x9params.getG(), x9params.getN(), getComb());
+                parameters = new ECDomainParameters(x9params.getCurve(), g,
+                        x9params.getN(), x9params.getH(), x9params.getSeed());
+            }
+            return parameters;
+        }
+
+        synchronized FixedBaseComb getComb() {
+            if (comb == null) {
+                comb = new FixedBaseComb(x9params.getG(), x9params.getN());
+            }
+            return comb;
+        }
+    }
+}
@@ -18,6 +18,7 @@ package com.licel.jcardsim.crypto;
 import javacard.security.CryptoException;
 import javacard.security.ECPrivateKey;
 import org.bouncycastle.crypto.CipherParameters;
+import org.bouncycastle.crypto.params.ECDomainParameters;
 import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
 
 /**
@@ -29,6 +30,9 @@ import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
 public class ECPrivateKeyImpl extends ECKeyImpl implements ECPrivateKey {
 
     protected ByteContainer s = new ByteContainer();
+    private transient ECPrivateKeyParameters parameters;
+    // content of s the parameters were computed from
+    private transient byte[] parametersSource;
 
     /**
      * Construct not-initialized ecc private key
@@ -74,6 +78,9 @@ public class ECPrivateKeyImpl extends ECKeyImpl implements ECPrivateKey {
 
     /**
      * Get <code>ECPrivateKeyParameters</code>
+     *
+     * <p>The parameters are shared until the key changes.</p>
+     *
      * @return parameters for use with BouncyCastle API
      * @see ECPrivateKeyParameters
      */
@@ -81,6 +88,11 @@ public class ECPrivateKeyImpl extends ECKeyImpl implements ECPrivateKey {
         if (!isInitialized()) {
             CryptoException.throwIt(CryptoException.UNINITIALIZED_KEY);
         }
-        return new ECPrivateKeyParameters(s.getBigInteger(), getDomainParameters());
+        ECDomainParameters dp = getDomainParameters();
+        if (parameters == null || parameters.getParameters() != dp || !s.contentEquals(parametersSource)) {
+            parametersSource = s.getBytes();
+            parameters = new ECPrivateKeyParameters(s.getBigInteger(), dp);
+        }
+        return parameters;
     }
 }
@@ -15,7 +15,6 @@
  */
 package com.licel.jcardsim.crypto;
 
-import javacard.framework.JCSystem;
 import javacard.security.CryptoException;
 import javacard.security.ECPublicKey;
 import org.bouncycastle.crypto.CipherParameters;
@@ -31,6 +30,9 @@ import org.bouncycastle.crypto.params.ECPublicKeyParameters;
 public class ECPublicKeyImpl extends ECKeyImpl implements ECPublicKey {
 
     protected ByteContainer w = new ByteContainer();
+    private transient ECPublicKeyParameters parameters;
+    // content of w the parameters were computed from
+    private transient byte[] parametersSource;
 
     /**
      * Construct not-initialized ecc public key
@@ -77,6 +79,9 @@ public class ECPublicKeyImpl extends ECKeyImpl implements ECPublicKey {
 
     /**
      * Get <code>ECPublicKeyParameters</code>
+     *
+     * <p>The parameters are shared until the key changes.</p>
+     *
      * @return parameters for use with BouncyCastle API
      * @see ECPublicKeyParameters
      */
@@ -85,6 +90,10 @@ public class ECPublicKeyImpl extends ECKeyImpl implements ECPublicKey {
             CryptoException.throwIt(CryptoException.UNINITIALIZED_KEY);
         }
         ECDomainParameters dp = getDomainParameters();
-        return new ECPublicKeyParameters(dp.getCurve().decodePoint(w.getBytes(JCSystem.CLEAR_ON_RESET)), dp);
+        if (parameters == null || parameters.getParameters() != dp || !w.contentEquals(parametersSource)) {
+            parametersSource = w.getBytes();
+            parameters = new ECPublicKeyParameters(dp.getCurve().decodePoint(parametersSource), dp);
+        }
+        return parameters;
     }
 }
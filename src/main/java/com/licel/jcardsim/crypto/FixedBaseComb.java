@@ -0,0 +1,153 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.crypto;
+
+import java.math.BigInteger;
+import org.bouncycastle.math.ec.ECCurve;
+import org.bouncycastle.math.ec.ECFieldElement;
+import org.bouncycastle.math.ec.ECPoint;
+
+/**
+ * Fixed-base comb table (Lim-Lee) of the generator of a named curve.
+ *
+ * <p>A scalar of <code>t</code> bits is split into <code>WIDTH</code> rows of
+ * <code>d = ceil(t / WIDTH)</code> bits, the table holds the sums of
+ * <code>2^(j * d) * G</code> for all subsets of rows. A multiplication takes
+ * <code>d</code> doublings and at most <code>d</code> additions, BouncyCastle's
+ * <code>WNafMultiplier</code> needs <code>t</code> doublings.</p>
+ *
+ * <p>BouncyCastle 1.46 has no public multiplier extension point, the table is used by
+ * the generator points created with <code>createGenerator</code>, which override
+ * <code>ECPoint.multiply</code>. All other points returned by them are plain
+ * BouncyCastle points. The table is not part of a copy of a generator, e.g. in a card
+ * snapshot, the copy looks it up again in <code>ECNamedCurves</code>.</p>
+ *
+ * @see ECNamedCurves
+ */
+final class FixedBaseComb {
+    private static final int WIDTH = 8;
+
+    private final int bits;
+    private final int spacing;
+    private final ECPoint[] table;
+
+    /**
+     * Compute the comb table
+     * @param g generator of a named curve
+     * @param order order of <code>g</code>
+     */
+    FixedBaseComb(ECPoint g, BigInteger order) {
+        this.bits = order.bitLength();
+        this.spacing = (bits + WIDTH - 1) / WIDTH;
+        ECPoint[] rows = new ECPoint[WIDTH];
+        rows[0] = g;
+        for (int j = 1; j < WIDTH; j++) {
+            ECPoint p = rows[j - 1];
+            for (int i = 0; i < spacing; i++) {
+                p = p.twice();
+            }
+            rows[j] = p;
+        }
+        table = new ECPoint[1 << WIDTH];
+        table[0] = g.getCurve().getInfinity();
+        for (int j = 0; j < WIDTH; j++) {
+            int row = 1 << j;
+            for (int i = 0; i < row; i++) {
+                table[row + i] = i == 0 ? rows[j] : table[i].add(rows[j]);
+            }
+        }
+    }
+
+    /**
+     * Create a generator point which multiplies with a comb table
+     * @param g generator of a named curve
+     * @param order order of <code>g</code>
+     * @param comb comb table of <code>g</code>
+     * @return point equal to <code>g</code>
+     */
+    static ECPoint createGenerator(ECPoint g, BigInteger order, FixedBaseComb comb) {
+        if (g instanceof ECPoint.F2m) {
+            return new F2mGenerator(g.getCurve(), g.getX(), g.getY(), g.isCompressed(), order, comb);
+        }
+        return new FpGenerator(g.getCurve(), g.getX(), g.getY(), g.isCompressed(), order, comb);
+    }
+
+    /**
+     * @param k scalar
+     * @return <code>k * G</code>, <code>null</code> if <code>k</code> is not positive
+     * or longer than the order
+     */
+    ECPoint multiply(BigInteger k) {
+        if (k.signum() <= 0 || k.bitLength() > bits) {
+            return null;
+        }
+        ECPoint q = table[0];
+        for (int i = spacing - 1; i >= 0; i--) {
+            q = q.twice();
+            int index = 0;
+            for (int j = WIDTH - 1; j >= 0; j--) {
+                index <<= 1;
+                if (k.testBit(j * spacing + i)) {
+                    index |= 1;
+                }
+            }
+            if (index != 0) {
+                q = q.add(table[index]);
+            }
+        }
+        return q;
+    }
+
+    private static final class FpGenerator extends ECPoint.Fp {
+        private final BigInteger order;
+        private transient FixedBaseComb comb;
+
+        FpGenerator(ECCurve curve, ECFieldElement x, ECFieldElement y, boolean withCompression,
+                BigInteger order, FixedBaseComb comb) {
+            super(curve, x, y, withCompression);
+            this.order = order;
+            this.comb = comb;
+        }
+
+        public ECPoint multiply(BigInteger k) {
+            if (comb == null) {
+                comb = ECNamedCurves.getComb(this, order);
+            }
+            ECPoint q = comb != null ? comb.multiply(k) : null;
+            return q != null ? q : super.multiply(k);
+        }
+    }
+
+    private static final class F2mGenerator extends ECPoint.F2m {
+        private final BigInteger order;
+        private transient FixedBaseComb comb;
+
+        F2mGenerator(ECCurve curve, ECFieldElement x, ECFieldElement y, boolean withCompression,
+                BigInteger order, FixedBaseComb comb) {
+            super(curve, x, y, withCompression);
+            this.order = order;
+            this.comb = comb;
+        }
+
+        public ECPoint multiply(BigInteger k) {
+            if (comb == null) {
+                comb = ECNamedCurves.getComb(this, order);
+            }
+            ECPoint q = comb != null ? comb.multiply(k) : null;
+            return q != null ? q : super.multiply(k);
+        }
+    }
+}
@@ -22,6 +22,7 @@ import javacard.security.PrivateKey;
 import org.bouncycastle.crypto.BasicAgreement;
 import org.bouncycastle.crypto.agreement.ECDHBasicAgreement;
 import org.bouncycastle.crypto.agreement.ECDHCBasicAgreement;
+import org.bouncycastle.crypto.params.ECDomainParameters;
 import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
 import org.bouncycastle.crypto.params.ECPublicKeyParameters;
 
@@ -75,8 +76,8 @@ public class KeyAgreementImpl extends KeyAgreement {
             short secretOffset) throws CryptoException {
         byte[] publicKey = new byte[publicLength];
         Util.arrayCopyNonAtomic(publicData, publicOffset, publicKey, (short) 0, publicLength);
-        ECPublicKeyParameters ecp = new ECPublicKeyParameters(
-                ((ECPrivateKeyParameters) privateKey.getParameters()).getParameters().getCurve().decodePoint(publicKey), ((ECPrivateKeyParameters) privateKey.getParameters()).getParameters());
+        ECDomainParameters dp = ((ECPrivateKeyParameters) privateKey.getParameters()).getParameters();
+        ECPublicKeyParameters ecp = new ECPublicKeyParameters(dp.getCurve().decodePoint(publicKey), dp);
         byte[] result = engine.calculateAgreement(ecp).toByteArray();
         if (result.length > secret.length - secretOffset) {
             CryptoException.throwIt(CryptoException.ILLEGAL_VALUE);
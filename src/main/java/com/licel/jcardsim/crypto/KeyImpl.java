@@ -19,6 +19,12 @@ import javacard.security.Key;
 
 /**
  * Base class for all <code>Key</code> instances
+ *
+ * <p>BouncyCastle parameters derived from the key components are cached in
+ * <code>transient</code> fields. They are computed on first use and dropped or
+ * recomputed when the components change. Transient fields are not part of copies
+ * of the key, e.g. in a card snapshot, or of its estimated memory usage, a copy
+ * computes them again.</p>
  * @see Key
  */
 public abstract class KeyImpl implements Key, KeyWithParameters {
@@ -33,4 +39,35 @@ public abstract class KeyImpl implements Key, KeyWithParameters {
     public byte getType() {
         return type;
     }
+
+    /**
+     * Copy the content of key components, e.g. to detect changes with
+     * <code>contentEquals(ByteContainer[], byte[][])</code>
+     * @param components key components
+     * @return contents, <code>null</code> for a component that is not initialized
+     */
+    static byte[][] getContents(ByteContainer[] components) {
+        byte[][] contents = new byte[components.length][];
+        for (int i = 0; i < components.length; i++) {
+            if (components[i].isInitialized()) {
+                contents[i] = components[i].getBytes();
+            }
+        }
+        return contents;
+    }
+
+    /**
+     * Compare key components with contents copied by <code>getContents</code>
+     * @param components key components
+     * @param contents contents of the components
+     * @return <code>true</code> if no component changed
+     */
+    static boolean contentEquals(ByteContainer[] components, byte[][] contents) {
+        for (int i = 0; i < components.length; i++) {
+            if (contents[i] == null ? components[i].isInitialized() : !components[i].contentEquals(contents[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
 }
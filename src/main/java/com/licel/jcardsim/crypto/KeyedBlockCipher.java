@@ -0,0 +1,72 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.crypto;
+
+import org.bouncycastle.crypto.BlockCipher;
+import org.bouncycastle.crypto.CipherParameters;
+import org.bouncycastle.crypto.DataLengthException;
+
+/**
+ * <code>BlockCipher</code> of a mode, padding or MAC which delegates to the key schedule
+ * owned by a <code>SymmetricKeyImpl</code>.
+ *
+ * <p>The key is selected with <code>setKeySchedule</code>. <code>init</code> does not change
+ * the key, modes and paddings should pass <code>null</code> key parameters, e.g.
+ * <code>ParametersWithIV(null, iv)</code> to set the IV. <code>ParametersWithIV</code>
+ * copies the IV. A reused CBC mode or MAC keeps the last IV unless a new one is set,
+ * so a zero IV has to be passed explicitly.</p>
+ *
+ * @see SymmetricKeyImpl#getKeySchedule(boolean)
+ */
+final class KeyedBlockCipher implements BlockCipher {
+    private BlockCipher cipher;
+    private boolean forEncryption;
+
+    KeyedBlockCipher(BlockCipher keySchedule, boolean forEncryption) {
+        setKeySchedule(keySchedule, forEncryption);
+    }
+
+    /**
+     * @param keySchedule initialized engine
+     * @param forEncryption direction of <code>keySchedule</code>
+     */
+    void setKeySchedule(BlockCipher keySchedule, boolean forEncryption) {
+        this.cipher = keySchedule;
+        this.forEncryption = forEncryption;
+    }
+
+    public void init(boolean forEncryption, CipherParameters params) throws IllegalArgumentException {
+        if (this.forEncryption != forEncryption) {
+            throw new IllegalStateException("Key schedule is for " + (this.forEncryption ? "encryption" : "decryption"));
+        }
+    }
+
+    public String getAlgorithmName() {
+        return cipher.getAlgorithmName();
+    }
+
+    public int getBlockSize() {
+        return cipher.getBlockSize();
+    }
+
+    public int processBlock(byte[] in, int inOff, byte[] out, int outOff) throws DataLengthException, IllegalStateException {
+        return cipher.processBlock(in, inOff, out, outOff);
+    }
+
+    public void reset() {
+        cipher.reset();
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.crypto;
+
+import org.bouncycastle.crypto.BlockCipher;
+import org.bouncycastle.crypto.CipherParameters;
+import org.bouncycastle.crypto.DataLengthException;
+import org.bouncycastle.crypto.Mac;
+import org.bouncycastle.crypto.paddings.ISO7816d4Padding;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+
+/**
+ * ISO 9797-1 MAC algorithm 3 with padding method 2 (retail MAC) using the key
+ * schedules owned by a <code>SymmetricKeyImpl</code>.
+ *
+ * <p>All blocks are chained with single DES under the first key, the output
+ * transformation <code>E(K3, D(K2, E(K1, x)))</code> of the last block is a DES3
+ * encryption with the whole key. Unlike BouncyCastle's <code>ISO9797Alg3Mac</code>
+ * no key is expanded on <code>init</code> or <code>doFinal</code>.</p>
+ *
+ * <p>The key is selected with <code>setKeySchedule</code>, <code>init</code> accepts
+ * <code>null</code> or <code>ParametersWithIV</code> with <code>null</code> key parameters.</p>
+ *
+ * @see SymmetricKeyImpl#getFirstKeySchedule()
+ * @see SymmetricKeyImpl#getKeySchedule(boolean)
+ */
+final class KeyedISO9797Alg3Mac implements Mac {
+    private static final int BLOCK_SIZE = 8;
+
+    private final ISO7816d4Padding padding = new ISO7816d4Padding();
+    private final byte[] iv = new byte[BLOCK_SIZE];
+    private final byte[] mac = new byte[BLOCK_SIZE];
+    private final byte[] buf = new byte[BLOCK_SIZE];
+    private int bufOff;
+    private BlockCipher firstKeySchedule;
+    private BlockCipher keySchedule;
+
+    /**
+     * @param firstKeySchedule DES encryption schedule of the first key
+     * @param keySchedule DES3 encryption schedule of the whole key
+     */
+    void setKeySchedule(BlockCipher firstKeySchedule, BlockCipher keySchedule) {
+        this.firstKeySchedule = firstKeySchedule;
+        this.keySchedule = keySchedule;
+    }
+
+    public String getAlgorithmName() {
+        return "ISO9797Alg3";
+    }
+
+    public void init(CipherParameters params) throws IllegalArgumentException {
+        if (params instanceof ParametersWithIV) {
+            byte[] newIV = ((ParametersWithIV) params).getIV();
+            if (newIV.length != BLOCK_SIZE) {
+                throw new IllegalArgumentException("IV must be " + BLOCK_SIZE + " bytes long");
+            }
+            System.arraycopy(newIV, 0, iv, 0, BLOCK_SIZE);
+        } else if (params == null) {
+            for (int i = 0; i < BLOCK_SIZE; i++) {
+                iv[i] = 0;
+            }
+        } else {
+            throw new IllegalArgumentException("Key is set by setKeySchedule");
+        }
+        reset();
+    }
+
+    public int getMacSize() {
+        return BLOCK_SIZE;
+    }
+
+    public void update(byte in) throws IllegalStateException {
+        if (bufOff == BLOCK_SIZE) {
+            chain(buf, 0);
+            bufOff = 0;
+        }
+        buf[bufOff++] = in;
+    }
+
+    public void update(byte[] in, int inOff, int len) throws DataLengthException, IllegalStateException {
+        if (len < 0) {
+            throw new IllegalArgumentException("Can't have a negative input length!");
+        }
+        int gapLen = BLOCK_SIZE - bufOff;
+        if (len > gapLen) {
+            System.arraycopy(in, inOff, buf, bufOff, gapLen);
+            chain(buf, 0);
+            bufOff = 0;
+            len -= gapLen;
+            inOff += gapLen;
+            // keep the last block buffered, it gets the padding
+            while (len > BLOCK_SIZE) {
+                chain(in, inOff);
+                len -= BLOCK_SIZE;
+                inOff += BLOCK_SIZE;
+            }
+        }
+        System.arraycopy(in, inOff, buf, bufOff, len);
+        bufOff += len;
+    }
+
+    public int doFinal(byte[] out, int outOff) throws DataLengthException, IllegalStateException {
+        if (bufOff == BLOCK_SIZE) {
+            chain(buf, 0);
+            bufOff = 0;
+        }
+        padding.addPadding(buf, bufOff);
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            mac[i] ^= buf[i];
+        }
+        keySchedule.processBlock(mac, 0, out, outOff);
+        reset();
+        return BLOCK_SIZE;
+    }
+
+    public void reset() {
+        System.arraycopy(iv, 0, mac, 0, BLOCK_SIZE);
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            buf[i] = 0;
+        }
+        bufOff = 0;
+    }
+
+    private void chain(byte[] in, int inOff) {
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            mac[i] ^= in[inOff + i];
+        }
+        firstKeySchedule.processBlock(mac, 0, mac, 0);
+    }
+}
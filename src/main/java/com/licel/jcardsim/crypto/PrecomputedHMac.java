@@ -0,0 +1,153 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.crypto;
+
+import org.bouncycastle.crypto.CipherParameters;
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.ExtendedDigest;
+import org.bouncycastle.crypto.Mac;
+import org.bouncycastle.crypto.digests.MD5Digest;
+import org.bouncycastle.crypto.digests.RIPEMD160Digest;
+import org.bouncycastle.crypto.digests.SHA1Digest;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.digests.SHA384Digest;
+import org.bouncycastle.crypto.digests.SHA512Digest;
+import org.bouncycastle.crypto.params.KeyParameter;
+
+/**
+ * HMAC (RFC 2104) which keeps the digest states after the inner and outer pad.
+ *
+ * <p><code>init</code> with the <code>KeyParameter</code> instance of the previous
+ * <code>init</code> and <code>reset</code> only copy the inner state,
+ * <code>doFinal</code> continues from a copy of the outer state. BouncyCastle's
+ * <code>HMac</code> hashes both pads again for every MAC.</p>
+ *
+ * <p><code>SymmetricKeyImpl.getParameters</code> returns the same instance until the
+ * key changes, so the states are computed once per key.</p>
+ *
+ * @see SymmetricKeyImpl#getParameters()
+ */
+final class PrecomputedHMac implements Mac {
+    private static final byte IPAD = (byte) 0x36;
+    private static final byte OPAD = (byte) 0x5C;
+
+    private final int digestSize;
+    private final int blockLength;
+    private final byte[] innerHash;
+    private Digest digest;
+    private KeyParameter key;
+    private Digest innerState;
+    private Digest outerState;
+
+    /**
+     * @param digest one of MD5, RIPEMD160, SHA1, SHA256, SHA384, SHA512
+     */
+    PrecomputedHMac(Digest digest) {
+        this.digest = digest;
+        this.digestSize = digest.getDigestSize();
+        this.blockLength = ((ExtendedDigest) digest).getByteLength();
+        this.innerHash = new byte[digestSize];
+    }
+
+    public String getAlgorithmName() {
+        return digest.getAlgorithmName() + "/HMAC";
+    }
+
+    public void init(CipherParameters params) {
+        KeyParameter keyParameter = (KeyParameter) params;
+        if (keyParameter != key) {
+            precompute(keyParameter.getKey());
+            key = keyParameter;
+        }
+        reset();
+    }
+
+    public int getMacSize() {
+        return digestSize;
+    }
+
+    public void update(byte in) {
+        digest.update(in);
+    }
+
+    public void update(byte[] in, int inOff, int len) {
+        digest.update(in, inOff, len);
+    }
+
+    public int doFinal(byte[] out, int outOff) {
+        digest.doFinal(innerHash, 0);
+        Digest outer = copy(outerState);
+        outer.update(innerHash, 0, digestSize);
+        int len = outer.doFinal(out, outOff);
+        reset();
+        return len;
+    }
+
+    public void reset() {
+        if (innerState == null) {
+            digest.reset();
+        } else {
+            digest = copy(innerState);
+        }
+    }
+
+    private void precompute(byte[] keyBytes) {
+        byte[] pad = new byte[blockLength];
+        Digest state = copy(digest);
+        state.reset();
+        if (keyBytes.length > blockLength) {
+            state.update(keyBytes, 0, keyBytes.length);
+            state.doFinal(pad, 0);
+        } else {
+            System.arraycopy(keyBytes, 0, pad, 0, keyBytes.length);
+        }
+        for (int i = 0; i < blockLength; i++) {
+            pad[i] ^= IPAD;
+        }
+        state.update(pad, 0, blockLength);
+        innerState = state;
+
+        state = copy(state);
+        state.reset();
+        for (int i = 0; i < blockLength; i++) {
+            pad[i] ^= IPAD ^ OPAD;
+        }
+        state.update(pad, 0, blockLength);
+        outerState = state;
+    }
+
+    private static Digest copy(Digest digest) {
+        if (digest instanceof SHA1Digest) {
+            return new SHA1Digest((SHA1Digest) digest);
+        }
+        if (digest instanceof SHA256Digest) {
+            return new SHA256Digest((SHA256Digest) digest);
+        }
+        if (digest instanceof SHA384Digest) {
+            return new SHA384Digest((SHA384Digest) digest);
+        }
+        if (digest instanceof SHA512Digest) {
+            return new SHA512Digest((SHA512Digest) digest);
+        }
+        if (digest instanceof MD5Digest) {
+            return new MD5Digest((MD5Digest) digest);
+        }
+        if (digest instanceof RIPEMD160Digest) {
+            return new RIPEMD160Digest((RIPEMD160Digest) digest);
+        }
+        throw new IllegalArgumentException("Unsupported digest " + digest.getAlgorithmName());
+    }
+}
@@ -39,6 +39,9 @@ public class RSAKeyImpl extends KeyImpl implements RSAPrivateKey, RSAPublicKey {
     protected ByteContainer exponent = new ByteContainer();
     protected ByteContainer modulus = new ByteContainer();
     protected boolean isPrivate;
+    private transient RSAKeyParameters parameters;
+    // content of getComponents() the parameters were computed from
+    private transient byte[][] parametersSource;
 
     /**
      * Construct not-initialized rsa key
@@ -69,6 +72,13 @@ public class RSAKeyImpl extends KeyImpl implements RSAPrivateKey, RSAPublicKey {
     public void setParameters(CipherParameters params){
         modulus.setBigInteger(((RSAKeyParameters)params).getModulus());
         exponent.setBigInteger(((RSAKeyParameters)params).getExponent());
+        if (((RSAKeyParameters) params).isPrivate() == isPrivate) {
+            // a generated private key keeps the CRT form for private operations,
+            // a copy of the key uses modulus and exponent
+            setCachedParameters((RSAKeyParameters) params);
+        } else {
+            invalidate();
+        }
     }
 
     public short getExponent(byte[] buffer, short offset) {
@@ -81,15 +91,18 @@ public class RSAKeyImpl extends KeyImpl implements RSAPrivateKey, RSAPublicKey {
 
     public void setExponent(byte[] buffer, short offset, short length) throws CryptoException {
         exponent.setBytes(buffer, offset, length);
+        invalidate();
     }
 
     public void setModulus(byte[] buffer, short offset, short length) throws CryptoException {
         modulus.setBytes(buffer, offset, length);
+        invalidate();
     }
 
     public void clearKey() {
         exponent.clear();
         modulus.clear();
+        invalidate();
     }
 
     public boolean isInitialized() {
@@ -100,6 +113,9 @@ public class RSAKeyImpl extends KeyImpl implements RSAPrivateKey, RSAPublicKey {
      * Get
      * <code>RSAKeyParameters</code>
      *
+     * <p>The parameters are shared until the key changes. Changes that bypass the
+     * setters, like a transaction abort, are detected by comparing the key components.</p>
+     *
      * @return parameters for use with BouncyCastle API
      * @see RSAKeyParameters
      */
@@ -107,9 +123,44 @@ public class RSAKeyImpl extends KeyImpl implements RSAPrivateKey, RSAPublicKey {
         if (!isInitialized()) {
             CryptoException.throwIt(CryptoException.UNINITIALIZED_KEY);
         }
+        if (parameters == null || !contentEquals(getComponents(), parametersSource)) {
+            setCachedParameters(createParameters());
+        }
+        return parameters;
+    }
+
+    /**
+     * Create the BouncyCastle parameters from the key components
+     * @return parameters for use with BouncyCastle API
+     */
+    protected RSAKeyParameters createParameters() {
         return new RSAKeyParameters(isPrivate, modulus.getBigInteger(), exponent.getBigInteger());
     }
 
+    /**
+     * @return key components the parameters are computed from
+     */
+    protected ByteContainer[] getComponents() {
+        return new ByteContainer[]{modulus, exponent};
+    }
+
+    /**
+     * Drop the cached parameters, called when a key component is set
+     */
+    protected void invalidate() {
+        parameters = null;
+        parametersSource = null;
+    }
+
+    /**
+     * Cache <code>params</code> for the current value of the key components
+     * @param params parameters of the current key
+     */
+    protected void setCachedParameters(RSAKeyParameters params) {
+        parametersSource = getContents(getComponents());
+        parameters = params;
+    }
+
     /**
      * Get
      * <code>RSAKeyGenerationParameters</code>
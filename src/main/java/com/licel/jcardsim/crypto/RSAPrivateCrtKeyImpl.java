@@ -65,26 +65,32 @@ public class RSAPrivateCrtKeyImpl extends RSAKeyImpl implements RSAPrivateCrtKey
         dp1.setBigInteger(((RSAPrivateCrtKeyParameters)params).getDP());
         dq1.setBigInteger(((RSAPrivateCrtKeyParameters)params).getDQ());
         pq.setBigInteger(((RSAPrivateCrtKeyParameters)params).getQInv());
+        setCachedParameters((RSAPrivateCrtKeyParameters) params);
     }
    
     public void setP(byte[] buffer, short offset, short length) throws CryptoException {
         p.setBytes(buffer, offset, length);
+        invalidate();
     }
 
     public void setQ(byte[] buffer, short offset, short length) throws CryptoException {
         q.setBytes(buffer, offset, length);
+        invalidate();
     }
 
     public void setDP1(byte[] buffer, short offset, short length) throws CryptoException {
         dp1.setBytes(buffer, offset, length);
+        invalidate();
     }
 
     public void setDQ1(byte[] buffer, short offset, short length) throws CryptoException {
         dq1.setBytes(buffer, offset, length);
+        invalidate();
     }
 
     public void setPQ(byte[] buffer, short offset, short length) throws CryptoException {
         pq.setBytes(buffer, offset, length);
+        invalidate();
     }
 
     public short getP(byte[] buffer, short offset) {
@@ -114,6 +120,11 @@ public class RSAPrivateCrtKeyImpl extends RSAKeyImpl implements RSAPrivateCrtKey
         dp1.clear();
         dq1.clear();
         pq.clear();
+        invalidate();
+    }
+
+    protected ByteContainer[] getComponents() {
+        return new ByteContainer[]{p, q, dp1, dq1, pq};
     }
 
     public boolean isInitialized() {
@@ -122,10 +133,7 @@ public class RSAPrivateCrtKeyImpl extends RSAKeyImpl implements RSAPrivateCrtKey
                 && pq.isInitialized());
     }
 
-    public CipherParameters getParameters() {
-        if (!isInitialized()) {
-            CryptoException.throwIt(CryptoException.UNINITIALIZED_KEY);
-        }
+    protected RSAKeyParameters createParameters() {
         // modulus = p * q;
         return new RSAPrivateCrtKeyParameters(p.getBigInteger().multiply(q.getBigInteger()), null,
                 null, p.getBigInteger(), q.getBigInteger(),
@@ -15,11 +15,10 @@
  */
 package com.licel.jcardsim.crypto;
 
-import javacard.framework.JCSystem;
-import javacard.framework.Util;
 import javacard.security.CryptoException;
 import javacard.security.Key;
 import javacardx.crypto.Cipher;
+import org.bouncycastle.crypto.BlockCipher;
 import org.bouncycastle.crypto.BufferedBlockCipher;
 import org.bouncycastle.crypto.modes.CBCBlockCipher;
 import org.bouncycastle.crypto.paddings.ISO7816d4Padding;
@@ -38,14 +37,19 @@ public class SymmetricCipherImpl extends Cipher {
     byte algorithm;
     BufferedBlockCipher engine;
     boolean isInitialized;
+    // key the engine was built for, reused by init with the same key object
+    private SymmetricKeyImpl engineKey;
+    private KeyedBlockCipher blockCipher;
+    // CBC modes only
+    private ParametersWithIV zeroIV;
 
     public SymmetricCipherImpl(byte algorithm) {
         this.algorithm = algorithm;
     }
 
     public void init(Key theKey, byte theMode) throws CryptoException {
-        selectCipherEngine(theKey);
-        engine.init(theMode == MODE_ENCRYPT, ((SymmetricKeyImpl) theKey).getParameters());
+        selectCipherEngine(theKey, theMode);
+        engine.init(theMode == MODE_ENCRYPT, zeroIV);
         isInitialized = true;
     }
 
@@ -66,10 +70,8 @@ public class SymmetricCipherImpl extends Cipher {
                 }
                 break;
         }
-        selectCipherEngine(theKey);
-        byte[] iv = JCSystem.makeTransientByteArray(bLen, JCSystem.CLEAR_ON_RESET);
-        Util.arrayCopyNonAtomic(bArray, bOff, iv, (short) 0, bLen);
-        engine.init(theMode == MODE_ENCRYPT, new ParametersWithIV(((SymmetricKeyImpl) theKey).getParameters(), iv));
+        selectCipherEngine(theKey, theMode);
+        engine.init(theMode == MODE_ENCRYPT, new ParametersWithIV(null, bArray, bOff, bLen));
         isInitialized = true;
     }
 
@@ -98,7 +100,15 @@ public class SymmetricCipherImpl extends Cipher {
         return (short) engine.processBytes(inBuff, inOffset, inLength, outBuff, outOffset);
     }
 
-    private void selectCipherEngine(Key theKey) {
+    /**
+     * Select the engine for <code>theKey</code>, the engine of the previous
+     * <code>init</code> is reused if it was built for the same key object.
+     * The engine uses the key schedule of <code>theKey</code>.
+     * @param theKey key
+     * @param theMode cipher mode
+     * @see SymmetricKeyImpl#getKeySchedule(boolean)
+     */
+    private void selectCipherEngine(Key theKey, byte theMode) {
         if (theKey == null) {
             CryptoException.throwIt(CryptoException.UNINITIALIZED_KEY);
         }
@@ -109,36 +119,53 @@ public class SymmetricCipherImpl extends Cipher {
             CryptoException.throwIt(CryptoException.ILLEGAL_VALUE);
         }
         SymmetricKeyImpl key = (SymmetricKeyImpl) theKey;
+        boolean forEncryption = theMode == MODE_ENCRYPT;
+        BlockCipher keySchedule = key.getKeySchedule(forEncryption);
+        if (engine != null && engineKey == key) {
+            blockCipher.setKeySchedule(keySchedule, forEncryption);
+            return;
+        }
+        engine = null;
+        engineKey = null;
+        blockCipher = new KeyedBlockCipher(keySchedule, forEncryption);
+        BlockCipher cipher = blockCipher;
+        boolean cbc = false;
         switch (algorithm) {
             case ALG_DES_CBC_NOPAD:
             case ALG_AES_BLOCK_128_CBC_NOPAD:
-                engine = new BufferedBlockCipher(new CBCBlockCipher(key.getCipher()));
+                engine = new BufferedBlockCipher(new CBCBlockCipher(cipher));
+                cbc = true;
                 break;
             case ALG_DES_CBC_ISO9797_M1:
-                engine = new PaddedBufferedBlockCipher(new CBCBlockCipher(key.getCipher()), new ZeroBytePadding());
+                engine = new PaddedBufferedBlockCipher(new CBCBlockCipher(cipher), new ZeroBytePadding());
+                cbc = true;
                 break;
             case ALG_DES_CBC_ISO9797_M2:
-                engine = new PaddedBufferedBlockCipher(new CBCBlockCipher(key.getCipher()), new ISO7816d4Padding());
+                engine = new PaddedBufferedBlockCipher(new CBCBlockCipher(cipher), new ISO7816d4Padding());
+                cbc = true;
                 break;
             case ALG_DES_CBC_PKCS5:
-                engine = new PaddedBufferedBlockCipher(new CBCBlockCipher(key.getCipher()), new PKCS7Padding());
+                engine = new PaddedBufferedBlockCipher(new CBCBlockCipher(cipher), new PKCS7Padding());
+                cbc = true;
                 break;
             case ALG_DES_ECB_NOPAD:
             case ALG_AES_BLOCK_128_ECB_NOPAD:                
-                engine = new BufferedBlockCipher(key.getCipher());
+                engine = new BufferedBlockCipher(cipher);
                 break;
             case ALG_DES_ECB_ISO9797_M1:
-                engine = new PaddedBufferedBlockCipher(key.getCipher(), new ZeroBytePadding());
+                engine = new PaddedBufferedBlockCipher(cipher, new ZeroBytePadding());
                 break;
             case ALG_DES_ECB_ISO9797_M2:
-                engine = new PaddedBufferedBlockCipher(key.getCipher(), new ISO7816d4Padding());
+                engine = new PaddedBufferedBlockCipher(cipher, new ISO7816d4Padding());
                 break;
             case ALG_DES_ECB_PKCS5:
-                engine = new PaddedBufferedBlockCipher(key.getCipher(), new PKCS7Padding());
+                engine = new PaddedBufferedBlockCipher(cipher, new PKCS7Padding());
                 break;
             default:
                 CryptoException.throwIt(CryptoException.NO_SUCH_ALGORITHM);
                 break;
         }
+        zeroIV = cbc ? new ParametersWithIV(null, new byte[cipher.getBlockSize()]) : null;
+        engineKey = key;
     }
 }
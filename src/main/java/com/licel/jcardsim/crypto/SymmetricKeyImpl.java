@@ -38,6 +38,11 @@ import org.bouncycastle.crypto.params.KeyParameter;
 public class SymmetricKeyImpl extends KeyImpl implements DESKey, AESKey, HMACKey {
 
     protected ByteContainer key;
+    // cached by getParameters, getKeySchedule and getFirstKeySchedule
+    private transient KeyParameter parameters;
+    private transient BlockCipher encryptSchedule;
+    private transient BlockCipher decryptSchedule;
+    private transient BlockCipher firstKeySchedule;
 
     /**
      * Create new instance of <code>SymmetricKeyImpl</code>
@@ -72,6 +77,7 @@ public class SymmetricKeyImpl extends KeyImpl implements DESKey, AESKey, HMACKey
      */
     public void clearKey() {
         key.clear();
+        invalidate();
     }
 
     /**
@@ -79,6 +85,7 @@ public class SymmetricKeyImpl extends KeyImpl implements DESKey, AESKey, HMACKey
      */
     public void setKey(byte[] keyData, short kOff) throws CryptoException, NullPointerException, ArrayIndexOutOfBoundsException {
         key.setBytes(keyData, kOff, (short) (size / 8));
+        invalidate();
     }
 
     /**
@@ -86,6 +93,7 @@ public class SymmetricKeyImpl extends KeyImpl implements DESKey, AESKey, HMACKey
      */
     public void setKey(byte[] keyData, short kOff, short kLen) throws CryptoException, NullPointerException, ArrayIndexOutOfBoundsException {
         key.setBytes(keyData, kOff, kLen);
+        invalidate();
     }
     /**
      * Returns the <code>Key</code> data in plain text.
@@ -96,10 +104,22 @@ public class SymmetricKeyImpl extends KeyImpl implements DESKey, AESKey, HMACKey
 
      public void setParameters(CipherParameters params){
        key.setBytes(((KeyParameter)params).getKey());
+       invalidate();
     }
-    
+
+    private void invalidate() {
+        parameters = null;
+        encryptSchedule = null;
+        decryptSchedule = null;
+        firstKeySchedule = null;
+    }
+
     /**
-     * Return the BouncyCastle <code>KeyParameter</code> of the key
+     * Return the BouncyCastle <code>KeyParameter</code> of the key.
+     *
+     * <p>The parameter is shared until the key changes and must not be modified.
+     * Changes that bypass <code>setKey</code>, like a transaction abort or clearing
+     * of transient memory, are detected by comparing the key value.</p>
      * @return parameter of the key
      * @throws CryptoException if key not initialized
      * @see KeyParameter
@@ -108,7 +128,59 @@ public class SymmetricKeyImpl extends KeyImpl implements DESKey, AESKey, HMACKey
         if (!key.isInitialized()) {
             CryptoException.throwIt(CryptoException.UNINITIALIZED_KEY);
         }
-        return new KeyParameter(key.getBytes(JCSystem.CLEAR_ON_RESET));
+        if (parameters != null && !key.contentEquals(parameters.getKey())) {
+            invalidate();
+        }
+        if (parameters == null) {
+            parameters = new KeyParameter(key.getBytes());
+        }
+        return parameters;
+    }
+
+    /**
+     * Return the expanded key: a <code>BlockCipher</code> initialized with this key,
+     * shared by all ciphers and MACs using the key until the key changes.
+     * @param forEncryption direction
+     * @return initialized <code>BlockCipher</code>
+     * @throws CryptoException if key not initialized or not a DES/AES key
+     * @see KeyedBlockCipher
+     */
+    BlockCipher getKeySchedule(boolean forEncryption) throws CryptoException {
+        CipherParameters keyParameters = getParameters();
+        BlockCipher schedule = forEncryption ? encryptSchedule : decryptSchedule;
+        if (schedule == null) {
+            schedule = getCipher();
+            if (schedule == null) {
+                CryptoException.throwIt(CryptoException.ILLEGAL_VALUE);
+            }
+            schedule.init(forEncryption, keyParameters);
+            if (forEncryption) {
+                encryptSchedule = schedule;
+            } else {
+                decryptSchedule = schedule;
+            }
+        }
+        return schedule;
+    }
+
+    /**
+     * Return the single DES encryption schedule of the first key of a DES3 key,
+     * used for the CBC part of ISO 9797-1 MAC algorithm 3.
+     * @return initialized <code>DESEngine</code>
+     * @throws CryptoException if key not initialized or not a DES3 key
+     * @see KeyedISO9797Alg3Mac
+     */
+    BlockCipher getFirstKeySchedule() throws CryptoException {
+        KeyParameter keyParameters = (KeyParameter) getParameters();
+        if (firstKeySchedule == null) {
+            if (!(getCipher() instanceof DESedeEngine)) {
+                CryptoException.throwIt(CryptoException.ILLEGAL_VALUE);
+            }
+            BlockCipher schedule = new DESEngine();
+            schedule.init(true, new KeyParameter(keyParameters.getKey(), 0, 8));
+            firstKeySchedule = schedule;
+        }
+        return firstKeySchedule;
     }
 
     /**
@@ -21,6 +21,7 @@ import javacard.security.Key;
 import javacard.security.Signature;
 import org.bouncycastle.crypto.BlockCipher;
 import org.bouncycastle.crypto.CipherParameters;
+import org.bouncycastle.crypto.Digest;
 import org.bouncycastle.crypto.Mac;
 import org.bouncycastle.crypto.digests.MD5Digest;
 import org.bouncycastle.crypto.digests.RIPEMD160Digest;
@@ -28,10 +29,7 @@ import org.bouncycastle.crypto.digests.SHA1Digest;
 import org.bouncycastle.crypto.digests.SHA256Digest;
 import org.bouncycastle.crypto.digests.SHA384Digest;
 import org.bouncycastle.crypto.digests.SHA512Digest;
-import org.bouncycastle.crypto.engines.DESEngine;
 import org.bouncycastle.crypto.macs.CBCBlockCipherMac;
-import org.bouncycastle.crypto.macs.HMac;
-import org.bouncycastle.crypto.macs.ISO9797Alg3Mac;
 import org.bouncycastle.crypto.paddings.ISO7816d4Padding;
 import org.bouncycastle.crypto.paddings.PKCS7Padding;
 import org.bouncycastle.crypto.paddings.ZeroBytePadding;
@@ -48,6 +46,11 @@ public class SymmetricSignatureImpl extends Signature {
     Mac engine;
     byte algorithm;
     boolean isInitialized;
+    // CBC MACs only
+    private KeyedBlockCipher blockCipher;
+    // ALG_DES_MAC8_ISO9797_1_M2_ALG3 only
+    private KeyedISO9797Alg3Mac alg3Mac;
+    private ParametersWithIV zeroIV;
     
     public SymmetricSignatureImpl(byte algorithm) {
         this.algorithm = algorithm;
@@ -67,71 +70,114 @@ public class SymmetricSignatureImpl extends Signature {
         if (!(theKey instanceof SymmetricKeyImpl)) {
             CryptoException.throwIt(CryptoException.ILLEGAL_VALUE);
         }
+        SymmetricKeyImpl key = (SymmetricKeyImpl) theKey;
+        int blockSize = selectMacEngine(key);
         CipherParameters cipherParams = null;
-        BlockCipher cipher = ((SymmetricKeyImpl) theKey).getCipher();
-        if (bArray == null) {
-            cipherParams = ((SymmetricKeyImpl) theKey).getParameters();
+        if (blockSize == 0) {
+            if (bArray != null) {
+                CryptoException.throwIt(CryptoException.ILLEGAL_VALUE);
+            }
+            cipherParams = key.getParameters();
+        } else if (bArray == null) {
+            cipherParams = zeroIV;
         } else {
-            if (bLen != cipher.getBlockSize()) {
+            if (bLen != blockSize) {
                 CryptoException.throwIt(CryptoException.ILLEGAL_VALUE);
             }
-            cipherParams = new ParametersWithIV(((SymmetricKeyImpl) theKey).getParameters(), bArray, bOff, bLen);
+            cipherParams = new ParametersWithIV(null, bArray, bOff, bLen);
+        }
+        engine.init(cipherParams);
+        isInitialized = true;
+    }
+
+    /**
+     * Select the MAC engine for <code>key</code>. The engine is built on the first
+     * <code>init</code> and reused afterwards, only the key schedule of <code>key</code>
+     * is set. CBC MACs are built again if the block size of the key changes.
+     * @param key key
+     * @return block size of the cipher, 0 for HMAC
+     * @see SymmetricKeyImpl#getKeySchedule(boolean)
+     */
+    private int selectMacEngine(SymmetricKeyImpl key) {
+        switch (algorithm) {
+            case ALG_HMAC_SHA1:
+            case ALG_HMAC_SHA_256:
+            case ALG_HMAC_SHA_384:
+            case ALG_HMAC_SHA_512:
+            case ALG_HMAC_MD5:
+            case ALG_HMAC_RIPEMD160:
+                if (engine == null) {
+                    engine = new PrecomputedHMac(createDigest());
+                }
+                return 0;
+            case ALG_DES_MAC8_ISO9797_1_M2_ALG3:
+                BlockCipher firstKeySchedule = key.getFirstKeySchedule();
+                if (alg3Mac == null) {
+                    alg3Mac = new KeyedISO9797Alg3Mac();
+                    zeroIV = new ParametersWithIV(null, new byte[alg3Mac.getMacSize()]);
+                    engine = alg3Mac;
+                }
+                alg3Mac.setKeySchedule(firstKeySchedule, key.getKeySchedule(true));
+                return alg3Mac.getMacSize();
+        }
+        BlockCipher keySchedule = key.getKeySchedule(true);
+        if (engine != null && blockCipher.getBlockSize() == keySchedule.getBlockSize()) {
+            blockCipher.setKeySchedule(keySchedule, true);
+            return keySchedule.getBlockSize();
         }
+        engine = null;
+        blockCipher = new KeyedBlockCipher(keySchedule, true);
         switch (algorithm) {
             case ALG_DES_MAC4_NOPAD:
-                engine = new CBCBlockCipherMac(cipher, 32, null);
+                engine = new CBCBlockCipherMac(blockCipher, 32, null);
                 break;
             case ALG_DES_MAC8_NOPAD:
-                engine = new CBCBlockCipherMac(cipher, 64, null);
+                engine = new CBCBlockCipherMac(blockCipher, 64, null);
                 break;
             case ALG_DES_MAC4_ISO9797_M1:
-                engine = new CBCBlockCipherMac(cipher, 32, new ZeroBytePadding());
+                engine = new CBCBlockCipherMac(blockCipher, 32, new ZeroBytePadding());
                 break;
             case ALG_DES_MAC8_ISO9797_M1:
-                engine = new CBCBlockCipherMac(cipher, 64, new ZeroBytePadding());
+                engine = new CBCBlockCipherMac(blockCipher, 64, new ZeroBytePadding());
                 break;
             case ALG_DES_MAC4_ISO9797_M2:
-                engine = new CBCBlockCipherMac(cipher, 32, new ISO7816d4Padding());
+                engine = new CBCBlockCipherMac(blockCipher, 32, new ISO7816d4Padding());
                 break;
             case ALG_DES_MAC8_ISO9797_M2:
-                engine = new CBCBlockCipherMac(cipher, 64, new ISO7816d4Padding());
-                break;
-            case ALG_DES_MAC8_ISO9797_1_M2_ALG3:
-                engine = new ISO9797Alg3Mac(new DESEngine(), 64, new ISO7816d4Padding());
+                engine = new CBCBlockCipherMac(blockCipher, 64, new ISO7816d4Padding());
                 break;
             case ALG_DES_MAC4_PKCS5:
-                engine = new CBCBlockCipherMac(cipher, 32, new PKCS7Padding());
+                engine = new CBCBlockCipherMac(blockCipher, 32, new PKCS7Padding());
                 break;
             case ALG_DES_MAC8_PKCS5:
-                engine = new CBCBlockCipherMac(cipher, 64, new PKCS7Padding());
+                engine = new CBCBlockCipherMac(blockCipher, 64, new PKCS7Padding());
                 break;
             case ALG_AES_MAC_128_NOPAD:
-                engine = new CBCBlockCipherMac(cipher, 128, null);
+                engine = new CBCBlockCipherMac(blockCipher, 128, null);
                 break;
-            case ALG_HMAC_SHA1:
-                engine = new HMac(new SHA1Digest());
+            default:
+                CryptoException.throwIt(CryptoException.NO_SUCH_ALGORITHM);
                 break;
+        }
+        zeroIV = new ParametersWithIV(null, new byte[keySchedule.getBlockSize()]);
+        return keySchedule.getBlockSize();
+    }
+
+    private Digest createDigest() {
+        switch (algorithm) {
+            case ALG_HMAC_SHA1:
+                return new SHA1Digest();
             case ALG_HMAC_SHA_256:
-                engine = new HMac(new SHA256Digest());
-                break;
+                return new SHA256Digest();
             case ALG_HMAC_SHA_384:
-                engine = new HMac(new SHA384Digest());
-                break;
+                return new SHA384Digest();
             case ALG_HMAC_SHA_512:
-                engine = new HMac(new SHA512Digest());
-                break;
+                return new SHA512Digest();
             case ALG_HMAC_MD5:
-                engine = new HMac(new MD5Digest());
-                break;
-            case ALG_HMAC_RIPEMD160:
-                engine = new HMac(new RIPEMD160Digest());
-                break;
+                return new MD5Digest();
             default:
-                CryptoException.throwIt(CryptoException.NO_SUCH_ALGORITHM);
-                break;
+                return new RIPEMD160Digest();
         }
-        engine.init(cipherParams);
-        isInitialized = true;
     }
     
     public short getLength() throws CryptoException {
@@ -17,6 +17,7 @@ package com.licel.jcardsim.io;
 
 import com.licel.jcardsim.base.Simulator;
 import com.licel.jcardsim.remote.JavaCardRemoteClient;
+import com.licel.jcardsim.remote.JavaCardSocketClient;
 import java.util.Properties;
 
 /**
@@ -29,6 +30,7 @@ public class CAD {
     public final static byte INTERNAL = 0;
     public final static byte RMI = 1;
     public final static byte JAVAX_SMARTCARDIO = 2;
+    public final static byte SOCKET = 3;
     byte interfaceType;
     CardInterface cardInterface;
 
@@ -50,6 +52,15 @@ public class CAD {
             case JAVAX_SMARTCARDIO:
                 cardInterface = new JavaxSmartCardInterface();
                 break;
+            case SOCKET:
+                try {
+                    String host = params.getProperty("com.licel.jcardsim.terminal.host");
+                    int port = Integer.parseInt(params.getProperty("com.licel.jcardsim.terminal.port"));
+                    cardInterface = new JavaCardSocketClient(host, port);
+                } catch (Exception e) {
+                    throw new RuntimeException("Socket CardInterface init error", e);
+                }
+                break;
             default:
                 throw new IllegalArgumentException("Unknown CAD type: " + type);
         }
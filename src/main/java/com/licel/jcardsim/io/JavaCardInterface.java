@@ -15,6 +15,8 @@
  */
 package com.licel.jcardsim.io;
 
+import java.nio.ByteBuffer;
+import java.util.List;
 import javacard.framework.AID;
 import javacard.framework.SystemException;
 
@@ -120,6 +122,50 @@ public interface JavaCardInterface extends CardInterface {
      */
     public byte[] selectAppletWithResult(AID aid);
 
+    /**
+     * Transmit APDU to previous selected applet, writing the response APDU
+     * into a caller-supplied array
+     * @param command array containing the command apdu
+     * @param offset offset of the command apdu in <code>command</code>
+     * @param length length of the command apdu
+     * @param response destination array
+     * @param responseOffset offset in <code>response</code>
+     * @return number of bytes written to <code>response</code>
+     * @throws java.lang.IllegalArgumentException if the response does not fit into <code>response</code>
+     * @see #transmitCommand(byte[])
+     */
+    public int transmitCommand(byte[] command, int offset, int length, byte[] response, int responseOffset);
+
+    /**
+     * Transmit APDU to previous selected applet.
+     * The command apdu is read from the remaining bytes of <code>command</code>,
+     * the response apdu is written at the position of <code>response</code>.
+     * @param command command apdu
+     * @param response destination buffer
+     * @return number of bytes written to <code>response</code>
+     * @throws java.lang.IllegalArgumentException if the response does not fit into <code>response</code>
+     * @see #transmitCommand(byte[])
+     */
+    public int transmitCommand(ByteBuffer command, ByteBuffer response);
+
+    /**
+     * Transmit a sequence of APDUs.
+     * This is equal to calling <code>transmitCommand</code> for every element
+     * of <code>commands</code>, but the simulator is only acquired once.
+     * @param commands command apdus
+     * @return response apdus, in the order of <code>commands</code>
+     * @see #transmitCommand(byte[])
+     */
+    public List<byte[]> transmitCommands(List<byte[]> commands);
+
+    /**
+     * Transmit a sequence of APDUs, appending the responses to <code>responses</code>
+     * @param commands command apdus
+     * @param responses list the response apdus are appended to
+     * @see #transmitCommands(java.util.List)
+     */
+    public void transmitCommands(List<byte[]> commands, List<byte[]> responses);
+
     /**
      * Switch protocol
      *
@@ -16,10 +16,13 @@
 package com.licel.jcardsim.remote;
 
 import com.licel.jcardsim.io.JavaCardInterface;
+import java.nio.ByteBuffer;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.util.ArrayList;
+import java.util.List;
 import javacard.framework.AID;
 import javacard.framework.SystemException;
 
@@ -37,6 +40,36 @@ public class JavaCardRemoteClient implements JavaCardInterface {
         remote = (JavaCardRemoteInterface) (registry.lookup(JavaCardRemoteInterface.RMI_SERVER_ID));
     }
 
+    JavaCardRemoteClient(JavaCardRemoteInterface remote) {
+        this.remote = remote;
+    }
+
+    /**
+     * Open a session with its own simulator on the server
+     * @return client bound to the new session
+     * @see JavaCardRemoteInterface#openSession()
+     */
+    public JavaCardRemoteClient openSession() {
+        try {
+            return new JavaCardRemoteClient(remote.openSession());
+        } catch (RemoteException e) {
+            handleRemoteException(e);
+        }
+        return null;
+    }
+
+    /**
+     * Close the session of this client
+     * @see JavaCardRemoteInterface#closeSession()
+     */
+    public void closeSession() {
+        try {
+            remote.closeSession();
+        } catch (RemoteException e) {
+            handleRemoteException(e);
+        }
+    }
+
     public AID loadApplet(AID aid, String appletClassName) throws SystemException {
         try {
             return remote.loadApplet(new SerializableAID(aid), appletClassName).getAID();
@@ -99,6 +132,41 @@ public class JavaCardRemoteClient implements JavaCardInterface {
         return null;
     }
 
+    public int transmitCommand(byte[] command, int offset, int length, byte[] response, int responseOffset) {
+        byte[] data = new byte[length];
+        System.arraycopy(command, offset, data, 0, length);
+        byte[] result = transmitCommand(data);
+        if (responseOffset < 0 || result.length > response.length - responseOffset) {
+            throw new IllegalArgumentException("Response buffer too small, required: " + result.length);
+        }
+        System.arraycopy(result, 0, response, responseOffset, result.length);
+        return result.length;
+    }
+
+    public int transmitCommand(ByteBuffer command, ByteBuffer response) {
+        byte[] data = new byte[command.remaining()];
+        command.get(data);
+        byte[] result = transmitCommand(data);
+        if (result.length > response.remaining()) {
+            throw new IllegalArgumentException("Response buffer too small, required: " + result.length);
+        }
+        response.put(result);
+        return result.length;
+    }
+
+    public List<byte[]> transmitCommands(List<byte[]> commands) {
+        try {
+            return remote.transmitCommands(new ArrayList<byte[]>(commands));
+        } catch (RemoteException e) {
+            handleRemoteException(e);
+        }
+        return null;
+    }
+
+    public void transmitCommands(List<byte[]> commands, List<byte[]> responses) {
+        responses.addAll(transmitCommands(commands));
+    }
+
     public void reset() {
         try {
             remote.reset();
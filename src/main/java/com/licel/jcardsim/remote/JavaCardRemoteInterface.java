@@ -17,6 +17,7 @@ package com.licel.jcardsim.remote;
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
 
 /**
  * RMI Wrapper for the <code>JavaCardInterface</code>
@@ -35,6 +36,8 @@ public interface JavaCardRemoteInterface extends Remote {
     
     public byte[] transmitCommand(byte[] data) throws RemoteException;
 
+    public List<byte[]> transmitCommands(List<byte[]> data) throws RemoteException;
+
     public boolean selectApplet(SerializableAID aid) throws RemoteException;
 
     public byte[] selectAppletWithResult(SerializableAID aid) throws RemoteException;
@@ -46,4 +49,19 @@ public interface JavaCardRemoteInterface extends Remote {
     public void changeProtocol(String protocol) throws RemoteException;
 
     public String getProtocol() throws RemoteException;
+
+    /**
+     * Open a session with its own simulator, configured like the server's simulator.
+     * Sessions which are not used for the server's session timeout are closed.
+     * @return handle of the session
+     * @throws RemoteException if the maximum number of sessions is reached
+     */
+    public JavaCardRemoteInterface openSession() throws RemoteException;
+
+    /**
+     * Close this session and recycle its simulator, further calls fail with
+     * <code>java.rmi.NoSuchObjectException</code>. Has no effect on the shared handle
+     * registered as <code>RMI_SERVER_ID</code>.
+     */
+    public void closeSession() throws RemoteException;
 }
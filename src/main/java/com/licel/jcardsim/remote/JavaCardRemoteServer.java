@@ -16,27 +16,158 @@
 package com.licel.jcardsim.remote;
 
 import com.licel.jcardsim.base.Simulator;
+import com.licel.jcardsim.base.SimulatorPool;
+import java.io.Closeable;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
 
 /**
  * RMI Server
+ *
+ * <ul>
+ *     <li>The handle registered as <code>RMI_SERVER_ID</code> is backed by one shared
+ *     <code>Simulator</code>.</li>
+ *     <li><code>openSession</code> returns a handle backed by its own <code>Simulator</code>
+ *     from a <code>SimulatorPool</code>, so clients using sessions do not share state or locks.
+ *     Sessions idle for longer than the session timeout are closed.</li>
+ * </ul>
+ *
  * @author LICEL LLC
  */
 public class JavaCardRemoteServer extends java.rmi.server.UnicastRemoteObject
-        implements JavaCardRemoteInterface {
-    
+        implements JavaCardRemoteInterface, Closeable {
+
+    private static final Logger logger = Logger.getLogger("JavaCardRemoteServer");
+
+    /**
+     * Default maximum number of concurrent sessions
+     */
+    public static final int DEFAULT_MAX_SESSIONS = 16;
+
+    /**
+     * Default session timeout in milliseconds
+     */
+    public static final long DEFAULT_SESSION_TIMEOUT = TimeUnit.MINUTES.toMillis(10);
+
     Simulator sim;
+    private final Registry registry;
+    private final SimulatorPool pool;
+    private final long sessionTimeoutNanos;
+    private final Set<RemoteSession> sessions = new HashSet<RemoteSession>();
+    private final ScheduledExecutorService evictor;
 
     public JavaCardRemoteServer(String host, int port) throws RemoteException {
+        this(host, port, System.getProperties(), DEFAULT_MAX_SESSIONS, DEFAULT_SESSION_TIMEOUT);
+    }
+
+    /**
+     * Create and register a server
+     * @param host host name of the server
+     * @param port registry port
+     * @param properties applet configuration of the sessions
+     * @param maxSessions maximum number of concurrent sessions
+     * @param sessionTimeout idle time in milliseconds after which a session is closed
+     * @throws RemoteException if the registry cannot be created
+     * @throws java.lang.IllegalArgumentException if <code>maxSessions</code> or <code>sessionTimeout</code> is not positive
+     */
+    public JavaCardRemoteServer(String host, int port, Properties properties, int maxSessions,
+            long sessionTimeout) throws RemoteException {
+        if (sessionTimeout <= 0) {
+            throw new IllegalArgumentException("sessionTimeout must be positive but was " + sessionTimeout);
+        }
+        pool = new SimulatorPool(maxSessions, properties);
+        sessionTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(sessionTimeout);
         System.setProperty("java.rmi.server.hostname", host);
-        Registry registry = LocateRegistry.createRegistry(port);
+        registry = LocateRegistry.createRegistry(port);
         registry.rebind(RMI_SERVER_ID, this);
         sim = new Simulator();
+
+        evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "jcardsim-rmi-session-evictor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long period = Math.max(1, sessionTimeout / 2);
+        evictor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                evictIdleSessions();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return number of open sessions
+     */
+    public int getSessionCount() {
+        synchronized (sessions) {
+            return sessions.size();
+        }
+    }
+
+    /**
+     * Close all sessions and unregister the server
+     */
+    public void close() throws IOException {
+        evictor.shutdownNow();
+        List<RemoteSession> open;
+        synchronized (sessions) {
+            open = new ArrayList<RemoteSession>(sessions);
+        }
+        for (RemoteSession session : open) {
+            closeSession(session);
+        }
+        UnicastRemoteObject.unexportObject(this, true);
+        UnicastRemoteObject.unexportObject(registry, true);
+    }
+
+    void closeSession(RemoteSession session) throws RemoteException {
+        if (!session.close()) {
+            return;
+        }
+        release(session);
+    }
+
+    private void release(RemoteSession session) throws RemoteException {
+        synchronized (sessions) {
+            sessions.remove(session);
+        }
+        UnicastRemoteObject.unexportObject(session, true);
+        pool.release(session.sim);
+    }
+
+    private void evictIdleSessions() {
+        List<RemoteSession> open;
+        synchronized (sessions) {
+            open = new ArrayList<RemoteSession>(sessions);
+        }
+        long now = System.nanoTime();
+        for (RemoteSession session : open) {
+            if (session.closeIfIdle(now, sessionTimeoutNanos)) {
+                try {
+                    release(session);
+                    logger.info("Closed idle session");
+                } catch (RemoteException e) {
+                    logger.warning("Failed to close idle session: " + e);
+                }
+            }
+        }
     }
 
     static public void main(String args[]) throws Exception {
@@ -75,7 +206,12 @@ public class JavaCardRemoteServer extends java.rmi.server.UnicastRemoteObject
             System.err.println("Invalid configuration: missing 'com.licel.jcardsim.terminal.port' property");
             System.exit(-1);
         }
-        JavaCardRemoteServer server = new JavaCardRemoteServer(serverHost, Integer.parseInt(serverPort));
+        int maxSessions = Integer.parseInt(System.getProperty("com.licel.jcardsim.terminal.sessions",
+                Integer.toString(DEFAULT_MAX_SESSIONS)));
+        long sessionTimeout = TimeUnit.SECONDS.toMillis(Long.parseLong(System.getProperty(
+                "com.licel.jcardsim.terminal.sessionTimeout", Long.toString(TimeUnit.MILLISECONDS.toSeconds(DEFAULT_SESSION_TIMEOUT)))));
+        JavaCardRemoteServer server = new JavaCardRemoteServer(serverHost, Integer.parseInt(serverPort),
+                System.getProperties(), maxSessions, sessionTimeout);
     }
 
     /**
@@ -106,6 +242,13 @@ public class JavaCardRemoteServer extends java.rmi.server.UnicastRemoteObject
         return sim.transmitCommand(data);
     }
 
+    /**
+     * Implementation
+     */
+    public List<byte[]> transmitCommands(List<byte[]> data) throws RemoteException {
+        return sim.transmitCommands(data);
+    }
+
     /**
      * Implementation
      */
@@ -148,4 +291,37 @@ public class JavaCardRemoteServer extends java.rmi.server.UnicastRemoteObject
     public byte[] selectAppletWithResult(SerializableAID aid) throws RemoteException {
         return sim.selectAppletWithResult(aid.getAID());
     }
+
+    /**
+     * Implementation
+     */
+    public JavaCardRemoteInterface openSession() throws RemoteException {
+        Simulator simulator;
+        try {
+            simulator = pool.borrow(0, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted");
+        }
+        if (simulator == null) {
+            throw new RemoteException("Too many sessions");
+        }
+        RemoteSession session;
+        try {
+            session = new RemoteSession(this, simulator);
+        } catch (RemoteException e) {
+            pool.release(simulator);
+            throw e;
+        }
+        synchronized (sessions) {
+            sessions.add(session);
+        }
+        return session;
+    }
+
+    /**
+     * Implementation, the shared handle is not a session
+     */
+    public void closeSession() throws RemoteException {
+    }
 }
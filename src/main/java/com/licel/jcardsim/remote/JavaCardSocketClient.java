@@ -0,0 +1,353 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.remote;
+
+import com.licel.jcardsim.io.JavaCardInterface;
+import com.licel.jcardsim.utils.AIDUtil;
+import com.licel.jcardsim.utils.ByteUtil;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import javacard.framework.AID;
+import javacard.framework.ISO7816;
+import javacard.framework.SystemException;
+
+/**
+ * Client of <code>JavaCardSocketServer</code>.
+ *
+ * <ul>
+ *     <li>Each client is one session with its own simulator on the server.</li>
+ *     <li><code>transmitCommands</code> pipelines the commands, up to
+ *     <code>PIPELINE_WINDOW</code> requests are sent before the first response is read.</li>
+ *     <li>Errors are reported like <code>JavaCardRemoteClient</code>: server side
+ *     <code>SystemException</code>s and <code>IllegalArgumentException</code>s are rethrown,
+ *     other failures result in <code>SystemException.NO_RESOURCE</code>.
+ *     I/O errors close the connection.</li>
+ * </ul>
+ */
+public class JavaCardSocketClient implements JavaCardInterface, Closeable {
+    /**
+     * Maximum number of outstanding requests in <code>transmitCommands</code>
+     */
+    public static final int PIPELINE_WINDOW = 32;
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final ByteArrayOutputStream requestBuffer = new ByteArrayOutputStream();
+    private final DataOutputStream request = new DataOutputStream(requestBuffer);
+
+    public JavaCardSocketClient(String serverHost, int serverPort) throws IOException {
+        socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(serverHost, serverPort));
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Close the session, the simulator on the server is recycled
+     */
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    public AID loadApplet(AID aid, String appletClassName) throws SystemException {
+        return loadApplet(aid, appletClassName, null);
+    }
+
+    public AID loadApplet(AID aid, String appletClassName, byte[] appletJarContents) throws SystemException {
+        try {
+            synchronized (this) {
+                requestBuffer.reset();
+                SocketProtocol.writeAID(request, aid);
+                request.writeUTF(appletClassName);
+                if (appletJarContents == null) {
+                    request.writeInt(-1);
+                } else {
+                    request.writeInt(appletJarContents.length);
+                    request.write(appletJarContents);
+                }
+                return readAID(call(SocketProtocol.LOAD_APPLET));
+            }
+        } catch (IOException e) {
+            handleIOException(e);
+        }
+        return null;
+    }
+
+    public AID createApplet(AID aid, byte[] bArray, short bOffset, byte bLength) throws SystemException {
+        try {
+            synchronized (this) {
+                requestBuffer.reset();
+                SocketProtocol.writeAID(request, aid);
+                request.writeInt(bArray.length);
+                request.write(bArray);
+                request.writeShort(bOffset);
+                request.writeByte(bLength);
+                return readAID(call(SocketProtocol.CREATE_APPLET));
+            }
+        } catch (IOException e) {
+            handleIOException(e);
+        }
+        return null;
+    }
+
+    public AID installApplet(AID aid, String appletClassName, byte[] bArray, short bOffset, byte bLength) throws SystemException {
+        return createApplet(loadApplet(aid, appletClassName), bArray, bOffset, bLength);
+    }
+
+    public AID installApplet(AID aid, String appletClassName, byte[] appletJarContents, byte[] bArray, short bOffset, byte bLength) throws SystemException {
+        return createApplet(loadApplet(aid, appletClassName, appletJarContents), bArray, bOffset, bLength);
+    }
+
+    public boolean selectApplet(AID aid) {
+        return ByteUtil.getSW(selectAppletWithResult(aid)) == ISO7816.SW_NO_ERROR;
+    }
+
+    public byte[] selectAppletWithResult(AID aid) {
+        return transmitCommand(AIDUtil.select(aid));
+    }
+
+    public byte[] getATR() {
+        try {
+            synchronized (this) {
+                requestBuffer.reset();
+                return call(SocketProtocol.GET_ATR);
+            }
+        } catch (IOException e) {
+            handleIOException(e);
+        }
+        return null;
+    }
+
+    public void reset() {
+        try {
+            synchronized (this) {
+                requestBuffer.reset();
+                call(SocketProtocol.RESET);
+            }
+        } catch (IOException e) {
+            handleIOException(e);
+        }
+    }
+
+    public void changeProtocol(String protocol) {
+        try {
+            synchronized (this) {
+                requestBuffer.reset();
+                request.writeUTF(protocol);
+                call(SocketProtocol.CHANGE_PROTOCOL);
+            }
+        } catch (IOException e) {
+            handleIOException(e);
+        }
+    }
+
+    public String getProtocol() {
+        try {
+            synchronized (this) {
+                requestBuffer.reset();
+                byte[] result = call(SocketProtocol.GET_PROTOCOL);
+                return new DataInputStream(new ByteArrayInputStream(result)).readUTF();
+            }
+        } catch (IOException e) {
+            handleIOException(e);
+        }
+        return null;
+    }
+
+    public byte[] transmitCommand(byte[] data) {
+        try {
+            synchronized (this) {
+                writeTransmit(data, 0, data.length);
+                out.flush();
+                return readResponse();
+            }
+        } catch (IOException e) {
+            handleIOException(e);
+        }
+        return null;
+    }
+
+    public int transmitCommand(byte[] command, int offset, int length, byte[] response, int responseOffset) {
+        if (responseOffset < 0) {
+            throw new IllegalArgumentException("Response buffer too small");
+        }
+        return transmitCommand(command, offset, length, response, responseOffset, response.length - responseOffset);
+    }
+
+    public int transmitCommand(ByteBuffer command, ByteBuffer response) {
+        if (command.hasArray() && response.hasArray()) {
+            int length = transmitCommand(command.array(), command.arrayOffset() + command.position(), command.remaining(),
+                    response.array(), response.arrayOffset() + response.position(), response.remaining());
+            command.position(command.limit());
+            response.position(response.position() + length);
+            return length;
+        }
+        byte[] data = new byte[command.remaining()];
+        command.get(data);
+        byte[] result = transmitCommand(data);
+        if (result.length > response.remaining()) {
+            throw new IllegalArgumentException("Response buffer too small, required: " + result.length);
+        }
+        response.put(result);
+        return result.length;
+    }
+
+    private int transmitCommand(byte[] command, int offset, int length, byte[] response, int responseOffset, int responseSpace) {
+        try {
+            synchronized (this) {
+                writeTransmit(command, offset, length);
+                out.flush();
+                int payloadLength = readHeader();
+                if (payloadLength > responseSpace) {
+                    in.readFully(new byte[payloadLength]);
+                    throw new IllegalArgumentException("Response buffer too small, required: " + payloadLength);
+                }
+                in.readFully(response, responseOffset, payloadLength);
+                return payloadLength;
+            }
+        } catch (IOException e) {
+            handleIOException(e);
+        }
+        return 0;
+    }
+
+    public List<byte[]> transmitCommands(List<byte[]> commands) {
+        List<byte[]> responses = new ArrayList<byte[]>(commands.size());
+        transmitCommands(commands, responses);
+        return responses;
+    }
+
+    public void transmitCommands(List<byte[]> commands, List<byte[]> responses) {
+        try {
+            synchronized (this) {
+                int count = commands.size();
+                int sent = 0;
+                int received = 0;
+                RuntimeException failure = null;
+                while (received < count) {
+                    if (failure == null && sent < count && sent - received < PIPELINE_WINDOW) {
+                        while (sent < count && sent - received < PIPELINE_WINDOW) {
+                            byte[] command = commands.get(sent++);
+                            writeTransmit(command, 0, command.length);
+                        }
+                        out.flush();
+                    }
+                    if (received == sent) {
+                        break;
+                    }
+                    // after a failure the outstanding responses are read and dropped, like a local batch
+                    try {
+                        byte[] response = readResponse();
+                        if (failure == null) {
+                            responses.add(response);
+                        }
+                    } catch (RuntimeException e) {
+                        if (failure == null) {
+                            failure = e;
+                        }
+                    }
+                    received++;
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+            }
+        } catch (IOException e) {
+            handleIOException(e);
+        }
+    }
+
+    private void writeTransmit(byte[] command, int offset, int length) throws IOException {
+        out.writeInt(length + 1);
+        out.writeByte(SocketProtocol.TRANSMIT);
+        out.write(command, offset, length);
+    }
+
+    /**
+     * Send the request in <code>requestBuffer</code> and wait for the response
+     * @return response payload
+     */
+    private byte[] call(byte opcode) throws IOException {
+        out.writeInt(requestBuffer.size() + 1);
+        out.writeByte(opcode);
+        requestBuffer.writeTo(out);
+        out.flush();
+        return readResponse();
+    }
+
+    private byte[] readResponse() throws IOException {
+        byte[] payload = new byte[readHeader()];
+        in.readFully(payload);
+        return payload;
+    }
+
+    /**
+     * Read the header of the next response and throw the reported error
+     * @return payload length of a successful response
+     */
+    private int readHeader() throws IOException {
+        int length = SocketProtocol.readFrameLength(in);
+        byte status = in.readByte();
+        if (status == SocketProtocol.STATUS_OK) {
+            return length - 1;
+        }
+        byte[] payload = new byte[length - 1];
+        in.readFully(payload);
+        DataInputStream error = new DataInputStream(new ByteArrayInputStream(payload));
+        switch (status) {
+            case SocketProtocol.STATUS_SYSTEM_EXCEPTION:
+                SystemException.throwIt(error.readShort());
+                break;
+            case SocketProtocol.STATUS_ILLEGAL_ARGUMENT:
+                throw new IllegalArgumentException(error.readUTF());
+            default:
+                SystemException.throwIt(SystemException.NO_RESOURCE);
+                break;
+        }
+        // not reached, throwIt always throws
+        return 0;
+    }
+
+    private static AID readAID(byte[] payload) throws IOException {
+        return SocketProtocol.readAID(new DataInputStream(new ByteArrayInputStream(payload)));
+    }
+
+    private void handleIOException(IOException e) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+        SystemException.throwIt(SystemException.NO_RESOURCE);
+    }
+}
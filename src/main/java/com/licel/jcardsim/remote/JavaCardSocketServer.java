@@ -0,0 +1,358 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.remote;
+
+import com.licel.jcardsim.base.Simulator;
+import com.licel.jcardsim.base.SimulatorPool;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javacard.framework.AID;
+import javacard.framework.SystemException;
+
+/**
+ * Binary TCP server, a lightweight alternative to <code>JavaCardRemoteServer</code>.
+ *
+ * <ul>
+ *     <li>The wire format is described in <code>SocketProtocol</code>, requests may be pipelined.</li>
+ *     <li>Every connection is a session with its own <code>Simulator</code> borrowed from a
+ *     <code>SimulatorPool</code>, the applets are configured with
+ *     <code>com.licel.jcardsim.card.applet.N.AID/Class</code> properties. When the connection
+ *     is closed the simulator is recycled.</li>
+ *     <li>Connections beyond <code>maxSessions</code> are closed immediately.</li>
+ * </ul>
+ *
+ * @see JavaCardSocketClient
+ */
+public class JavaCardSocketServer implements Closeable {
+    private static final Logger logger = Logger.getLogger("JavaCardSocketServer");
+
+    private final ServerSocket serverSocket;
+    private final SimulatorPool pool;
+    private final ExecutorService sessions;
+    private final Set<Socket> sockets = Collections.synchronizedSet(new HashSet<Socket>());
+    private Thread acceptThread;
+    private volatile boolean running;
+
+    /**
+     * Create a server
+     * @param address local address, port 0 picks a free port
+     * @param maxSessions maximum number of concurrent sessions
+     * @param properties applet configuration of every session
+     * @throws IOException if binding fails
+     * @throws java.lang.IllegalArgumentException if <code>maxSessions</code> is not positive
+     */
+    public JavaCardSocketServer(InetSocketAddress address, int maxSessions, Properties properties) throws IOException {
+        pool = new SimulatorPool(maxSessions, properties);
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(address);
+        sessions = Executors.newFixedThreadPool(maxSessions, new SessionThreadFactory());
+    }
+
+    /**
+     * @return bound address
+     */
+    public InetSocketAddress getAddress() {
+        return (InetSocketAddress) serverSocket.getLocalSocketAddress();
+    }
+
+    /**
+     * @return number of open sessions
+     */
+    public int getSessionCount() {
+        return sockets.size();
+    }
+
+    /**
+     * Start accepting connections
+     * @throws java.lang.IllegalStateException if already started
+     */
+    public synchronized void start() {
+        if (acceptThread != null) {
+            throw new IllegalStateException("already started");
+        }
+        running = true;
+        acceptThread = new Thread(new Runnable() {
+            public void run() {
+                acceptLoop();
+            }
+        }, "jcardsim-socket-accept");
+        acceptThread.start();
+    }
+
+    /**
+     * Stop accepting connections and close all sessions
+     */
+    public void close() throws IOException {
+        running = false;
+        serverSocket.close();
+        sessions.shutdown();
+        synchronized (sockets) {
+            for (Socket socket : sockets) {
+                closeQuietly(socket);
+            }
+        }
+        try {
+            sessions.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (running) {
+                    logger.log(Level.SEVERE, "Failed to accept connection", e);
+                }
+                return;
+            }
+            Simulator simulator;
+            try {
+                simulator = pool.borrow(0, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                closeQuietly(socket);
+                return;
+            }
+            if (simulator == null) {
+                logger.warning("Too many sessions, closing " + socket.getRemoteSocketAddress());
+                closeQuietly(socket);
+                continue;
+            }
+            sockets.add(socket);
+            sessions.execute(new Session(socket, simulator));
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Request loop of one connection
+     */
+    private final class Session implements Runnable {
+        private final Socket socket;
+        private final Simulator simulator;
+        private byte[] request = new byte[512];
+        private final byte[] response = new byte[SocketProtocol.MAX_RESPONSE_LENGTH];
+        private final ByteArrayOutputStream payloadBuffer = new ByteArrayOutputStream();
+        private final DataOutputStream payload = new DataOutputStream(payloadBuffer);
+
+        Session(Socket socket, Simulator simulator) {
+            this.socket = socket;
+            this.simulator = simulator;
+        }
+
+        public void run() {
+            try {
+                socket.setTcpNoDelay(true);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                while (true) {
+                    int length;
+                    try {
+                        length = SocketProtocol.readFrameLength(in);
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    if (request.length < length) {
+                        request = new byte[length];
+                    }
+                    in.readFully(request, 0, length);
+                    process(length, out);
+                    // answer pipelined requests with one write
+                    if (in.available() == 0) {
+                        out.flush();
+                    }
+                }
+            } catch (SocketException e) {
+                // closed by the client or by close()
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Session " + socket.getRemoteSocketAddress() + " failed", e);
+            } finally {
+                closeQuietly(socket);
+                sockets.remove(socket);
+                pool.release(simulator);
+            }
+        }
+
+        private void process(int length, DataOutputStream out) throws IOException {
+            byte opcode = request[0];
+            if (opcode == SocketProtocol.TRANSMIT) {
+                // hot path, answered without copying the payload
+                int responseLength;
+                try {
+                    responseLength = simulator.transmitCommand(request, 1, length - 1, response, 0);
+                } catch (RuntimeException e) {
+                    writeError(out, e);
+                    return;
+                }
+                out.writeInt(responseLength + 1);
+                out.writeByte(SocketProtocol.STATUS_OK);
+                out.write(response, 0, responseLength);
+                return;
+            }
+
+            payloadBuffer.reset();
+            try {
+                DataInputStream args = new DataInputStream(new ByteArrayInputStream(request, 1, length - 1));
+                switch (opcode) {
+                    case SocketProtocol.RESET:
+                        simulator.reset();
+                        break;
+                    case SocketProtocol.GET_ATR:
+                        payload.write(simulator.getATR());
+                        break;
+                    case SocketProtocol.LOAD_APPLET: {
+                        AID aid = SocketProtocol.readAID(args);
+                        String className = args.readUTF();
+                        int jarLength = args.readInt();
+                        if (jarLength < 0) {
+                            aid = simulator.loadApplet(aid, className);
+                        } else {
+                            byte[] jar = new byte[jarLength];
+                            args.readFully(jar);
+                            aid = simulator.loadApplet(aid, className, jar);
+                        }
+                        SocketProtocol.writeAID(payload, aid);
+                        break;
+                    }
+                    case SocketProtocol.CREATE_APPLET: {
+                        AID aid = SocketProtocol.readAID(args);
+                        byte[] bArray = new byte[args.readInt()];
+                        args.readFully(bArray);
+                        short bOffset = args.readShort();
+                        byte bLength = args.readByte();
+                        aid = simulator.createApplet(aid, bArray, bOffset, bLength);
+                        SocketProtocol.writeAID(payload, aid);
+                        break;
+                    }
+                    case SocketProtocol.CHANGE_PROTOCOL:
+                        simulator.changeProtocol(args.readUTF());
+                        break;
+                    case SocketProtocol.GET_PROTOCOL:
+                        payload.writeUTF(simulator.getProtocol());
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown opcode: " + opcode);
+                }
+            } catch (EOFException e) {
+                writeError(out, new IllegalArgumentException("Truncated request"));
+                return;
+            } catch (RuntimeException e) {
+                writeError(out, e);
+                return;
+            }
+            out.writeInt(payloadBuffer.size() + 1);
+            out.writeByte(SocketProtocol.STATUS_OK);
+            payloadBuffer.writeTo(out);
+        }
+
+        private void writeError(DataOutputStream out, RuntimeException e) throws IOException {
+            payloadBuffer.reset();
+            byte status;
+            if (e instanceof SystemException) {
+                status = SocketProtocol.STATUS_SYSTEM_EXCEPTION;
+                payload.writeShort(((SystemException) e).getReason());
+            } else if (e instanceof IllegalArgumentException) {
+                status = SocketProtocol.STATUS_ILLEGAL_ARGUMENT;
+                payload.writeUTF(String.valueOf(e.getMessage()));
+            } else {
+                logger.log(Level.WARNING, "Request failed", e);
+                status = SocketProtocol.STATUS_FAILURE;
+                payload.writeUTF(String.valueOf(e));
+            }
+            out.writeInt(payloadBuffer.size() + 1);
+            out.writeByte(status);
+            payloadBuffer.writeTo(out);
+        }
+    }
+
+    private static final class SessionThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "jcardsim-socket-session-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    static public void main(String args[]) throws Exception {
+        if (args.length !=1) {
+            System.out.println("Usage: java com.licel.jcardsim.remote.JavaCardSocketServer <jcardsim.cfg>");
+            System.exit(-1);
+        }
+        Properties cfg = new Properties();
+        FileInputStream fis = null;
+        try {
+            fis = new FileInputStream(args[0]);
+            cfg.load(fis);
+        } catch (Throwable t) {
+            System.err.println("Unable to load configuration " + args[0] + " due to: " + t.getMessage());
+            System.exit(-1);
+        } finally {
+            if (fis != null) {
+                fis.close();
+            }
+        }
+
+        String serverHost = cfg.getProperty("com.licel.jcardsim.terminal.host");
+        if(serverHost == null) {
+            System.err.println("Invalid configuration: missing 'com.licel.jcardsim.terminal.host' property");
+            System.exit(-1);
+        }
+        String serverPort = cfg.getProperty("com.licel.jcardsim.terminal.port");
+        if(serverPort == null) {
+            System.err.println("Invalid configuration: missing 'com.licel.jcardsim.terminal.port' property");
+            System.exit(-1);
+        }
+        int maxSessions = Integer.parseInt(cfg.getProperty("com.licel.jcardsim.terminal.sessions", "16"));
+        JavaCardSocketServer server = new JavaCardSocketServer(
+                new InetSocketAddress(serverHost, Integer.parseInt(serverPort)), maxSessions, cfg);
+        server.start();
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.remote;
+
+import com.licel.jcardsim.base.Simulator;
+import java.rmi.NoSuchObjectException;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Session opened with <code>JavaCardRemoteInterface#openSession</code>.
+ *
+ * <p>Calls are serialized per session and routed to the session's own
+ * <code>Simulator</code>. The time the last call ended is used to evict idle sessions,
+ * a session is not evicted while a call is in progress.</p>
+ */
+final class RemoteSession extends UnicastRemoteObject implements JavaCardRemoteInterface {
+    private static final long serialVersionUID = 1L;
+
+    private final JavaCardRemoteServer server;
+    final Simulator sim;
+    // held for the duration of a call
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile long lastAccess = System.nanoTime();
+    private volatile boolean closed;
+
+    RemoteSession(JavaCardRemoteServer server, Simulator sim) throws RemoteException {
+        this.server = server;
+        this.sim = sim;
+    }
+
+    /**
+     * Start a call, must be followed by <code>endCall</code>
+     * @return simulator of the session
+     * @throws NoSuchObjectException if the session is closed
+     */
+    private Simulator beginCall() throws NoSuchObjectException {
+        lock.lock();
+        if (closed) {
+            lock.unlock();
+            throw new NoSuchObjectException("Session closed");
+        }
+        lastAccess = System.nanoTime();
+        return sim;
+    }
+
+    private void endCall() {
+        lastAccess = System.nanoTime();
+        lock.unlock();
+    }
+
+    /**
+     * Close the session, waits for a call in progress
+     * @return true if the session was open
+     */
+    boolean close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            closed = true;
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Close the session if it is idle, does not wait for a call in progress
+     * @param now current <code>System.nanoTime()</code>
+     * @param timeoutNanos idle timeout
+     * @return true if the session was open and idle for longer than <code>timeoutNanos</code>
+     */
+    boolean closeIfIdle(long now, long timeoutNanos) {
+        if (closed || now - lastAccess <= timeoutNanos || !lock.tryLock()) {
+            return false;
+        }
+        try {
+            if (closed || now - lastAccess <= timeoutNanos) {
+                return false;
+            }
+            closed = true;
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public SerializableAID loadApplet(SerializableAID aid, String appletClassName) throws RemoteException {
+        Simulator simulator = beginCall();
+        try {
+            return new SerializableAID(simulator.loadApplet(aid.getAID(), appletClassName));
+        }
+        finally {
+            endCall();
+        }
+    }
+
+    public SerializableAID loadApplet(SerializableAID aid, String appletClassName, byte[] appletJarContents) throws RemoteException {
+        Simulator simulator = beginCall();
+        try {
+            return new SerializableAID(simulator.loadApplet(aid.getAID(), appletClassName, appletJarContents));
+        }
+        finally {
+            endCall();
+        }
+    }
+
+    public SerializableAID createApplet(SerializableAID aid, byte[] bArray, short bOffset, byte bLength) throws RemoteException {
+        Simulator simulator = beginCall();
+        try {
+            return new SerializableAID(simulator.createApplet(aid.getAID(), bArray, bOffset, bLength));
+        }
+        finally {
+            endCall();
+        }
+    }
+
+    public byte[] transmitCommand(byte[] data) throws RemoteException {
+        Simulator simulator = beginCall();
+        try {
+            return simulator.transmitCommand(data);
+        }
+        finally {
+            endCall();
+        }
+    }
+
+    public List<byte[]> transmitCommands(List<byte[]> data) throws RemoteException {
+        Simulator simulator = beginCall();
+        try {
+            return simulator.transmitCommands(data);
+        }
+        finally {
+            endCall();
+        }
+    }
+
+    public boolean selectApplet(SerializableAID aid) throws RemoteException {
+        Simulator simulator = beginCall();
+        try {
+            return simulator.selectApplet(aid.getAID());
+        }
+        finally {
+            endCall();
+        }
+    }
+
+    public byte[] selectAppletWithResult(SerializableAID aid) throws RemoteException {
+        Simulator simulator = beginCall();
+        try {
+            return simulator.selectAppletWithResult(aid.getAID());
+        }
+        finally {
+            endCall();
+        }
+    }
+
+    public void reset() throws RemoteException {
+        Simulator simulator = beginCall();
+        try {
+            simulator.reset();
+        }
+        finally {
+            endCall();
+        }
+    }
+
+    public byte[] getATR() throws RemoteException {
+        Simulator simulator = beginCall();
+        try {
+            return simulator.getATR();
+        }
+        finally {
+            endCall();
+        }
+    }
+
+    public void changeProtocol(String protocol) throws RemoteException {
+        Simulator simulator = beginCall();
+        try {
+            simulator.changeProtocol(protocol);
+        }
+        finally {
+            endCall();
+        }
+    }
+
+    public String getProtocol() throws RemoteException {
+        Simulator simulator = beginCall();
+        try {
+            return simulator.getProtocol();
+        }
+        finally {
+            endCall();
+        }
+    }
+
+    public JavaCardRemoteInterface openSession() throws RemoteException {
+        return server.openSession();
+    }
+
+    public void closeSession() throws RemoteException {
+        server.closeSession(this);
+    }
+}
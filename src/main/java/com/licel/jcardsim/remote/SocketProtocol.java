@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.remote;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import javacard.framework.AID;
+
+/**
+ * Wire format of <code>JavaCardSocketServer</code>.
+ *
+ * <p>Every request is <code>int length, byte opcode, payload</code>, every response is
+ * <code>int length, byte status, payload</code>. <code>length</code> is big endian and counts the
+ * opcode/status byte and the payload. Responses are sent in request order, so a client may write
+ * several requests before reading the responses.</p>
+ *
+ * <table summary="Requests">
+ *     <tr><th>Opcode</th><th>Request payload</th><th>Response payload</th></tr>
+ *     <tr><td><code>TRANSMIT</code></td><td>command APDU</td><td>response APDU</td></tr>
+ *     <tr><td><code>RESET</code></td><td>-</td><td>-</td></tr>
+ *     <tr><td><code>GET_ATR</code></td><td>-</td><td>ATR</td></tr>
+ *     <tr><td><code>LOAD_APPLET</code></td><td>AID, UTF class name, int jar length (-1 if none), jar</td><td>AID</td></tr>
+ *     <tr><td><code>CREATE_APPLET</code></td><td>AID, int array length, array, short offset, byte length</td><td>AID</td></tr>
+ *     <tr><td><code>CHANGE_PROTOCOL</code></td><td>UTF protocol</td><td>-</td></tr>
+ *     <tr><td><code>GET_PROTOCOL</code></td><td>-</td><td>UTF protocol</td></tr>
+ * </table>
+ *
+ * <p>An AID is encoded as one length byte followed by the AID bytes. A failed request is answered
+ * with <code>STATUS_SYSTEM_EXCEPTION</code> (short reason), <code>STATUS_ILLEGAL_ARGUMENT</code>
+ * (UTF message) or <code>STATUS_FAILURE</code> (UTF message).</p>
+ */
+final class SocketProtocol {
+    static final byte TRANSMIT = 1;
+    static final byte RESET = 2;
+    static final byte GET_ATR = 3;
+    static final byte LOAD_APPLET = 4;
+    static final byte CREATE_APPLET = 5;
+    static final byte CHANGE_PROTOCOL = 6;
+    static final byte GET_PROTOCOL = 7;
+
+    static final byte STATUS_OK = 0;
+    static final byte STATUS_SYSTEM_EXCEPTION = 1;
+    static final byte STATUS_ILLEGAL_ARGUMENT = 2;
+    static final byte STATUS_FAILURE = 3;
+
+    /** size of <code>length</code> and opcode/status */
+    static final int HEADER_SIZE = 5;
+    /** largest accepted value of <code>length</code> */
+    static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+    /** largest response APDU of <code>SimulatorRuntime</code> */
+    static final int MAX_RESPONSE_LENGTH = Short.MAX_VALUE + 2;
+
+    private SocketProtocol() {
+    }
+
+    static void writeAID(DataOutputStream out, AID aid) throws IOException {
+        byte[] bytes = new byte[16];
+        byte length = aid.getBytes(bytes, (short) 0);
+        out.writeByte(length);
+        out.write(bytes, 0, length);
+    }
+
+    static AID readAID(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readUnsignedByte()];
+        in.readFully(bytes);
+        return new AID(bytes, (short) 0, (byte) bytes.length);
+    }
+
+    static int readFrameLength(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 1 || length > MAX_FRAME_LENGTH) {
+            throw new IOException("Invalid frame length: " + length);
+        }
+        return length;
+    }
+}
@@ -16,6 +16,7 @@
 package com.licel.jcardsim.smartcardio;
 
 import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
 import javax.smartcardio.*;
 
 /**
@@ -44,10 +45,13 @@ public class JCSCardChannel extends CardChannel {
     }
 
     public int transmit(ByteBuffer bb, ByteBuffer bb1) throws CardException {
-        ResponseAPDU response = transmit(new CommandAPDU(bb));
-        byte[] binaryResponse = response.getBytes();
-        bb1.put(binaryResponse);
-        return binaryResponse.length;
+        if (bb == bb1) {
+            throw new IllegalArgumentException("command and response must not be the same object");
+        }
+        if (bb1.isReadOnly()) {
+            throw new ReadOnlyBufferException();
+        }
+        return card.transmitCommand(bb, bb1);
     }
 
     /**
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.utils;
+
+import javacard.framework.AID;
+
+/**
+ * Internal bridge to the non-public parts of <code>javacard.framework.AID</code>.
+ *
+ * <p>The implementation is installed once by the static initializer of <code>AID</code>
+ * and is only usable from <code>com.licel.jcardsim.utils</code>.</p>
+ */
+public abstract class AIDAccessor {
+    private static volatile AIDAccessor instance;
+
+    /**
+     * Install the accessor. Called by <code>javacard.framework.AID</code>
+     * @param accessor accessor implementation
+     * @throws java.lang.IllegalStateException if an accessor is already installed
+     */
+    public static synchronized void install(AIDAccessor accessor) {
+        if (instance != null) {
+            throw new IllegalStateException("AIDAccessor already installed");
+        }
+        instance = accessor;
+    }
+
+    /**
+     * @return the installed accessor
+     */
+    static AIDAccessor get() {
+        AIDAccessor accessor = instance;
+        if (accessor == null) {
+            // initializing AID installs the accessor
+            try {
+                Class.forName(AID.class.getName(), true, AID.class.getClassLoader());
+            } catch (ClassNotFoundException e) {
+                throw new AssertionError(e);
+            }
+            accessor = instance;
+            if (accessor == null) {
+                throw new AssertionError("AIDAccessor not installed");
+            }
+        }
+        return accessor;
+    }
+
+    /**
+     * Compare the AID bytes of two AIDs, byte-wise unsigned.
+     * If one AID is a prefix of the other, the shorter AID is smaller.
+     * @param aid1 first AID
+     * @param aid2 second AID
+     * @return negative, zero or positive like <code>Comparator.compare</code>
+     */
+    protected abstract int compare(AID aid1, AID aid2);
+}
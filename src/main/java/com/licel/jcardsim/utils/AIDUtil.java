@@ -27,9 +27,11 @@ import java.util.Comparator;
 public final class AIDUtil {
     private static final Comparator<AID> aidComparator = new Comparator<AID>() {
         public int compare(AID aid1, AID aid2) {
-            String s1 = (aid1 != null) ? AIDUtil.toString(aid1) : "";
-            String s2 = (aid1 != null) ? AIDUtil.toString(aid2) : "";
-            return s1.compareTo(s2);
+            // null sorts before every AID
+            if (aid1 == null || aid2 == null) {
+                return (aid1 == null ? 0 : 1) - (aid2 == null ? 0 : 1);
+            }
+            return AIDAccessor.get().compare(aid1, aid2);
         }
     };
 
@@ -135,6 +137,25 @@ public final class AIDUtil {
     }
 
     /**
+     * Hash code of AID bytes, same as <code>AID.hashCode()</code> of an AID with these bytes
+     * @param buffer array containing the AID bytes
+     * @param offset offset of the AID in <code>buffer</code>
+     * @param length length of the AID
+     * @return hash code
+     */
+    public static int hashCode(byte[] buffer, int offset, int length) {
+        int h = 1;
+        for (int i = 0; i < length; i++) {
+            h = 31 * h + buffer[offset + i];
+        }
+        return h;
+    }
+
+    /**
+     * Returns a comparator which orders AIDs byte-wise unsigned, shorter AIDs
+     * before longer ones with the same prefix. This is the order of the hex strings
+     * returned by <code>toString(AID)</code>. <code>null</code> is ordered first.
+     * The comparator does not allocate.
      * @return a Comparator for AIDs
      */
     public static Comparator<AID> comparator() {
@@ -16,6 +16,9 @@
 
 package javacard.framework;
 
+import com.licel.jcardsim.utils.AIDAccessor;
+import com.licel.jcardsim.utils.AIDUtil;
+
 /**
  * This class encapsulates the Application Identifier (AID) associated with an applet.
  * An AID is defined in ISO 7816-5 to be a sequence of bytes between 5 and 16 bytes in length.
@@ -44,6 +47,24 @@ package javacard.framework;
 public class AID {
     byte aid[];
 
+    static {
+        AIDAccessor.install(new AIDAccessor() {
+            @Override
+            protected int compare(AID aid1, AID aid2) {
+                byte[] bytes1 = aid1.aid;
+                byte[] bytes2 = aid2.aid;
+                int length = Math.min(bytes1.length, bytes2.length);
+                for (int i = 0; i < length; i++) {
+                    int diff = (bytes1[i] & 0xFF) - (bytes2[i] & 0xFF);
+                    if (diff != 0) {
+                        return diff;
+                    }
+                }
+                return bytes1.length - bytes2.length;
+            }
+        });
+    }
+
     /**
      * The Java Card runtime environment uses this constructor to create a new <code>AID</code> instance
      * encapsulating the specified AID bytes.
@@ -110,6 +131,15 @@ public class AID {
         }
     }
 
+    /**
+     * jCardSim: hash code over the AID bytes, consistent with <code>equals(Object)</code>.
+     * Equal to <code>AIDUtil.hashCode(bytes, 0, bytes.length)</code> for the AID bytes.
+     * @return hash code
+     */
+    public int hashCode() {
+        return AIDUtil.hashCode(aid, 0, aid.length);
+    }
+
     /**
      * Checks if the specified AID bytes in <code>bArray</code> are the same as those encapsulated
      * in <code>this</code> <code>AID</code> object.
@@ -4,6 +4,7 @@
  */
 package javacard.framework;
 
+import com.licel.jcardsim.base.APDUAccessor;
 import com.licel.jcardsim.base.SimulatorSystem;
 import com.licel.jcardsim.utils.ByteUtil;
 
@@ -275,12 +276,26 @@ public final class APDU {
     // extended APDU flag
     private final boolean extended;
 
+    static {
+        APDUAccessor.install(new APDUAccessor() {
+            @Override
+            protected APDU createAPDU(boolean extended) {
+                return new APDU(extended);
+            }
+
+            @Override
+            protected void internalReset(APDU apdu, byte protocol, byte[] buffer, int offset, int length) {
+                apdu.internalReset(protocol, buffer, offset, length);
+            }
+        });
+    }
+
     APDU(boolean extended) {
         this.extended = extended;
         buffer = new byte[extended ? BUFFER_EXTENDED_SIZE : BUFFER_SIZE];
         ramVars = new short[RAM_VARS_LENGTH];
         flags = new boolean[FLAGS_LENGTH];
-        internalReset(PROTOCOL_T0, null);
+        internalReset(PROTOCOL_T0, null, 0, 0);
     }
 
     /**
@@ -908,9 +923,9 @@ public final class APDU {
 
     /**
      * clear internal state of the APDU
-     * called by SimulatorRuntime via reflection
+     * called by SimulatorRuntime via APDUAccessor
      */
-    private void internalReset(byte protocol, byte[] inputBuffer) {
+    private void internalReset(byte protocol, byte[] inputBuffer, int inputOffset, int inputLength) {
         if (inputBuffer == null) {
             flags[ACCESS_ALLOWED_FLAG] = false;
             ramVars[ACTIVE_PROTOCOL] = protocol;
@@ -919,7 +934,7 @@ public final class APDU {
 
         Arrays.fill(buffer, (byte) 0);
         Arrays.fill(ramVars, (short) 0);
-        System.arraycopy(inputBuffer, 0, buffer, 0, inputBuffer.length);
+        System.arraycopy(inputBuffer, inputOffset, buffer, 0, inputLength);
         for(byte i=0;i<flags.length;i++) {flags[i]=false;}
 
         flags[ACCESS_ALLOWED_FLAG] = true;
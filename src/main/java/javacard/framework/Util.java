@@ -16,6 +16,8 @@
 
 package javacard.framework;
 
+import com.licel.jcardsim.base.SimulatorSystem;
+
 /**
  * The <code>Util</code> class contains common utility functions.
  * Some of the methods may be implemented as native functions for
@@ -27,7 +29,9 @@ package javacard.framework;
  * one CAD session to the next, indefinitely.
  * The <code>JCSystem</code> class is used to control the persistence and transience of objects.
  * <p>
- * <b>Current implementation use <code>System.arraycopy</code> method and no supported transactions !</b>
+ * Updates of persistent arrays by <code>arrayCopy()</code> and <code>setShort()</code> take part in
+ * transactions and are rolled back by <code>JCSystem.abortTransaction()</code>, the non-atomic methods
+ * do not use the transaction facility.
  */
 public class Util {
 
@@ -38,7 +42,6 @@ public class Util {
      * <p>
      * Note:
      * <ul>
-     * <li><em>!!! CHECK <b>Current implementation use <code>System.arraycopy</code> method and no supported transactions !</b> !!!</em></li>
      * <li><em>If </em><code>srcOff</code><em> or </em><code>destOff</code><em> or </em><code>length</code><em> parameter
      *    is negative an </em><code>ArrayIndexOutOfBoundsException</code><em> exception is thrown.</em></li>
      * <li><em>If </em><code>srcOff+length</code><em> is greater than </em><code>src.length</code><em>, the length
@@ -72,6 +75,10 @@ public class Util {
      */
     public static final short arrayCopy(byte src[], short srcOff, byte dest[], short destOff, short length)
             throws ArrayIndexOutOfBoundsException, NullPointerException, TransactionException {
+        if (length < 0 || srcOff < 0 || srcOff + length > src.length) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+        SimulatorSystem.beforeAtomicUpdate(dest, destOff, length);
         System.arraycopy(src, srcOff, dest, destOff, length);
         return (short) (destOff + length);
     }
@@ -251,6 +258,7 @@ public class Util {
      */
     public static final short setShort(byte bArray[], short bOff, short sValue)
             throws TransactionException, ArrayIndexOutOfBoundsException, NullPointerException {
+        SimulatorSystem.beforeAtomicUpdate(bArray, bOff, (short) 2);
         bArray[bOff] = (byte) (sValue >> 8);
         bArray[bOff + 1] = (byte) sValue;
         return (short) (bOff + 2);
@@ -28,6 +28,8 @@
 package org.linaro.seapi;
 
 import com.licel.jcardsim.base.ApduCase;
+import com.licel.jcardsim.base.CardImage;
+import com.licel.jcardsim.base.CardSnapshot;
 import com.licel.jcardsim.base.SimulatorRuntime;
 import com.licel.jcardsim.utils.AIDUtil;
 import javacard.framework.*;
@@ -161,6 +163,7 @@ public class ExtendedRuntime extends SimulatorRuntime {
         if (channel == null)
             throw new CardException(ISO7816.SW_COMMAND_NOT_ALLOWED);
         AID aid = channel.getSelectedAID();
+        setMemoryContext(aid);
         Applet applet = getApplet(aid);
         logger.info("target aid: " + AIDUtil.toString(aid));
 
@@ -171,7 +174,11 @@ public class ExtendedRuntime extends SimulatorRuntime {
             byte[] command = apdu.getData();
 
             resetAPDU(appApdu, command);
-            applet.process(appApdu);
+            try {
+                applet.process(appApdu);
+            } finally {
+                abortPendingTransaction();
+            }
             Util.setShort(theSW, (short)0, (short) 0x9000);
         } catch (Throwable e) {
             Util.setShort(theSW, (short) 0, ISO7816.SW_UNKNOWN);
@@ -437,18 +444,16 @@ public class ExtendedRuntime extends SimulatorRuntime {
         int operation_mode = apdu.getP2();
 
         if (operation_mode == SELECT.FIRST_OR_ONLY_OCCURENCE) {
-            for (AID aid : applets.keySet()) {
-                if (aid.equals(selectApdu, ISO7816.OFFSET_CDATA, selectApdu[ISO7816.OFFSET_LC])) {
-                    partialSelectApdu = null;
-                    return aid;
-                }
+            AID aid = lookupAID(selectApdu, ISO7816.OFFSET_CDATA, selectApdu[ISO7816.OFFSET_LC]);
+            if (aid != null) {
+                partialSelectApdu = null;
+                return aid;
             }
 
-            for (AID aid : applets.keySet()) {
-                if (aid.partialEquals(selectApdu, ISO7816.OFFSET_CDATA, selectApdu[ISO7816.OFFSET_LC])) {
-                    partialSelectApdu = apdu;
-                    return aid;
-                }
+            aid = appletIndex.findFirstByPrefix(selectApdu, ISO7816.OFFSET_CDATA, selectApdu[ISO7816.OFFSET_LC]);
+            if (aid != null) {
+                partialSelectApdu = apdu;
+                return aid;
             }
         }
 
@@ -499,8 +504,35 @@ public class ExtendedRuntime extends SimulatorRuntime {
     }
 
     @Override
-    public byte[] transmitCommand(byte[] command) throws SystemException {
-        CommandAPDU apdu = new CommandAPDU(command);
+    public void restore(CardSnapshot snapshot) {
+        closeChannels();
+        selectedAppletMap.clear();
+        partialSelectApdu = null;
+        super.restore(snapshot);
+    }
+
+    @Override
+    public void restore(CardImage image) {
+        closeChannels();
+        selectedAppletMap.clear();
+        partialSelectApdu = null;
+        super.restore(image);
+    }
+
+    /**
+     * Store a response apdu in <code>responseBuffer</code>
+     * @param response response apdu (data and status word)
+     * @return status word
+     */
+    private short storeResponse(byte[] response) {
+        responseBufferSize = (short) (response.length - 2);
+        System.arraycopy(response, 0, responseBuffer, 0, responseBufferSize);
+        return Util.getShort(response, responseBufferSize);
+    }
+
+    @Override
+    protected short processCommand(byte[] command, int offset, int length) {
+        CommandAPDU apdu = new CommandAPDU(command, offset, length);
 
         if (isChannelManagementCmd(apdu)) {
             byte[] result;
@@ -512,7 +544,7 @@ public class ExtendedRuntime extends SimulatorRuntime {
                 result = new byte[2];
                 Util.setShort(result, (short) 0, code);
             }
-            return result;
+            return storeResponse(result);
         }
 
         if (isCommandTargetingToLogicalChannel(apdu)) {
@@ -525,10 +557,10 @@ public class ExtendedRuntime extends SimulatorRuntime {
                 result = new byte[2];
                 Util.setShort(result, (short) 0, code);
             }
-            return result;
+            return storeResponse(result);
         }
 
         /* handle basic channel */
-        return super.transmitCommand(command);
+        return super.processCommand(command, offset, length);
     }
 }
@@ -30,6 +30,7 @@ package org.linaro.seapi;
 import com.licel.jcardsim.base.Simulator;
 import com.licel.jcardsim.base.SimulatorRuntime;
 import com.licel.jcardsim.utils.AIDUtil;
+import com.licel.jcardsim.utils.ByteUtil;
 import javacard.framework.AID;
 import javacard.framework.Applet;
 import javacard.framework.SystemException;
@@ -38,14 +39,14 @@ import org.linaro.seapi.applets.NonMultiSelectableApplet;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.util.ArrayList;
-import java.util.Formatter;
 import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class VpcdClient extends Simulator {
@@ -65,15 +66,14 @@ public class VpcdClient extends Simulator {
 
     Socket mClient;
 
-    private void printHex(byte data[])
+    private DataInputStream mIn;
+    private BufferedOutputStream mOut;
+
+    private void printHex(String prefix, byte data[])
     {
-        StringBuilder sb = new StringBuilder();
-        Formatter formatter = new Formatter(sb);
-        for (byte c : data)
-        {
-            formatter.format("%x ", c);
+        if (logger.isLoggable(Level.FINEST)) {
+            logger.finest(prefix + ByteUtil.hexString(data));
         }
-        logger.info(sb.toString());
     }
 
     private void initSocket()
@@ -82,6 +82,9 @@ public class VpcdClient extends Simulator {
         InetSocketAddress isa = new InetSocketAddress(DEFAULT_HOST, DEFAULT_PORT);
         try {
             mClient.connect(isa);
+            mClient.setTcpNoDelay(true);
+            mIn = new DataInputStream(new BufferedInputStream(mClient.getInputStream()));
+            mOut = new BufferedOutputStream(mClient.getOutputStream());
         } catch (IOException e) {
             logger.severe("Failed to connect: " + e);
         }
@@ -119,77 +122,72 @@ public class VpcdClient extends Simulator {
         selectApplet(aid);
     }
 
-    private void sendBufSize(BufferedOutputStream out, byte[] data) throws IOException {
-        short len = (short)data.length;
-        ByteBuffer lenBuf = ByteBuffer.allocate(2);
-        lenBuf.order(ByteOrder.BIG_ENDIAN);
-        lenBuf.putShort(len);
-
-        out.write(lenBuf.array());
-    }
-
-    private void sendATR(BufferedOutputStream out) throws IOException {
-        byte[] atr;
-        atr = super.getATR();
-        sendBufSize(out, atr);
-        out.write(atr);
-        out.flush();
+    private void sendBuf(byte[] data) throws IOException {
+        mOut.write((data.length >> 8) & 0xFF);
+        mOut.write(data.length & 0xFF);
+        mOut.write(data);
+        mOut.flush();
     }
 
-
+    /**
+     * Process vpcd requests until the connection is closed.
+     * Only <code>VPCD_CTRL_ATR</code> and APDUs are answered.
+     */
     public void mainLoop()
     {
-        while (true) {
-            try {
-                BufferedInputStream in = new BufferedInputStream(mClient.getInputStream());
-                BufferedOutputStream out = new BufferedOutputStream(mClient.getOutputStream());
-
-                byte msg[] =  new byte[2];
-                in.read(msg);
-                short length = ByteBuffer.wrap(msg).order(ByteOrder.BIG_ENDIAN).getShort();
-
-                msg = new byte[length];
-                in.read(msg);
+        if (mIn == null) {
+            return;
+        }
+        try {
+            while (true) {
+                int length = mIn.readUnsignedShort();
+                byte msg[] = new byte[length];
+                mIn.readFully(msg);
 
                 if (length == VPCD_CTRL_LEN) {
                     switch (msg[0]) {
                         case VPCD_CTRL_OFF: {
-                            logger.fine("CMD:OFF\n");
+                            logger.fine("CMD:OFF");
                             reset();
                             break;
                         }
                         case VPCD_CTRL_ON: {
-                            logger.fine("CMD:ON\n");
+                            logger.fine("CMD:ON");
                             break;
                         }
                         case VPCD_CTRL_RESET: {
-                            logger.fine("CMD:RESET\n");
+                            logger.fine("CMD:RESET");
                             reset();
                             break;
                         }
                         case VPCD_CTRL_ATR: {
+                            sendBuf(super.getATR());
                             break;
                         }
                     }
-                    sendATR(out);
                 } else {
-                    printHex(msg);
+                    printHex("C-APDU: ", msg);
                     byte[] resp = super.transmitCommand(msg);
-                    printHex(resp);
-                    sendBufSize(out, resp);
-                    out.write(resp);
-                    out.flush();
-
-                    AID aid = runtime.getAID();
-                    if (aid != null)
-                        logger.finer("Current AID: " + AIDUtil.toString(aid) + "\n");
-                    else
-                        logger.finer("No Applet selected\n");
+                    printHex("R-APDU: ", resp);
+                    sendBuf(resp);
+
+                    if (logger.isLoggable(Level.FINER)) {
+                        AID aid = runtime.getAID();
+                        if (aid != null)
+                            logger.finer("Current AID: " + AIDUtil.toString(aid));
+                        else
+                            logger.finer("No Applet selected");
+                    }
                 }
-
-
-            } catch (IOException e) {
-                e.printStackTrace();
+            }
+        } catch (EOFException e) {
+            logger.info("Connection closed by vpcd");
+        } catch (IOException e) {
+            logger.severe("Connection failed: " + e);
+        } finally {
+            try {
+                mClient.close();
+            } catch (IOException ignored) {
             }
         }
     }
@@ -0,0 +1,555 @@
+/*
+ * Copyright (c) 2014, Linaro Limited
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.linaro.seapi;
+
+import com.licel.jcardsim.base.Simulator;
+import com.licel.jcardsim.utils.AIDUtil;
+import com.licel.jcardsim.utils.ByteUtil;
+import javacard.framework.AID;
+import javacard.framework.ISO7816;
+import org.linaro.seapi.applets.MultiSelectableApplet;
+import org.linaro.seapi.applets.NonMultiSelectableApplet;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Non-blocking endpoint for the vpcd protocol of
+ * <a href="https://frankmorgner.github.io/vsmartcard/virtualsmartcard/README.html">vsmartcard</a>.
+ *
+ * <p>Every connection is one virtual reader with its own <code>Simulator</code>,
+ * created by a <code>ReaderFactory</code>. Connections are either opened to the
+ * reader ports of a running vpcd (<code>connect</code>, vpcd listens on port
+ * <code>35963 + reader index</code>) or accepted from a vpcd running in reversed
+ * mode (<code>bind</code>).</p>
+ *
+ * <ul>
+ *     <li>One selector thread does all socket I/O. Frames (2 byte big endian length
+ *     followed by the payload) are reassembled from partial reads in a direct buffer
+ *     owned by the connection.</li>
+ *     <li>Complete frames are processed on a fixed pool of worker threads. A reader
+ *     has at most one frame in flight, frames of one reader are processed in order.</li>
+ *     <li>Only <code>VPCD_CTRL_ATR</code> and APDUs are answered, power on/off and reset
+ *     have no reply.</li>
+ *     <li>APDUs are logged at <code>FINEST</code> only.</li>
+ * </ul>
+ */
+public class VpcdServer implements Closeable {
+    private static Logger logger = Logger.getLogger("VpcdServer");
+
+    static final int VPCD_CTRL_LEN = 1;
+
+    static final int VPCD_CTRL_OFF = 0;
+    static final int VPCD_CTRL_ON = 1;
+    static final int VPCD_CTRL_RESET = 2;
+    static final int VPCD_CTRL_ATR = 4;
+
+    private static final int LENGTH_SIZE = 2;
+    private static final int INITIAL_BUFFER_SIZE = 512;
+    // largest response of SimulatorRuntime (data and status word)
+    private static final int MAX_RESPONSE_SIZE = Short.MAX_VALUE + 2;
+
+    /**
+     * Creates the <code>Simulator</code> of a new virtual reader
+     */
+    public interface ReaderFactory {
+        /**
+         * @param index number of the reader, starting with 0 in connection order
+         * @return simulator with its own <code>SimulatorRuntime</code>
+         */
+        Simulator createReader(int index);
+    }
+
+    private final ReaderFactory factory;
+    private final Selector selector;
+    private final ExecutorService workers;
+    private final Queue<SelectableChannel> pendingChannels = new ConcurrentLinkedQueue<SelectableChannel>();
+    private final Queue<Connection> completed = new ConcurrentLinkedQueue<Connection>();
+    private final AtomicInteger readerCount = new AtomicInteger();
+    private final ThreadLocal<ByteBuffer> responseBuffers = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(LENGTH_SIZE + MAX_RESPONSE_SIZE);
+        }
+    };
+    private Thread selectorThread;
+    private volatile boolean running;
+    private int nextIndex;
+
+    /**
+     * Create a server
+     * @param factory creates the simulator of each reader
+     * @param threads number of worker threads processing APDUs
+     * @throws IOException if the selector cannot be opened
+     * @throws java.lang.IllegalArgumentException if <code>threads</code> is not positive
+     */
+    public VpcdServer(ReaderFactory factory, int threads) throws IOException {
+        if (factory == null) {
+            throw new NullPointerException("factory");
+        }
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive but was " + threads);
+        }
+        this.factory = factory;
+        this.selector = Selector.open();
+        this.workers = Executors.newFixedThreadPool(threads, new WorkerThreadFactory());
+    }
+
+    /**
+     * Accept connections of a vpcd running in reversed mode, each connection is a new reader
+     * @param address local address, port 0 picks a free port
+     * @return bound address
+     * @throws IOException if binding fails
+     */
+    public InetSocketAddress bind(InetSocketAddress address) throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        try {
+            channel.socket().setReuseAddress(true);
+            channel.socket().bind(address);
+            channel.configureBlocking(false);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        register(channel);
+        return (InetSocketAddress) channel.socket().getLocalSocketAddress();
+    }
+
+    /**
+     * Connect a new reader to a reader port of vpcd
+     * @param address vpcd address, e.g. <code>localhost:35963</code> for the first reader
+     * @throws IOException if the connection fails
+     */
+    public void connect(InetSocketAddress address) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.connect(address);
+            channel.configureBlocking(false);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        register(channel);
+    }
+
+    /**
+     * Start the selector thread
+     * @throws java.lang.IllegalStateException if already started
+     */
+    public synchronized void start() {
+        if (selectorThread != null) {
+            throw new IllegalStateException("already started");
+        }
+        running = true;
+        selectorThread = new Thread(new Runnable() {
+            public void run() {
+                selectLoop();
+            }
+        }, "vpcd-selector");
+        selectorThread.start();
+    }
+
+    /**
+     * @return number of connected readers
+     */
+    public int getReaderCount() {
+        return readerCount.get();
+    }
+
+    /**
+     * Stop the selector thread and the workers and close all connections
+     */
+    public void close() throws IOException {
+        Thread thread;
+        synchronized (this) {
+            running = false;
+            thread = selectorThread;
+        }
+        selector.wakeup();
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        workers.shutdown();
+        try {
+            workers.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (SelectionKey key : selector.keys()) {
+            closeQuietly(key.channel());
+        }
+        SelectableChannel channel;
+        while ((channel = pendingChannels.poll()) != null) {
+            closeQuietly(channel);
+        }
+        selector.close();
+        readerCount.set(0);
+    }
+
+    private void register(SelectableChannel channel) throws IOException {
+        if (!selector.isOpen()) {
+            channel.close();
+            throw new IOException("server is closed");
+        }
+        pendingChannels.add(channel);
+        selector.wakeup();
+    }
+
+    private void selectLoop() {
+        try {
+            while (running) {
+                selector.select();
+                registerPending();
+                Connection connection;
+                while ((connection = completed.poll()) != null) {
+                    onCompleted(connection);
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept((ServerSocketChannel) key.channel());
+                    } else if (key.isReadable()) {
+                        read((Connection) key.attachment());
+                    } else if (key.isWritable()) {
+                        write((Connection) key.attachment());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Selector failed", e);
+        } catch (ClosedSelectorException e) {
+            // closed while selecting
+        }
+    }
+
+    private void registerPending() {
+        SelectableChannel channel;
+        while ((channel = pendingChannels.poll()) != null) {
+            try {
+                if (channel instanceof ServerSocketChannel) {
+                    channel.register(selector, SelectionKey.OP_ACCEPT);
+                } else {
+                    addConnection((SocketChannel) channel);
+                }
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to register channel", e);
+                closeQuietly(channel);
+            }
+        }
+    }
+
+    private void accept(ServerSocketChannel serverChannel) {
+        SocketChannel channel = null;
+        try {
+            channel = serverChannel.accept();
+            if (channel != null) {
+                channel.configureBlocking(false);
+                addConnection(channel);
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to accept connection", e);
+            closeQuietly(channel);
+        }
+    }
+
+    private void addConnection(SocketChannel channel) throws IOException {
+        channel.socket().setTcpNoDelay(true);
+        int index = nextIndex++;
+        Simulator simulator;
+        try {
+            simulator = factory.createReader(index);
+        } catch (RuntimeException e) {
+            throw (IOException) new IOException("Failed to create reader " + index).initCause(e);
+        }
+        Connection connection = new Connection(index, channel, simulator);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        readerCount.incrementAndGet();
+        logger.info("Reader " + index + " connected: " + channel.socket().getRemoteSocketAddress());
+    }
+
+    private void read(Connection connection) {
+        int count;
+        try {
+            count = connection.channel.read(connection.in);
+        } catch (IOException e) {
+            disconnect(connection, e);
+            return;
+        }
+        if (count < 0) {
+            disconnect(connection, null);
+            return;
+        }
+        connection.in.flip();
+        nextFrame(connection);
+    }
+
+    /**
+     * Dispatch the next complete frame of <code>connection.in</code> (in read mode)
+     * or wait for more data
+     */
+    private void nextFrame(Connection connection) {
+        ByteBuffer in = connection.in;
+        if (in.remaining() >= LENGTH_SIZE) {
+            int frameLength = in.getShort(in.position()) & 0xFFFF;
+            if (in.remaining() >= LENGTH_SIZE + frameLength) {
+                connection.bufferLimit = in.limit();
+                in.position(in.position() + LENGTH_SIZE);
+                in.limit(in.position() + frameLength);
+                connection.key.interestOps(0);
+                workers.execute(connection);
+                return;
+            }
+            if (in.capacity() < LENGTH_SIZE + frameLength) {
+                ByteBuffer larger = ByteBuffer.allocateDirect(LENGTH_SIZE + frameLength);
+                larger.put(in);
+                connection.in = larger;
+                connection.key.interestOps(SelectionKey.OP_READ);
+                return;
+            }
+        }
+        in.compact();
+        connection.key.interestOps(SelectionKey.OP_READ);
+    }
+
+    private void onCompleted(Connection connection) {
+        if (!connection.key.isValid()) {
+            return;
+        }
+        // skip the processed frame
+        ByteBuffer in = connection.in;
+        int frameEnd = in.limit();
+        in.limit(connection.bufferLimit);
+        in.position(frameEnd);
+        write(connection);
+    }
+
+    private void write(Connection connection) {
+        ByteBuffer out = connection.out;
+        try {
+            connection.channel.write(out);
+        } catch (IOException e) {
+            disconnect(connection, e);
+            return;
+        }
+        if (out.hasRemaining()) {
+            connection.key.interestOps(SelectionKey.OP_WRITE);
+        } else {
+            nextFrame(connection);
+        }
+    }
+
+    private void disconnect(Connection connection, IOException cause) {
+        connection.key.cancel();
+        closeQuietly(connection.channel);
+        readerCount.decrementAndGet();
+        if (cause == null) {
+            logger.info("Reader " + connection.index + " disconnected");
+        } else {
+            logger.log(Level.INFO, "Reader " + connection.index + " disconnected", cause);
+        }
+    }
+
+    private static void closeQuietly(SelectableChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * State of one reader, runs on a worker thread to process the current frame
+     */
+    private final class Connection implements Runnable {
+        final int index;
+        final SocketChannel channel;
+        final Simulator simulator;
+        SelectionKey key;
+        ByteBuffer in = ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE);
+        ByteBuffer out = ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE);
+        // limit of the received data while a frame is processed
+        int bufferLimit;
+
+        Connection(int index, SocketChannel channel, Simulator simulator) {
+            this.index = index;
+            this.channel = channel;
+            this.simulator = simulator;
+            out.flip();
+        }
+
+        public void run() {
+            try {
+                process();
+            } finally {
+                completed.add(this);
+                selector.wakeup();
+            }
+        }
+
+        private void process() {
+            // in is limited to the payload of the frame
+            ByteBuffer frame = in;
+            out.clear();
+            if (frame.remaining() == VPCD_CTRL_LEN) {
+                control(frame.get(frame.position()));
+                out.flip();
+                return;
+            }
+
+            ByteBuffer response = responseBuffers.get();
+            response.clear();
+            response.position(LENGTH_SIZE);
+            if (logger.isLoggable(Level.FINEST)) {
+                logger.finest("Reader " + index + " C-APDU: " + toHex(frame));
+            }
+            try {
+                simulator.transmitCommand(frame, response);
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Reader " + index + " failed to process APDU", e);
+                response.clear();
+                response.position(LENGTH_SIZE);
+                response.putShort(ISO7816.SW_UNKNOWN);
+            }
+            response.putShort(0, (short) (response.position() - LENGTH_SIZE));
+            response.flip();
+            if (logger.isLoggable(Level.FINEST)) {
+                ByteBuffer data = response.duplicate();
+                data.position(LENGTH_SIZE);
+                logger.finest("Reader " + index + " R-APDU: " + toHex(data));
+            }
+            ensureOutputCapacity(response.remaining());
+            out.put(response);
+            out.flip();
+        }
+
+        private void control(byte code) {
+            switch (code) {
+                case VPCD_CTRL_OFF:
+                case VPCD_CTRL_RESET:
+                    logger.fine("Reader " + index + " reset");
+                    simulator.reset();
+                    break;
+                case VPCD_CTRL_ON:
+                    logger.fine("Reader " + index + " power on");
+                    break;
+                case VPCD_CTRL_ATR:
+                    byte[] atr = simulator.getATR();
+                    ensureOutputCapacity(LENGTH_SIZE + atr.length);
+                    out.putShort((short) atr.length);
+                    out.put(atr);
+                    break;
+                default:
+                    logger.warning("Reader " + index + " unknown control code: " + code);
+                    break;
+            }
+        }
+
+        private void ensureOutputCapacity(int capacity) {
+            if (out.capacity() < capacity) {
+                out = ByteBuffer.allocateDirect(capacity);
+            }
+        }
+    }
+
+    private static String toHex(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return ByteUtil.hexString(bytes);
+    }
+
+    private static final class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "vpcd-worker-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * Serve the sample applets of <code>VpcdClient</code> to the readers of a local vpcd.
+     * <p>Usage: <code>VpcdServer [readers] [port]</code>, the readers are connected to
+     * <code>localhost:port</code>, <code>localhost:port+1</code>, ...</p>
+     */
+    public static void main(String args[]) throws Exception {
+        int readers = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : VpcdClient.DEFAULT_PORT;
+
+        final AID multiSelectableAID = AIDUtil.create("D0000CAFE00001");
+        final AID nonMultiSelectableAID = AIDUtil.create("D0000CAFE00002");
+        VpcdServer server = new VpcdServer(new ReaderFactory() {
+            public Simulator createReader(int index) {
+                Simulator simulator = new Simulator(new ExtendedRuntime()) {
+                    @Override
+                    public void reset() {
+                        super.reset();
+                        /* GlobalPlatform Card need to support implicit select after reset */
+                        selectApplet(multiSelectableAID);
+                    }
+                };
+                simulator.installApplet(multiSelectableAID, MultiSelectableApplet.class);
+                simulator.installApplet(nonMultiSelectableAID, NonMultiSelectableApplet.class);
+                return simulator;
+            }
+        }, Math.min(readers, Runtime.getRuntime().availableProcessors()));
+
+        for (int i = 0; i < readers; i++) {
+            server.connect(new InetSocketAddress(VpcdClient.DEFAULT_HOST, port + i));
+        }
+        server.start();
+    }
+}
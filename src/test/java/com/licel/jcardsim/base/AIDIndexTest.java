@@ -0,0 +1,131 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.base;
+
+import com.licel.jcardsim.utils.AIDUtil;
+import javacard.framework.AID;
+import junit.framework.TestCase;
+import org.bouncycastle.util.encoders.Hex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+public class AIDIndexTest extends TestCase {
+
+    public AIDIndexTest(String name) {
+        super(name);
+    }
+
+    private static AID findFirstByPrefix(AIDIndex<String> index, String prefix) {
+        byte[] bytes = Hex.decode(prefix);
+        return index.findFirstByPrefix(bytes, 0, bytes.length);
+    }
+
+    public void testExactLookup() {
+        AIDIndex<String> index = new AIDIndex<String>();
+        AID aid = AIDUtil.create("D0000CAFE00001");
+        assertNull(index.put(aid, "a"));
+        assertEquals("a", index.put(AIDUtil.create("D0000CAFE00001"), "b"));
+        assertEquals(1, index.size());
+
+        assertEquals("b", index.get(AIDUtil.create("D0000CAFE00001")));
+        byte[] buffer = Hex.decode("FFFFD0000CAFE00001FF");
+        assertSame(aid, index.findAID(buffer, 2, 7));
+        assertEquals("b", index.get(buffer, 2, 7));
+        assertNull(index.get(buffer, 2, 6));
+        assertNull(index.get(buffer, 2, -1));
+
+        assertEquals("b", index.remove(aid));
+        assertNull(index.remove(aid));
+        assertEquals(0, index.size());
+        assertNull(index.get(aid));
+    }
+
+    public void testPrefixLookupReturnsFirstInComparatorOrder() {
+        AIDIndex<String> index = new AIDIndex<String>();
+        index.put(AIDUtil.create("D0000CAFE00023"), "");
+        index.put(AIDUtil.create("D0000CAFE001"), "");
+        index.put(AIDUtil.create("D0000CAFE00001"), "");
+        index.put(AIDUtil.create("A000008812"), "");
+        index.put(AIDUtil.create("D0000CAFE000"), "");
+
+        assertEquals("A000008812", AIDUtil.toString(findFirstByPrefix(index, "")));
+        assertEquals("D0000CAFE000", AIDUtil.toString(findFirstByPrefix(index, "D0")));
+        assertEquals("D0000CAFE00023", AIDUtil.toString(findFirstByPrefix(index, "D0000CAFE00023")));
+        assertNull(findFirstByPrefix(index, "D1"));
+
+        index.remove(AIDUtil.create("D0000CAFE000"));
+        assertEquals("D0000CAFE00001", AIDUtil.toString(findFirstByPrefix(index, "D0")));
+        index.remove(AIDUtil.create("D0000CAFE00001"));
+        index.remove(AIDUtil.create("D0000CAFE00023"));
+        assertEquals("D0000CAFE001", AIDUtil.toString(findFirstByPrefix(index, "D0")));
+        index.remove(AIDUtil.create("D0000CAFE001"));
+        assertNull(findFirstByPrefix(index, "D0"));
+        assertEquals("A000008812", AIDUtil.toString(findFirstByPrefix(index, "")));
+
+        index.clear();
+        assertNull(findFirstByPrefix(index, ""));
+    }
+
+    public void testMatchesLinearScan() {
+        Random random = new Random(42);
+        SortedMap<AID, String> applets = new TreeMap<AID, String>(AIDUtil.comparator());
+        AIDIndex<String> index = new AIDIndex<String>();
+        List<AID> aids = new ArrayList<AID>();
+
+        for (int i = 0; i < 2000; i++) {
+            byte[] bytes = new byte[5 + random.nextInt(12)];
+            for (int j = 0; j < bytes.length; j++) {
+                // small alphabet to get many shared prefixes
+                bytes[j] = (byte) (random.nextInt(3) * 0x7F);
+            }
+            AID aid = AIDUtil.create(bytes);
+            if (random.nextInt(4) == 0 && !aids.isEmpty()) {
+                AID removed = aids.remove(random.nextInt(aids.size()));
+                assertEquals(applets.remove(removed), index.remove(removed));
+            } else {
+                aids.add(aid);
+                assertEquals(applets.put(aid, AIDUtil.toString(aid)), index.put(aid, AIDUtil.toString(aid)));
+            }
+            assertEquals(applets.size(), index.size());
+
+            byte[] prefix = new byte[random.nextInt(8)];
+            for (int j = 0; j < prefix.length; j++) {
+                prefix[j] = (byte) (random.nextInt(3) * 0x7F);
+            }
+            AID expected = null;
+            for (AID candidate : applets.keySet()) {
+                if (candidate.partialEquals(prefix, (short) 0, (byte) prefix.length)) {
+                    expected = candidate;
+                    break;
+                }
+            }
+            AID actual = index.findFirstByPrefix(prefix, 0, prefix.length);
+            if (expected == null) {
+                assertNull(actual);
+            } else {
+                assertEquals(AIDUtil.toString(expected), AIDUtil.toString(actual));
+            }
+        }
+
+        for (AID aid : applets.keySet()) {
+            assertEquals(applets.get(aid), index.get(aid));
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.licel.jcardsim.base;
+
+import com.licel.jcardsim.utils.AIDUtil;
+import com.licel.jcardsim.utils.ByteUtil;
+import javacard.framework.*;
+import javacard.security.AESKey;
+import javacard.security.KeyBuilder;
+import javacardx.crypto.Cipher;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+public class CardImageTest extends TestCase {
+    private static final byte CLA = (byte) 0x80;
+    private static final byte INS_INCREMENT = 1;
+    private static final byte INS_GET_COUNTER = 2;
+    private static final byte INS_VERIFY = 3;
+    private static final byte INS_SET_TRANSIENT = 4;
+    private static final byte INS_GET_TRANSIENT = 5;
+    private static final byte INS_ENCRYPT = 6;
+    private static final AID WALLET_AID = AIDUtil.create("D276000085020101");
+    private static final AID OTHER_AID = AIDUtil.create("D276000085020102");
+    private static final AID PACKAGE_AID = AIDUtil.create("D2760000850201");
+
+    private static class WalletApplet extends Applet {
+        private final OwnerPIN pin = new OwnerPIN((byte) 3, (byte) 4);
+        private final byte[] counter = new byte[2];
+        private final byte[] resetBuffer = JCSystem.makeTransientByteArray((short) 1, JCSystem.CLEAR_ON_RESET);
+        private final AESKey key = (AESKey) KeyBuilder.buildKey(KeyBuilder.TYPE_AES, KeyBuilder.LENGTH_AES_128, false);
+        private final Cipher cipher = Cipher.getInstance(Cipher.ALG_AES_BLOCK_128_ECB_NOPAD, false);
+        private final String label = "wallet";
+
+        WalletApplet() {
+            pin.update(new byte[]{1, 2, 3, 4}, (short) 0, (byte) 4);
+            byte[] keyBytes = new byte[16];
+            keyBytes[15] = 1;
+            key.setKey(keyBytes, (short) 0);
+        }
+
+        @SuppressWarnings("unused")
+        public static void install(byte[] bArray, short bOffset, byte bLength) {
+            new WalletApplet().register();
+        }
+
+        @Override
+        public void process(APDU apdu) throws ISOException {
+            if (selectingApplet()) {
+                return;
+            }
+            byte[] buffer = apdu.getBuffer();
+            switch (buffer[ISO7816.OFFSET_INS]) {
+                case INS_INCREMENT:
+                    Util.setShort(counter, (short) 0, (short) (Util.getShort(counter, (short) 0) + 1));
+                    break;
+                case INS_GET_COUNTER:
+                    Util.arrayCopyNonAtomic(counter, (short) 0, buffer, (short) 0, (short) 2);
+                    apdu.setOutgoingAndSend((short) 0, (short) 2);
+                    break;
+                case INS_VERIFY:
+                    apdu.setIncomingAndReceive();
+                    if (!pin.check(buffer, ISO7816.OFFSET_CDATA, (byte) 4)) {
+                        ISOException.throwIt((short) (0x63C0 | pin.getTriesRemaining()));
+                    }
+                    break;
+                case INS_SET_TRANSIENT:
+                    resetBuffer[0] = buffer[ISO7816.OFFSET_P1];
+                    break;
+                case INS_GET_TRANSIENT:
+                    buffer[0] = resetBuffer[0];
+                    apdu.setOutgoingAndSend((short) 0, (short) 1);
+                    break;
+                case INS_ENCRYPT:
+                    cipher.init(key, Cipher.MODE_ENCRYPT);
+                    Util.arrayFillNonAtomic(buffer, (short) 0, (short) 16, (byte) 0);
+                    cipher.doFinal(buffer, (short) 0, (short) 16, buffer, (short) 0);
+                    apdu.setOutgoingAndSend((short) 0, (short) 16);
+                    break;
+                default:
+                    ISOException.throwIt(ISO7816.SW_INS_NOT_SUPPORTED);
+            }
+        }
+    }
+
+    private File file;
+
+    public CardImageTest(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        file = File.createTempFile("jcardsim", ".img");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+        super.tearDown();
+    }
+
+    private static String send(Simulator simulator, int ins, int p1, byte... data) {
+        byte[] apdu = new byte[5 + data.length];
+        apdu[ISO7816.OFFSET_CLA] = CLA;
+        apdu[ISO7816.OFFSET_INS] = (byte) ins;
+        apdu[ISO7816.OFFSET_P1] = (byte) p1;
+        apdu[ISO7816.OFFSET_LC] = (byte) data.length;
+        System.arraycopy(data, 0, apdu, 5, data.length);
+        return ByteUtil.hexString(simulator.transmitCommand(apdu));
+    }
+
+    private Simulator writePersonalizedCard() throws IOException {
+        Simulator simulator = new Simulator(new SimulatorRuntime());
+        simulator.installApplet(WALLET_AID, WalletApplet.class);
+        simulator.installApplet(OTHER_AID, WalletApplet.class);
+        simulator.selectApplet(WALLET_AID);
+        for (int i = 0; i < 3; i++) {
+            assertEquals("9000", send(simulator, INS_INCREMENT, 0));
+        }
+        // one failed PIN verification
+        assertEquals("63C2", send(simulator, INS_VERIFY, 0, (byte) 0, (byte) 0, (byte) 0, (byte) 0));
+        assertEquals("9000", send(simulator, INS_SET_TRANSIENT, 0x42));
+        simulator.writeCardImage(file);
+        return simulator;
+    }
+
+    public void testRestore() throws IOException {
+        Simulator original = writePersonalizedCard();
+        String encrypted = send(original, INS_ENCRYPT, 0);
+
+        CardImage image = CardImage.open(file);
+        assertEquals(2, image.getAppletAIDs().size());
+        assertTrue(image.getAppletAIDs().contains(WALLET_AID));
+
+        SimulatorRuntime runtime = new SimulatorRuntime();
+        Simulator simulator = new Simulator(runtime);
+        simulator.restore(image);
+        assertTrue(simulator.selectApplet(WALLET_AID));
+        assertEquals("00039000", send(simulator, INS_GET_COUNTER, 0));
+        assertEquals(encrypted, send(simulator, INS_ENCRYPT, 0));
+        // PIN try counter is persistent
+        assertEquals("63C1", send(simulator, INS_VERIFY, 0, (byte) 0, (byte) 0, (byte) 0, (byte) 0));
+        // transient memory is cleared like on power up
+        assertEquals("009000", send(simulator, INS_GET_TRANSIENT, 0));
+
+        WalletApplet applet = (WalletApplet) runtime.getApplet(WALLET_AID);
+        assertEquals("wallet", applet.label);
+        assertEquals(JCSystem.CLEAR_ON_RESET, runtime.getTransientMemory().isTransient(applet.resetBuffer));
+
+        assertTrue(simulator.selectApplet(OTHER_AID));
+        assertEquals("00009000", send(simulator, INS_GET_COUNTER, 0));
+        assertEquals("9000", send(simulator, INS_VERIFY, 0, (byte) 1, (byte) 2, (byte) 3, (byte) 4));
+    }
+
+    public void testLoadFilesAreRestored() throws IOException {
+        SimulatorRuntime original = new SimulatorRuntime();
+        original.loadLoadFile(new LoadFile(PACKAGE_AID, WALLET_AID, WalletApplet.class));
+        original.loadApplet(OTHER_AID, WalletApplet.class);
+        original.writeCardImage(file);
+
+        SimulatorRuntime runtime = new SimulatorRuntime();
+        runtime.restore(CardImage.open(file));
+        assertTrue(CardImage.open(file).getAppletAIDs().isEmpty());
+        runtime.installApplet(PACKAGE_AID, WALLET_AID, WALLET_AID, new byte[0], (short) 0, (byte) 0);
+        runtime.installApplet(OTHER_AID, new byte[0], (short) 0, (byte) 0);
+        assertTrue(runtime.getApplet(WALLET_AID) instanceof WalletApplet);
+        assertTrue(runtime.getApplet(OTHER_AID) instanceof WalletApplet);
+    }
+
+    public void testAppletsAreReadOnFirstUse() throws IOException {
+        writePersonalizedCard();
+        SimulatorRuntime runtime = new SimulatorRuntime();
+        Simulator simulator = new Simulator(runtime);
+        simulator.restore(CardImage.open(file));
+        assertFalse(runtime.lookupApplet(WALLET_AID).isLoaded());
+        assertFalse(runtime.lookupApplet(OTHER_AID).isLoaded());
+
+        assertTrue(simulator.selectApplet(OTHER_AID));
+        assertFalse(runtime.lookupApplet(WALLET_AID).isLoaded());
+        assertTrue(runtime.lookupApplet(OTHER_AID).isLoaded());
+    }
+
+    public void testImagesAreIndependent() throws IOException {
+        writePersonalizedCard();
+        CardImage image = CardImage.open(file);
+        Simulator card1 = new Simulator(new SimulatorRuntime());
+        Simulator card2 = new Simulator(new SimulatorRuntime());
+        card1.restore(image);
+        card2.restore(image);
+        card1.selectApplet(WALLET_AID);
+        card2.selectApplet(WALLET_AID);
+
+        assertEquals("9000", send(card1, INS_INCREMENT, 0));
+        assertEquals("00049000", send(card1, INS_GET_COUNTER, 0));
+        assertEquals("00039000", send(card2, INS_GET_COUNTER, 0));
+    }
+
+    public void testInvalidImage() throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[]{1, 2, 3, 4, 5, 6});
+        out.close();
+        try {
+            CardImage.open(file);
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertEquals("Not a card image", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.licel.jcardsim.base;
+
+import com.licel.jcardsim.utils.AIDUtil;
+import com.licel.jcardsim.utils.ByteUtil;
+import javacard.framework.*;
+import junit.framework.TestCase;
+
+public class CardSnapshotTest extends TestCase {
+    private static final byte CLA = (byte) 0x80;
+    private static final byte INS_INCREMENT = 1;
+    private static final byte INS_GET_COUNTER = 2;
+    private static final byte INS_VERIFY = 3;
+    private static final byte INS_SET_TRANSIENT = 4;
+    private static final byte INS_GET_TRANSIENT = 5;
+
+    private static final AID COUNTER_AID = AIDUtil.create("D276000085010101");
+    private static final AID OTHER_AID = AIDUtil.create("D276000085010102");
+
+    private static class CounterApplet extends Applet {
+        private final OwnerPIN pin = new OwnerPIN((byte) 3, (byte) 4);
+        private final byte[] counter = new byte[2];
+        private final byte[] deselectBuffer = JCSystem.makeTransientByteArray((short) 1, JCSystem.CLEAR_ON_DESELECT);
+
+        CounterApplet() {
+            pin.update(new byte[]{1, 2, 3, 4}, (short) 0, (byte) 4);
+        }
+
+        @SuppressWarnings("unused")
+        public static void install(byte[] bArray, short bOffset, byte bLength) {
+            new CounterApplet().register();
+        }
+
+        @Override
+        public void process(APDU apdu) throws ISOException {
+            if (selectingApplet()) {
+                return;
+            }
+            byte[] buffer = apdu.getBuffer();
+            switch (buffer[ISO7816.OFFSET_INS]) {
+                case INS_INCREMENT:
+                    Util.setShort(counter, (short) 0, (short) (Util.getShort(counter, (short) 0) + 1));
+                    break;
+                case INS_GET_COUNTER:
+                    Util.arrayCopyNonAtomic(counter, (short) 0, buffer, (short) 0, (short) 2);
+                    apdu.setOutgoingAndSend((short) 0, (short) 2);
+                    break;
+                case INS_VERIFY:
+                    apdu.setIncomingAndReceive();
+                    if (!pin.check(buffer, ISO7816.OFFSET_CDATA, (byte) 4)) {
+                        ISOException.throwIt((short) (0x63C0 | pin.getTriesRemaining()));
+                    }
+                    break;
+                case INS_SET_TRANSIENT:
+                    deselectBuffer[0] = buffer[ISO7816.OFFSET_P1];
+                    break;
+                case INS_GET_TRANSIENT:
+                    buffer[0] = deselectBuffer[0];
+                    apdu.setOutgoingAndSend((short) 0, (short) 1);
+                    break;
+                default:
+                    ISOException.throwIt(ISO7816.SW_INS_NOT_SUPPORTED);
+            }
+        }
+    }
+
+    public CardSnapshotTest(String name) {
+        super(name);
+    }
+
+    private static String send(Simulator simulator, int ins, int p1, byte... data) {
+        byte[] apdu = new byte[5 + data.length];
+        apdu[ISO7816.OFFSET_CLA] = CLA;
+        apdu[ISO7816.OFFSET_INS] = (byte) ins;
+        apdu[ISO7816.OFFSET_P1] = (byte) p1;
+        apdu[ISO7816.OFFSET_LC] = (byte) data.length;
+        System.arraycopy(data, 0, apdu, 5, data.length);
+        return ByteUtil.hexString(simulator.transmitCommand(apdu));
+    }
+
+    private static Simulator createPersonalizedCard() {
+        Simulator simulator = new Simulator(new SimulatorRuntime());
+        simulator.installApplet(COUNTER_AID, CounterApplet.class);
+        simulator.installApplet(OTHER_AID, CounterApplet.class);
+        simulator.selectApplet(COUNTER_AID);
+        for (int i = 0; i < 3; i++) {
+            assertEquals("9000", send(simulator, INS_INCREMENT, 0));
+        }
+        // one failed PIN verification
+        assertEquals("63C2", send(simulator, INS_VERIFY, 0, (byte) 0, (byte) 0, (byte) 0, (byte) 0));
+        assertEquals("9000", send(simulator, INS_SET_TRANSIENT, 0x42));
+        return simulator;
+    }
+
+    public void testRestoreDiscardsLaterChanges() {
+        Simulator simulator = createPersonalizedCard();
+        CardSnapshot snapshot = simulator.snapshot();
+        assertEquals(2, snapshot.getAppletAIDs().size());
+
+        assertEquals("9000", send(simulator, INS_INCREMENT, 0));
+        assertEquals("63C1", send(simulator, INS_VERIFY, 0, (byte) 0, (byte) 0, (byte) 0, (byte) 0));
+        assertEquals("00049000", send(simulator, INS_GET_COUNTER, 0));
+
+        simulator.restore(snapshot);
+        // the selected applet is restored as well
+        assertEquals("00039000", send(simulator, INS_GET_COUNTER, 0));
+        assertEquals("429000", send(simulator, INS_GET_TRANSIENT, 0));
+        assertEquals("63C1", send(simulator, INS_VERIFY, 0, (byte) 0, (byte) 0, (byte) 0, (byte) 0));
+
+        simulator.restore(snapshot);
+        assertEquals("9000", send(simulator, INS_VERIFY, 0, (byte) 1, (byte) 2, (byte) 3, (byte) 4));
+    }
+
+    public void testForksAreIndependent() {
+        CardSnapshot snapshot = createPersonalizedCard().snapshot();
+        Simulator fork1 = new Simulator(new SimulatorRuntime());
+        Simulator fork2 = new Simulator(new SimulatorRuntime());
+        fork1.restore(snapshot);
+        fork2.restore(snapshot);
+
+        assertEquals("9000", send(fork1, INS_INCREMENT, 0));
+        assertEquals("00049000", send(fork1, INS_GET_COUNTER, 0));
+        assertEquals("00039000", send(fork2, INS_GET_COUNTER, 0));
+
+        // install more applets into a fork
+        fork1.installApplet(AIDUtil.create("D276000085010103"), CounterApplet.class);
+        assertTrue(fork1.selectApplet(AIDUtil.create("D276000085010103")));
+        assertFalse(fork2.selectApplet(AIDUtil.create("D276000085010103")));
+    }
+
+    public void testProtocolIsRestored() {
+        Simulator simulator = createPersonalizedCard();
+        simulator.changeProtocol("T=CL,TYPE_B,T1");
+        CardSnapshot snapshot = simulator.snapshot();
+
+        Simulator fork = new Simulator(new SimulatorRuntime());
+        fork.changeProtocol("*");
+        fork.restore(snapshot);
+        assertEquals("T=CL,TYPE_B,T1", fork.getProtocol());
+
+        // the name is kept if the protocol does not change
+        simulator.changeProtocol("t=cl,type_b,t1");
+        simulator.restore(snapshot);
+        assertEquals("t=cl,type_b,t1", simulator.getProtocol());
+        simulator.changeProtocol("T=1");
+        simulator.restore(snapshot);
+        assertEquals("T=CL,TYPE_B,T1", simulator.getProtocol());
+    }
+
+    public void testAppletsAreCopiedOnFirstUse() {
+        CardSnapshot snapshot = createPersonalizedCard().snapshot();
+        SimulatorRuntime runtime = new SimulatorRuntime();
+        Simulator simulator = new Simulator(runtime);
+        simulator.restore(snapshot);
+        assertFalse(runtime.lookupApplet(COUNTER_AID).isLoaded());
+        assertFalse(runtime.lookupApplet(OTHER_AID).isLoaded());
+
+        assertTrue(simulator.selectApplet(OTHER_AID));
+        assertTrue(runtime.lookupApplet(COUNTER_AID).isLoaded());
+        assertTrue(runtime.lookupApplet(OTHER_AID).isLoaded());
+        assertEquals("00009000", send(simulator, INS_GET_COUNTER, 0));
+    }
+
+    public void testTransientMemory() {
+        CardSnapshot snapshot = createPersonalizedCard().snapshot();
+        SimulatorRuntime runtime = new SimulatorRuntime();
+        Simulator simulator = new Simulator(runtime);
+
+        simulator.restore(snapshot);
+        Applet applet = runtime.getApplet(COUNTER_AID);
+        assertEquals(JCSystem.CLEAR_ON_DESELECT, runtime.getTransientMemory().isTransient(((CounterApplet) applet).deselectBuffer));
+        assertEquals("429000", send(simulator, INS_GET_TRANSIENT, 0));
+        simulator.selectApplet(COUNTER_AID);
+        assertEquals("009000", send(simulator, INS_GET_TRANSIENT, 0));
+
+        // reset before the applet is copied
+        simulator.restore(snapshot);
+        simulator.reset();
+        simulator.selectApplet(COUNTER_AID);
+        assertEquals("009000", send(simulator, INS_GET_TRANSIENT, 0));
+        assertEquals("00039000", send(simulator, INS_GET_COUNTER, 0));
+    }
+}
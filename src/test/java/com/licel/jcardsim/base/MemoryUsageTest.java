@@ -0,0 +1,170 @@
+package com.licel.jcardsim.base;
+
+import com.licel.jcardsim.utils.AIDUtil;
+import com.licel.jcardsim.utils.ByteUtil;
+import javacard.framework.*;
+import junit.framework.TestCase;
+
+import java.util.SortedMap;
+
+public class MemoryUsageTest extends TestCase {
+    private static final byte CLA = (byte) 0x80;
+    private static final byte INS_ALLOCATE = 1;
+    private static final byte INS_AVAILABLE = 2;
+    private static final AID AID1 = AIDUtil.create("D276000085040101");
+    private static final AID AID2 = AIDUtil.create("D276000085040102");
+    private static final AID AID3 = AIDUtil.create("D276000085040103");
+    private static final AID AID4 = AIDUtil.create("D276000085040104");
+
+    /**
+     * Install parameters: persistent size (short), CLEAR_ON_RESET size, CLEAR_ON_DESELECT size
+     */
+    private static class MemoryApplet extends Applet {
+        private final byte[] persistent;
+        private final byte[] resetBuffer;
+        private final byte[] deselectBuffer;
+        private byte[] allocated;
+
+        MemoryApplet(byte[] bArray, short bOffset) {
+            persistent = new byte[Util.getShort(bArray, bOffset)];
+            resetBuffer = JCSystem.makeTransientByteArray(bArray[(short) (bOffset + 2)], JCSystem.CLEAR_ON_RESET);
+            deselectBuffer = JCSystem.makeTransientByteArray(bArray[(short) (bOffset + 3)], JCSystem.CLEAR_ON_DESELECT);
+        }
+
+        @SuppressWarnings("unused")
+        public static void install(byte[] bArray, short bOffset, byte bLength) {
+            new MemoryApplet(bArray, bOffset).register();
+        }
+
+        @Override
+        public void process(APDU apdu) throws ISOException {
+            if (selectingApplet()) {
+                return;
+            }
+            byte[] buffer = apdu.getBuffer();
+            switch (buffer[ISO7816.OFFSET_INS]) {
+                case INS_ALLOCATE:
+                    allocated = JCSystem.makeTransientByteArray(buffer[ISO7816.OFFSET_P1], JCSystem.CLEAR_ON_DESELECT);
+                    break;
+                case INS_AVAILABLE:
+                    Util.setShort(buffer, (short) 0, JCSystem.getAvailableMemory(buffer[ISO7816.OFFSET_P1]));
+                    apdu.setOutgoingAndSend((short) 0, (short) 2);
+                    break;
+                default:
+                    ISOException.throwIt(ISO7816.SW_INS_NOT_SUPPORTED);
+            }
+        }
+    }
+
+    private SimulatorRuntime runtime;
+    private Simulator simulator;
+
+    public MemoryUsageTest(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        runtime = new SimulatorRuntime();
+        simulator = new Simulator(runtime);
+    }
+
+    private void install(AID aid, int persistent, int transientReset, int transientDeselect) {
+        byte[] parameters = {(byte) (persistent >> 8), (byte) persistent, (byte) transientReset, (byte) transientDeselect};
+        // SimulatorRuntime keeps the reason of a SystemException thrown by install()
+        runtime.loadApplet(aid, MemoryApplet.class);
+        runtime.installApplet(aid, parameters, (short) 0, (byte) parameters.length);
+    }
+
+    private String send(int ins, int p1) {
+        return ByteUtil.hexString(simulator.transmitCommand(new byte[]{CLA, (byte) ins, (byte) p1, 0}));
+    }
+
+    public void testUsageIsChargedToApplets() {
+        install(AID1, 100, 10, 20);
+        install(AID2, 1000, 30, 40);
+        simulator.selectApplet(AID2);
+        assertEquals("9000", send(INS_ALLOCATE, 50));
+
+        SortedMap<AID, MemoryUsage> report = simulator.getMemoryUsage();
+        assertEquals(2, report.size());
+        MemoryUsage usage1 = report.get(AID1);
+        MemoryUsage usage2 = report.get(AID2);
+        assertEquals(10, usage1.getTransientResetMemory());
+        assertEquals(20, usage1.getTransientDeselectMemory());
+        assertEquals(30, usage2.getTransientResetMemory());
+        assertEquals(90, usage2.getTransientDeselectMemory());
+        // array contents plus headers and fields, transient arrays are not counted
+        assertTrue(usage1.getPersistentMemory() > 100);
+        assertTrue(usage1.getPersistentMemory() < 200);
+        assertEquals(900, usage2.getPersistentMemory() - usage1.getPersistentMemory());
+    }
+
+    public void testAvailableMemory() {
+        simulator.setCardProfile(new CardProfile(10000, 1000, 2000));
+        install(AID1, 100, 10, 20);
+        simulator.selectApplet(AID1);
+
+        assertEquals(ByteUtil.hexString(new byte[]{(byte) (990 >> 8), (byte) 990}) + "9000",
+                send(INS_AVAILABLE, JCSystem.MEMORY_TYPE_TRANSIENT_RESET));
+        assertEquals(ByteUtil.hexString(new byte[]{(byte) (1980 >> 8), (byte) 1980}) + "9000",
+                send(INS_AVAILABLE, JCSystem.MEMORY_TYPE_TRANSIENT_DESELECT));
+        int persistent = 10000 - simulator.getMemoryUsage().get(AID1).getPersistentMemory();
+        assertEquals(ByteUtil.hexString(new byte[]{(byte) (persistent >> 8), (byte) persistent}) + "9000",
+                send(INS_AVAILABLE, JCSystem.MEMORY_TYPE_PERSISTENT));
+    }
+
+    public void testUnlimitedProfile() {
+        install(AID1, 100, 10, 20);
+        simulator.selectApplet(AID1);
+        assertEquals("7FFF9000", send(INS_AVAILABLE, JCSystem.MEMORY_TYPE_PERSISTENT));
+        assertEquals("7FFF9000", send(INS_AVAILABLE, JCSystem.MEMORY_TYPE_TRANSIENT_RESET));
+    }
+
+    public void testTransientBudget() {
+        simulator.setCardProfile(new CardProfile(10000, 100, 100));
+        install(AID1, 10, 60, 60);
+        try {
+            install(AID2, 10, 60, 0);
+            fail("Expected SystemException");
+        } catch (SystemException e) {
+            assertEquals(SystemException.NO_TRANSIENT_SPACE, e.getReason());
+        }
+        assertFalse(simulator.selectApplet(AID2));
+
+        simulator.selectApplet(AID1);
+        assertEquals("9000", send(INS_ALLOCATE, 40));
+        assertEquals(ByteUtil.hexString(new byte[]{0, 0}) + "9000", send(INS_AVAILABLE, JCSystem.MEMORY_TYPE_TRANSIENT_DESELECT));
+        assertEquals(ByteUtil.hexString(new byte[]{SystemException.NO_TRANSIENT_SPACE >> 8, SystemException.NO_TRANSIENT_SPACE}),
+                send(INS_ALLOCATE, 1));
+    }
+
+    public void testDeleteReleasesTransientMemory() {
+        simulator.setCardProfile(new CardProfile(10000, 100, 100));
+        install(AID1, 10, 60, 60);
+        runtime.deleteApplet(AID1);
+        // the arrays of AID1 do not count although they have not been garbage collected
+        install(AID2, 10, 60, 60);
+        assertTrue(simulator.selectApplet(AID2));
+    }
+
+    public void testPersistentBudget() {
+        simulator.setCardProfile(new CardProfile(1000, 100, 100));
+        install(AID1, 500, 0, 0);
+        try {
+            install(AID2, 500, 60, 60);
+            fail("Expected SystemException");
+        } catch (SystemException e) {
+            assertEquals(SystemException.NO_RESOURCE, e.getReason());
+        }
+        assertFalse(simulator.selectApplet(AID2));
+        assertEquals(1, simulator.getMemoryUsage().size());
+        // transient arrays of the rejected applet are released
+        install(AID4, 100, 60, 60);
+        // space is given back when an applet is deleted
+        runtime.deleteApplet(AID1);
+        install(AID3, 600, 0, 0);
+        assertTrue(simulator.selectApplet(AID3));
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.base;
+
+import com.licel.jcardsim.samples.HelloWorldApplet;
+import com.licel.jcardsim.utils.AIDUtil;
+import javacard.framework.AID;
+import javacard.framework.JCSystem;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class RuntimeBindingTest extends TestCase {
+    private static final AID APPLET_AID = AIDUtil.create("010203040506070809");
+
+    public RuntimeBindingTest(String name) {
+        super(name);
+    }
+
+    private static boolean hasRuntime() {
+        try {
+            SimulatorSystem.instance();
+            return true;
+        } catch (AssertionError e) {
+            return false;
+        }
+    }
+
+    private static <T> T runOnNewThread(Callable<T> task) throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            return executor.submit(task).get();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testBindingsNest() throws Exception {
+        final SimulatorRuntime runtime1 = new SimulatorRuntime();
+        final SimulatorRuntime runtime2 = new SimulatorRuntime();
+        assertTrue(runOnNewThread(new Callable<Boolean>() {
+            public Boolean call() {
+                assertFalse(hasRuntime());
+                RuntimeBinding binding1 = SimulatorSystem.bind(runtime1);
+                assertSame(runtime1, SimulatorSystem.instance());
+                RuntimeBinding binding2 = runtime2.bind();
+                assertSame(runtime2, binding2.getRuntime());
+                assertSame(runtime2, SimulatorSystem.instance());
+                binding2.close();
+                binding2.close();
+                assertSame(runtime1, SimulatorSystem.instance());
+                binding1.close();
+                assertFalse(hasRuntime());
+                return true;
+            }
+        }));
+    }
+
+    public void testCloseOutOfOrderFails() throws Exception {
+        final SimulatorRuntime runtime1 = new SimulatorRuntime();
+        final SimulatorRuntime runtime2 = new SimulatorRuntime();
+        assertTrue(runOnNewThread(new Callable<Boolean>() {
+            public Boolean call() {
+                RuntimeBinding binding1 = SimulatorSystem.bind(runtime1);
+                RuntimeBinding binding2 = SimulatorSystem.bind(runtime2);
+                try {
+                    binding1.close();
+                    fail("No exception");
+                } catch (IllegalStateException e) {
+                    // expected
+                }
+                assertSame(runtime2, SimulatorSystem.instance());
+                binding2.close();
+                binding1.close();
+                assertFalse(hasRuntime());
+                return true;
+            }
+        }));
+    }
+
+    public void testCloseOnOtherThreadFails() throws Exception {
+        final RuntimeBinding binding = SimulatorSystem.bind(new SimulatorRuntime());
+        try {
+            assertTrue(runOnNewThread(new Callable<Boolean>() {
+                public Boolean call() {
+                    try {
+                        binding.close();
+                        return false;
+                    } catch (IllegalStateException e) {
+                        return true;
+                    }
+                }
+            }));
+        } finally {
+            binding.close();
+        }
+    }
+
+    public void testWrappedTasksDoNotLeakRuntime() throws Exception {
+        final Simulator simulator1 = new Simulator(new SimulatorRuntime());
+        final Simulator simulator2 = new Simulator(new SimulatorRuntime());
+        simulator1.installApplet(APPLET_AID, HelloWorldApplet.class);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < 50; i++) {
+                final Simulator simulator = i % 2 == 0 ? simulator1 : simulator2;
+                final SimulatorRuntime runtime = simulator.runtime;
+                results.add(executor.submit(SimulatorSystem.wrap(runtime, new Callable<Boolean>() {
+                    public Boolean call() {
+                        // transmitCommand activates the runtime for the thread
+                        boolean selected = simulator.selectApplet(APPLET_AID);
+                        byte[] array = JCSystem.makeTransientByteArray((short) 1, JCSystem.CLEAR_ON_RESET);
+                        return SimulatorSystem.instance() == runtime
+                                && runtime.getTransientMemory().isTransient(array) == JCSystem.CLEAR_ON_RESET
+                                && selected == (simulator == simulator1);
+                    }
+                })));
+                results.add(executor.submit(new Callable<Boolean>() {
+                    public Boolean call() {
+                        return !hasRuntime();
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testSimulatorBind() throws Exception {
+        final Simulator simulator = new Simulator(new SimulatorRuntime());
+        assertTrue(runOnNewThread(new Callable<Boolean>() {
+            public Boolean call() {
+                RuntimeBinding binding = simulator.bind();
+                try {
+                    return JCSystem.getAvailableMemory(JCSystem.MEMORY_TYPE_PERSISTENT) > 0
+                            && SimulatorSystem.instance() == simulator.runtime;
+                } finally {
+                    binding.close();
+                }
+            }
+        }));
+    }
+}
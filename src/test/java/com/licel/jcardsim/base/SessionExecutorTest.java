@@ -0,0 +1,122 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.base;
+
+import com.licel.jcardsim.samples.HelloWorldApplet;
+import com.licel.jcardsim.utils.AIDUtil;
+import javacard.framework.AID;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class SessionExecutorTest extends TestCase {
+    private static final String AID_STRING = "010203040506070809";
+    private static final AID APPLET_AID = AIDUtil.create(AID_STRING);
+
+    public SessionExecutorTest(String name) {
+        super(name);
+    }
+
+    private static Properties createProperties() {
+        Properties properties = new Properties();
+        properties.setProperty("com.licel.jcardsim.card.applet.0.AID", AID_STRING);
+        properties.setProperty("com.licel.jcardsim.card.applet.0.Class", HelloWorldApplet.class.getName());
+        return properties;
+    }
+
+    public void testSessionsAreIsolated() throws Exception {
+        SessionExecutor executor = SessionExecutor.create(createProperties(), 4);
+        List<Future<SimulatorRuntime>> results = new ArrayList<Future<SimulatorRuntime>>();
+        for (int i = 0; i < 32; i++) {
+            results.add(executor.submit(new SessionExecutor.Session<SimulatorRuntime>() {
+                public SimulatorRuntime run(Simulator simulator) {
+                    assertSame(simulator.runtime, SimulatorSystem.instance());
+                    assertFalse(simulator.selectApplet(APPLET_AID));
+                    simulator.createApplet(APPLET_AID, new byte[0], (short) 0, (byte) 0);
+                    assertTrue(simulator.selectApplet(APPLET_AID));
+                    return simulator.runtime;
+                }
+            }));
+        }
+        Set<SimulatorRuntime> runtimes = new HashSet<SimulatorRuntime>();
+        for (Future<SimulatorRuntime> result : results) {
+            runtimes.add(result.get());
+        }
+        assertEquals(32, runtimes.size());
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    public void testBindingIsClosedAfterSession() throws Exception {
+        ExecutorService thread = Executors.newSingleThreadExecutor();
+        SessionExecutor executor = new SessionExecutor(thread, createProperties());
+        assertFalse(executor.usesVirtualThreads());
+        executor.submit(new SessionExecutor.Session<Object>() {
+            public Object run(Simulator simulator) {
+                assertSame(simulator.runtime, SimulatorSystem.instance());
+                throw new IllegalStateException("failed");
+            }
+        });
+        Future<Boolean> unbound = thread.submit(new Callable<Boolean>() {
+            public Boolean call() {
+                try {
+                    SimulatorSystem.instance();
+                    return false;
+                } catch (AssertionError e) {
+                    return true;
+                }
+            }
+        });
+        assertTrue(unbound.get());
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    public void testExceptionIsReported() throws Exception {
+        SessionExecutor executor = SessionExecutor.create(createProperties(), 1);
+        Future<Object> result = executor.submit(new SessionExecutor.Session<Object>() {
+            public Object run(Simulator simulator) {
+                throw new IllegalStateException("failed");
+            }
+        });
+        try {
+            result.get();
+            fail("No exception");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        executor.shutdown();
+    }
+
+    public void testInvalidFallbackThreads() {
+        try {
+            SessionExecutor.create(createProperties(), 0);
+            fail("No exception");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
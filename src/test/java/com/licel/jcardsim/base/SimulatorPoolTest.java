@@ -0,0 +1,203 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.base;
+
+import com.licel.jcardsim.samples.HelloWorldApplet;
+import com.licel.jcardsim.utils.AIDUtil;
+import com.licel.jcardsim.utils.ByteUtil;
+import javacard.framework.AID;
+import javacard.framework.ISO7816;
+import javacard.framework.SystemException;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SimulatorPoolTest extends TestCase {
+    private static final String AID_STRING = "010203040506070809";
+    private static final AID APPLET_AID = AIDUtil.create(AID_STRING);
+
+    public SimulatorPoolTest(String name) {
+        super(name);
+    }
+
+    private static Properties createProperties() {
+        Properties properties = new Properties();
+        properties.setProperty("com.licel.jcardsim.card.applet.0.AID", AID_STRING);
+        properties.setProperty("com.licel.jcardsim.card.applet.0.Class", HelloWorldApplet.class.getName());
+        return properties;
+    }
+
+    public void testBorrowedInstancesAreIndependent() throws InterruptedException {
+        SimulatorPool pool = new SimulatorPool(2, createProperties());
+        Simulator sim1 = pool.borrow();
+        Simulator sim2 = pool.borrow();
+        assertNotSame(sim1, sim2);
+        assertNotSame(sim1.runtime, sim2.runtime);
+        assertEquals(2, pool.getSize());
+        assertEquals(0, pool.getIdleCount());
+
+        sim1.createApplet(APPLET_AID, new byte[0], (short) 0, (byte) 0);
+        assertTrue(sim1.selectApplet(APPLET_AID));
+        assertFalse(sim2.selectApplet(APPLET_AID));
+
+        pool.release(sim1);
+        pool.release(sim2);
+        assertEquals(2, pool.getIdleCount());
+    }
+
+    public void testReleaseRecyclesRuntime() throws InterruptedException {
+        SimulatorPool pool = new SimulatorPool(1, createProperties());
+        Simulator sim = pool.borrow();
+        sim.createApplet(APPLET_AID, new byte[0], (short) 0, (byte) 0);
+        sim.changeProtocol("T=1");
+        assertTrue(sim.selectApplet(APPLET_AID));
+        pool.release(sim);
+
+        Simulator recycled = pool.borrow();
+        assertSame(sim, recycled);
+        assertEquals("T=0", recycled.getProtocol());
+        assertFalse(recycled.selectApplet(APPLET_AID));
+        // configured applet is loaded again
+        recycled.createApplet(APPLET_AID, new byte[0], (short) 0, (byte) 0);
+        assertTrue(recycled.selectApplet(APPLET_AID));
+        pool.release(recycled);
+    }
+
+    public void testBoundedSize() throws InterruptedException {
+        SimulatorPool pool = new SimulatorPool(1, createProperties());
+        Simulator sim = pool.borrow();
+        assertNull(pool.borrow(10, TimeUnit.MILLISECONDS));
+        assertEquals(1, pool.getWaitCount());
+        pool.release(sim);
+        assertSame(sim, pool.borrow(10, TimeUnit.MILLISECONDS));
+        assertEquals(1, pool.getSize());
+    }
+
+    public void testReleaseRejectsForeignSimulator() throws InterruptedException {
+        SimulatorPool pool = new SimulatorPool(1, createProperties());
+        try {
+            pool.release(new Simulator(new SimulatorRuntime()));
+            fail("No exception");
+        }
+        catch (IllegalArgumentException e) {
+            // expected
+        }
+        Simulator sim = pool.borrow();
+        pool.release(sim);
+        try {
+            pool.release(sim);
+            fail("No exception");
+        }
+        catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testStatistics() throws InterruptedException {
+        SimulatorPool pool = new SimulatorPool(1, createProperties());
+        Simulator sim = pool.borrow();
+        sim.createApplet(APPLET_AID, new byte[0], (short) 0, (byte) 0);
+        sim.selectApplet(APPLET_AID);
+        sim.transmitCommand(new byte[]{0x01, 0x01, 0x00, 0x00});
+        sim.transmitCommand(new byte[]{0x01, 0x01, 0x00, 0x00});
+
+        List<SimulatorPool.InstanceStatistics> statistics = pool.getStatistics();
+        assertEquals(1, statistics.size());
+        assertTrue(statistics.get(0).isBorrowed());
+        assertEquals(1, statistics.get(0).getBorrowCount());
+        assertEquals(2, statistics.get(0).getCommandCount());
+
+        pool.release(sim);
+        statistics = pool.getStatistics();
+        assertFalse(statistics.get(0).isBorrowed());
+        assertTrue(statistics.get(0).getBusyNanos() > 0);
+    }
+
+    public void testFailedRecycleDropsInstance() throws InterruptedException {
+        // the pool copies the entries of properties, the defaults are shared
+        Properties defaults = createProperties();
+        Properties properties = new Properties(defaults);
+        properties.setProperty("com.licel.jcardsim.card.applet.1.AID", AID_STRING);
+        SimulatorPool pool = new SimulatorPool(1, properties);
+        Simulator sim = pool.borrow();
+        assertEquals(0, pool.getStatistics().get(0).getId());
+
+        // loading the applet class again on release fails
+        defaults.setProperty("com.licel.jcardsim.card.applet.0.Class", Object.class.getName());
+        try {
+            pool.release(sim);
+            fail("No exception");
+        }
+        catch (SystemException e) {
+            assertEquals(SystemException.ILLEGAL_VALUE, e.getReason());
+        }
+        assertEquals(0, pool.getSize());
+        assertEquals(0, pool.getIdleCount());
+
+        defaults.setProperty("com.licel.jcardsim.card.applet.0.Class", HelloWorldApplet.class.getName());
+        Simulator replacement = pool.borrow(10, TimeUnit.MILLISECONDS);
+        assertNotNull(replacement);
+        assertNotSame(sim, replacement);
+        assertEquals(1, pool.getSize());
+        assertEquals(1, pool.getStatistics().get(0).getId());
+        pool.release(replacement);
+    }
+
+    public void testConcurrentUse() throws InterruptedException {
+        final SimulatorPool pool = new SimulatorPool(4, createProperties());
+        final AtomicInteger failures = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 8; i++) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 20; j++) {
+                        try {
+                            Simulator sim = pool.borrow();
+                            try {
+                                sim.createApplet(APPLET_AID, new byte[0], (short) 0, (byte) 0);
+                                sim.selectApplet(APPLET_AID);
+                                byte[] response = sim.transmitCommand(new byte[]{0x01, 0x01, 0x00, 0x00});
+                                if (ByteUtil.getSW(response) != ISO7816.SW_NO_ERROR) {
+                                    failures.incrementAndGet();
+                                }
+                            }
+                            finally {
+                                pool.release(sim);
+                            }
+                        }
+                        catch (Exception e) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, failures.get());
+        assertTrue(pool.getSize() <= 4);
+        assertEquals(pool.getSize(), pool.getIdleCount());
+    }
+}
@@ -16,8 +16,17 @@
 package com.licel.jcardsim.base;
 
 import com.licel.jcardsim.samples.HelloWorldApplet;
+import com.licel.jcardsim.utils.AIDUtil;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import javacard.framework.AID;
 import javacard.framework.Applet;
 import javacard.framework.ISO7816;
@@ -205,6 +214,67 @@ public class SimulatorTest extends TestCase {
         assertEquals(Arrays.areEqual(new byte[]{(byte)0x90, 0x00}, response), true);
     }
 
+    /**
+     * Test of transmitCommand method writing into a caller buffer, of class Simulator.
+     */
+    public void testTransmitCommandIntoBuffer() {
+        System.out.println("transmitCommandIntoBuffer");
+        Simulator instance = new Simulator();
+        instance.installApplet(TEST_APPLET_AID, TEST_APPLET_CLASS);
+        assertEquals(instance.selectApplet(TEST_APPLET_AID), true);
+        // SAY HELLO, command at offset 2
+        byte[] command = new byte[]{0x55, 0x55, 0x01, 0x01, 0x00, 0x00, 0x55};
+        byte[] response = new byte[64];
+        int length = instance.transmitCommand(command, 2, 4, response, 3);
+        byte[] expected = instance.transmitCommand(new byte[]{0x01, 0x01, 0x00, 0x00});
+        assertEquals(expected.length, length);
+        byte[] actual = new byte[length];
+        System.arraycopy(response, 3, actual, 0, length);
+        assertEquals(Arrays.areEqual(expected, actual), true);
+        // too small
+        try {
+            instance.transmitCommand(command, 2, 4, new byte[4], 0);
+            fail("No exception");
+        }
+        catch (IllegalArgumentException e) {
+            // expected
+        }
+        // select through offset
+        byte[] select = AIDUtil.select(TEST_APPLET_AID);
+        byte[] selectWithPrefix = new byte[select.length + 1];
+        System.arraycopy(select, 0, selectWithPrefix, 1, select.length);
+        length = instance.transmitCommand(selectWithPrefix, 1, select.length, response, 0);
+        assertEquals(2, length);
+        assertEquals(ISO7816.SW_NO_ERROR, Util.getShort(response, (short) 0));
+    }
+
+    /**
+     * Test of transmitCommands method, of class Simulator.
+     */
+    public void testTransmitCommands() {
+        System.out.println("transmitCommands");
+        Simulator instance = new Simulator();
+        instance.installApplet(TEST_APPLET_AID, TEST_APPLET_CLASS);
+        List<byte[]> commands = new ArrayList<byte[]>();
+        commands.add(AIDUtil.select(TEST_APPLET_AID));
+        // NOP
+        commands.add(new byte[]{0x01, 0x02, 0x00, 0x00});
+        // SAY HELLO
+        commands.add(new byte[]{0x01, 0x01, 0x00, 0x00});
+        List<byte[]> responses = instance.transmitCommands(commands);
+        assertEquals(3, responses.size());
+        for (int i = 0; i < commands.size(); i++) {
+            assertEquals(Arrays.areEqual(instance.transmitCommand(commands.get(i)), responses.get(i)), true);
+        }
+
+        // append to caller supplied list
+        List<byte[]> existing = new ArrayList<byte[]>();
+        existing.add(new byte[0]);
+        instance.transmitCommands(commands.subList(1, 2), existing);
+        assertEquals(2, existing.size());
+        assertEquals(Arrays.areEqual(new byte[]{(byte)0x90, 0x00}, existing.get(1)), true);
+    }
+
     /**
      * Test of reset method, of class Simulator.
      */
@@ -263,4 +333,64 @@ public class SimulatorTest extends TestCase {
         assertFalse(instance1.selectApplet(TEST_APPLET_AID));
         assertFalse(instance2.selectApplet(TEST_APPLET_AID));
     }
+
+    public void testGettersDoNotWaitForRuntime() throws Exception {
+        final Simulator instance = new Simulator(new SimulatorRuntime());
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread holder = new Thread(new Runnable() {
+            public void run() {
+                synchronized (instance.runtime) {
+                    locked.countDown();
+                    try {
+                        done.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        });
+        holder.start();
+        try {
+            assertTrue(locked.await(10, TimeUnit.SECONDS));
+            assertTrue(Arrays.areEqual(ETALON_ATR, instance.getATR()));
+            assertEquals("T=0", instance.getProtocol());
+        } finally {
+            done.countDown();
+            holder.join();
+        }
+    }
+
+    public void testConcurrentInstallAndTransmit() throws Exception {
+        final Simulator instance = new Simulator(new SimulatorRuntime());
+        instance.installApplet(TEST_APPLET_AID, TEST_APPLET_CLASS);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < 4; i++) {
+                final int index = i;
+                results.add(executor.submit(new Callable<Boolean>() {
+                    public Boolean call() {
+                        for (int j = 0; j < 50; j++) {
+                            if (index % 2 == 0) {
+                                AID aid = AIDUtil.create(new byte[]{1, 2, 3, 4, 5, (byte) index, (byte) j});
+                                instance.installApplet(aid, TEST_APPLET_CLASSNAME, new byte[0], (short) 0, (byte) 0);
+                                instance.deleteApplet(aid);
+                            } else {
+                                instance.selectApplet(TEST_APPLET_AID);
+                                instance.transmitCommand(new byte[]{0x01, 0x02, 0x00, 0x00});
+                            }
+                        }
+                        return true;
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get(30, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(instance.selectApplet(TEST_APPLET_AID));
+    }
 }
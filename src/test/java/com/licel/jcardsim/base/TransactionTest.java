@@ -0,0 +1,159 @@
+package com.licel.jcardsim.base;
+
+import com.licel.jcardsim.utils.AIDUtil;
+import com.licel.jcardsim.utils.ByteUtil;
+import javacard.framework.*;
+import junit.framework.TestCase;
+
+public class TransactionTest extends TestCase {
+    private static final byte CLA = (byte) 0x80;
+    private static final byte INS_GET = 1;
+    /** update in a transaction, P1: 0 = commit, 1 = abort, 2 = throw, 3 = return without commit */
+    private static final byte INS_UPDATE = 2;
+    private static final byte INS_FILL_COMMIT_BUFFER = 3;
+    private static final byte MODE_COMMIT = 0;
+    private static final byte MODE_ABORT = 1;
+    private static final byte MODE_THROW = 2;
+    private static final byte MODE_RETURN = 3;
+    private static final AID AID = AIDUtil.create("D276000085030101");
+
+    private static class TransactionApplet extends Applet {
+        private final byte[] balance = new byte[2];
+        private final byte[] history = new byte[4];
+        private final byte[] nonAtomic = new byte[1];
+        private final byte[] transientBuffer = JCSystem.makeTransientByteArray((short) 1, JCSystem.CLEAR_ON_RESET);
+        private final byte[] large = new byte[1024];
+
+        @SuppressWarnings("unused")
+        public static void install(byte[] bArray, short bOffset, byte bLength) {
+            new TransactionApplet().register();
+        }
+
+        @Override
+        public void process(APDU apdu) throws ISOException {
+            if (selectingApplet()) {
+                return;
+            }
+            byte[] buffer = apdu.getBuffer();
+            switch (buffer[ISO7816.OFFSET_INS]) {
+                case INS_GET:
+                    Util.arrayCopyNonAtomic(balance, (short) 0, buffer, (short) 0, (short) 2);
+                    Util.arrayCopyNonAtomic(history, (short) 0, buffer, (short) 2, (short) 4);
+                    buffer[6] = nonAtomic[0];
+                    buffer[7] = transientBuffer[0];
+                    apdu.setOutgoingAndSend((short) 0, (short) 8);
+                    break;
+                case INS_UPDATE:
+                    byte mode = buffer[ISO7816.OFFSET_P1];
+                    JCSystem.beginTransaction();
+                    Util.setShort(balance, (short) 0, (short) (Util.getShort(balance, (short) 0) + 1));
+                    Util.arrayCopy(balance, (short) 0, history, (short) 0, (short) 2);
+                    Util.arrayCopy(balance, (short) 0, history, (short) 1, (short) 2);
+                    Util.arrayFillNonAtomic(nonAtomic, (short) 0, (short) 1, (byte) (nonAtomic[0] + 1));
+                    Util.arrayCopy(balance, (short) 1, transientBuffer, (short) 0, (short) 1);
+                    Util.setShort(buffer, (short) 0, JCSystem.getUnusedCommitCapacity());
+                    if (mode == MODE_COMMIT) {
+                        JCSystem.commitTransaction();
+                    } else if (mode == MODE_ABORT) {
+                        JCSystem.abortTransaction();
+                    } else if (mode == MODE_THROW) {
+                        ISOException.throwIt(ISO7816.SW_CONDITIONS_NOT_SATISFIED);
+                    }
+                    apdu.setOutgoingAndSend((short) 0, (short) 2);
+                    break;
+                case INS_FILL_COMMIT_BUFFER:
+                    JCSystem.beginTransaction();
+                    try {
+                        while (true) {
+                            Util.arrayCopy(large, (short) 0, large, (short) 0, (short) large.length);
+                        }
+                    } catch (TransactionException e) {
+                        if (e.getReason() != TransactionException.BUFFER_FULL) {
+                            throw e;
+                        }
+                    }
+                    Util.setShort(buffer, (short) 0, JCSystem.getUnusedCommitCapacity());
+                    JCSystem.commitTransaction();
+                    apdu.setOutgoingAndSend((short) 0, (short) 2);
+                    break;
+                default:
+                    ISOException.throwIt(ISO7816.SW_INS_NOT_SUPPORTED);
+            }
+        }
+    }
+
+    private Simulator simulator;
+
+    public TransactionTest(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        simulator = new Simulator(new SimulatorRuntime());
+        simulator.installApplet(AID, TransactionApplet.class);
+        simulator.selectApplet(AID);
+    }
+
+    private String send(int ins, int p1) {
+        return ByteUtil.hexString(simulator.transmitCommand(new byte[]{CLA, (byte) ins, (byte) p1, 0}));
+    }
+
+    public void testCommit() {
+        // 2 + 2 + 2 bytes logged
+        assertEquals(ByteUtil.hexString(new byte[]{0x7F, (byte) 0xF9}) + "9000", send(INS_UPDATE, MODE_COMMIT));
+        assertEquals("0001000001000101" + "9000", send(INS_GET, 0));
+    }
+
+    public void testAbort() {
+        send(INS_UPDATE, MODE_COMMIT);
+        assertEquals("7FF99000", send(INS_UPDATE, MODE_ABORT));
+        // non-atomic and transient updates are not rolled back
+        assertEquals("0001000001000202" + "9000", send(INS_GET, 0));
+    }
+
+    public void testExceptionInProcessAbortsTransaction() {
+        send(INS_UPDATE, MODE_COMMIT);
+        assertEquals("6985", send(INS_UPDATE, MODE_THROW));
+        assertEquals("0001000001000202" + "9000", send(INS_GET, 0));
+    }
+
+    public void testReturnFromProcessAbortsTransaction() {
+        send(INS_UPDATE, MODE_COMMIT);
+        assertEquals("7FF99000", send(INS_UPDATE, MODE_RETURN));
+        assertEquals("0001000001000202" + "9000", send(INS_GET, 0));
+        assertEquals("7FF99000", send(INS_UPDATE, MODE_COMMIT));
+        assertEquals("0002000002000302" + "9000", send(INS_GET, 0));
+    }
+
+    public void testCommitCapacity() {
+        // 31 copies of 1024 bytes fit into 32767 bytes
+        assertEquals("03FF9000", send(INS_FILL_COMMIT_BUFFER, 0));
+        assertEquals("7FF99000", send(INS_UPDATE, MODE_COMMIT));
+    }
+
+    public void testRollbackRestoresOldestPreImage() {
+        TransactionLog log = new TransactionLog((short) 8);
+        byte[] array = {1, 2, 3, 4};
+        log.record(array, (short) 0, (short) 2);
+        array[0] = 9;
+        array[1] = 9;
+        log.record(array, (short) 1, (short) 3);
+        array[1] = 8;
+        array[3] = 8;
+        assertEquals(3, log.getUnusedCapacity());
+        try {
+            log.record(array, (short) 0, (short) 4);
+            fail("Expected TransactionException");
+        } catch (TransactionException e) {
+            assertEquals(TransactionException.BUFFER_FULL, e.getReason());
+        }
+        assertEquals(2, log.size());
+
+        log.rollback();
+        assertEquals("01020304", ByteUtil.hexString(array));
+        assertEquals(0, log.size());
+        assertEquals(8, log.getUnusedCapacity());
+    }
+}
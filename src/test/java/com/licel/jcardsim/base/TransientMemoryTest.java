@@ -158,4 +158,73 @@ public class TransientMemoryTest extends TestCase {
         assertEquals(0x9000, responseApdu.getSW());
         assertEquals(Arrays.toString(new byte[20]), Arrays.toString(responseApdu.getData()));
     }
+
+    public void testUnreachableArraysAreDropped() {
+        TransientMemory transientMemory = new TransientMemory();
+        byte[] reachable = transientMemory.makeByteArray(1, JCSystem.CLEAR_ON_DESELECT);
+        for (int i = 0; i < 1000; i++) {
+            transientMemory.makeByteArray(1, JCSystem.CLEAR_ON_DESELECT);
+        }
+        assertBounded(transientMemory, 500);
+        assertEquals(JCSystem.CLEAR_ON_DESELECT, transientMemory.isTransient(reachable));
+
+        reachable[0] = 1;
+        transientMemory.clearOnDeselect();
+        assertEquals(0, reachable[0]);
+    }
+
+    public void testArraysAreRegisteredOnce() {
+        TransientMemory transientMemory = new TransientMemory();
+        byte[] array = transientMemory.makeByteArray(4, JCSystem.CLEAR_ON_DESELECT);
+        // same content, but not the same object
+        assertEquals(JCSystem.NOT_A_TRANSIENT_OBJECT, transientMemory.isTransient(new byte[4]));
+        assertEquals(JCSystem.NOT_A_TRANSIENT_OBJECT, transientMemory.isTransient(null));
+
+        transientMemory.storeArray(array, JCSystem.CLEAR_ON_DESELECT);
+        assertEquals(1, transientMemory.arrays.size());
+        transientMemory.storeArray(array, JCSystem.CLEAR_ON_RESET);
+        assertEquals(1, transientMemory.arrays.size());
+        assertEquals(JCSystem.CLEAR_ON_RESET, transientMemory.isTransient(array));
+
+        array[0] = 1;
+        transientMemory.clearOnDeselect();
+        assertEquals(1, array[0]);
+        transientMemory.clearOnReset();
+        assertEquals(0, array[0]);
+    }
+
+    public void testManyArrays() {
+        TransientMemory transientMemory = new TransientMemory();
+        Object[] arrays = new Object[1000];
+        for (int i = 0; i < arrays.length; i++) {
+            byte event = (i % 2 == 0) ? JCSystem.CLEAR_ON_DESELECT : JCSystem.CLEAR_ON_RESET;
+            arrays[i] = transientMemory.makeShortArray((short) 1, event);
+        }
+        for (int i = 0; i < arrays.length; i++) {
+            byte event = (i % 2 == 0) ? JCSystem.CLEAR_ON_DESELECT : JCSystem.CLEAR_ON_RESET;
+            assertEquals(event, transientMemory.isTransient(arrays[i]));
+        }
+        // drop every other array
+        for (int i = 0; i < arrays.length; i += 2) {
+            arrays[i] = null;
+        }
+        assertBounded(transientMemory, arrays.length * 3 / 4);
+        for (int i = 1; i < arrays.length; i += 2) {
+            assertEquals(JCSystem.CLEAR_ON_RESET, transientMemory.isTransient(arrays[i]));
+        }
+        transientMemory.forgetBuffers();
+        assertEquals(JCSystem.NOT_A_TRANSIENT_OBJECT, transientMemory.isTransient(arrays[1]));
+    }
+
+    /**
+     * The garbage collector clears weak references in its own time, so only check
+     * that the registry does not keep most of the unreachable arrays
+     */
+    private static void assertBounded(TransientMemory transientMemory, int bound) {
+        for (int i = 0; i < 10 && transientMemory.arrays.size() > bound; i++) {
+            System.gc();
+        }
+        assertTrue("registry holds " + transientMemory.arrays.size() + " arrays",
+                transientMemory.arrays.size() <= bound);
+    }
 }
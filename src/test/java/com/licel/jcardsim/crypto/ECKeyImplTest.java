@@ -15,11 +15,18 @@
  */
 package com.licel.jcardsim.crypto;
 
+import java.math.BigInteger;
 import java.security.SecureRandom;
 import javacard.security.KeyBuilder;
 import junit.framework.TestCase;
+import org.bouncycastle.asn1.sec.SECNamedCurves;
+import org.bouncycastle.asn1.teletrust.TeleTrusTNamedCurves;
+import org.bouncycastle.asn1.x9.X9ECParameters;
+import org.bouncycastle.crypto.params.ECDomainParameters;
 import org.bouncycastle.crypto.params.ECKeyGenerationParameters;
 import org.bouncycastle.math.ec.ECCurve;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.util.BigIntegers;
 
 /**
  * Test for <code>ECKeyImplTest</code>.
@@ -61,4 +68,63 @@ public class ECKeyImplTest extends TestCase {
         assertEquals(result.getDomainParameters().getCurve()instanceof ECCurve.Fp, true);
     }
 
+    /**
+     * Test of getDomainParameters method, of class ECKeyImpl.
+     */
+    public void testGetDomainParameters() {
+        System.out.println("getDomainParameters");
+        X9ECParameters x9params = TeleTrusTNamedCurves.getByName("brainpoolp256r1");
+        ECPrivateKeyImpl instance = new ECPrivateKeyImpl(KeyBuilder.TYPE_EC_FP_PRIVATE, KeyBuilder.LENGTH_EC_FP_256);
+        byte[] field = BigIntegers.asUnsignedByteArray(((ECCurve.Fp) x9params.getCurve()).getQ());
+        byte[] a = BigIntegers.asUnsignedByteArray(x9params.getCurve().getA().toBigInteger());
+        byte[] b = BigIntegers.asUnsignedByteArray(x9params.getCurve().getB().toBigInteger());
+        byte[] g = x9params.getG().getEncoded();
+        byte[] r = BigIntegers.asUnsignedByteArray(x9params.getN());
+        instance.setFieldFP(field, (short) 0, (short) field.length);
+        instance.setA(a, (short) 0, (short) a.length);
+        instance.setB(b, (short) 0, (short) b.length);
+        instance.setG(g, (short) 0, (short) g.length);
+        instance.setR(r, (short) 0, (short) r.length);
+        instance.setK(x9params.getH().shortValue());
+
+        // a named curve is shared by all keys
+        ECDomainParameters result = instance.getDomainParameters();
+        assertSame(ECNamedCurves.getByName("brainpoolp256r1"), result);
+        assertSame(result, instance.getDomainParameters());
+
+        // brainpoolP256t1 has the same order
+        X9ECParameters twisted = TeleTrusTNamedCurves.getByName("brainpoolp256t1");
+        a = BigIntegers.asUnsignedByteArray(twisted.getCurve().getA().toBigInteger());
+        instance.setA(a, (short) 0, (short) a.length);
+        result = instance.getDomainParameters();
+        assertNotSame(ECNamedCurves.getByName("brainpoolp256r1"), result);
+        assertNotSame(ECNamedCurves.getByName("brainpoolp256t1"), result);
+        assertEquals(twisted.getCurve().getA(), result.getCurve().getA());
+        assertSame(result, instance.getDomainParameters());
+
+        // default domain parameters
+        instance = new ECPrivateKeyImpl(KeyBuilder.TYPE_EC_FP_PRIVATE, KeyBuilder.LENGTH_EC_FP_256);
+        assertSame(ECNamedCurves.getByName("secp256r1"), instance.getDomainParameters());
+    }
+
+    /**
+     * Test of the generators of shared named curves, which multiply with a comb table.
+     */
+    public void testNamedCurveGenerator() {
+        System.out.println("namedCurveGenerator");
+        String[] names = {"secp192r1", "secp256r1", "secp521r1", "sect163r1", "sect193r1"};
+        SecureRandom rnd = new SecureRandom();
+        for (String name : names) {
+            X9ECParameters x9params = SECNamedCurves.getByName(name);
+            ECPoint expectedG = x9params.getG();
+            BigInteger n = x9params.getN();
+            ECPoint g = ECNamedCurves.getByName(name).getG();
+            assertEquals(expectedG, g);
+            BigInteger[] scalars = {BigInteger.ONE, BigInteger.valueOf(2), n.subtract(BigInteger.ONE),
+                n, n.add(BigInteger.ONE), BigInteger.ZERO, new BigInteger(n.bitLength(), rnd)};
+            for (BigInteger k : scalars) {
+                assertEquals(name + " " + k, expectedG.multiply(k), g.multiply(k));
+            }
+        }
+    }
 }
@@ -15,7 +15,12 @@
  */
 package com.licel.jcardsim.crypto;
 
+import java.math.BigInteger;
+import javacard.security.KeyBuilder;
+import javacard.security.KeyPair;
 import junit.framework.TestCase;
+import org.bouncycastle.crypto.params.RSAKeyParameters;
+import org.bouncycastle.crypto.params.RSAPrivateCrtKeyParameters;
 import org.bouncycastle.util.encoders.Hex;
 
 /**
@@ -59,4 +64,50 @@ public class RSAPrivateCrtKeyImplTest extends TestCase {
         key.setPQ(Hex.decode(PQ), (short)0, compLen);
         assertEquals(true, key.isInitialized());
     }
+
+    /**
+     * Test of getParameters method, of class RSAPrivateCrtKeyImpl.
+     */
+    public void testGetParameters() {
+        System.out.println("getParameters");
+        RSAPrivateCrtKeyImpl key = new RSAPrivateCrtKeyImpl((short)2048);
+        short compLen = (short) Hex.decode(P).length;
+        key.setP(Hex.decode(P), (short)0, compLen);
+        key.setQ(Hex.decode(Q), (short)0, compLen);
+        key.setDP1(Hex.decode(DP), (short)0, compLen);
+        key.setDQ1(Hex.decode(DQ), (short)0, compLen);
+        key.setPQ(Hex.decode(PQ), (short)0, compLen);
+        RSAPrivateCrtKeyParameters params = (RSAPrivateCrtKeyParameters) key.getParameters();
+        assertSame(params, key.getParameters());
+        assertEquals(new BigInteger(P, 16).multiply(new BigInteger(Q, 16)), params.getModulus());
+
+        // setters drop the parameters
+        key.setDP1(Hex.decode(DQ), (short)0, compLen);
+        RSAPrivateCrtKeyParameters newParams = (RSAPrivateCrtKeyParameters) key.getParameters();
+        assertNotSame(params, newParams);
+        assertEquals(new BigInteger(DQ, 16), newParams.getDP());
+
+        // changes without setters are detected
+        key.dp1.setBytes(Hex.decode(DP), (short)0, compLen);
+        assertEquals(new BigInteger(DP, 16), ((RSAPrivateCrtKeyParameters) key.getParameters()).getDP());
+    }
+
+    /**
+     * Test of getParameters method, of class RSAKeyImpl: a generated
+     * private key keeps the CRT parameters
+     */
+    public void testGetParametersGeneratedKey() {
+        System.out.println("getParametersGeneratedKey");
+        KeyPair keyPair = new KeyPair(KeyPair.ALG_RSA, KeyBuilder.LENGTH_RSA_512);
+        keyPair.genKeyPair();
+        RSAKeyImpl privateKey = (RSAKeyImpl) keyPair.getPrivate();
+        assertTrue(privateKey.getParameters() instanceof RSAPrivateCrtKeyParameters);
+
+        byte[] exponent = new byte[64];
+        short length = privateKey.getExponent(exponent, (short) 0);
+        privateKey.setExponent(exponent, (short) 0, length);
+        RSAKeyParameters params = (RSAKeyParameters) privateKey.getParameters();
+        assertFalse(params instanceof RSAPrivateCrtKeyParameters);
+        assertTrue(params.isPrivate());
+    }
 }
@@ -17,6 +17,7 @@ package com.licel.jcardsim.crypto;
 
 import javacard.framework.Util;
 import javacard.security.AESKey;
+import javacard.security.CryptoException;
 import javacard.security.Key;
 import javacard.security.KeyBuilder;
 import javacardx.crypto.Cipher;
@@ -257,4 +258,45 @@ public class SymmetricCipherImplTest extends TestCase {
         assertEquals(processedBytes, msg.length);
         assertEquals(true, Arrays.areEqual(decrypted, msg));
     }
+
+    /**
+     * Test reuse of the engine when <code>init</code> is called again
+     */
+    public void testReinit() {
+        SymmetricKeyImpl desKey = new SymmetricKeyImpl(KeyBuilder.TYPE_DES, KeyBuilder.LENGTH_DES);
+        desKey.setKey(Hex.decode(DES_KEY), (short) 0);
+        SymmetricKeyImpl des3Key = new SymmetricKeyImpl(KeyBuilder.TYPE_DES, KeyBuilder.LENGTH_DES3_3KEY);
+        des3Key.setKey(Hex.decode(DES3_KEY), (short) 0);
+        byte[] iv = Hex.decode(IV);
+        Cipher engine = Cipher.getInstance(Cipher.ALG_DES_CBC_ISO9797_M2, false);
+
+        // IV is reset to zero by init without IV
+        testEngineDoFinal(engine, desKey, iv, Hex.decode(MESSAGE_15), Hex.decode(DES_ENCRYPTED_15_IV[1]));
+        testEngineDoFinal(engine, desKey, null, Hex.decode(MESSAGE_15), Hex.decode(DES_ENCRYPTED_15[1]));
+
+        // other key object
+        testEngineDoFinal(engine, des3Key, null, Hex.decode(MESSAGE_15), Hex.decode(DES3_ENCRYPTED_15[1]));
+        testEngineDoFinal(engine, desKey, iv, Hex.decode(MESSAGE_15), Hex.decode(DES_ENCRYPTED_15_IV[1]));
+
+        // new value of the same key object
+        byte[] des3KeyBytes = Hex.decode(DES3_KEY);
+        desKey.setKey(des3KeyBytes, (short) 0);
+        SymmetricKeyImpl expectedKey = new SymmetricKeyImpl(KeyBuilder.TYPE_DES, KeyBuilder.LENGTH_DES);
+        expectedKey.setKey(des3KeyBytes, (short) 0);
+        Cipher expected = Cipher.getInstance(Cipher.ALG_DES_CBC_ISO9797_M2, false);
+        expected.init(expectedKey, Cipher.MODE_ENCRYPT);
+        byte[] msg = Hex.decode(MESSAGE_15);
+        byte[] encrypted = new byte[16];
+        expected.doFinal(msg, (short) 0, (short) msg.length, encrypted, (short) 0);
+        testEngineDoFinal(engine, desKey, null, msg, encrypted);
+
+        // cleared key
+        desKey.clearKey();
+        try {
+            engine.init(desKey, Cipher.MODE_ENCRYPT);
+            fail("No exception");
+        } catch (CryptoException e) {
+            assertEquals(CryptoException.UNINITIALIZED_KEY, e.getReason());
+        }
+    }
 }
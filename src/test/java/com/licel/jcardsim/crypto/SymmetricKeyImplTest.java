@@ -17,8 +17,10 @@ package com.licel.jcardsim.crypto;
 
 import javacard.framework.Util;
 import javacard.security.AESKey;
+import javacard.security.CryptoException;
 import javacard.security.KeyBuilder;
 import junit.framework.TestCase;
+import org.bouncycastle.crypto.BlockCipher;
 import org.bouncycastle.crypto.engines.DESEngine;
 import org.bouncycastle.crypto.engines.DESedeEngine;
 import org.bouncycastle.util.Arrays;
@@ -120,4 +122,50 @@ public class SymmetricKeyImplTest extends TestCase {
         aesKey.setKey(key, (short) 0);
 
     }
+
+    /**
+     * Test of getKeySchedule method, of class SymmetricKeyImpl.
+     */
+    public void testGetKeySchedule() {
+        System.out.println("getKeySchedule");
+        SymmetricKeyImpl aesKey = new SymmetricKeyImpl(KeyBuilder.TYPE_AES, KeyBuilder.LENGTH_AES_128);
+        byte[] key = new byte[16];
+        Util.arrayFillNonAtomic(key, (short) 0, (short) key.length, (byte) 7);
+        aesKey.setKey(key, (short) 0);
+        BlockCipher encrypt = aesKey.getKeySchedule(true);
+        BlockCipher decrypt = aesKey.getKeySchedule(false);
+        assertNotSame(encrypt, decrypt);
+        assertSame(encrypt, aesKey.getKeySchedule(true));
+        assertSame(aesKey.getParameters(), aesKey.getParameters());
+
+        byte[] block = new byte[16];
+        byte[] encrypted = new byte[16];
+        encrypt.processBlock(block, 0, encrypted, 0);
+        byte[] decrypted = new byte[16];
+        decrypt.processBlock(encrypted, 0, decrypted, 0);
+        assertTrue(Arrays.areEqual(block, decrypted));
+
+        // setKey drops the key schedule
+        key[0] = 8;
+        aesKey.setKey(key, (short) 0);
+        BlockCipher newEncrypt = aesKey.getKeySchedule(true);
+        assertNotSame(encrypt, newEncrypt);
+        byte[] newEncrypted = new byte[16];
+        newEncrypt.processBlock(block, 0, newEncrypted, 0);
+        assertFalse(Arrays.areEqual(encrypted, newEncrypted));
+
+        // changes without setKey are detected
+        key[0] = 7;
+        aesKey.key.setBytes(key, (short) 0, (short) key.length);
+        aesKey.getKeySchedule(true).processBlock(block, 0, newEncrypted, 0);
+        assertTrue(Arrays.areEqual(encrypted, newEncrypted));
+
+        aesKey.clearKey();
+        try {
+            aesKey.getKeySchedule(true);
+            fail("No exception");
+        } catch (CryptoException e) {
+            assertEquals(CryptoException.UNINITIALIZED_KEY, e.getReason());
+        }
+    }
 }
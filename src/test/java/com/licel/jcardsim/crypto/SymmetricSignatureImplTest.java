@@ -15,11 +15,17 @@
  */
 package com.licel.jcardsim.crypto;
 
+import javacard.security.CryptoException;
 import javacard.security.HMACKey;
 import javacard.security.Key;
 import javacard.security.KeyBuilder;
 import javacard.security.Signature;
 import junit.framework.TestCase;
+import org.bouncycastle.crypto.engines.DESEngine;
+import org.bouncycastle.crypto.macs.ISO9797Alg3Mac;
+import org.bouncycastle.crypto.paddings.ISO7816d4Padding;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
 import org.bouncycastle.util.Arrays;
 import org.bouncycastle.util.encoders.Hex;
 
@@ -362,6 +368,58 @@ public class SymmetricSignatureImplTest extends TestCase {
         }
     }
 
+    /**
+     * Test of init method, of class SymmetricSignatureImpl: a reused engine
+     * follows key and IV changes
+     */
+    public void testReinit() {
+        SymmetricKeyImpl desKey = new SymmetricKeyImpl(KeyBuilder.TYPE_DES, KeyBuilder.LENGTH_DES3_3KEY);
+        desKey.setKey(Hex.decode(DES3_KEY), (short) 0);
+        byte[] iv = Hex.decode(IV);
+        byte[] msg = Hex.decode(MESSAGE_15);
+        byte[] mac = new byte[8];
+
+        Signature engine = Signature.getInstance(Signature.ALG_DES_MAC8_ISO9797_M2, false);
+        testEngineSignVerify(engine, desKey, iv, msg, Hex.decode(DES3_MAC_15_IV[1]));
+        // init without IV resets the IV to zero
+        testEngineSignVerify(engine, desKey, null, msg, Hex.decode(DES3_MAC_15[1]));
+
+        // same key object with a new value
+        desKey.setKey(Hex.decode(DES_KEY + DES_KEY + DES_KEY), (short) 0);
+        testEngineSignVerify(engine, desKey, null, msg, Hex.decode(DES_MAC_15[1]));
+
+        // ISO9797-1 M2 ALG3 matches BouncyCastle for 3-key DES3 with IV
+        desKey.setKey(Hex.decode(DES3_KEY), (short) 0);
+        ISO9797Alg3Mac bcMac = new ISO9797Alg3Mac(new DESEngine(), 64, new ISO7816d4Padding());
+        bcMac.init(new ParametersWithIV(new KeyParameter(Hex.decode(DES3_KEY)), iv));
+        bcMac.update(msg, 0, msg.length);
+        bcMac.doFinal(mac, 0);
+        engine = Signature.getInstance(Signature.ALG_DES_MAC8_ISO9797_1_M2_ALG3, false);
+        testEngineSignVerify(engine, desKey, iv, msg, mac);
+        testEngineSignVerify(engine, desKey, iv, msg, mac);
+
+        // single DES keys are not supported by ALG3
+        SymmetricKeyImpl singleDesKey = new SymmetricKeyImpl(KeyBuilder.TYPE_DES, KeyBuilder.LENGTH_DES);
+        singleDesKey.setKey(Hex.decode(DES_KEY), (short) 0);
+        try {
+            engine.init(singleDesKey, Signature.MODE_SIGN);
+            fail("No exception");
+        } catch (CryptoException e) {
+            assertEquals(CryptoException.ILLEGAL_VALUE, e.getReason());
+        }
+
+        // HMAC key changes
+        HMACKey hmacKey = (HMACKey) KeyBuilder.buildKey(KeyBuilder.TYPE_HMAC, (short) 20, false);
+        engine = Signature.getInstance(Signature.ALG_HMAC_SHA1, false);
+        // RFC 2202 HMAC-SHA1 test cases 1, 2, 3 and 5, keys up to 20 bytes
+        int[] tests = {14, 15, 16, 18, 14};
+        for (int i : tests) {
+            byte[] hmacKeyBytes = Hex.decode(HMAC_TESTS[i][0]);
+            hmacKey.setKey(hmacKeyBytes, (short) 0, (short) hmacKeyBytes.length);
+            testEngineSignVerify(engine, hmacKey, null, Hex.decode(HMAC_TESTS[i][1]), Hex.decode(HMAC_TESTS[i][2]));
+        }
+    }
+
     /**
      * Test of sign/verify methods, of class SymmetricSignatureImpl with specified key
      * and etalon data
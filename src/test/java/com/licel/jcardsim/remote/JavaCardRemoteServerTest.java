@@ -0,0 +1,124 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.remote;
+
+import com.licel.jcardsim.samples.HelloWorldApplet;
+import com.licel.jcardsim.utils.AIDUtil;
+import com.licel.jcardsim.utils.ByteUtil;
+import javacard.framework.AID;
+import javacard.framework.SystemException;
+import junit.framework.TestCase;
+
+import java.net.ServerSocket;
+import java.util.Properties;
+
+public class JavaCardRemoteServerTest extends TestCase {
+    private static final String AID_STRING = "010203040506070809";
+    private static final AID APPLET_AID = AIDUtil.create(AID_STRING);
+    private static final byte[] NOP = ByteUtil.byteArray("00020000");
+
+    private JavaCardRemoteServer server;
+    private JavaCardRemoteClient client;
+
+    public JavaCardRemoteServerTest(String name) {
+        super(name);
+    }
+
+    private void startServer(int maxSessions, long sessionTimeout) throws Exception {
+        ServerSocket socket = new ServerSocket(0);
+        int port = socket.getLocalPort();
+        socket.close();
+
+        Properties properties = new Properties();
+        properties.setProperty("com.licel.jcardsim.card.applet.0.AID", AID_STRING);
+        properties.setProperty("com.licel.jcardsim.card.applet.0.Class", HelloWorldApplet.class.getName());
+        server = new JavaCardRemoteServer("127.0.0.1", port, properties, maxSessions, sessionTimeout);
+        client = new JavaCardRemoteClient("127.0.0.1", port);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (server != null) {
+            server.close();
+        }
+        super.tearDown();
+    }
+
+    private static void assertSessionClosed(JavaCardRemoteClient session) {
+        try {
+            session.getProtocol();
+            fail("SystemException expected");
+        } catch (SystemException e) {
+            assertEquals(SystemException.NO_RESOURCE, e.getReason());
+        }
+    }
+
+    public void testSessionsAreIndependent() throws Exception {
+        startServer(2, JavaCardRemoteServer.DEFAULT_SESSION_TIMEOUT);
+        JavaCardRemoteClient session1 = client.openSession();
+        JavaCardRemoteClient session2 = client.openSession();
+        assertEquals(2, server.getSessionCount());
+
+        session1.createApplet(APPLET_AID, new byte[0], (short) 0, (byte) 0);
+        assertTrue(session1.selectApplet(APPLET_AID));
+        assertFalse(session2.selectApplet(APPLET_AID));
+        assertEquals("9000", ByteUtil.hexString(session1.transmitCommand(NOP)));
+        assertEquals("6986", ByteUtil.hexString(session2.transmitCommand(NOP)));
+
+        session1.changeProtocol("T=1");
+        assertEquals("T=1", session1.getProtocol());
+        assertEquals("T=0", session2.getProtocol());
+        assertEquals("T=0", client.getProtocol());
+
+        session1.closeSession();
+        assertEquals(1, server.getSessionCount());
+        assertSessionClosed(session1);
+        // closing twice and closing the shared handle have no effect
+        client.closeSession();
+        assertEquals("T=0", client.getProtocol());
+    }
+
+    public void testSessionLimit() throws Exception {
+        startServer(1, JavaCardRemoteServer.DEFAULT_SESSION_TIMEOUT);
+        JavaCardRemoteClient session1 = client.openSession();
+        session1.changeProtocol("T=1");
+        try {
+            client.openSession();
+            fail("SystemException expected");
+        } catch (SystemException e) {
+            assertEquals(SystemException.NO_RESOURCE, e.getReason());
+        }
+
+        session1.closeSession();
+        // the simulator is recycled
+        JavaCardRemoteClient session2 = client.openSession();
+        assertEquals("T=0", session2.getProtocol());
+    }
+
+    public void testIdleSessionsAreEvicted() throws Exception {
+        startServer(2, 200);
+        JavaCardRemoteClient idle = client.openSession();
+        JavaCardRemoteClient active = client.openSession();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.getSessionCount() > 1 && System.currentTimeMillis() < deadline) {
+            assertEquals("T=0", active.getProtocol());
+            Thread.sleep(20);
+        }
+        assertEquals(1, server.getSessionCount());
+        assertSessionClosed(idle);
+        assertEquals("T=0", active.getProtocol());
+    }
+}
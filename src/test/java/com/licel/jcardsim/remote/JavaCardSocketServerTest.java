@@ -0,0 +1,167 @@
+/*
+ * Copyright 2015 Licel LLC.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.licel.jcardsim.remote;
+
+import com.licel.jcardsim.base.Simulator;
+import com.licel.jcardsim.base.SimulatorRuntime;
+import com.licel.jcardsim.io.CAD;
+import com.licel.jcardsim.samples.HelloWorldApplet;
+import com.licel.jcardsim.utils.AIDUtil;
+import com.licel.jcardsim.utils.ByteUtil;
+import javacard.framework.AID;
+import javacard.framework.SystemException;
+import junit.framework.TestCase;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+public class JavaCardSocketServerTest extends TestCase {
+    private static final String AID_STRING = "010203040506070809";
+    private static final AID APPLET_AID = AIDUtil.create(AID_STRING);
+    private static final byte[] NOP = ByteUtil.byteArray("00020000");
+
+    private JavaCardSocketServer server;
+    private final List<JavaCardSocketClient> clients = new ArrayList<JavaCardSocketClient>();
+
+    public JavaCardSocketServerTest(String name) {
+        super(name);
+    }
+
+    private void startServer(int maxSessions) throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("com.licel.jcardsim.card.applet.0.AID", AID_STRING);
+        properties.setProperty("com.licel.jcardsim.card.applet.0.Class", HelloWorldApplet.class.getName());
+        server = new JavaCardSocketServer(new InetSocketAddress("127.0.0.1", 0), maxSessions, properties);
+        server.start();
+    }
+
+    private JavaCardSocketClient connect() throws Exception {
+        JavaCardSocketClient client = new JavaCardSocketClient("127.0.0.1", server.getAddress().getPort());
+        clients.add(client);
+        return client;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (JavaCardSocketClient client : clients) {
+            client.close();
+        }
+        if (server != null) {
+            server.close();
+        }
+        super.tearDown();
+    }
+
+    public void testSessionsAreIndependent() throws Exception {
+        startServer(2);
+        JavaCardSocketClient client1 = connect();
+        JavaCardSocketClient client2 = connect();
+
+        assertTrue(Arrays.equals(new Simulator(new SimulatorRuntime()).getATR(), client1.getATR()));
+        assertEquals(APPLET_AID, client1.createApplet(APPLET_AID, new byte[0], (short) 0, (byte) 0));
+        assertTrue(client1.selectApplet(APPLET_AID));
+        assertFalse(client2.selectApplet(APPLET_AID));
+
+        client1.changeProtocol("T=1");
+        assertEquals("T=1", client1.getProtocol());
+        assertEquals("T=0", client2.getProtocol());
+
+        byte[] response = new byte[16];
+        assertEquals(2, client1.transmitCommand(NOP, 0, NOP.length, response, 14));
+        assertEquals((short) 0x9000, ByteUtil.getShort(response, 14));
+        assertEquals("6986", ByteUtil.hexString(client2.transmitCommand(NOP)));
+
+        client1.reset();
+        assertEquals("6986", ByteUtil.hexString(client1.transmitCommand(NOP)));
+        assertEquals(2, server.getSessionCount());
+    }
+
+    public void testPipelinedCommands() throws Exception {
+        startServer(1);
+        JavaCardSocketClient client = connect();
+        client.createApplet(APPLET_AID, new byte[0], (short) 0, (byte) 0);
+
+        List<byte[]> commands = new ArrayList<byte[]>();
+        commands.add(AIDUtil.select(APPLET_AID));
+        for (int i = 0; i < JavaCardSocketClient.PIPELINE_WINDOW * 3; i++) {
+            commands.add(NOP);
+        }
+        commands.add(ByteUtil.byteArray("0001000000"));
+        List<byte[]> responses = client.transmitCommands(commands);
+        assertEquals(commands.size(), responses.size());
+        for (int i = 0; i < commands.size() - 1; i++) {
+            assertEquals("9000", ByteUtil.hexString(responses.get(i)));
+        }
+        String hello = ByteUtil.hexString(responses.get(commands.size() - 1));
+        assertTrue(hello, hello.endsWith("9000") && hello.length() > 4);
+
+        // a failed command ends the batch, the session stays usable
+        commands.set(3, new byte[1]);
+        responses.clear();
+        try {
+            client.transmitCommands(commands, responses);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(3, responses.size());
+        assertEquals("9000", ByteUtil.hexString(client.transmitCommand(NOP)));
+    }
+
+    public void testSessionLimit() throws Exception {
+        startServer(1);
+        JavaCardSocketClient client1 = connect();
+        assertEquals("T=0", client1.getProtocol());
+        JavaCardSocketClient client2 = connect();
+        try {
+            client2.getProtocol();
+            fail("SystemException expected");
+        } catch (SystemException e) {
+            assertEquals(SystemException.NO_RESOURCE, e.getReason());
+        }
+
+        // the simulator is recycled when the session ends
+        client1.changeProtocol("T=1");
+        client1.close();
+        JavaCardSocketClient client3 = null;
+        for (int i = 0; i < 100 && client3 == null; i++) {
+            Thread.sleep(10);
+            JavaCardSocketClient client = connect();
+            try {
+                assertEquals("T=0", client.getProtocol());
+                client3 = client;
+            } catch (SystemException e) {
+                // previous session not closed yet
+            }
+        }
+        assertNotNull(client3);
+    }
+
+    public void testCAD() throws Exception {
+        startServer(1);
+        Properties properties = new Properties();
+        properties.setProperty("com.licel.jcardsim.terminal.type", Byte.toString(CAD.SOCKET));
+        properties.setProperty("com.licel.jcardsim.terminal.host", "127.0.0.1");
+        properties.setProperty("com.licel.jcardsim.terminal.port", Integer.toString(server.getAddress().getPort()));
+        CAD cad = new CAD(properties);
+        JavaCardSocketClient client = (JavaCardSocketClient) cad.getCardInterface();
+        clients.add(client);
+        assertEquals("6986", ByteUtil.hexString(client.transmitCommand(NOP)));
+    }
+}
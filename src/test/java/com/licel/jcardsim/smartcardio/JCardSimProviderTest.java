@@ -17,6 +17,7 @@ package com.licel.jcardsim.smartcardio;
 
 import com.licel.jcardsim.base.SimulatorSystem;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.security.NoSuchAlgorithmException;
 import java.security.Security;
 import java.util.Arrays;
@@ -137,5 +138,34 @@ public class JCardSimProviderTest extends TestCase {
         // sending maximum data
         response = jcsChannel.transmit(new CommandAPDU(0x01, 0x08, 0x00, 0x00));
         assertEquals(0x9000, response.getSW());
+        // ByteBuffer transmit, heap and direct buffers
+        byte[] echo = new CommandAPDU(0x01, 0x01, 0x01, 0x00, ("Hello javacard world !").getBytes()).getBytes();
+        ByteBuffer command = ByteBuffer.allocate(echo.length + 3);
+        command.position(3);
+        command.put(echo);
+        command.position(3);
+        ByteBuffer responseBuffer = ByteBuffer.allocate(258);
+        int length = jcsChannel.transmit(command, responseBuffer);
+        assertEquals(command.limit(), command.position());
+        assertEquals(length, responseBuffer.position());
+        byte[] responseBytes = new byte[length];
+        responseBuffer.flip();
+        responseBuffer.get(responseBytes);
+        response = new ResponseAPDU(responseBytes);
+        assertEquals(0x9000, response.getSW());
+        assertEquals("Hello javacard world !", new String(response.getData()));
+
+        command = ByteBuffer.allocateDirect(echo.length);
+        command.put(echo);
+        command.flip();
+        responseBuffer = ByteBuffer.allocateDirect(258);
+        length = jcsChannel.transmit(command, responseBuffer);
+        assertEquals(length, responseBuffer.position());
+        responseBytes = new byte[length];
+        responseBuffer.flip();
+        responseBuffer.get(responseBytes);
+        response = new ResponseAPDU(responseBytes);
+        assertEquals(0x9000, response.getSW());
+        assertEquals("Hello javacard world !", new String(response.getData()));
     }
 }
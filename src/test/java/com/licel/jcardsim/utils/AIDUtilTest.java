@@ -3,6 +3,9 @@ package com.licel.jcardsim.utils;
 import javacard.framework.AID;
 import junit.framework.TestCase;
 
+import java.util.Comparator;
+import java.util.Random;
+
 public class AIDUtilTest extends TestCase {
     public AIDUtilTest(String name) {
         super(name);
@@ -18,4 +21,41 @@ public class AIDUtilTest extends TestCase {
         AID aid = AIDUtil.create("cafecafe01");
         assertEquals("00A4040005CAFECAFE0100" ,ByteUtil.hexString(AIDUtil.select(aid)));
     }
+
+    public void testComparatorMatchesHexStringOrder() {
+        Comparator<AID> comparator = AIDUtil.comparator();
+        Random random = new Random(7);
+        AID[] aids = new AID[200];
+        for (int i = 0; i < aids.length; i++) {
+            byte[] bytes = new byte[5 + random.nextInt(12)];
+            for (int j = 0; j < bytes.length; j++) {
+                // small alphabet to get many shared prefixes, including negative bytes
+                bytes[j] = (byte) (random.nextInt(4) * 0x55);
+            }
+            aids[i] = AIDUtil.create(bytes);
+        }
+        for (AID aid1 : aids) {
+            for (AID aid2 : aids) {
+                int expected = Integer.signum(AIDUtil.toString(aid1).compareTo(AIDUtil.toString(aid2)));
+                assertEquals(expected, Integer.signum(comparator.compare(aid1, aid2)));
+            }
+        }
+    }
+
+    public void testComparatorNull() {
+        Comparator<AID> comparator = AIDUtil.comparator();
+        AID aid = AIDUtil.create("cafecafe01");
+        assertEquals(0, comparator.compare(null, null));
+        assertTrue(comparator.compare(null, aid) < 0);
+        assertTrue(comparator.compare(aid, null) > 0);
+    }
+
+    public void testHashCode() {
+        AID aid = AIDUtil.create("cafecafe01");
+        AID sameAid = AIDUtil.create("CAFECAFE01");
+        assertEquals(aid, sameAid);
+        assertEquals(aid.hashCode(), sameAid.hashCode());
+        byte[] buffer = ByteUtil.byteArray("00cafecafe0100");
+        assertEquals(aid.hashCode(), AIDUtil.hashCode(buffer, 1, 5));
+    }
 }
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2014, Linaro Limited
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.linaro.seapi;
+
+import com.licel.jcardsim.base.Simulator;
+import com.licel.jcardsim.base.SimulatorRuntime;
+import com.licel.jcardsim.samples.HelloWorldApplet;
+import com.licel.jcardsim.utils.AIDUtil;
+import com.licel.jcardsim.utils.ByteUtil;
+import javacard.framework.AID;
+import junit.framework.TestCase;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+
+public class VpcdServerTest extends TestCase {
+    private static final AID APPLET_AID = AIDUtil.create("010203040506070809");
+    private static final byte[] SELECT = ByteUtil.byteArray("00A4040009010203040506070809");
+    private static final byte[] NOP = ByteUtil.byteArray("00020000");
+    private static final byte[] GET_ATR = {VpcdServer.VPCD_CTRL_ATR};
+    private static final byte[] POWER_OFF = {VpcdServer.VPCD_CTRL_OFF};
+
+    private VpcdServer server;
+
+    public VpcdServerTest(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        server = new VpcdServer(new VpcdServer.ReaderFactory() {
+            public Simulator createReader(int index) {
+                Simulator simulator = new Simulator(new SimulatorRuntime());
+                // only even readers have the applet
+                if (index % 2 == 0) {
+                    simulator.installApplet(APPLET_AID, HelloWorldApplet.class);
+                }
+                return simulator;
+            }
+        }, 2);
+        server.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        server.close();
+        super.tearDown();
+    }
+
+    private static void sendFrame(OutputStream out, byte[] payload) throws IOException {
+        out.write(frame(payload));
+        out.flush();
+    }
+
+    private static byte[] frame(byte[] payload) {
+        byte[] frame = new byte[payload.length + 2];
+        frame[0] = (byte) (payload.length >> 8);
+        frame[1] = (byte) payload.length;
+        System.arraycopy(payload, 0, frame, 2, payload.length);
+        return frame;
+    }
+
+    private static String readFrame(DataInputStream in) throws IOException {
+        byte[] payload = new byte[in.readUnsignedShort()];
+        in.readFully(payload);
+        return ByteUtil.hexString(payload);
+    }
+
+    private Socket connect(InetSocketAddress address, int expectedReaders) throws Exception {
+        Socket socket = new Socket(address.getAddress(), address.getPort());
+        socket.setSoTimeout(5000);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.getReaderCount() < expectedReaders && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(expectedReaders, server.getReaderCount());
+        return socket;
+    }
+
+    public void testReadersAreIndependent() throws Exception {
+        InetSocketAddress address = server.bind(new InetSocketAddress("127.0.0.1", 0));
+        Socket[] sockets = new Socket[4];
+        for (int i = 0; i < sockets.length; i++) {
+            sockets[i] = connect(address, i + 1);
+        }
+        String atr = ByteUtil.hexString(new Simulator(new SimulatorRuntime()).getATR());
+        for (int i = 0; i < sockets.length; i++) {
+            DataInputStream in = new DataInputStream(sockets[i].getInputStream());
+            sendFrame(sockets[i].getOutputStream(), GET_ATR);
+            assertEquals(atr, readFrame(in));
+            sendFrame(sockets[i].getOutputStream(), SELECT);
+            assertEquals(i % 2 == 0 ? "9000" : "6999", readFrame(in));
+        }
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.getReaderCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(0, server.getReaderCount());
+    }
+
+    public void testReassemblesPartialAndPipelinedFrames() throws Exception {
+        InetSocketAddress address = server.bind(new InetSocketAddress("127.0.0.1", 0));
+        Socket socket = connect(address, 1);
+        socket.setTcpNoDelay(true);
+        OutputStream out = socket.getOutputStream();
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+
+        // one byte per packet
+        for (byte b : frame(SELECT)) {
+            out.write(b);
+            out.flush();
+            Thread.sleep(2);
+        }
+        assertEquals("9000", readFrame(in));
+
+        // several frames in one packet, power off has no reply
+        byte[] nop = frame(NOP);
+        byte[] off = frame(POWER_OFF);
+        byte[] packet = new byte[nop.length * 2 + off.length];
+        System.arraycopy(nop, 0, packet, 0, nop.length);
+        System.arraycopy(off, 0, packet, nop.length, off.length);
+        System.arraycopy(nop, 0, packet, nop.length + off.length, nop.length);
+        out.write(packet);
+        out.flush();
+        assertEquals("9000", readFrame(in));
+        // reset deselected the applet
+        assertEquals("6986", readFrame(in));
+
+        // larger than the initial buffers
+        byte[] echo = new byte[5 + 255];
+        echo[1] = 0x01;
+        echo[4] = (byte) 0xFF;
+        sendFrame(out, SELECT);
+        assertEquals("9000", readFrame(in));
+        sendFrame(out, echo);
+        String response = readFrame(in);
+        assertTrue(response, response.endsWith("9000"));
+        socket.close();
+    }
+
+    public void testConnectsToVpcd() throws Exception {
+        ServerSocket vpcd = new ServerSocket(0);
+        try {
+            server.connect(new InetSocketAddress("127.0.0.1", vpcd.getLocalPort()));
+            Socket socket = vpcd.accept();
+            socket.setSoTimeout(5000);
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            sendFrame(socket.getOutputStream(), GET_ATR);
+            byte[] atr = ByteUtil.byteArray(readFrame(in));
+            assertTrue(Arrays.equals(new Simulator(new SimulatorRuntime()).getATR(), atr));
+            sendFrame(socket.getOutputStream(), SELECT);
+            assertEquals("9000", readFrame(in));
+            assertEquals(1, server.getReaderCount());
+            socket.close();
+        } finally {
+            vpcd.close();
+        }
+    }
+}